@@ -0,0 +1,73 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+
+/**
+ * Creates generated CherryTree SQL (.ctb) databases for instrumented tests and benchmarks
+ */
+public class CtbTestDatabase {
+    /**
+     * Creates new empty database file with CherryTree table layout. Existing file is deleted.
+     * @param file file to create database in
+     * @return opened database
+     */
+    public static SQLiteDatabase create(File file) {
+        SQLiteDatabase.deleteDatabase(file);
+        SQLiteDatabase sqlite = SQLiteDatabase.openOrCreateDatabase(file, null);
+        sqlite.execSQL("CREATE TABLE node (node_id INTEGER UNIQUE, name TEXT, txt TEXT, syntax TEXT, tags TEXT, is_ro INTEGER, is_richtxt INTEGER, has_codebox INTEGER, has_table INTEGER, has_image INTEGER, level INTEGER, ts_creation INTEGER, ts_lastsave INTEGER)");
+        sqlite.execSQL("CREATE TABLE codebox (node_id INTEGER, offset INTEGER, justification TEXT, txt TEXT, syntax TEXT, width INTEGER, height INTEGER, is_width_pix INTEGER, do_highl_bra INTEGER, do_show_linenum INTEGER)");
+        sqlite.execSQL("CREATE TABLE grid (node_id INTEGER, offset INTEGER, justification TEXT, txt TEXT, col_min INTEGER, col_max INTEGER)");
+        sqlite.execSQL("CREATE TABLE image (node_id INTEGER, offset INTEGER, justification TEXT, anchor TEXT, png BLOB, filename TEXT, link TEXT, time INTEGER)");
+        sqlite.execSQL("CREATE TABLE children (node_id INTEGER UNIQUE, father_id INTEGER, sequence INTEGER, master_id INTEGER)");
+        sqlite.execSQL("CREATE TABLE bookmark (node_id INTEGER UNIQUE, sequence INTEGER)");
+        return sqlite;
+    }
+
+    /**
+     * Inserts rich text node and its position in the tree
+     * @param sqlite database to insert node into
+     * @param nodeUniqueID unique ID of the node
+     * @param fatherUniqueID unique ID of the parent node, 0 for main nodes
+     * @param sequence position of the node between its siblings
+     * @param text plain text of the node
+     * @param hasCodebox true - node has codeboxes
+     * @param hasTable true - node has tables
+     * @param hasImage true - node has images, anchors or attached files
+     */
+    public static void insertNode(SQLiteDatabase sqlite, long nodeUniqueID, long fatherUniqueID, int sequence, String text, boolean hasCodebox, boolean hasTable, boolean hasImage) {
+        ContentValues node = new ContentValues();
+        node.put("node_id", nodeUniqueID);
+        node.put("name", "Node " + nodeUniqueID);
+        node.put("txt", "<?xml version=\"1.0\" encoding=\"UTF-8\"?><node><rich_text>" + text + "</rich_text></node>");
+        node.put("syntax", "custom-colors");
+        node.put("tags", "");
+        node.put("is_ro", 0);
+        node.put("is_richtxt", 1);
+        node.put("has_codebox", hasCodebox ? 1 : 0);
+        node.put("has_table", hasTable ? 1 : 0);
+        node.put("has_image", hasImage ? 1 : 0);
+        node.put("level", 0);
+        node.put("ts_creation", 0);
+        node.put("ts_lastsave", 0);
+        sqlite.insert("node", null, node);
+        ContentValues children = new ContentValues();
+        children.put("node_id", nodeUniqueID);
+        children.put("father_id", fatherUniqueID);
+        children.put("sequence", sequence);
+        children.put("master_id", 0);
+        sqlite.insert("children", null, children);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import lt.ffda.sourcherry.MainViewModel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares the way SQLReader.loadNodeContent() fetches embedded elements of the node with the
+ * per-offset queries it used before. Node has codeboxes, tables, images, anchors and attached
+ * files. Results are written to logcat with tag "SQLReaderBenchmark".
+ */
+@RunWith(AndroidJUnit4.class)
+public class SQLReaderNodeContentBenchmark {
+    private static final int CODEBOX_COUNT = 200;
+    private static final int IMAGE_COUNT = 250;
+    private static final String NODE_ID = "1";
+    private static final int RUNS = 20;
+    private static final int TABLE_COUNT = 50;
+    private static final String TAG = "SQLReaderBenchmark";
+    private static final int WARMUP_RUNS = 3;
+    private Context context;
+    private File databaseFile;
+    private SQLiteDatabase sqlite;
+
+    /**
+     * Creates database with one heavy node. Every embedded element gets its own offset. Every
+     * eighth element is a table, the rest of even elements are codeboxes and odd elements are
+     * images, anchors and attached files in turns.
+     */
+    @Before
+    public void createDatabase() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        databaseFile = new File(context.getCacheDir(), "benchmark_node_content.ctb");
+        sqlite = CtbTestDatabase.create(databaseFile);
+        int elementCount = CODEBOX_COUNT + TABLE_COUNT + IMAGE_COUNT;
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < elementCount * 4; i++) {
+            text.append(i % 40 == 39 ? '\n' : 'a');
+        }
+        byte[] png = createPng();
+        sqlite.beginTransaction();
+        try {
+            CtbTestDatabase.insertNode(sqlite, Long.parseLong(NODE_ID), 0, 1, text.toString(), true, true, true);
+            for (int i = 0; i < elementCount; i++) {
+                int offset = i * 4;
+                if (i % 8 == 0 && i / 8 < TABLE_COUNT) {
+                    ContentValues grid = new ContentValues();
+                    grid.put("node_id", NODE_ID);
+                    grid.put("offset", offset);
+                    grid.put("justification", "left");
+                    grid.put("txt", "<table col_widths=\"0,0\" is_light=\"0\"><row><cell>cell " + i + "</cell><cell>value</cell></row><row><cell>header</cell><cell>header</cell></row></table>");
+                    grid.put("col_min", 40);
+                    grid.put("col_max", 400);
+                    sqlite.insert("grid", null, grid);
+                } else if (i % 2 == 0) {
+                    ContentValues codebox = new ContentValues();
+                    codebox.put("node_id", NODE_ID);
+                    codebox.put("offset", offset);
+                    codebox.put("justification", "left");
+                    codebox.put("txt", "int codebox" + i + " = " + i + ";");
+                    codebox.put("syntax", "java");
+                    codebox.put("width", 500);
+                    codebox.put("height", 100);
+                    codebox.put("is_width_pix", 1);
+                    codebox.put("do_highl_bra", 1);
+                    codebox.put("do_show_linenum", 0);
+                    sqlite.insert("codebox", null, codebox);
+                } else {
+                    ContentValues image = new ContentValues();
+                    image.put("node_id", NODE_ID);
+                    image.put("offset", offset);
+                    image.put("justification", "left");
+                    image.put("link", "");
+                    image.put("time", 0);
+                    if (i % 3 == 0) {
+                        image.put("anchor", "anchor" + i);
+                        image.put("filename", "");
+                        image.put("png", new byte[0]);
+                    } else if (i % 3 == 1) {
+                        image.put("anchor", "");
+                        image.put("filename", "attachment" + i + ".txt");
+                        image.put("png", png);
+                    } else {
+                        image.put("anchor", "");
+                        image.put("filename", "");
+                        image.put("png", png);
+                    }
+                    sqlite.insert("image", null, image);
+                }
+            }
+            sqlite.setTransactionSuccessful();
+        } finally {
+            sqlite.endTransaction();
+        }
+    }
+
+    /**
+     * Creates small PNG image to be used as image and attachment blob
+     * @return PNG image
+     */
+    private byte[] createPng() {
+        Bitmap bitmap = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.RED);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+        bitmap.recycle();
+        return outputStream.toByteArray();
+    }
+
+    @After
+    public void deleteDatabase() {
+        sqlite.close();
+        SQLiteDatabase.deleteDatabase(databaseFile);
+    }
+
+    /**
+     * Reads embedded elements the way loadNodeContent() did before: offsets of all the elements
+     * with a UNION query and then separate queries for every offset. Image blob is read with one
+     * more query.
+     * @return number of elements read
+     */
+    private int fetchPerOffset() {
+        int elements = 0;
+        try (Cursor offsetCursor = sqlite.rawQuery("SELECT offset, 7 FROM codebox WHERE node_id=? UNION SELECT offset, 8 FROM grid WHERE node_id=? UNION SELECT offset, 9 FROM image WHERE node_id=? ORDER BY offset ASC", new String[]{NODE_ID, NODE_ID, NODE_ID})) {
+            while (offsetCursor.moveToNext()) {
+                String offset = offsetCursor.getString(0);
+                if (offsetCursor.getInt(1) == 9) {
+                    try (Cursor imageCursor = sqlite.query("image", new String[]{"anchor", "filename", "time", "justification"}, "node_id=? AND offset=?", new String[]{NODE_ID, offset}, null, null, null)) {
+                        if (imageCursor.moveToFirst()) {
+                            imageCursor.getString(3);
+                            if (imageCursor.getString(0).isEmpty() && imageCursor.getString(1).isEmpty()) {
+                                try (Cursor imageBlobCursor = sqlite.query("image", new String[]{"png"}, "node_id=? AND offset=?", new String[]{NODE_ID, offset}, null, null, null)) {
+                                    imageBlobCursor.moveToFirst();
+                                    imageBlobCursor.getBlob(0);
+                                }
+                            }
+                            elements++;
+                        }
+                    }
+                } else if (offsetCursor.getInt(1) == 7) {
+                    try (Cursor codeboxCursor = sqlite.rawQuery("SELECT * FROM codebox WHERE node_id = ? AND offset = ?", new String[]{NODE_ID, offset})) {
+                        if (codeboxCursor.moveToFirst()) {
+                            codeboxCursor.getString(3);
+                            elements++;
+                        }
+                    }
+                } else {
+                    try (Cursor tableCursor = sqlite.query("grid", new String[]{"txt", "col_min", "col_max", "justification"}, "node_id=? AND offset=?", new String[]{NODE_ID, offset}, null, null, null)) {
+                        if (tableCursor.moveToFirst()) {
+                            tableCursor.getString(0);
+                            elements++;
+                        }
+                    }
+                }
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Reads embedded elements the way loadNodeContent() does now: one ordered query per table
+     * and image blobs read only for the images.
+     * @return number of elements read
+     * @throws IOException image blob could not be read
+     */
+    private int fetchSinglePass() throws IOException {
+        int elements = 0;
+        try (Cursor codeboxCursor = sqlite.query("codebox", new String[]{"offset", "justification", "txt", "syntax", "width", "height", "is_width_pix", "do_highl_bra", "do_show_linenum"}, "node_id=?", new String[]{NODE_ID}, null, null, "offset ASC");
+             Cursor tableCursor = sqlite.query("grid", new String[]{"offset", "txt", "col_min", "col_max", "justification"}, "node_id=?", new String[]{NODE_ID}, null, null, "offset ASC");
+             Cursor imageCursor = sqlite.rawQuery("SELECT offset, anchor, filename, time, justification, CASE WHEN filename = '__ct_special.tex' THEN png END FROM image WHERE node_id = ? ORDER BY offset ASC", new String[]{NODE_ID})) {
+            while (codeboxCursor.moveToNext()) {
+                codeboxCursor.getString(2);
+                elements++;
+            }
+            while (tableCursor.moveToNext()) {
+                tableCursor.getString(1);
+                elements++;
+            }
+            while (imageCursor.moveToNext()) {
+                imageCursor.getString(4);
+                if (imageCursor.getString(1).isEmpty() && imageCursor.getString(2).isEmpty()) {
+                    new SQLBlobInputStream(sqlite, "image", "png", "node_id=? AND offset=?", new String[]{NODE_ID, imageCursor.getString(0)}).readFully();
+                }
+                elements++;
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Measures both ways to fetch embedded elements and the whole loadNodeContent() call
+     */
+    @Test
+    public void loadNodeContent() throws Exception {
+        int elementCount = CODEBOX_COUNT + TABLE_COUNT + IMAGE_COUNT;
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            assertEquals(elementCount, fetchPerOffset());
+            assertEquals(elementCount, fetchSinglePass());
+        }
+        long perOffsetTime = 0;
+        long singlePassTime = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            fetchPerOffset();
+            perOffsetTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            fetchSinglePass();
+            singlePassTime += System.nanoTime() - start;
+        }
+        Log.i(TAG, String.format("Fetching %d elements: per offset queries %.2f ms, single pass %.2f ms", elementCount, perOffsetTime / RUNS / 1e6, singlePassTime / RUNS / 1e6));
+
+        MainViewModel mainViewModel = new MainViewModel();
+        SQLReader reader = new SQLReader(sqlite, context, new Handler(Looper.getMainLooper()), mainViewModel);
+        long start = System.nanoTime();
+        reader.loadNodeContent(NODE_ID);
+        Log.i(TAG, String.format("loadNodeContent: %.2f ms", (System.nanoTime() - start) / 1e6));
+        assertNotNull(mainViewModel.getCachedNodeContent(NODE_ID));
+        // Text is split by every table
+        assertEquals(TABLE_COUNT * 2 + 1, mainViewModel.getCachedNodeContent(NODE_ID).size());
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import lt.ffda.sourcherry.MainViewModel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares recursive queries that SQLReader uses to walk the node tree with the per-level queries
+ * it used before. Generated database has wide tree of MAIN_NODE_COUNT main nodes with WIDTH
+ * subnodes on every level down to DEPTH levels and one chain of CHAIN_LENGTH nested nodes. Results
+ * are written to logcat with tag "SQLReaderBenchmark".
+ */
+@RunWith(AndroidJUnit4.class)
+public class SQLReaderTreeBenchmark {
+    private static final int CHAIN_LENGTH = 1000;
+    private static final int DEPTH = 3;
+    private static final int MAIN_NODE_COUNT = 8;
+    private static final int RUNS = 10;
+    private static final String TAG = "SQLReaderBenchmark";
+    private static final int WARMUP_RUNS = 2;
+    private static final int WIDTH = 8;
+    private Context context;
+    private File databaseFile;
+    private String deepestNodeUniqueID;
+    private long nodeMaxID;
+    private SQLiteDatabase sqlite;
+
+    /**
+     * Collects ancestors of the node with one recursive query, the way SQLReader.areNodesRelated()
+     * does it now
+     * @param nodeUniqueID unique ID of the node to collect ancestors of
+     * @return unique IDs of all the ancestors including 0 for the root of the tree
+     */
+    private List<String> collectAncestorsRecursive(String nodeUniqueID) {
+        List<String> ancestors = new ArrayList<>();
+        try (Cursor cursor = sqlite.rawQuery("WITH RECURSIVE ancestor(node_id) AS (SELECT father_id FROM children WHERE node_id=? UNION SELECT children.father_id FROM children INNER JOIN ancestor ON children.node_id=ancestor.node_id) SELECT node_id FROM ancestor", new String[]{nodeUniqueID})) {
+            while (cursor.moveToNext()) {
+                ancestors.add(cursor.getString(0));
+            }
+        }
+        return ancestors;
+    }
+
+    /**
+     * Collects ancestors of the node with one father_id query per level, the way
+     * SQLReader.areNodesRelated() did it before
+     * @param nodeUniqueID unique ID of the node to collect ancestors of
+     * @return unique IDs of all the ancestors including 0 for the root of the tree
+     */
+    private List<String> collectAncestorsPerLevel(String nodeUniqueID) {
+        List<String> ancestors = new ArrayList<>();
+        while (true) {
+            try (Cursor cursor = sqlite.query("children", new String[]{"father_id"}, "node_id = ?", new String[]{nodeUniqueID}, null, null, null, null)) {
+                if (!cursor.moveToFirst()) {
+                    break;
+                }
+                nodeUniqueID = cursor.getString(0);
+                ancestors.add(nodeUniqueID);
+                if (nodeUniqueID.equals("0")) {
+                    break;
+                }
+            }
+        }
+        return ancestors;
+    }
+
+    /**
+     * Collects unique IDs of the subnodes with one cursor per parent node, the way
+     * SQLReader.deleteNode() did it before
+     * @param nodeUniqueID unique ID of the node to collect subnodes of
+     * @param uniqueIds list to collect unique IDs to
+     */
+    private void collectSubtreePerLevel(String nodeUniqueID, List<String> uniqueIds) {
+        try (Cursor children = sqlite.query("children", new String[]{"node_id", "master_id"}, "father_id=?", new String[]{nodeUniqueID}, null, null, null, null)) {
+            while (children.moveToNext()) {
+                uniqueIds.add(children.getString(0));
+                collectSubtreePerLevel(children.getString(0), uniqueIds);
+            }
+        }
+    }
+
+    /**
+     * Collects unique IDs of the node and all its subnodes with one recursive query, the way
+     * SQLReader.deleteNode() does it now
+     * @param nodeUniqueID unique ID of the node to collect subnodes of
+     * @return unique IDs of the node and its subnodes
+     */
+    private List<String> collectSubtreeRecursive(String nodeUniqueID) {
+        List<String> uniqueIds = new ArrayList<>();
+        try (Cursor cursor = sqlite.rawQuery("WITH RECURSIVE subtree(node_id, master_id, depth) AS (SELECT node_id, master_id, 0 FROM children WHERE node_id=? UNION ALL SELECT children.node_id, children.master_id, subtree.depth + 1 FROM children INNER JOIN subtree ON children.father_id=subtree.node_id) SELECT node_id FROM subtree", new String[]{nodeUniqueID})) {
+            while (cursor.moveToNext()) {
+                uniqueIds.add(cursor.getString(0));
+            }
+        }
+        return uniqueIds;
+    }
+
+    /**
+     * Creates database with generated node tree
+     */
+    @Before
+    public void createDatabase() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        databaseFile = new File(context.getCacheDir(), "benchmark_tree.ctb");
+        sqlite = CtbTestDatabase.create(databaseFile);
+        nodeMaxID = 0;
+        sqlite.beginTransaction();
+        try {
+            for (int i = 1; i <= MAIN_NODE_COUNT; i++) {
+                insertSubtree(0, i, DEPTH);
+            }
+            long fatherUniqueID = 0;
+            for (int i = 0; i < CHAIN_LENGTH; i++) {
+                fatherUniqueID = insertNode(fatherUniqueID, i == 0 ? MAIN_NODE_COUNT + 1 : 1);
+            }
+            deepestNodeUniqueID = String.valueOf(fatherUniqueID);
+            sqlite.setTransactionSuccessful();
+        } finally {
+            sqlite.endTransaction();
+        }
+    }
+
+    @After
+    public void deleteDatabase() {
+        sqlite.close();
+        SQLiteDatabase.deleteDatabase(databaseFile);
+    }
+
+    /**
+     * Inserts one empty node
+     * @param fatherUniqueID unique ID of the parent node
+     * @param sequence position of the node between its siblings
+     * @return unique ID of the inserted node
+     */
+    private long insertNode(long fatherUniqueID, int sequence) {
+        nodeMaxID++;
+        CtbTestDatabase.insertNode(sqlite, nodeMaxID, fatherUniqueID, sequence, "text", false, false, false);
+        return nodeMaxID;
+    }
+
+    /**
+     * Inserts node with WIDTH subnodes on every level below it
+     * @param fatherUniqueID unique ID of the parent node
+     * @param sequence position of the node between its siblings
+     * @param depth number of subnode levels to create below the node
+     */
+    private void insertSubtree(long fatherUniqueID, int sequence, int depth) {
+        long nodeUniqueID = insertNode(fatherUniqueID, sequence);
+        if (depth > 0) {
+            for (int i = 1; i <= WIDTH; i++) {
+                insertSubtree(nodeUniqueID, i, depth - 1);
+            }
+        }
+    }
+
+    /**
+     * Measures collection of the ancestors of the deepest node in the chain
+     */
+    @Test
+    public void ancestors() {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            assertEquals(CHAIN_LENGTH, collectAncestorsPerLevel(deepestNodeUniqueID).size());
+            assertEquals(CHAIN_LENGTH, collectAncestorsRecursive(deepestNodeUniqueID).size());
+        }
+        long perLevelTime = 0;
+        long recursiveTime = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            collectAncestorsPerLevel(deepestNodeUniqueID);
+            perLevelTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            collectAncestorsRecursive(deepestNodeUniqueID);
+            recursiveTime += System.nanoTime() - start;
+        }
+        Log.i(TAG, String.format("Ancestors of node %d levels deep: per level queries %.2f ms, recursive query %.2f ms", CHAIN_LENGTH, perLevelTime / RUNS / 1e6, recursiveTime / RUNS / 1e6));
+    }
+
+    /**
+     * Measures getAllNodes(true) that walks the whole tree with one recursive query
+     */
+    @Test
+    public void drawerFilter() throws Exception {
+        SQLReader reader = new SQLReader(sqlite, context, new Handler(Looper.getMainLooper()), new MainViewModel());
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            assertEquals(nodeMaxID, reader.getAllNodes(true).size());
+        }
+        long time = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            reader.getAllNodes(true);
+            time += System.nanoTime() - start;
+        }
+        Log.i(TAG, String.format("getAllNodes(true) with %d nodes: %.2f ms", nodeMaxID, time / RUNS / 1e6));
+    }
+
+    /**
+     * Measures collection of the subtree of the first main node and deletion of it
+     */
+    @Test
+    public void subtree() throws Exception {
+        int subtreeSize = 0;
+        for (int level = 0, levelSize = 1; level <= DEPTH; level++, levelSize *= WIDTH) {
+            subtreeSize += levelSize;
+        }
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            List<String> uniqueIds = new ArrayList<>();
+            uniqueIds.add("1");
+            collectSubtreePerLevel("1", uniqueIds);
+            assertEquals(subtreeSize, uniqueIds.size());
+            assertEquals(subtreeSize, collectSubtreeRecursive("1").size());
+        }
+        long perLevelTime = 0;
+        long recursiveTime = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            collectSubtreePerLevel("1", new ArrayList<String>());
+            perLevelTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            collectSubtreeRecursive("1");
+            recursiveTime += System.nanoTime() - start;
+        }
+        Log.i(TAG, String.format("Subtree of %d nodes: per level queries %.2f ms, recursive query %.2f ms", subtreeSize, perLevelTime / RUNS / 1e6, recursiveTime / RUNS / 1e6));
+
+        SQLReader reader = new SQLReader(sqlite, context, new Handler(Looper.getMainLooper()), new MainViewModel());
+        long start = System.nanoTime();
+        reader.deleteNode("1");
+        Log.i(TAG, String.format("deleteNode with %d nodes: %.2f ms", subtreeSize, (System.nanoTime() - start) / 1e6));
+        try (Cursor cursor = sqlite.rawQuery("SELECT COUNT(*) FROM node", null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(nodeMaxID - subtreeSize, cursor.getLong(0));
+        }
+    }
+}
@@ -10,18 +10,48 @@
 
 package lt.ffda.sourcherry;
 
+import android.graphics.Bitmap;
 import android.os.Handler;
 import android.os.Looper;
+import android.util.LruCache;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Dependencies container class where all dependencies available for all the classes are stored.
  */
 public class AppContainer {
+    public LruCache<String, Bitmap> bitmapCache = getBitmapCache();
     public ScheduledThreadPoolExecutor executor = getExecutor();
     public Handler handler = getHandler();
+    /**
+     * Write of the pending database changes that was started when app went to the background.
+     * Database export has to wait for it to finish.
+     */
+    public volatile Future<?> pendingChangesWrite;
+    public ExecutorService searchExecutor = getSearchExecutor();
+    public ExecutorService tileExecutor = getTileExecutor();
+
+    /**
+     * Creates cache for downsampled images displayed in node content and full resolution tiles of
+     * the image opened in image viewer. Cache is limited to the eighth of the memory available to
+     * the app.
+     * @return bitmap cache
+     */
+    private LruCache<String, Bitmap> getBitmapCache() {
+        return new LruCache<String, Bitmap>((int) (Runtime.getRuntime().maxMemory() / 8)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
 
     private ScheduledThreadPoolExecutor getExecutor() {
         ScheduledThreadPoolExecutor executor = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(2);
@@ -32,4 +62,27 @@ public class AppContainer {
     private Handler getHandler() {
         return new Handler(Looper.getMainLooper());
     }
+
+    /**
+     * Creates thread pool for searching through the database in parallel. Pool has as many threads
+     * as there are processor cores. Threads are stopped when they are not used for a while.
+     * @return thread pool for search workers
+     */
+    private ExecutorService getSearchExecutor() {
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates thread for decoding tiles of the image opened in image viewer, so it would not wait
+     * behind database tasks. Thread is stopped when it is not used for a while.
+     * @return single thread executor for tile decoding
+     */
+    private ExecutorService getTileExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 }
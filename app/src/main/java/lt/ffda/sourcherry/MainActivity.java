@@ -60,12 +60,15 @@ import androidx.lifecycle.Lifecycle;
 import androidx.preference.PreferenceManager;
 
 import java.io.File;
-import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import lt.ffda.sourcherry.database.MultiTreeStore;
 import lt.ffda.sourcherry.dialogs.CollectNodesDialogFragment;
 import lt.ffda.sourcherry.dialogs.ExportDatabaseDialogFragment;
 import lt.ffda.sourcherry.dialogs.MirrorDatabaseProgressDialogFragment;
 import lt.ffda.sourcherry.dialogs.OpenDatabaseProgressDialogFragment;
+import lt.ffda.sourcherry.utils.DatabaseFingerprint;
 import lt.ffda.sourcherry.utils.Files;
 import lt.ffda.sourcherry.utils.PreferencesUtils;
 
@@ -73,6 +76,10 @@ public class MainActivity extends AppCompatActivity {
 
     ActivityResultLauncher<String> exportDatabaseToFile = registerExportDatabaseToFile();
     private SharedPreferences sharedPreferences;
+    /**
+     * Single thread to open, migrate and query MultiTreeStore in the same order calls were made
+     */
+    private final ExecutorService treeStoreExecutor = Executors.newSingleThreadExecutor();
     ActivityResultLauncher<Uri> getDatabaseMulti = registerGetDatabaseMulti();
     ActivityResultLauncher<String[]> getDatabaseSingle = registerGetDatabaseSingle();
 
@@ -154,6 +161,7 @@ public class MainActivity extends AppCompatActivity {
                             public void onClick(DialogInterface dialog, int which) {
                                 File selectedDatabaseToDelete = new File(databaseDir, databaseFilename);
                                 selectedDatabaseToDelete.delete(); // Deletes database file
+                                new File(databaseDir, databaseFilename + DatabaseFingerprint.SUFFIX).delete();
                                 checkIfDeleteDatabaseIsBeingUsed(databaseFilename);
                                 listImportedDatabases(); // Launches this function to make a new list of imported databases
                             }
@@ -186,13 +194,15 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Deletes drawer_menu.xml file from app-specific storage
+     * Removes drawer menu tree of the Multifile database from app-specific storage
      */
     private void deleteDrawerMenuCache() {
-        File file = new File(getFilesDir(), "drawer_menu.xml");
-        if (file.exists()) {
-            file.delete();
-        }
+        treeStoreExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                MultiTreeStore.getInstance(getApplicationContext()).clear();
+            }
+        });
     }
 
     /**
@@ -220,7 +230,7 @@ public class MainActivity extends AppCompatActivity {
         if (databaseDir.list().length > 0) {
             layoutInflater = getLayoutInflater();
             for (String databaseFilename: databaseDir.list()) {
-                if (!databaseFilename.endsWith("-journal")) {
+                if (!databaseFilename.endsWith("-journal") && !databaseFilename.endsWith(DatabaseFingerprint.SUFFIX)) {
                     importedDatabases.addView(createImportedDatabaseListItem(layoutInflater, databaseDir, databaseFilename));
                 }
             }
@@ -233,7 +243,7 @@ public class MainActivity extends AppCompatActivity {
                 layoutInflater = getLayoutInflater();
             }
             for (String databaseFilename: databaseDir.list()) {
-                if (!databaseFilename.endsWith("-journal")) {
+                if (!databaseFilename.endsWith("-journal") && !databaseFilename.endsWith(DatabaseFingerprint.SUFFIX)) {
                     importedDatabases.addView(createImportedDatabaseListItem(layoutInflater, databaseDir, databaseFilename));
                 }
             }
@@ -307,6 +317,13 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
 
         sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        // Opening the store might migrate legacy drawer_menu.xml, that should not block the UI
+        treeStoreExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                MultiTreeStore.getInstance(getApplicationContext());
+            }
+        });
 
         setMessageWithDatabaseName();
 
@@ -378,6 +395,7 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        treeStoreExecutor.shutdown();
         deleteTempFiles();
     }
 
@@ -408,22 +426,30 @@ public class MainActivity extends AppCompatActivity {
             startMainViewActivity();
         } else if (databaseFileExtension.equals("multi")) {
             // If it's MultiFile database
-            File drawerMenuFile = new File(getFilesDir(), "drawer_menu.xml");
-            if (drawerMenuFile.exists()) {
-                startMainViewActivity();
-            } else {
-                try {
-                    if (drawerMenuFile.createNewFile()) {
-                        Bundle bundle = new Bundle();
-                        bundle.putString("uri", sharedPreferences.getString("databaseUri", null));
-                        CollectNodesDialogFragment collectNodesDialogFragment = new CollectNodesDialogFragment();
-                        collectNodesDialogFragment.setArguments(bundle);
-                        collectNodesDialogFragment.show(getSupportFragmentManager(), "collectNodesDialog");
-                    }
-                } catch (IOException e) {
-                    Toast.makeText(this, R.string.toast_error_failed_to_collect_drawer_menu_xml, Toast.LENGTH_SHORT).show();
+            final String databaseUri = sharedPreferences.getString("databaseUri", null);
+            treeStoreExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final boolean hasTree = MultiTreeStore.getInstance(getApplicationContext()).hasTree();
+                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (isFinishing() || isDestroyed() || getSupportFragmentManager().isStateSaved()) {
+                                return;
+                            }
+                            if (hasTree) {
+                                startMainViewActivity();
+                            } else {
+                                Bundle bundle = new Bundle();
+                                bundle.putString("uri", databaseUri);
+                                CollectNodesDialogFragment collectNodesDialogFragment = new CollectNodesDialogFragment();
+                                collectNodesDialogFragment.setArguments(bundle);
+                                collectNodesDialogFragment.show(getSupportFragmentManager(), "collectNodesDialog");
+                            }
+                        }
+                    });
                 }
-            }
+            });
         } else {
             // A check for external databases that they still exists
             // If the check fails message for user is displayed and MainView activity will not open
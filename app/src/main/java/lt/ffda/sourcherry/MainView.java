@@ -11,6 +11,7 @@
 package lt.ffda.sourcherry;
 
 import static lt.ffda.sourcherry.fragments.NodeContentFragment.CONTENT_FRAGMENT_LINEARLAYOUT;
+import static lt.ffda.sourcherry.fragments.NodeContentFragment.CONTENT_FRAGMENT_RECYCLERVIEW;
 
 import android.app.Activity;
 import android.content.Context;
@@ -28,11 +29,9 @@ import android.os.Looper;
 import android.text.Editable;
 import android.text.Layout;
 import android.text.SpannableStringBuilder;
-import android.text.Spanned;
 import android.text.StaticLayout;
 import android.text.TextPaint;
 import android.text.TextWatcher;
-import android.text.style.BackgroundColorSpan;
 import android.util.TypedValue;
 import android.view.KeyEvent;
 import android.view.MenuItem;
@@ -46,7 +45,6 @@ import android.widget.HorizontalScrollView;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
 import android.widget.ProgressBar;
-import android.widget.ScrollView;
 import android.widget.SearchView;
 import android.widget.TableLayout;
 import android.widget.TableRow;
@@ -82,9 +80,9 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.snackbar.Snackbar;
 
-import org.xml.sax.SAXException;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -92,7 +90,9 @@ import java.io.OutputStream;
 import java.net.FileNameMap;
 import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -116,6 +116,7 @@ import lt.ffda.sourcherry.fragments.NodePropertiesFragment;
 import lt.ffda.sourcherry.fragments.SearchFragment;
 import lt.ffda.sourcherry.model.FileInfo;
 import lt.ffda.sourcherry.model.ScNode;
+import lt.ffda.sourcherry.model.ScNodeContent;
 import lt.ffda.sourcherry.preferences.PreferencesActivity;
 import lt.ffda.sourcherry.runnables.CollectNodesBackgroundRunnable;
 import lt.ffda.sourcherry.runnables.FindInNodeRunnable;
@@ -138,6 +139,7 @@ public class MainView extends AppCompatActivity {
     private DrawerLayout drawerLayout;
     private ScheduledThreadPoolExecutor executor;
     private boolean filterNodeToggle;
+    private Future<?> findInNodeFuture;
     private boolean findInNodeToggle; // Holds true when FindInNode view is initiated
     private Handler handler;
     private MainViewModel mainViewModel;
@@ -175,6 +177,10 @@ public class MainView extends AppCompatActivity {
             Fragment currentFragment = getSupportFragmentManager().findFragmentById(R.id.main_view_fragment);
             if (currentFragment != null && currentFragment.getView() != null) {
                 View contentFragmentLinearLayout = currentFragment.getView().findViewById(CONTENT_FRAGMENT_LINEARLAYOUT);
+                if (contentFragmentLinearLayout == null) {
+                    // Node content is displayed in chunks
+                    contentFragmentLinearLayout = currentFragment.getView().findViewById(CONTENT_FRAGMENT_RECYCLERVIEW);
+                }
                 if (contentFragmentLinearLayout != null) {
                     ViewCompat.requestApplyInsets(contentFragmentLinearLayout);
                 }
@@ -244,6 +250,10 @@ public class MainView extends AppCompatActivity {
         // Clearing search field (restores content to original state too)
         LinearLayout findInNodeLinearLayout = findViewById(R.id.main_view_find_in_node_linear_layout);
         findInNodeLinearLayout.setVisibility(View.GONE);
+        if (findInNodeFuture != null) {
+            findInNodeFuture.cancel(true);
+            findInNodeFuture = null;
+        }
         mainViewModel.findInNodeStorageToggle(false);
     }
 
@@ -297,6 +307,8 @@ public class MainView extends AppCompatActivity {
      * @param nodeUniqueID unique ID of the node to delete
      */
     private void deleteNode(String nodeUniqueID) {
+        // All subnodes are deleted too
+        mainViewModel.invalidateAllNodeContent();
         if (filterNodeToggle) {
             // Necessary, otherwise it will show up again in other searches until
             // the search function is turn off and on again
@@ -516,7 +528,11 @@ public class MainView extends AppCompatActivity {
         if (!query.isEmpty()) {
             // If new query is longer when one character
             restoreHighlightedView();
-            executor.submit(new FindInNodeRunnable(mainViewModel, query, new FindInNodeRunnableCallback() {
+            if (findInNodeFuture != null) {
+                // Results of the previous query are not needed anymore
+                findInNodeFuture.cancel(true);
+            }
+            findInNodeFuture = executor.submit(new FindInNodeRunnable(mainViewModel, query, new FindInNodeRunnableCallback() {
                 @Override
                 public void searchFinished() {
                     setFindInNodeProgressBar(false);
@@ -563,10 +579,10 @@ public class MainView extends AppCompatActivity {
             int previouslyHighlightedFindInNode;
             if (currentFindInNodeMarked == 0) {
                 // Current marked node is first in the array, so previous marked should be the last from array
-                previouslyHighlightedFindInNode = mainViewModel.getFindInNodeResult(mainViewModel.getFindInNodeResultCount() - 1)[0];
+                previouslyHighlightedFindInNode = mainViewModel.getFindInNodeResultStorageIndex(mainViewModel.getFindInNodeResultCount() - 1);
             } else {
                 // Otherwise it should be previous one in array. However, it can be that it is out off array if array is made of one item.
-                previouslyHighlightedFindInNode = mainViewModel.getFindInNodeResult(currentFindInNodeMarked - 1)[0];
+                previouslyHighlightedFindInNode = mainViewModel.getFindInNodeResultStorageIndex(currentFindInNodeMarked - 1);
             }
             // Gets instance of the fragment
             FragmentManager fragmentManager = getSupportFragmentManager();
@@ -592,10 +608,10 @@ public class MainView extends AppCompatActivity {
             int previouslyHighlightedFindInNode;
             if (currentFindInNodeMarked == mainViewModel.getFindInNodeResultCount() - 1) {
                 // Current marked node is last, so previous marked node should be the first in result ArrayList
-                previouslyHighlightedFindInNode = mainViewModel.getFindInNodeResult(0)[0];
+                previouslyHighlightedFindInNode = mainViewModel.getFindInNodeResultStorageIndex(0);
             } else {
                 // Otherwise it should next one in array (index+1). However, it can be that it is out off array if array is made of one item
-                previouslyHighlightedFindInNode = mainViewModel.getFindInNodeResult(currentFindInNodeMarked + 1)[0]; // Saved index for the view
+                previouslyHighlightedFindInNode = mainViewModel.getFindInNodeResultStorageIndex(currentFindInNodeMarked + 1); // Saved index for the view
             }
             // Gets instance of the fragment
             FragmentManager fragmentManager = getSupportFragmentManager();
@@ -737,41 +753,40 @@ public class MainView extends AppCompatActivity {
      * UI elements.
      */
     private void highlightFindInNodeResult() {
-        mainViewModel.findInNodeStorageReset();
+        // Only the texts that had highlighted results of the previous query or have results of
+        // the current one have to be updated
+        BitSet changed = mainViewModel.highlightFindInNodeResults(getColor(R.color.cherry_red_100));
+        FragmentManager fragmentManager = getSupportFragmentManager();
+        NodeContentFragment nodeContentFragment = (NodeContentFragment) fragmentManager.findFragmentByTag("main");
+        if (nodeContentFragment.isChunkedRendering()) {
+            // Chunks take their text from FindInNode storage, so only the storage has to be updated
+            nodeContentFragment.refreshChunkedContent();
+            nodeContentFragment.switchFindInNodeHighlight(-1, currentFindInNodeMarked);
+            updateMarkedIndex();
+            return;
+        }
         LinearLayout contentFragmentLinearLayout = findViewById(CONTENT_FRAGMENT_LINEARLAYOUT);
         int counter = 0; // Iterator of the all the saved views from node content
-        int resultCounter = 0;
-        int[] currentResult;
         for (int i = 0; i < contentFragmentLinearLayout.getChildCount(); i++) {
             View view = contentFragmentLinearLayout.getChildAt(i);
             if (view instanceof TextView) {
-                TextView currentTextView = (TextView) view;
-                SpannableStringBuilder currentTextViewContent = mainViewModel.getfindInNodeStorageContent(counter);
-                while (resultCounter < mainViewModel.getFindInNodeResultCount() && (currentResult = mainViewModel.getFindInNodeResult(resultCounter))[0] == counter) {
-                    currentTextViewContent.setSpan(new BackgroundColorSpan(getColor(R.color.cherry_red_100)), currentResult[1], currentResult[2], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    resultCounter++;
+                if (changed.get(counter)) {
+                    ((TextView) view).setText(mainViewModel.getfindInNodeStorageContent(counter));
                 }
-                currentTextView.setText(currentTextViewContent);
                 counter++;
             } else if (view instanceof HorizontalScrollView) {
                 TableLayout tableLayout = (TableLayout) ((HorizontalScrollView) view).getChildAt(0);
                 for (int row = 0; row < tableLayout.getChildCount(); row++) {
                     TableRow tableRow = (TableRow) tableLayout.getChildAt(row);
                     for (int cell = 0; cell < tableRow.getChildCount(); cell++) {
-                        TextView currentCell = (TextView) tableRow.getChildAt(cell);
-                        SpannableStringBuilder currentTextViewContent = mainViewModel.getfindInNodeStorageContent(counter);
-                        while (resultCounter < mainViewModel.getFindInNodeResultCount() && (currentResult = mainViewModel.getFindInNodeResult(resultCounter))[0] == counter) {
-                            currentTextViewContent.setSpan(new BackgroundColorSpan(getColor(R.color.cherry_red_100)), currentResult[1], currentResult[2], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                            resultCounter++;
+                        if (changed.get(counter)) {
+                            ((TextView) tableRow.getChildAt(cell)).setText(mainViewModel.getfindInNodeStorageContent(counter));
                         }
-                        currentCell.setText(currentTextViewContent);
                         counter++;
                     }
                 }
             }
         }
-        FragmentManager fragmentManager = getSupportFragmentManager();
-        NodeContentFragment nodeContentFragment = (NodeContentFragment) fragmentManager.findFragmentByTag("main");
         nodeContentFragment.switchFindInNodeHighlight(-1, currentFindInNodeMarked);
         updateMarkedIndex();
     }
@@ -1074,14 +1089,17 @@ public class MainView extends AppCompatActivity {
 
     private void loadNodeContent() {
         setToolbarTitle(mainViewModel.getCurrentNode().getName());
+        // Shared nodes display content of their master node
+        String nodeUniqueID = "0".equals(mainViewModel.getCurrentNode().getMasterId()) ? mainViewModel.getCurrentNode().getUniqueId() : mainViewModel.getCurrentNode().getMasterId();
+        ArrayList<ScNodeContent> cachedNodeContent = mainViewModel.getCachedNodeContent(nodeUniqueID);
+        if (cachedNodeContent != null) {
+            mainViewModel.getNodeContent().postValue(cachedNodeContent);
+            return;
+        }
         executor.execute(new Runnable() {
             @Override
             public void run() {
-                if ("0".equals(mainViewModel.getCurrentNode().getMasterId())) {
-                    reader.loadNodeContent(mainViewModel.getCurrentNode().getUniqueId());
-                } else {
-                    reader.loadNodeContent(mainViewModel.getCurrentNode().getMasterId());
-                }
+                reader.loadNodeContent(nodeUniqueID);
             }
         });
     }
@@ -1226,6 +1244,16 @@ public class MainView extends AppCompatActivity {
                     showHideProgressBar(scheduledFuture != null);
                 }
             });
+            mainViewModel.getMultiDatabaseScannedNodes().observe(this, new Observer<Integer>() {
+                @Override
+                public void onChanged(Integer scannedNodes) {
+                    if (scannedNodes == null) {
+                        getSupportActionBar().setSubtitle(null);
+                    } else {
+                        getSupportActionBar().setSubtitle(getString(R.string.dialog_fragment_collect_nodes_message, scannedNodes));
+                    }
+                }
+            });
         }
         registerForOptionsMenuResult();
         initDrawerMenuNavigation(searchView);
@@ -1377,6 +1405,18 @@ public class MainView extends AppCompatActivity {
 
     @Override
     public void onStop() {
+        if (reader != null) {
+            // Database file has to be up to date before app goes to the background. Writing big
+            // databases takes a while, so it's done in the background thread. Reader is kept
+            // by the runnable until the write finishes.
+            final DatabaseReader stoppedReader = reader;
+            ((ScApplication) getApplication()).appContainer.pendingChangesWrite = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    stoppedReader.writePendingChanges();
+                }
+            });
+        }
         if (sharedPreferences.getBoolean("restore_last_node", false) && mainViewModel.getCurrentNode() != null) {
             // Saving current nodeUniqueID to be able to load it on next startup
             SharedPreferences.Editor sharedPreferencesEditor = sharedPreferences.edit();
@@ -1430,48 +1470,62 @@ public class MainView extends AppCompatActivity {
      * @param control control value of the file to get byte array of the right file. For XML/SQL readers it's offset and sha256sum sum of the file for Multifile database reader
      */
     private void openFile(String fileMimeType, String nodeUniqueID, String filename, String time, String control) {
-        try {
-            Uri fileToShare;
-            if (reader.getDatabaseType() == DatabaseType.MULTI) {
-                fileToShare = ((MultiDbFileShare) reader).getAttachedFileUri(nodeUniqueID, filename, control);
-            } else {
-                // If attached filename has more than one . (dot) in it temporary filename will not have full original filename in it
-                // most important that it will have correct extension
-                String prefix = Files.getFileName(filename);
-                if (prefix.length() < 3) {
-                    // Prefixes for temp files can't be shorter than 3 symbols
-                    prefix = prefix + "123";
-                }
-                File tmpAttachedFile = File.createTempFile(prefix, "." + Files.getFileExtension(filename)); // Temporary file that will shared
-
-                // Writes Base64 encoded string to the temporary file
-                InputStream in = reader.getFileInputStream(nodeUniqueID, filename, time, control);
-                FileOutputStream out = new FileOutputStream(tmpAttachedFile);
-                byte[] buf = new byte[4 * 1024];
-                int length;
-                while ((length = in.read(buf)) != -1) {
-                    out.write(buf, 0, length);
-                }
-                in.close();
-                out.close();
-
-                // Getting Uri to share
-                fileToShare = FileProvider.getUriForFile(this, getPackageName() + ".fileprovider", tmpAttachedFile);
+        if (reader.getDatabaseType() == DatabaseType.MULTI) {
+            try {
+                startOpenFileActivity(fileMimeType, ((MultiDbFileShare) reader).getAttachedFileUri(nodeUniqueID, filename, control));
+            } catch (Exception e) {
+                Toast.makeText(this, R.string.toast_error_failed_to_open_file, Toast.LENGTH_SHORT).show();
             }
-            // Intent to open file
-            Intent intent = new Intent();
-            intent.setAction(Intent.ACTION_VIEW);
-            intent.setDataAndType(fileToShare, fileMimeType);
-            if (reader.getDatabaseType() == DatabaseType.MULTI && sharedPreferences.getBoolean("preference_multifile_use_embedded_file_name_on_disk", false)) {
-                intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
-            } else {
-                intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-            }
-            startActivity(intent);
-
-        } catch (Exception e) {
-            Toast.makeText(this, R.string.toast_error_failed_to_open_file, Toast.LENGTH_SHORT).show();
+            return;
         }
+        // Embedded file is streamed to the temporary file in background thread, because it can be
+        // big enough to freeze the UI
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // If attached filename has more than one . (dot) in it temporary filename will not have full original filename in it
+                    // most important that it will have correct extension
+                    String prefix = Files.getFileName(filename);
+                    if (prefix.length() < 3) {
+                        // Prefixes for temp files can't be shorter than 3 symbols
+                        prefix = prefix + "123";
+                    }
+                    File tmpAttachedFile = File.createTempFile(prefix, "." + Files.getFileExtension(filename)); // Temporary file that will shared
+                    // Decodes embedded file to the temporary file
+                    try (InputStream in = reader.getFileInputStream(nodeUniqueID, filename, time, control);
+                         OutputStream out = new FileOutputStream(tmpAttachedFile)) {
+                        if (in == null) {
+                            throw new FileNotFoundException();
+                        }
+                        byte[] buf = new byte[64 * 1024];
+                        int length;
+                        while ((length = in.read(buf)) != -1) {
+                            out.write(buf, 0, length);
+                        }
+                    }
+                    // Getting Uri to share
+                    Uri fileToShare = FileProvider.getUriForFile(MainView.this, getPackageName() + ".fileprovider", tmpAttachedFile);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                startOpenFileActivity(fileMimeType, fileToShare);
+                            } catch (Exception e) {
+                                Toast.makeText(MainView.this, R.string.toast_error_failed_to_open_file, Toast.LENGTH_SHORT).show();
+                            }
+                        }
+                    });
+                } catch (Exception e) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            Toast.makeText(MainView.this, R.string.toast_error_failed_to_open_file, Toast.LENGTH_SHORT).show();
+                        }
+                    });
+                }
+            }
+        });
     }
 
     /**
@@ -1568,9 +1622,9 @@ public class MainView extends AppCompatActivity {
             closeFindInNode();
         }
         Bundle bundle = new Bundle();
-        ScrollView scrollView = findViewById(R.id.content_fragment_scrollview);
+        NodeContentFragment nodeContentFragment = (NodeContentFragment) getSupportFragmentManager().findFragmentByTag("main");
         bundle.putString("nodeUniqueID", mainViewModel.getCurrentNode().getUniqueId());
-        bundle.putInt("scrollY", scrollView.getScrollY());
+        bundle.putInt("scrollY", nodeContentFragment.getContentScrollY());
         getSupportFragmentManager().beginTransaction()
                 .setReorderingAllowed(true)
                 .add(R.id.main_view_fragment, NodeContentEditorFragment.class, bundle, "editNode")
@@ -1679,7 +1733,14 @@ public class MainView extends AppCompatActivity {
             if (result.getResultCode() == Activity.RESULT_OK) {
                 // If user actually chose a location to save a file
                 try {
-                    LinearLayout nodeContent = findViewById(CONTENT_FRAGMENT_LINEARLAYOUT);
+                    LinearLayout nodeContent;
+                    NodeContentFragment nodeContentFragment = (NodeContentFragment) getSupportFragmentManager().findFragmentByTag("main");
+                    if (nodeContentFragment.isChunkedRendering()) {
+                        // RecyclerView has only views for visible part of the node
+                        nodeContent = nodeContentFragment.createPdfExportLayout();
+                    } else {
+                        nodeContent = findViewById(CONTENT_FRAGMENT_LINEARLAYOUT);
+                    }
                     PdfDocument document = new PdfDocument();
                     int padding = 25; // It's used not only pad the document, but to calculate where title will be placed on the page
                     int top = padding * 4; // This will used to move (translate) cursor where everything has to be drawn on canvas
@@ -1835,16 +1896,28 @@ public class MainView extends AppCompatActivity {
     private ActivityResultLauncher<String[]> registerSaveFile() {
         return registerForActivityResult(new ReturnSelectedFileUriForSaving(), result -> {
             if (result != null) {
-                try (InputStream inputStream = reader.getFileInputStream(result.getExtras().getString("nodeUniqueID"), result.getExtras().getString("filename"), result.getExtras().getString("time"), result.getExtras().getString("offset"));
-                     OutputStream outputStream = getContentResolver().openOutputStream(result.getData(), "w")) {
-                    byte[] buf = new byte[4 * 1024];
-                    int length;
-                    while ((length = inputStream.read(buf)) != -1) {
-                        outputStream.write(buf, 0, length);
+                // Embedded file is streamed in background thread, because it can be big enough
+                // to freeze the UI
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try (InputStream inputStream = reader.getFileInputStream(result.getExtras().getString("nodeUniqueID"), result.getExtras().getString("filename"), result.getExtras().getString("time"), result.getExtras().getString("offset"));
+                             OutputStream outputStream = getContentResolver().openOutputStream(result.getData(), "w")) {
+                            byte[] buf = new byte[64 * 1024];
+                            int length;
+                            while ((length = inputStream.read(buf)) != -1) {
+                                outputStream.write(buf, 0, length);
+                            }
+                        } catch (Exception e) {
+                            handler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Toast.makeText(MainView.this, R.string.toast_error_failed_to_save_file, Toast.LENGTH_SHORT).show();
+                                }
+                            });
+                        }
                     }
-                } catch (Exception e) {
-                    Toast.makeText(this, R.string.toast_error_failed_to_save_file, Toast.LENGTH_SHORT).show();
-                }
+                });
             }
         });
     }
@@ -1929,22 +2002,34 @@ public class MainView extends AppCompatActivity {
      */
     private void restoreHighlightedView() {
         LinearLayout contentFragmentLinearLayout = findViewById(CONTENT_FRAGMENT_LINEARLAYOUT);
-        if (currentFindInNodeMarked != -1 && contentFragmentLinearLayout != null && mainViewModel.getFindInNodeResultStorage().size() > 0) {
+        NodeContentFragment nodeContentFragment = (NodeContentFragment) getSupportFragmentManager().findFragmentByTag("main");
+        if (currentFindInNodeMarked != -1 && nodeContentFragment != null && nodeContentFragment.isChunkedRendering() && mainViewModel.getFindInNodeResultCount() > 0) {
+            currentFindInNodeMarked = -1;
+            updateCounter(0);
+            updateMarkedIndex();
+            mainViewModel.clearFindInNodeHighlights();
+            mainViewModel.resetFindInNodeResultStorage();
+            nodeContentFragment.refreshChunkedContent();
+        } else if (currentFindInNodeMarked != -1 && contentFragmentLinearLayout != null && mainViewModel.getFindInNodeResultCount() > 0) {
+            // After highlighting is removed FindInNode storage holds the original text. Only the
+            // texts that had highlighted results have to be restored.
+            BitSet changed = mainViewModel.clearFindInNodeHighlights();
             int counter = 0;
             for (int i = 0; i < contentFragmentLinearLayout.getChildCount(); i++) {
                 View view = contentFragmentLinearLayout.getChildAt(i);
                 if (view instanceof TextView) {
-                    SpannableStringBuilder originalText = new SpannableStringBuilder(mainViewModel.getTextViewContent(counter));
-                    ((TextView) view).setText(originalText);
+                    if (changed.get(counter)) {
+                        ((TextView) view).setText(new SpannableStringBuilder(mainViewModel.getfindInNodeStorageContent(counter)));
+                    }
                     counter++;
                 } else if (view instanceof HorizontalScrollView) {
                     TableLayout tableLayout = (TableLayout) ((HorizontalScrollView) view).getChildAt(0);
                     for (int row = 0; row < tableLayout.getChildCount(); row++) {
                         TableRow tableRow = (TableRow) tableLayout.getChildAt(row);
                         for (int cell = 0; cell < tableRow.getChildCount(); cell++) {
-                            TextView currentCell = (TextView) tableRow.getChildAt(cell);
-                            SpannableStringBuilder originalText = new SpannableStringBuilder(mainViewModel.getTextViewContent(counter));
-                            currentCell.setText(originalText);
+                            if (changed.get(counter)) {
+                                ((TextView) tableRow.getChildAt(cell)).setText(new SpannableStringBuilder(mainViewModel.getfindInNodeStorageContent(counter)));
+                            }
                             counter++;
                         }
                     }
@@ -2035,6 +2120,23 @@ public class MainView extends AppCompatActivity {
         }
     }
 
+    /**
+     * Starts activity chosen by the user to open attached/embedded file
+     * @param fileMimeType mime type of the file for the device to show relevant app list to open the file with
+     * @param fileToShare Uri of the file to open
+     */
+    private void startOpenFileActivity(String fileMimeType, Uri fileToShare) {
+        Intent intent = new Intent();
+        intent.setAction(Intent.ACTION_VIEW);
+        intent.setDataAndType(fileToShare, fileMimeType);
+        if (reader.getDatabaseType() == DatabaseType.MULTI && sharedPreferences.getBoolean("preference_multifile_use_embedded_file_name_on_disk", false)) {
+            intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+        } else {
+            intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        }
+        startActivity(intent);
+    }
+
     /**
      * This function gets the new drawer menu list
      * and marks currently opened node as such.
@@ -2164,7 +2266,7 @@ public class MainView extends AppCompatActivity {
     }
 
     /**
-     * Initiates background the Multifile database folder scan and recreates new drawer_menu.xml.
+     * Initiates background the Multifile database folder scan and recreates the drawer menu tree.
      * Loads it to the MultiReader.
      */
     private void updateDrawerMenu() {
@@ -2177,12 +2279,19 @@ public class MainView extends AppCompatActivity {
                     Uri.parse(sharedPreferences.getString("databaseUri", null)),
                     MainView.this,
                     new NodesCollectedCallback() {
+                        private long scanDuration;
+                        private int parsedNodes;
+                        private int scannedNodes;
+
                         @Override
                         public void onNodesCollected(int result) {
+                            mainViewModel.getMultiDatabaseScannedNodes().postValue(null);
                             if (result == 0) {
-                                displayToastOnMainThread(getString(R.string.toast_message_updated_drawer_menu));
+                                displayToastOnMainThread(getString(R.string.toast_message_updated_drawer_menu, scannedNodes, parsedNodes, scanDuration / 1000f));
                                 try {
                                     ((MultiReader) reader).setDrawerMenu();
+                                    // Node files might have been changed outside of the app
+                                    mainViewModel.invalidateAllNodeContent();
                                     if (filterNodeToggle) {
                                         // If user was filtering nodes when new drawer menu items were collected
                                         CheckBox checkBoxExcludeFromSearch = findViewById(R.id.navigation_drawer_omit_marked_to_exclude);
@@ -2215,7 +2324,7 @@ public class MainView extends AppCompatActivity {
                                             }
                                         });
                                     }
-                                } catch (IOException | SAXException e) {
+                                } catch (IOException e) {
                                     displayToastOnMainThread(getString(R.string.toast_error_failed_update_drawer_menu));
                                     mainViewModel.getMultiDatabaseSync().postValue(null);
                                 }
@@ -2224,6 +2333,18 @@ public class MainView extends AppCompatActivity {
                             }
                             mainViewModel.getMultiDatabaseSync().postValue(null);
                         }
+
+                        @Override
+                        public void onNodesScanned(int scannedNodes) {
+                            mainViewModel.getMultiDatabaseScannedNodes().postValue(scannedNodes);
+                        }
+
+                        @Override
+                        public void onScanFinished(int scannedNodes, int parsedNodes, long duration) {
+                            this.scannedNodes = scannedNodes;
+                            this.parsedNodes = parsedNodes;
+                            this.scanDuration = duration;
+                        }
                     }), 0, TimeUnit.SECONDS));
         } catch (ParserConfigurationException e) {
             Toast.makeText(MainView.this, R.string.toast_error_failed_update_drawer_menu, Toast.LENGTH_SHORT).show();
@@ -2262,6 +2383,7 @@ public class MainView extends AppCompatActivity {
         drawerLayout.setDrawerLockMode(DrawerLayout.LOCK_MODE_UNLOCKED);
         getSupportActionBar().show();
         DatabaseReaderFactory.getReader().updateNodeProperties(nodeUniqueID, name, progLang, noSearchMe, noSearchCh);
+        mainViewModel.invalidateNodeContent(nodeUniqueID);
         // updates drawerMenu items properties for shared nodes
         for (int i = 0; i < mainViewModel.getNodes().size(); i++) {
             ScNode scNode = mainViewModel.getNodes().get(i);
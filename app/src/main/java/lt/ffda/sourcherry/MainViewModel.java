@@ -11,79 +11,200 @@
 package lt.ffda.sourcherry;
 
 import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.ImageSpan;
+import android.util.Log;
+import android.util.LruCache;
 
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.concurrent.ScheduledFuture;
 
 import lt.ffda.sourcherry.model.ScNode;
 import lt.ffda.sourcherry.model.ScNodeContent;
 import lt.ffda.sourcherry.model.ScNodeContentTable;
 import lt.ffda.sourcherry.model.ScNodeContentText;
+import lt.ffda.sourcherry.spans.BackgroundColorSpanFindInNode;
+import lt.ffda.sourcherry.spans.LazyImageDrawable;
 
 /**
  * Stores data, that should be kept during screen orientation change
  */
 public class MainViewModel extends ViewModel {
+    private static final String TAG = "MainViewModel";
     private ScNode currentNode = null;
     // Stores all the text from TextViews in currently opened nodeContent for easier access
     // Used with FindInNode function to mark and display the matches for the user
     private ArrayList<SpannableStringBuilder> findInNodeContentStorage;
-    // Stores results for FindInNode() int[textView index in nodeContent, start index of matching substring, end index of matching substring]
-    private ArrayList<int[]> findInNodeResultStorage;
+    // Case folded copy of every findInNodeContentStorage item. Created once per opened FindInNode
+    private ArrayList<char[]> findInNodeFoldedStorage;
+    // findInNodeContentStorage items that have FindInNode results highlighted in them
+    private BitSet findInNodeHighlighted;
+    // All (overlapping too) matches of findInNodeMatchesQuery packed as pairs of [textView index in nodeContent, start index of matching substring]
+    private int[] findInNodeMatches;
+    private String findInNodeMatchesQuery;
+    // Stores results for FindInNode() packed as triples of [textView index in nodeContent, start index of matching substring, end index of matching substring]
+    private int[] findInNodeResultStorage;
+    private MutableLiveData<Integer> multiDatabaseScannedNodes;
     private MutableLiveData<ScheduledFuture<?>> multiDatabaseSync;
     private MutableLiveData<ArrayList<ScNodeContent>> nodeContent;
+    // Already built content of recently opened nodes. Key is unique ID of the node content was loaded for
+    private final LruCache<String, ArrayList<ScNodeContent>> nodeContentCache = createNodeContentCache();
     private ArrayList<ScNode> nodes;
     private ArrayList<ScNode> tempNodes;
     private ArrayList<ScNode> tempSearchNodes;
     private boolean linewrap = false;
 
     /**
-     * Adds result to FindInNodeResultStorage
-     * @param result array that consists of three integers: index of view that holds this result, start and end of substring that has to be highlighted
+     * Saves case folded copy of every findInNodeContentStorage item
+     * @param foldedStorage list of case folded texts
      */
-    public void addFindInNodeResult(int[] result) {
-        this.findInNodeResultStorage.add(result);
+    public synchronized void setFindInNodeFoldedStorage(ArrayList<char[]> foldedStorage) {
+        if (this.findInNodeContentStorage != null) {
+            this.findInNodeFoldedStorage = foldedStorage;
+        }
     }
 
     /**
-     * Deletes stored node content by setting it to empty ArrayList
+     * Saves results of FindInNode search. Results are ignored if FindInNode was closed while
+     * searching.
+     * @param foldedQuery case folded query of the search
+     * @param matches all matches of the query packed as pairs of [textView index in nodeContent, start index of matching substring]
+     * @param results results packed as triples of [textView index in nodeContent, start index of matching substring, end index of matching substring]
      */
-    public void deleteNodeContent() {
-        this.nodeContent.postValue(new ArrayList<>());
+    public synchronized void setFindInNodeResults(String foldedQuery, int[] matches, int[] results) {
+        if (this.findInNodeResultStorage == null) {
+            return;
+        }
+        this.findInNodeMatchesQuery = foldedQuery;
+        this.findInNodeMatches = matches;
+        this.findInNodeResultStorage = results;
+    }
+
+    /**
+     * Removes highlighting of all FindInNode results from findInNodeContentStorage
+     * @return indexes of findInNodeContentStorage items which highlighting was removed
+     */
+    public BitSet clearFindInNodeHighlights() {
+        BitSet cleared = this.findInNodeHighlighted;
+        this.findInNodeHighlighted = new BitSet();
+        if (cleared == null) {
+            return new BitSet();
+        }
+        for (int i = cleared.nextSetBit(0); i >= 0; i = cleared.nextSetBit(i + 1)) {
+            SpannableStringBuilder content = this.findInNodeContentStorage.get(i);
+            for (BackgroundColorSpanFindInNode span: content.getSpans(0, content.length(), BackgroundColorSpanFindInNode.class)) {
+                content.removeSpan(span);
+            }
+        }
+        return cleared;
+    }
+
+    /**
+     * Creates cache for built node content. Cache is limited to the sixteenth of the memory
+     * available to the app.
+     * @return node content cache
+     */
+    private static LruCache<String, ArrayList<ScNodeContent>> createNodeContentCache() {
+        return new LruCache<String, ArrayList<ScNodeContent>>((int) (Runtime.getRuntime().maxMemory() / 1024 / 16)) {
+            @Override
+            protected int sizeOf(String key, ArrayList<ScNodeContent> value) {
+                return Math.max(1, estimateNodeContentSize(value) / 1024);
+            }
+        };
+    }
+
+    /**
+     * Estimates how much memory node content takes. Counts characters, spans and encoded images
+     * that are kept in memory.
+     * @param content node content
+     * @return approximate size in bytes
+     */
+    private static int estimateNodeContentSize(ArrayList<ScNodeContent> content) {
+        long size = 0;
+        for (ScNodeContent part : content) {
+            if (part.getContentType() == 0) {
+                size += estimateTextSize(((ScNodeContentText) part).getContent());
+            } else {
+                for (CharSequence[] row : ((ScNodeContentTable) part).getContent()) {
+                    for (CharSequence cell : row) {
+                        size += estimateTextSize(cell);
+                    }
+                }
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
     }
 
     /**
-     * Stores fresh copy of the nodeContent in findInNodeContentStorage variable
+     * Estimates how much memory text takes
+     * @param text text to estimate
+     * @return approximate size in bytes
      */
-    public void findInNodeStorageReset() {
-        this.findInNodeContentStorage.clear();
-        for (ScNodeContent scNodeContent: this.nodeContent.getValue()) {
-            if (scNodeContent.getContentType() == 0) {
-                // TextView
-                ScNodeContentText scNodeContentText = (ScNodeContentText) scNodeContent;
-                this.findInNodeContentStorage.add(new SpannableStringBuilder(scNodeContentText.getContent()));
-            } else if (scNodeContent.getContentType() == 1) {
-                // Table
-                ScNodeContentTable scNodeContentTable = (ScNodeContentTable) scNodeContent;
-                for (CharSequence[] row: scNodeContentTable.getContent()) {
-                    for (CharSequence cell: row) {
-                        this.findInNodeContentStorage.add(new SpannableStringBuilder(cell));
+    private static long estimateTextSize(CharSequence text) {
+        long size = text.length() * 2L;
+        if (text instanceof Spanned) {
+            Spanned spanned = (Spanned) text;
+            Object[] spans = spanned.getSpans(0, spanned.length(), Object.class);
+            size += spans.length * 64L;
+            for (ImageSpan imageSpan : spanned.getSpans(0, spanned.length(), ImageSpan.class)) {
+                if (imageSpan.getDrawable() instanceof LazyImageDrawable) {
+                    byte[] imageBytes = ((LazyImageDrawable) imageSpan.getDrawable()).getImageBytes();
+                    if (imageBytes != null) {
+                        size += imageBytes.length;
                     }
                 }
             }
         }
+        return size;
+    }
+
+    /**
+     * Deletes stored node content by setting it to empty ArrayList
+     */
+    public void deleteNodeContent() {
+        this.nodeContent.postValue(new ArrayList<>());
+    }
+
+    /**
+     * Removes content of all the nodes from node content cache. Has to be called when nodes
+     * might have been changed outside of the app or more than one node was changed.
+     */
+    public void invalidateAllNodeContent() {
+        this.nodeContentCache.evictAll();
+    }
+
+    /**
+     * Removes content of the node from node content cache. Has to be called every time node's
+     * content or properties that affect how it is displayed are changed.
+     * @param nodeUniqueID unique ID of the node content was loaded for
+     */
+    public void invalidateNodeContent(String nodeUniqueID) {
+        this.nodeContentCache.remove(nodeUniqueID);
+    }
+
+    /**
+     * Logs statistics of the node content cache when the database is closed
+     */
+    @Override
+    protected void onCleared() {
+        Log.i(TAG, "Node content cache: " + getNodeContentCacheStats());
     }
 
     /**
      * Initiates or sets to null findInNode and findInNodeResultStorage arrays
      * @param status true - initiates arrays, false - sets to null
      */
-    public void findInNodeStorageToggle(Boolean status) {
+    public synchronized void findInNodeStorageToggle(Boolean status) {
+        this.findInNodeFoldedStorage = null;
+        this.findInNodeHighlighted = null;
+        this.findInNodeMatches = null;
+        this.findInNodeMatchesQuery = null;
         if (status) {
-            this.findInNodeResultStorage = new ArrayList<>();
+            this.findInNodeResultStorage = new int[0];
             this.findInNodeContentStorage = new ArrayList<>();
             for (ScNodeContent scNodeContent: this.nodeContent.getValue()) {
                 if (scNodeContent.getContentType() == 0) {
@@ -122,30 +243,91 @@ public class MainViewModel extends ViewModel {
         this.currentNode = currentNode;
     }
 
+    /**
+     * Returns built content of the node if it's still in node content cache
+     * @param nodeUniqueID unique ID of the node content was loaded for
+     * @return node content or null if it has to be loaded from the database
+     */
+    public ArrayList<ScNodeContent> getCachedNodeContent(String nodeUniqueID) {
+        return this.nodeContentCache.get(nodeUniqueID);
+    }
+
+    /**
+     * Returns case folded copy of every findInNodeContentStorage item
+     * @return list of case folded texts or null if it wasn't created yet
+     */
+    public synchronized ArrayList<char[]> getFindInNodeFoldedStorage() {
+        return this.findInNodeFoldedStorage;
+    }
+
+    /**
+     * Returns all matches of the previous FindInNode search if they can be used to find matches
+     * of the new query. That is true when new query starts with the previous one.
+     * @param foldedQuery case folded query of the new search
+     * @return matches packed as pairs of [textView index in nodeContent, start index of matching substring] or null if new search has to go through all the node content
+     */
+    public synchronized int[] getFindInNodeMatches(String foldedQuery) {
+        if (this.findInNodeMatchesQuery == null || !foldedQuery.startsWith(this.findInNodeMatchesQuery)) {
+            return null;
+        }
+        return this.findInNodeMatches;
+    }
+
     /**
      * Returns the result of FindInNode search
      * @param resultIndex index of the result
-     * @return FindInNode result
+     * @return FindInNode result: index of view that holds this result, start and end of substring that has to be highlighted
      */
     public int[] getFindInNodeResult(int resultIndex) {
-        return this.findInNodeResultStorage.get(resultIndex);
+        return new int[] {getFindInNodeResultStorageIndex(resultIndex), getFindInNodeResultStart(resultIndex), getFindInNodeResultEnd(resultIndex)};
     }
 
     /**
-     * Returns the size of FindInNode result ListArray
-     * @return count of FindInNode results
+     * Returns the count of FindInNode results
+     * @return count of FindInNode results. 0 if FindInNode is not opened.
      */
     public int getFindInNodeResultCount() {
-        return this.findInNodeResultStorage.size();
+        int[] results = this.findInNodeResultStorage;
+        return results == null ? 0 : results.length / 3;
     }
 
     /**
-     * Returns findInNodeResultStorage ArrayList
-     * used to store result indexes for findInNode function
-     * @return findInNodeResultStorage ArrayList of int[textView index in nodeContent, start index of matching substring, end index of matching substring]
+     * Returns end index of matching substring of FindInNode result
+     * @param resultIndex index of the result
+     * @return end index of matching substring
+     */
+    public int getFindInNodeResultEnd(int resultIndex) {
+        return this.findInNodeResultStorage[resultIndex * 3 + 2];
+    }
+
+    /**
+     * Returns start index of matching substring of FindInNode result
+     * @param resultIndex index of the result
+     * @return start index of matching substring
      */
-    public ArrayList<int[]> getFindInNodeResultStorage() {
-        return this.findInNodeResultStorage;
+    public int getFindInNodeResultStart(int resultIndex) {
+        return this.findInNodeResultStorage[resultIndex * 3 + 1];
+    }
+
+    /**
+     * Returns index of findInNodeContentStorage item that holds FindInNode result
+     * @param resultIndex index of the result
+     * @return index of the TextView in nodeContent
+     */
+    public int getFindInNodeResultStorageIndex(int resultIndex) {
+        return this.findInNodeResultStorage[resultIndex * 3];
+    }
+
+    /**
+     * Returns LiveData object that holds number of the nodes scanned by MultiFile database
+     * background scan. Holds null when scan is not running.
+     * @return LiveData object that holds number of the scanned nodes
+     */
+    public MutableLiveData<Integer> getMultiDatabaseScannedNodes() {
+        if (this.multiDatabaseScannedNodes == null) {
+            this.multiDatabaseScannedNodes = new MutableLiveData<>();
+        }
+        return this.multiDatabaseScannedNodes;
     }
 
     /**
@@ -171,6 +353,14 @@ public class MainViewModel extends ViewModel {
         return this.nodeContent;
     }
 
+    /**
+     * Returns hit and miss counts of the node content cache
+     * @return statistics of the node content cache
+     */
+    public String getNodeContentCacheStats() {
+        return this.nodeContentCache.toString();
+    }
+
     /**
      * Finds node's position in drawer menu
      * @param nodeUniqueID unique ID of the node which position has to found
@@ -237,55 +427,54 @@ public class MainViewModel extends ViewModel {
     /**
      * Every text in the nodeContent is placed in a TextView. They can be counted in the order from
      * top to bottom. Every cell in the table is a separate TextView. This function returns text of
-     * the TextView was placed in when creating the nodeContent. It is used by findInNode.
+     * the TextView representing the provided index from the storage that fas created for FindInNode
+     * functions.
      * @param index index of the TextView
      * @return content of the text view
      */
-    public SpannableStringBuilder getTextViewContent(int index) {
-        int counter = 0;
-        for (ScNodeContent scNodeContent: this.getNodeContent().getValue()) {
-            if (scNodeContent.getContentType() == 0) {
-                // TextView
-                if (counter == index) {
-                    ScNodeContentText scNodeContentText = (ScNodeContentText) scNodeContent;
-                    return scNodeContentText.getContent();
-                }
-                counter++;
-            } else if (scNodeContent.getContentType() == 1) {
-                // Table
-                ScNodeContentTable scNodeContentTable = (ScNodeContentTable) scNodeContent;
-                for (CharSequence[] row: scNodeContentTable.getContent()) {
-                    for (CharSequence cell: row) {
-                        if (counter == index) {
-                            return new SpannableStringBuilder(cell);
-                        }
-                        counter++;
-                    }
-                }
-            }
+    public SpannableStringBuilder getfindInNodeStorageContent(int index) {
+        return this.findInNodeContentStorage.get(index);
+    }
+
+    /**
+     * Puts loaded node content in to node content cache and displays it if node is still the
+     * currently opened one. Content of the node that was loaded for too long and user opened
+     * another node in the meantime is only cached.
+     * @param nodeUniqueID unique ID of the node content was loaded for
+     * @param content built node content
+     */
+    public void postNodeContent(String nodeUniqueID, ArrayList<ScNodeContent> content) {
+        this.nodeContentCache.put(nodeUniqueID, content);
+        ScNode node = this.currentNode;
+        if (node == null || nodeUniqueID.equals("0".equals(node.getMasterId()) ? node.getUniqueId() : node.getMasterId())) {
+            getNodeContent().postValue(content);
         }
-        return null;
     }
 
     /**
-     * Every text in the nodeContent is placed in a TextView. They can be counted in the order from
-     * top to bottom. Every cell in the table is a separate TextView. This function returns text of
-     * the TextView representing the provided index from the storage that fas created for FindInNode
-     * functions.
-     * @param index index of the TextView
-     * @return content of the text view
+     * Highlights all FindInNode results in findInNodeContentStorage. Highlighting of the previous
+     * results is removed, but only from the items that had them.
+     * @param color background color of the highlighted results
+     * @return indexes of findInNodeContentStorage items which content changed
      */
-    public SpannableStringBuilder getfindInNodeStorageContent(int index) {
-        return this.findInNodeContentStorage.get(index);
+    public BitSet highlightFindInNodeResults(int color) {
+        BitSet changed = clearFindInNodeHighlights();
+        int[] results = this.findInNodeResultStorage;
+        for (int i = 0; i < results.length; i += 3) {
+            this.findInNodeContentStorage.get(results[i]).setSpan(new BackgroundColorSpanFindInNode(color), results[i + 1], results[i + 2], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            this.findInNodeHighlighted.set(results[i]);
+        }
+        changed.or(this.findInNodeHighlighted);
+        return changed;
     }
 
     /**
-     * Clears FindInNode result ListArray
+     * Clears FindInNode results
      * Used when user types new query
      */
     public void resetFindInNodeResultStorage() {
         if (this.findInNodeResultStorage != null) {
-            this.findInNodeResultStorage = new ArrayList<>();
+            this.findInNodeResultStorage = new int[0];
         }
     }
 
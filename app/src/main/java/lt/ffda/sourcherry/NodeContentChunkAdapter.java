@@ -0,0 +1,381 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.method.LinkMovementMethod;
+import android.text.style.BackgroundColorSpan;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.HorizontalScrollView;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.widget.AppCompatTextView;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+import lt.ffda.sourcherry.model.ScNodeContent;
+import lt.ffda.sourcherry.model.ScNodeContentTable;
+import lt.ffda.sourcherry.model.ScNodeContentText;
+import lt.ffda.sourcherry.spans.LazyImageDrawable;
+
+/**
+ * Adapter that displays node content in RecyclerView. Text of the node is split in to chunks of
+ * one or more paragraphs and every row of the table is a separate item, so only the visible part
+ * of the node has views created for it. Text layouts are precomputed in background thread.
+ */
+public class NodeContentChunkAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+    // Chunk is extended to the end of the paragraph after reaching this length
+    private static final int CHUNK_LENGTH = 1000;
+    private static final int TYPE_TABLE_ROW = 1;
+    private static final int TYPE_TEXT = 0;
+    private final ArrayList<Chunk> chunks = new ArrayList<>();
+    private final Context context;
+    private final Executor executor;
+    private final MainViewModel mainViewModel;
+    private final HashMap<Integer, Integer> tableScrollX = new HashMap<>();
+    private final int textSize;
+    private final Typeface typeface;
+    private int[] highlightedFindInNodeResult;
+    private ArrayList<ScNodeContent> nodeContent = new ArrayList<>();
+    private RecyclerView recyclerView;
+    private boolean syncingTableScroll;
+
+    /**
+     * Creates adapter for node content
+     * @param context context to create views
+     * @param mainViewModel view model that stores FindInNode results
+     * @param executor executor to precompute text layouts on
+     * @param typeface font to be set on the text. Null will use default android font
+     * @param textSize size of the text
+     */
+    public NodeContentChunkAdapter(Context context, MainViewModel mainViewModel, Executor executor, Typeface typeface, int textSize) {
+        this.context = context;
+        this.mainViewModel = mainViewModel;
+        this.executor = executor;
+        this.typeface = typeface;
+        this.textSize = textSize;
+    }
+
+    /**
+     * Creates TextView that is used as a cell of the table row
+     * @return TextView for table cell
+     */
+    private TextView createTableCell() {
+        TextView cell = new TextView(context);
+        cell.setTextIsSelectable(true);
+        cell.setPadding(10, 10, 10, 10);
+        cell.setTextSize(TypedValue.COMPLEX_UNIT_SP, textSize);
+        return cell;
+    }
+
+    /**
+     * Returns adapter position of the item that displays text with provided FindInNode storage
+     * index and offset
+     * @param storageIndex index of the text in FindInNode storage. Every table cell has its own index.
+     * @param offset offset in the text
+     * @return adapter position or -1 if there is no such item
+     */
+    public int getChunkPosition(int storageIndex, int offset) {
+        for (int position = 0; position < chunks.size(); position++) {
+            Chunk chunk = chunks.get(position);
+            if (chunk.type == TYPE_TEXT) {
+                if (chunk.storageIndex == storageIndex && offset >= chunk.start && offset <= chunk.end) {
+                    return position;
+                }
+            } else if (storageIndex >= chunk.storageIndex && storageIndex < chunk.storageIndex + getTableRow(chunk).length) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns offset of the item's text in the text it was split from
+     * @param position adapter position of the item
+     * @return offset of the chunk or 0 if item is a table row
+     */
+    public int getChunkStart(int position) {
+        Chunk chunk = chunks.get(position);
+        return chunk.type == TYPE_TEXT ? chunk.start : 0;
+    }
+
+    /**
+     * Returns text that has to be displayed in the item. If FindInNode is active text is taken from
+     * FindInNode storage, where search results are highlighted.
+     * @param storageIndex index of the text in FindInNode storage
+     * @param original text from node content
+     * @param start start of the chunk in the text
+     * @param end end of the chunk in the text
+     * @return text to display
+     */
+    private CharSequence getText(int storageIndex, CharSequence original, int start, int end) {
+        CharSequence source = original;
+        if (mainViewModel.getFindInNodeResultCount() > 0) {
+            source = mainViewModel.getfindInNodeStorageContent(storageIndex);
+        }
+        SpannableStringBuilder text = new SpannableStringBuilder(source, start, end);
+        int[] result = highlightedFindInNodeResult;
+        if (result != null && result[0] == storageIndex && result[1] < end && result[2] > start) {
+            text.setSpan(new BackgroundColorSpan(context.getColor(R.color.cherry_red_200)), Math.max(result[1], start) - start, Math.min(result[2], end) - start, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return text;
+    }
+
+    @Override
+    public int getItemCount() {
+        return chunks.size();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return chunks.get(position).type;
+    }
+
+    /**
+     * Returns cells of the table row that chunk represents
+     * @param chunk table row chunk
+     * @return cells of the row
+     */
+    private CharSequence[] getTableRow(Chunk chunk) {
+        return ((ScNodeContentTable) nodeContent.get(chunk.contentIndex)).getContent().get(chunk.start);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        this.recyclerView = recyclerView;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+        Chunk chunk = chunks.get(position);
+        if (chunk.type == TYPE_TEXT) {
+            AppCompatTextView textView = (AppCompatTextView) holder.itemView;
+            CharSequence text = getText(chunk.storageIndex, ((ScNodeContentText) nodeContent.get(chunk.contentIndex)).getContent(), chunk.start, chunk.end);
+            LazyImageDrawable.attachToView(textView, text);
+            textView.setTextFuture(PrecomputedTextCompat.getTextFuture(text, TextViewCompat.getTextMetricsParams(textView), executor));
+        } else {
+            ScNodeContentTable scNodeContentTable = (ScNodeContentTable) nodeContent.get(chunk.contentIndex);
+            CharSequence[] cells = getTableRow(chunk);
+            HorizontalScrollView tableRowScrollView = (HorizontalScrollView) holder.itemView;
+            tableRowScrollView.setTag(chunk.contentIndex);
+            LinearLayout tableRow = (LinearLayout) tableRowScrollView.getChildAt(0);
+            while (tableRow.getChildCount() < cells.length) {
+                tableRow.addView(createTableCell());
+            }
+            while (tableRow.getChildCount() > cells.length) {
+                tableRow.removeViewAt(tableRow.getChildCount() - 1);
+            }
+            // Gravity has effect only when the table is narrower than the screen
+            FrameLayout.LayoutParams tableRowParams = new FrameLayout.LayoutParams(FrameLayout.LayoutParams.WRAP_CONTENT, FrameLayout.LayoutParams.WRAP_CONTENT);
+            switch (scNodeContentTable.getJustification()) {
+                case "right":
+                    tableRowParams.gravity = Gravity.RIGHT;
+                    break;
+                case "center":
+                    tableRowParams.gravity = Gravity.CENTER_HORIZONTAL;
+                    break;
+                default:
+                    tableRowParams.gravity = Gravity.LEFT;
+                    break;
+            }
+            tableRow.setLayoutParams(tableRowParams);
+            // All rows are created separately, so cells have fixed width to keep columns aligned.
+            // Multiplying by arbitrary number to make table cells look better. Wide tables are
+            // scrolled horizontally, only a single cell can't be wider than the screen.
+            int cellWidth = Math.max(100, (int) (scNodeContentTable.getColMin() * 1.3));
+            if (recyclerView != null) {
+                int availableWidth = recyclerView.getWidth() - recyclerView.getPaddingLeft() - recyclerView.getPaddingRight();
+                if (availableWidth > 0 && cellWidth > availableWidth) {
+                    cellWidth = availableWidth;
+                }
+            }
+            for (int i = 0; i < cells.length; i++) {
+                TextView cell = (TextView) tableRow.getChildAt(i);
+                if (chunk.start == 0) {
+                    cell.setBackground(context.getDrawable(R.drawable.table_header_cell));
+                    cell.setTypeface(typeface, Typeface.BOLD);
+                } else {
+                    cell.setBackground(context.getDrawable(R.drawable.table_data_cell));
+                    cell.setTypeface(typeface);
+                }
+                cell.setLayoutParams(new LinearLayout.LayoutParams(cellWidth, LinearLayout.LayoutParams.MATCH_PARENT));
+                cell.setText(getText(chunk.storageIndex + i, cells[i], 0, cells[i].length()));
+            }
+            // Recycled view might have been scrolled to another position
+            Integer scrollX = tableScrollX.get(chunk.contentIndex);
+            tableRowScrollView.post(new Runnable() {
+                @Override
+                public void run() {
+                    syncingTableScroll = true;
+                    tableRowScrollView.scrollTo(scrollX != null ? scrollX : 0, 0);
+                    syncingTableScroll = false;
+                }
+            });
+        }
+    }
+
+    @NonNull
+    @Override
+    public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        if (viewType == TYPE_TEXT) {
+            AppCompatTextView textView = new AppCompatTextView(context);
+            textView.setLayoutParams(new RecyclerView.LayoutParams(RecyclerView.LayoutParams.MATCH_PARENT, RecyclerView.LayoutParams.WRAP_CONTENT));
+            textView.setTextIsSelectable(true);
+            textView.setMovementMethod(LinkMovementMethod.getInstance()); // Needed to detect click/open links
+            textView.setTextSize(textSize);
+            if (typeface != null) {
+                textView.setTypeface(typeface);
+            }
+            return new RecyclerView.ViewHolder(textView) {};
+        } else {
+            // Every row is scrolled separately, but all the rows of the same table are kept at
+            // the same scroll position
+            HorizontalScrollView tableRowScrollView = new HorizontalScrollView(context);
+            tableRowScrollView.setLayoutParams(new RecyclerView.LayoutParams(RecyclerView.LayoutParams.MATCH_PARENT, RecyclerView.LayoutParams.WRAP_CONTENT));
+            tableRowScrollView.setHorizontalScrollBarEnabled(false);
+            tableRowScrollView.setOnScrollChangeListener(new View.OnScrollChangeListener() {
+                @Override
+                public void onScrollChange(View v, int scrollX, int scrollY, int oldScrollX, int oldScrollY) {
+                    if (!syncingTableScroll) {
+                        syncTableScroll(v, scrollX);
+                    }
+                }
+            });
+            LinearLayout tableRow = new LinearLayout(context);
+            tableRow.setOrientation(LinearLayout.HORIZONTAL);
+            tableRowScrollView.addView(tableRow);
+            return new RecyclerView.ViewHolder(tableRowScrollView) {};
+        }
+    }
+
+    /**
+     * Splits node content in to chunks and displays them
+     * @param nodeContent content of the node
+     */
+    public void setContent(ArrayList<ScNodeContent> nodeContent) {
+        this.nodeContent = nodeContent;
+        chunks.clear();
+        tableScrollX.clear();
+        highlightedFindInNodeResult = null;
+        // Index of the text in FindInNode storage. Every table cell has its own index.
+        int storageIndex = 0;
+        for (int i = 0; i < nodeContent.size(); i++) {
+            if (nodeContent.get(i).getContentType() == 0) {
+                SpannableStringBuilder content = ((ScNodeContentText) nodeContent.get(i)).getContent();
+                // Text is split on line breaks. Line break itself is not included in any chunk,
+                // because every chunk is displayed in a separate TextView.
+                int start = 0;
+                while (true) {
+                    int end = TextUtils.indexOf(content, '\n', Math.min(start + CHUNK_LENGTH, content.length()));
+                    if (end == -1) {
+                        chunks.add(new Chunk(TYPE_TEXT, i, storageIndex, start, content.length()));
+                        break;
+                    }
+                    chunks.add(new Chunk(TYPE_TEXT, i, storageIndex, start, end));
+                    start = end + 1;
+                }
+                storageIndex++;
+            } else {
+                ScNodeContentTable scNodeContentTable = (ScNodeContentTable) nodeContent.get(i);
+                for (int row = 0; row < scNodeContentTable.getContent().size(); row++) {
+                    chunks.add(new Chunk(TYPE_TABLE_ROW, i, storageIndex, row, row));
+                    storageIndex += scNodeContentTable.getContent().get(row).length;
+                }
+            }
+        }
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Sets FindInNode result that has to be highlighted in darker color than the rest of the results
+     * @param result FindInNode result: index of the text in FindInNode storage, start and end of the result. Null - nothing is highlighted.
+     */
+    public void setHighlightedFindInNodeResult(int[] result) {
+        if (highlightedFindInNodeResult != null) {
+            int position = getChunkPosition(highlightedFindInNodeResult[0], highlightedFindInNodeResult[1]);
+            if (position != -1) {
+                notifyItemChanged(position);
+            }
+        }
+        highlightedFindInNodeResult = result;
+        if (result != null) {
+            int position = getChunkPosition(result[0], result[1]);
+            if (position != -1) {
+                notifyItemChanged(position);
+            }
+        }
+    }
+
+    /**
+     * Scrolls all the visible rows of the table to the same horizontal position as the row that
+     * user scrolled. Position is saved for the rows that will be bound later.
+     * @param scrolledRow row that was scrolled
+     * @param scrollX new horizontal scroll position
+     */
+    private void syncTableScroll(View scrolledRow, int scrollX) {
+        Object contentIndex = scrolledRow.getTag();
+        if (contentIndex == null || recyclerView == null) {
+            return;
+        }
+        tableScrollX.put((Integer) contentIndex, scrollX);
+        syncingTableScroll = true;
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            View row = recyclerView.getChildAt(i);
+            if (row != scrolledRow && row instanceof HorizontalScrollView && contentIndex.equals(row.getTag())) {
+                row.scrollTo(scrollX, 0);
+            }
+        }
+        syncingTableScroll = false;
+    }
+
+    /**
+     * Part of the node content displayed as a single item
+     */
+    private static class Chunk {
+        private final int contentIndex;
+        private final int end;
+        private final int start;
+        private final int storageIndex;
+        private final int type;
+
+        /**
+         * Creates a chunk
+         * @param type TYPE_TEXT or TYPE_TABLE_ROW
+         * @param contentIndex index of the part of node content chunk was created from
+         * @param storageIndex index of the text (or of the first cell of the row) in FindInNode storage
+         * @param start start of the chunk in the text or index of the row in the table
+         * @param end end of the chunk in the text or index of the row in the table
+         */
+        private Chunk(int type, int contentIndex, int storageIndex, int start, int end) {
+            this.type = type;
+            this.contentIndex = contentIndex;
+            this.storageIndex = storageIndex;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -11,10 +11,19 @@
 package lt.ffda.sourcherry.customUiElements;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.PointF;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
+import android.util.LruCache;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
@@ -23,6 +32,13 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.widget.AppCompatImageView;
 import androidx.core.view.GestureDetectorCompat;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import lt.ffda.sourcherry.ScApplication;
+
 public class ZoomableImageView extends AppCompatImageView  {
     // This class is a combination between these two examples:
     // https://android.googlesource.com/platform/development/+/master/samples/training/InteractiveChart/src/com/example/android/interactivechart/InteractiveLineGraphView.java
@@ -34,6 +50,8 @@ public class ZoomableImageView extends AppCompatImageView  {
     static final int DRAG = 1;
     static final int ZOOM = 2;
     static final int CLICK = 3;
+    // Size of the tile in pixels of the bitmap decoded for it
+    private static final int TILE_SIZE = 512;
     protected float origWidth, origHeight;
     Matrix matrix;
     int mode = NONE;
@@ -103,6 +121,21 @@ public class ZoomableImageView extends AppCompatImageView  {
     ScaleGestureDetector mScaleDetector;
     GestureDetectorCompat mGestureDetector;
     Context context;
+    // Tiled mode. Used only when image was set with setImageRegionDecoder
+    private final Set<String> failedTiles = new HashSet<>();
+    private final Matrix inverseMatrix = new Matrix();
+    private final Set<String> pendingTiles = new HashSet<>();
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF visibleRect = new RectF();
+    private int baseSampleSize;
+    private ExecutorService executor;
+    private int imageHeight;
+    private int imageWidth;
+    private BitmapRegionDecoder regionDecoder;
+    private LruCache<String, Bitmap> tileCache;
+    // Prefix of the keys of the tiles in the tile cache. Cache is shared with images of the node content
+    private String tileKeyPrefix;
+    private volatile Set<String> visibleTiles = Collections.emptySet();
 
     public ZoomableImageView(Context context) {
         this(context, null, 0);
@@ -126,6 +159,22 @@ public class ZoomableImageView extends AppCompatImageView  {
 
     }
 
+    /**
+     * Returns the biggest power of two sample size that image can be decoded with to fit in to the
+     * square of provided size
+     * @param width width of the image
+     * @param height height of the image
+     * @param maxSize the biggest allowed width and height of the decoded image
+     * @return sample size
+     */
+    public static int calculateSampleSize(int width, int height, int maxSize) {
+        int sampleSize = 1;
+        while (width / sampleSize > maxSize || height / sampleSize > maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
     void fixTrans() {
         matrix.getValues(m);
         float transX = m[Matrix.MTRANS_X];
@@ -166,6 +215,60 @@ public class ZoomableImageView extends AppCompatImageView  {
         return 0;
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseRegionDecoder();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (regionDecoder == null) {
+            return;
+        }
+        Matrix imageMatrix = getImageMatrix();
+        imageMatrix.getValues(m);
+        // Sample size that gives at least one bitmap pixel per screen pixel at current zoom
+        int sampleSize = 1;
+        while (sampleSize * 2 * m[Matrix.MSCALE_X] <= 1) {
+            sampleSize *= 2;
+        }
+        if (sampleSize >= baseSampleSize) {
+            // Base layer is detailed enough
+            visibleTiles = Collections.emptySet();
+            return;
+        }
+        // Visible part of the view in image coordinates
+        visibleRect.set(0, 0, getWidth() - getPaddingLeft() - getPaddingRight(), getHeight() - getPaddingTop() - getPaddingBottom());
+        imageMatrix.invert(inverseMatrix);
+        inverseMatrix.mapRect(visibleRect);
+        int tileSize = TILE_SIZE * sampleSize;
+        int firstColumn = Math.max(0, (int) (visibleRect.left / tileSize));
+        int lastColumn = Math.min((imageWidth - 1) / tileSize, (int) (visibleRect.right / tileSize));
+        int firstRow = Math.max(0, (int) (visibleRect.top / tileSize));
+        int lastRow = Math.min((imageHeight - 1) / tileSize, (int) (visibleRect.bottom / tileSize));
+        Set<String> tiles = new HashSet<>();
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        canvas.concat(imageMatrix);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                String key = tileKeyPrefix + sampleSize + "/" + column + "/" + row;
+                tiles.add(key);
+                Rect region = new Rect(column * tileSize, row * tileSize, Math.min(imageWidth, (column + 1) * tileSize), Math.min(imageHeight, (row + 1) * tileSize));
+                Bitmap tile = tileCache.get(key);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, null, region, tilePaint);
+                } else {
+                    requestTile(key, region, sampleSize);
+                }
+            }
+        }
+        canvas.restore();
+        visibleTiles = tiles;
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
@@ -255,4 +358,109 @@ public class ZoomableImageView extends AppCompatImageView  {
         invalidate();
         return true; // indicate event was handled
     }
+
+    /**
+     * Stops tiled mode. Releases region decoder and all the decoded tiles.
+     */
+    private void releaseRegionDecoder() {
+        if (regionDecoder != null) {
+            regionDecoder.recycle();
+            regionDecoder = null;
+            for (String key : tileCache.snapshot().keySet()) {
+                if (key.startsWith(tileKeyPrefix)) {
+                    tileCache.remove(key);
+                }
+            }
+            pendingTiles.clear();
+            failedTiles.clear();
+            visibleTiles = Collections.emptySet();
+        }
+    }
+
+    /**
+     * Decodes full resolution tile in background thread and redraws the view when it's done.
+     * Tile is not decoded if it scrolled out of view before its turn came.
+     * @param key key of the tile in the tile cache
+     * @param region part of the image that tile represents
+     * @param sampleSize sample size to decode the tile with
+     */
+    private void requestTile(String key, Rect region, int sampleSize) {
+        if (failedTiles.contains(key) || !pendingTiles.add(key)) {
+            return;
+        }
+        final BitmapRegionDecoder decoder = regionDecoder;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap tile = null;
+                boolean failed = false;
+                if (visibleTiles.contains(key)) {
+                    try {
+                        BitmapFactory.Options options = new BitmapFactory.Options();
+                        options.inSampleSize = sampleSize;
+                        tile = decoder.decodeRegion(region, options);
+                        failed = tile == null;
+                    } catch (IllegalArgumentException | IllegalStateException | OutOfMemoryError e) {
+                        // Decoder was recycled or there is not enough memory for the tile.
+                        // Base layer will be displayed in it's place
+                        failed = true;
+                    }
+                }
+                final Bitmap decodedTile = tile;
+                final boolean decodingFailed = failed;
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (regionDecoder != decoder) {
+                            return;
+                        }
+                        pendingTiles.remove(key);
+                        if (decodingFailed) {
+                            failedTiles.add(key);
+                        } else if (decodedTile != null) {
+                            tileCache.put(key, decodedTile);
+                            invalidate();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Displays the image in tiled mode. Subsampled base layer is displayed for the whole image.
+     * When image is zoomed in full resolution tiles of the visible region are decoded in
+     * background thread and drawn over it. Decoded tiles are kept in the app's bitmap cache, so
+     * they share memory budget with images of the node content.
+     * @param decoder region decoder of the image. It will be recycled when view is detached from window
+     * @param baseLayer whole image decoded with baseSampleSize
+     * @param baseSampleSize sample size that base layer was decoded with
+     */
+    public void setImageRegionDecoder(BitmapRegionDecoder decoder, Bitmap baseLayer, int baseSampleSize) {
+        releaseRegionDecoder();
+        if (executor == null) {
+            executor = ((ScApplication) context.getApplicationContext()).appContainer.tileExecutor;
+            tileCache = ((ScApplication) context.getApplicationContext()).appContainer.bitmapCache;
+        }
+        tileKeyPrefix = "tile/" + System.identityHashCode(decoder) + "/";
+        this.regionDecoder = decoder;
+        this.baseSampleSize = baseSampleSize;
+        this.imageWidth = decoder.getWidth();
+        this.imageHeight = decoder.getHeight();
+        // Base layer is stretched to the size of the full image, so image matrix works in full
+        // resolution image coordinates and tiles can be drawn with the same matrix
+        final int width = imageWidth;
+        final int height = imageHeight;
+        setImageDrawable(new BitmapDrawable(getResources(), baseLayer) {
+            @Override
+            public int getIntrinsicHeight() {
+                return height;
+            }
+
+            @Override
+            public int getIntrinsicWidth() {
+                return width;
+            }
+        });
+    }
 }
@@ -46,6 +46,11 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import lt.ffda.sourcherry.R;
 import lt.ffda.sourcherry.model.ScNode;
@@ -527,6 +532,13 @@ public abstract class DatabaseReader {
      */
     public abstract boolean moveNode(String targetNodeUniqueID, String destinationNodeUniqueID);
 
+    /**
+     * Releases resources held by the reader. Called when the reader is replaced by the reader of
+     * another database. Readers that do not hold any resources do not have to override it.
+     */
+    public void release() {
+    }
+
     /**
      * Removes node from the bookmarks
      * @param nodeUniqueID node unique ID that has to be removed from the bookmarks
@@ -573,6 +585,78 @@ public abstract class DatabaseReader {
      */
     public abstract ArrayList<ScSearchNode> search(Boolean noSearch, String query);
 
+    /**
+     * Search for string in the database using threads of the workers thread pool. Results are
+     * passed to the callback as soon as they are found. Search is stopped when the thread that
+     * called this method is interrupted.
+     * Readers that can't search in parallel do not have to override it. Default implementation
+     * passes all the results after the whole database was searched.
+     * @param noSearch true - skip nodes marked excluded
+     * @param query string to search in database
+     * @param workers thread pool to search the nodes in
+     * @param callback callback to pass search results to
+     * @throws InterruptedException search was stopped before it was finished
+     */
+    public void search(Boolean noSearch, String query, ExecutorService workers, SearchResultCallback callback) throws InterruptedException {
+        ArrayList<ScSearchNode> searchResult = search(noSearch, query);
+        for (int i = 0; i < searchResult.size(); i++) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            callback.onSearchResult(i, searchResult.get(i));
+        }
+    }
+
+    /**
+     * Searches through the nodes using as many threads of the workers thread pool as there are
+     * processor cores. Every thread takes next not searched node from the list until there are
+     * none left, so the work is spread evenly even when size of the nodes differs a lot. Results
+     * are passed to the callback as soon as they are found with the position of the node in the
+     * list. If the calling thread is interrupted all the workers are stopped.
+     * @param targets nodes to search through in the order they are displayed in the drawer menu
+     * @param workers thread pool to search the nodes in
+     * @param workerFactory creates a SearchWorker for every thread
+     * @param callback callback to pass search results to
+     * @param <T> type of the object that identifies the node in the database
+     * @throws InterruptedException search was stopped before it was finished
+     */
+    protected <T> void searchInParallel(List<SearchTarget<T>> targets, ExecutorService workers, Callable<SearchWorker<T>> workerFactory, SearchResultCallback callback) throws InterruptedException {
+        AtomicInteger nextTarget = new AtomicInteger();
+        int workerCount = Math.min(targets.size(), Runtime.getRuntime().availableProcessors());
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < workerCount; i++) {
+            futures.add(workers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try (SearchWorker<T> worker = workerFactory.call()) {
+                        int position;
+                        while (!Thread.currentThread().isInterrupted() && (position = nextTarget.getAndIncrement()) < targets.size()) {
+                            ScSearchNode result = worker.findInNode(targets.get(position));
+                            if (result != null) {
+                                callback.onSearchResult(position, result);
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
     /**
      * Updates properties if the node
      * @param nodeUniqueID unique ID of the node for which properties has to be updated
@@ -582,4 +666,12 @@ public abstract class DatabaseReader {
      * @param noSearchCh 1 - to exclude subnodes of the node from searches, 0 - keep subnodes of the node in searches
      */
     public abstract void updateNodeProperties(String nodeUniqueID, String name, String progLang, String noSearchMe, String noSearchCh);
+
+    /**
+     * Writes all the changes that are still waiting to be written to the database file. Should be
+     * called before database file is accessed directly. Readers that write every change
+     * immediately do not have to override it.
+     */
+    public void writePendingChanges() {
+    }
 }
@@ -20,7 +20,6 @@ import android.widget.Toast;
 
 import org.xml.sax.SAXException;
 
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -32,6 +31,7 @@ import javax.xml.transform.TransformerConfigurationException;
 import lt.ffda.sourcherry.MainView;
 import lt.ffda.sourcherry.MainViewModel;
 import lt.ffda.sourcherry.R;
+import lt.ffda.sourcherry.ScApplication;
 
 /**
  * Defines a factory API that enables applications to obtain a database reader that
@@ -52,20 +52,25 @@ public class DatabaseReaderFactory {
      */
     public static DatabaseReader getReader(Context context, Handler handler, SharedPreferences sharedPreferences, MainViewModel mainViewModel) throws IOException, ParserConfigurationException, TransformerConfigurationException, SAXException, InterruptedException, ExecutionException {
         String databaseString = sharedPreferences.getString("databaseUri", "");
+        if (databaseReader != null) {
+            databaseReader.release();
+            databaseReader = null;
+        }
+        // Images of SQL and XML databases are cached using node's unique ID as part of the key
+        ((ScApplication) context.getApplicationContext()).appContainer.bitmapCache.evictAll();
         if (sharedPreferences.getString("databaseStorageType", "").equals("shared")) {
             // If file is in external storage
             if (sharedPreferences.getString("databaseFileExtension", "").equals("ctd")) {
                 // If file is xml
                 InputStream is = context.getContentResolver().openInputStream(Uri.parse(databaseString));
-                databaseReader = new XMLReader(databaseString, is, context, handler, mainViewModel);
+                databaseReader = new XMLReader(databaseString, is, context, handler, mainViewModel, sharedPreferences.getBoolean("preferences_xml_lazy_loading", false));
                 if (is != null) {
                     is.close();
                 }
             } else if (sharedPreferences.getString("databaseFileExtension", "").equals("multi")) {
                 // Multi-file storage
                 databaseReader = new MultiReader(Uri.parse(databaseString), context, handler, mainViewModel);
-                File drawerMenuFile = new File(context.getFilesDir(), "drawer_menu.xml");
-                if (drawerMenuFile.exists()) {
+                if (MultiTreeStore.getInstance(context).hasTree()) {
                     ((MultiReader) databaseReader).setDrawerMenu();
                 } else {
                     Toast.makeText(context, context.getString(R.string.toast_error_failed_to_open_multi_database_file, "drawer_menu.xml"), Toast.LENGTH_SHORT).show();
@@ -78,7 +83,7 @@ public class DatabaseReaderFactory {
             if (sharedPreferences.getString("databaseFileExtension", "").equals("ctd")) {
                 // If file is xml
                 InputStream is = new FileInputStream(sharedPreferences.getString("databaseUri", null));
-                databaseReader = new XMLReader(databaseString, is, context, handler, mainViewModel);
+                databaseReader = new XMLReader(databaseString, is, context, handler, mainViewModel, sharedPreferences.getBoolean("preferences_xml_lazy_loading", false));
                 is.close();
             } else {
                 // If file is sql (password protected or not)
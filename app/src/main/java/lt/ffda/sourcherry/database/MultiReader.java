@@ -15,7 +15,6 @@ import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
@@ -56,11 +55,7 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -71,10 +66,14 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -103,6 +102,7 @@ import lt.ffda.sourcherry.spans.ImageSpanAnchor;
 import lt.ffda.sourcherry.spans.ImageSpanFile;
 import lt.ffda.sourcherry.spans.ImageSpanImage;
 import lt.ffda.sourcherry.spans.ImageSpanLatex;
+import lt.ffda.sourcherry.spans.LazyImageDrawable;
 import lt.ffda.sourcherry.spans.StyleSpanBold;
 import lt.ffda.sourcherry.spans.StyleSpanItalic;
 import lt.ffda.sourcherry.spans.TypefaceSpanCodebox;
@@ -113,14 +113,29 @@ import lt.ffda.sourcherry.utils.Files;
 import ru.noties.jlatexmath.JLatexMathDrawable;
 
 public class MultiReader extends DatabaseReader implements MultiDbFileShare {
+    /**
+     * Temporary files older than this are left over from interrupted copies
+     */
+    private static final long TEMP_FILE_MAX_AGE_MILLIS = 60 * 60 * 1000;
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+    private static final String TEMP_FILE_PREFIX = "sourcherry_";
     private final Context context;
     private final DocumentBuilder documentBuilder;
+    private final SafFolderListingCache folderListings;
     private final Handler handler;
     private final Uri mainFolderUri;
     private final MainViewModel mainViewModel;
+    private final MultiSearchCache searchCache;
+    private final MultiTreeStore treeStore;
     private Document drawerMenu;
+    private Map<String, Element> drawerMenuIndex;
+    private int nodeMaxID;
     private boolean reloadCursor = false;
     private SharedPreferences sharedPreferences;
+    /**
+     * Unique IDs of shared nodes in drawer menu order by unique ID of their master node
+     */
+    private Map<String, List<String>> sharedNodesIndex;
 
     /**
      * Class that opens databases based on file system and categories in it. Every node has it's own
@@ -139,6 +154,9 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         this.handler = handler;
         this.mainViewModel = mainViewModel;
         this.sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        this.searchCache = MultiSearchCache.getInstance(context, mainFolderUri.toString());
+        this.folderListings = new SafFolderListingCache(context.getContentResolver(), mainFolderUri);
+        this.treeStore = MultiTreeStore.getInstance(context);
         this.documentBuilder = DocumentBuilderFactory
                 .newInstance()
                 .newDocumentBuilder();
@@ -163,6 +181,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                         "application/octet-stream",
                         "bookmarks.lst"
                 ));
+                folderListings.invalidate(DocumentsContract.getTreeDocumentId(mainFolderUri));
             }
             List<Integer> list = null;
             try (InputStream is = context.getContentResolver().openInputStream(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, lstFileDocumentId))) {
@@ -200,13 +219,9 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
     private void addNodeToLst(String documentId, String nodeUniqueID) {
         try {
             String lstFileDocumentId = null;
-            try (Cursor cursor = getNodeChildrenCursorSaf(documentId)) {
-                while (cursor.moveToNext()) {
-                    if (cursor.getString(2).equals("subnodes.lst")) {
-                        lstFileDocumentId = cursor.getString(0);
-                        break;
-                    }
-                }
+            SafFolderListingCache.Entry lstFile = getFolderEntryByName(documentId, "subnodes.lst");
+            if (lstFile != null) {
+                lstFileDocumentId = lstFile.getDocumentId();
             }
             if (lstFileDocumentId == null) {
                 lstFileDocumentId = DocumentsContract.getDocumentId(DocumentsContract.createDocument(
@@ -215,6 +230,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                         "application/octet-stream",
                         "subnodes.lst"
                 ));
+                folderListings.invalidate(documentId);
             }
             List<Integer> list = null;
             try (InputStream is = context.getContentResolver().openInputStream(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, lstFileDocumentId))) {
@@ -253,13 +269,9 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
     private void addNodeToLst(String documentId, String siblingNodeUniqueID, String nodeUniqueID) {
         try {
             String lstFileDocumentId = null;
-            try (Cursor cursor = getNodeChildrenCursorSaf(documentId)) {
-                while (cursor.moveToNext()) {
-                    if (cursor.getString(2).equals("subnodes.lst")) {
-                        lstFileDocumentId = cursor.getString(0);
-                        break;
-                    }
-                }
+            SafFolderListingCache.Entry lstFile = getFolderEntryByName(documentId, "subnodes.lst");
+            if (lstFile != null) {
+                lstFileDocumentId = lstFile.getDocumentId();
             }
             if (lstFileDocumentId == null) {
                 lstFileDocumentId = DocumentsContract.getDocumentId(DocumentsContract.createDocument(
@@ -268,6 +280,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                         "application/octet-stream",
                         "subnodes.lst"
                 ));
+                folderListings.invalidate(documentId);
             }
             List<Integer> list = null;
             try (InputStream is = context.getContentResolver().openInputStream(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, lstFileDocumentId))) {
@@ -296,22 +309,21 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
     }
 
     /**
-     * Calcultates and returns file's sha256sum
+     * Calcultates and returns file's sha256sum. File is read in chunks, so memory use does not
+     * depend on the size of the file.
      * @param uri Uri of the file to calculate sha256sum for
      * @return sha256sum of the file
      */
     private String calculateFileSha256Sum(Uri uri) {
         String sha256sum = null;
         try (InputStream inputStream = context.getContentResolver().openInputStream(uri)) {
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
             int length;
-            byte[] buf = new byte[4 * 1024];
+            byte[] buf = new byte[64 * 1024];
             while ((length = inputStream.read(buf, 0, buf.length)) != -1) {
-                byteArrayOutputStream.write(buf, 0, length);
+                messageDigest.update(buf, 0, length);
             }
-            byte[] hash = MessageDigest.getInstance("SHA-256").digest(byteArrayOutputStream.toByteArray());
-            sha256sum = new BigInteger(1, hash).toString(16);
-            byteArrayOutputStream.close();
+            sha256sum = new BigInteger(1, messageDigest.digest()).toString(16);
         } catch (IOException | NoSuchAlgorithmException e) {
             displayToast(context.getString(R.string.toast_error_failed_to_save_database_changes));
         }
@@ -333,6 +345,39 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         }
     }
 
+    /**
+     * Collects nodes that have to be searched through from the node list and all its subnodes in
+     * the order they are displayed in the drawer menu. Shared nodes are skipped, because their
+     * content is the same as master node's.
+     * @param nodeList drawer menu node list to collect the nodes from
+     * @param noSearch true - skip nodes marked excluded
+     * @param targets list to collect nodes into
+     */
+    private void collectSearchTargets(NodeList nodeList, boolean noSearch, ArrayList<SearchTarget<Node>> targets) {
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Node drawerMenuItem = nodeList.item(i);
+            if (!drawerMenuItem.getNodeName().equals("node")) {
+                continue;
+            }
+            boolean hasSubnodes = hasSubnodes(drawerMenuItem);
+            Node masterIdAttr = drawerMenuItem.getAttributes().getNamedItem("master_id");
+            String masterNodeId = masterIdAttr != null ? masterIdAttr.getNodeValue() : "0";
+            boolean noSearchMe = false;
+            boolean noSearchCh = false;
+            if (noSearch) {
+                Node searchSettingsNode = "0".equals(masterNodeId) ? drawerMenuItem : findSingleNode(masterNodeId);
+                noSearchMe = searchSettingsNode.getAttributes().getNamedItem("nosearch_me").getNodeValue().equals("1");
+                noSearchCh = searchSettingsNode.getAttributes().getNamedItem("nosearch_ch").getNodeValue().equals("1");
+            }
+            if (!noSearchMe && "0".equals(masterNodeId)) {
+                targets.add(new SearchTarget<>(drawerMenuItem, hasSubnodes, hasSubnodes, !hasSubnodes));
+            }
+            if (hasSubnodes && !noSearchCh) {
+                collectSearchTargets(drawerMenuItem.getChildNodes(), noSearch, targets);
+            }
+        }
+    }
+
     /**
      * Coverts codebox node content to a StringBuilder
      * used as part of convertRichTextNodeContentToPlainText function
@@ -487,6 +532,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                     "*/*",
                     filename
             );
+            invalidateNodeListing(mainViewModel.getCurrentNode().getUniqueId());
             outputStream = context.getContentResolver().openOutputStream(multiFileStorageFileUri);
             int length;
             byte[] buf = new byte[4 * 1024];
@@ -548,6 +594,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                 displayToast(context.getString(R.string.toast_error_failed_to_create_node));
                 return null;
             }
+            folderListings.invalidate(DocumentsContract.getDocumentId(parentUri));
             Uri newNodeNodeXmlUri = DocumentsContract.createDocument(
                     context.getContentResolver(),
                     newNodeFolderUri,
@@ -602,11 +649,14 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                 } else {
                     node.getParentNode().insertBefore(newDrawerMenuItem, node.getNextSibling());
                 }
+                treeStore.insertAfter(newDrawerMenuItem, nodeUniqueID);
             } else {
                 addNodeToLst(DocumentsContract.getDocumentId(parentUri), newNodeUniqueID);
                 node.appendChild(newDrawerMenuItem);
+                treeStore.insert(newDrawerMenuItem);
             }
-            saveDrawerMenuToStorage();
+            drawerMenuIndex.put(newNodeUniqueID, newDrawerMenuItem);
+            nodeMaxID = Math.max(nodeMaxID, Integer.parseInt(newNodeUniqueID));
             scNode = new ScNode(newNodeUniqueID, "0",name,false, false, isSubnode, progLang.equals("custom-colors"), false, "", 0, false);
         } catch (IOException e) {
             displayToast(context.getString(R.string.toast_error_failed_to_create_node));
@@ -616,16 +666,50 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
 
     /**
      * Convenience method to create single node with parent node properties
-     * @param node node object to create ScNode object from. This object has to be from drawer_menu.xml file
+     * @param node node object to create ScNode object from. This object has to be from drawerMenu document
      * @return ScNode object ready to be displayed in DrawerMenu as a parent node
      */
     private ScNode createParentNode(Node node) {
         return createSingleMenuItem(node, true, false);
     }
 
+    /**
+     * Creates worker that searches through the nodes. Text of the nodes is read from the search
+     * cache. Only node.xml files of the nodes that are not in the cache or were modified since
+     * they were cached are read and parsed.
+     * @param documentBuilder DocumentBuilder to parse node.xml files with
+     * @param query string to search for
+     * @return search worker
+     */
+    private SearchWorker<Node> createSearchWorker(DocumentBuilder documentBuilder, String query) {
+        return new SearchWorker<Node>() {
+            @Override
+            public ScSearchNode findInNode(SearchTarget<Node> target) {
+                Node drawerMenuItem = target.getNode();
+                String nodeUniqueID = drawerMenuItem.getAttributes().getNamedItem("unique_id").getNodeValue();
+                SafFolderListingCache.Listing listing = folderListings.get(drawerMenuItem.getAttributes().getNamedItem("saf_id").getNodeValue());
+                SafFolderListingCache.Entry nodeXml = listing == null ? null : listing.getByName("node.xml");
+                if (nodeXml == null || nodeXml.isDirectory()) {
+                    return null;
+                }
+                String preparedNodeContent = null;
+                if (searchCache.isUpToDate(nodeUniqueID, nodeXml.getDocumentId(), nodeXml.getLastModified())) {
+                    preparedNodeContent = searchCache.get(nodeUniqueID);
+                }
+                if (preparedNodeContent == null) {
+                    preparedNodeContent = readSearchContent(nodeUniqueID, nodeXml, documentBuilder);
+                }
+                if (preparedNodeContent == null) {
+                    return null;
+                }
+                return MultiReader.this.findInNode(preparedNodeContent, drawerMenuItem, query, target.hasSubnodes(), target.isParent(), target.isSubnode());
+            }
+        };
+    }
+
     /**
      * Creates single ScNode object from provided Node object.
-     * @param node node object to create ScNode object from. This object has to be from drawer_menu.xml file
+     * @param node node object to create ScNode object from. This object has to be from drawerMenu document
      * @param isParent true - mark node to be displayed as a parent node (will not have indentation and will have arrow pointing down), false - opposite of that
      * @param isSubnode true - mark node to be displayed as a subnode (will have indentation), false - opposite of that
      * @return ScNode object ready to be displayed in DrawerMenu
@@ -656,7 +740,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
 
     /**
      * Creates single ScNode object from provided Node object.
-     * @param node node object to create ScNode object from. This object has to be from drawer_menu.xml file
+     * @param node node object to create ScNode object from. This object has to be from drawerMenu document
      * @return ScNode object ready to be displayed in DrawerMenu
      */
     private ScNode createSingleMenuItem(Node node) {
@@ -728,11 +812,13 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                             }
                             // Updating drawerMenu item of new masterNode
                             copyDrawerMenuItemAttributes(masterNodeDrawerItem, sharedNodeDrawerItem);
+                            treeStore.update(sharedNodeDrawerItem);
                             // Updating all references to old master_id to new unique_id
                             for (String sharedNodeId : sharedNodesIds) {
                                 if (!sharedNodeDrawerItem.getAttributes().getNamedItem("unique_id").getNodeValue().equals(sharedNodeId) && !uniqueIdList.contains(sharedId)) {
                                     Element nodeToUpdate = (Element) findSingleNode(sharedNodeId);
                                     nodeToUpdate.setAttribute("master_id", sharedNodeUniqueId);
+                                    treeStore.update(nodeToUpdate);
                                     Element nodeToUpdateXml = (Element) getNodeXmlByNodeSafId(nodeToUpdate.getAttribute("saf_id"));
                                     nodeToUpdateXml.setAttribute("master_id", sharedNodeSafId);
                                     try (OutputStream os = context.getContentResolver().openOutputStream(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, getNodeXmlSafIdByNodeUniqueId(nodeToUpdate.getAttribute("unique_id"))))) {
@@ -742,25 +828,80 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                                     }
                                 }
                             }
+                            List<String> newSharedNodesIds = new ArrayList<>();
+                            for (String sharedNodeId : sharedNodesIds) {
+                                if (!sharedNodeId.equals(sharedNodeUniqueId) && !uniqueIdList.contains(sharedNodeId)) {
+                                    newSharedNodesIds.add(sharedNodeId);
+                                }
+                            }
+                            if (!newSharedNodesIds.isEmpty()) {
+                                sharedNodesIndex.put(sharedNodeUniqueId, newSharedNodesIds);
+                            }
                             break;
                         }
                     }
                 }
             }
             parentNode.removeChild(node);
+            drawerMenuIndex.keySet().removeAll(uniqueIdList);
+            sharedNodesIndex.keySet().removeAll(uniqueIdList);
+            Iterator<List<String>> sharedNodesIterator = sharedNodesIndex.values().iterator();
+            while (sharedNodesIterator.hasNext()) {
+                List<String> sharedNodesIds = sharedNodesIterator.next();
+                sharedNodesIds.removeAll(uniqueIdList);
+                if (sharedNodesIds.isEmpty()) {
+                    sharedNodesIterator.remove();
+                }
+            }
+            treeStore.delete(uniqueIdList);
             removeNodesFromBookmarks(uniqueIdList);
+            searchCache.delete(uniqueIdList);
             // Deliting node and subnodes
             DocumentsContract.deleteDocument(
                     context.getContentResolver(),
                     nodeUri
             );
+            // Folders of all subnodes were deleted too
+            folderListings.invalidateAll();
             removeNodeFromLst(DocumentsContract.getDocumentId(nodeParentUri), nodeUniqueID, "subnodes.lst");
-            saveDrawerMenuToStorage();
         } catch (FileNotFoundException e) {
             displayToast(context.getString(R.string.toast_error_failed_to_delete_node));
         }
     }
 
+    /**
+     * Deletes temporary files that were left in the node's folder when copy of the attached file
+     * was interrupted. Only files older than an hour are deleted, because copy of a big file
+     * might still be in progress.
+     * @param listing listing of the node's folder
+     * @return true if any file was deleted
+     */
+    private boolean deleteLeftoverTempFiles(SafFolderListingCache.Listing listing) {
+        boolean deleted = false;
+        for (SafFolderListingCache.Entry entry : listing.getEntries()) {
+            String name = entry.getDisplayName();
+            if (entry.isDirectory() || !name.startsWith(TEMP_FILE_PREFIX) || !name.endsWith(TEMP_FILE_EXTENSION)) {
+                continue;
+            }
+            long created;
+            try {
+                created = Long.parseLong(name.substring(TEMP_FILE_PREFIX.length(), name.length() - TEMP_FILE_EXTENSION.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (System.currentTimeMillis() - created < TEMP_FILE_MAX_AGE_MILLIS) {
+                continue;
+            }
+            try {
+                DocumentsContract.deleteDocument(context.getContentResolver(), DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, entry.getDocumentId()));
+                deleted = true;
+            } catch (FileNotFoundException e) {
+                // File was already deleted
+            }
+        }
+        return deleted;
+    }
+
     /**
      * Removes all rich_text tags from the node
      * Used to prepare node for conversion from rich-text to plain-text
@@ -788,91 +929,15 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
 
     /**
      * Searches through node's content
-     * @param node node to search in
+     * @param preparedNodeContent node content prepared with MultiSearchCache.prepareSearchContent()
+     * @param drawerMenuItem drawer menu item of the node
      * @param query string to search for
      * @param hasSubnodes true if node has subnodes, else - false
      * @param isParent true if node is a parent node, else - false
      * @param isSubnode true if node is a subnode, else - false
      * @return search result object or null if nothing was found
      */
-    private ScSearchNode findInNode(Node node, String query, boolean hasSubnodes, boolean isParent, boolean isSubnode) {
-        // This string builder will hold oll text content of the node
-        StringBuilder nodeContent = new StringBuilder();
-        // As in reader that all the text would be in order user sees it
-        // filenames, table and codebox content hast to be inserted in correct location of the string
-        // To help calculate that location totalCharOffset is used
-        int totalCharOffset = 0;
-        // Gets all child nodes
-        NodeList nodeContentNodeList = node.getChildNodes();
-        for (int i = 0; i < nodeContentNodeList.getLength(); i++) {
-            // Going through all the tags of the node
-            // Skipping other "node" tags (subnodes).
-            // To decide if these nodes have to be search are for a job for
-            // searchNodesSkippingExcluded() or searchInNodeList()
-            switch (nodeContentNodeList.item(i).getNodeName()) {
-                case "rich_text":
-                    // All the text of the node
-                    nodeContent.append(nodeContentNodeList.item(i).getTextContent());
-                    break;
-                case "table":
-                    // Table of the node
-                    // offset where table's content has to be inserted
-                    int tableContentCharOffset = Integer.parseInt(nodeContentNodeList.item(i).getAttributes().getNamedItem("char_offset").getNodeValue());
-                    StringBuilder tableContent = new StringBuilder();
-                    // Getting all the rows of the table
-                    // It would be possible to add all the table content directly from the nodeContentNodeList.item(i)
-                    // However, "header" of the table is places in the last row, so it would be showed at the end of tables content
-                    NodeList tableRows = nodeContentNodeList.item(i).getChildNodes();
-
-                    // Adding all rows to arraylist
-                    ArrayList<String> tableRowArray = new ArrayList<>();
-                    for (int row = 0; row < tableRows.getLength(); row++) {
-                        if (tableRows.item(row).getNodeName().equals("row")) {
-                            tableRowArray.add(tableRows.item(row).getTextContent());
-                        }
-                    }
-                    // Adding the last row of the table to string builder as first because that's where header of the table is located
-                    tableContent.append(tableRowArray.get(tableRowArray.size() - 1));
-                    // Rest of the rows can be added in order
-                    for (int x = 0; x < tableRowArray.size() - 1; x++) {
-                        tableContent.append(tableRowArray.get(x));
-                    }
-                    // Adding table's content to nodes content string builder
-                    nodeContent.insert(tableContentCharOffset + totalCharOffset, tableContent);
-                    // Changing total offset value with a value of the table content, because CherryTree uses different GUI toolkit
-                    // And without doing this the first element with offset would mess node content order (or maybe that's by design)
-                    totalCharOffset += tableContent.length() - 1;
-                    break;
-                case "codebox":
-                    int codeboxContentCharOffset = Integer.parseInt(nodeContentNodeList.item(i).getAttributes().getNamedItem("char_offset").getNodeValue());
-                    StringBuilder codeboxContent = new StringBuilder();
-                    codeboxContent.append(nodeContentNodeList.item(i).getTextContent());
-                    if (nodeContent.length() < codeboxContentCharOffset + totalCharOffset) {
-                        // This check most likely needed in Searcher, but not in Reader
-                        // Because in search some objects (like images) are being skipped, however their offset is still being counted
-                        nodeContent.append(codeboxContent);
-                    } else {
-                        nodeContent.insert(codeboxContentCharOffset + totalCharOffset, codeboxContent);
-                    }
-                    totalCharOffset += codeboxContent.length() - 1;
-                    break;
-                case "encoded_png":
-                    // Getting just image's filename and inserting it in the nodeContent string that it would be possible to search for them
-                    Node filename = nodeContentNodeList.item(i).getAttributes().getNamedItem("filename");
-                    if (filename != null) {
-                        if (!filename.getNodeValue().equals("__ct_special.tex")) {
-                            // Ignoring LaTeX formulas
-                            int encodedPngContentCharOffset = Integer.parseInt(nodeContentNodeList.item(i).getAttributes().getNamedItem("char_offset").getNodeValue());
-                            StringBuilder encodedPngContent = new StringBuilder();
-                            encodedPngContent.append(filename.getNodeValue());
-                            encodedPngContent.append(" ");
-                            nodeContent.insert(encodedPngContentCharOffset + totalCharOffset, encodedPngContent);
-                            totalCharOffset += encodedPngContent.length() - 1;
-                        }
-                    }
-                    break;
-            }
-        }
+    private ScSearchNode findInNode(String preparedNodeContent, Node drawerMenuItem, String query, boolean hasSubnodes, boolean isParent, boolean isSubnode) {
         // Search
         int queryLength = query.length();
         int resultCount = 0;
@@ -886,8 +951,6 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         int iconId = 0;
         boolean isReadOnly = false;
         StringBuilder samples = new StringBuilder(); // This will hold 3 samples to show to user
-        // Removing all spaces and new line character from the node content string
-        String preparedNodeContent = nodeContent.toString().toLowerCase().replaceAll("\n", " ").replaceAll(" +", " ");
         while (index != -1) {
             index = preparedNodeContent.indexOf(query, index);
             if (index != -1) {
@@ -895,14 +958,14 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                 if (resultCount < 1) {
                     // If it's first match
                     // Settings node name and unique_id values that they could be returned with result
-                    NamedNodeMap attr = node.getAttributes();
+                    NamedNodeMap attr = drawerMenuItem.getAttributes();
                     nodeName = attr.getNamedItem("name").getNodeValue();
                     nodeUniqueID = attr.getNamedItem("unique_id").getNodeValue();
                     nodeMasterID = attr.getNamedItem("master_id") != null ? attr.getNamedItem("master_id").getNodeValue() : "0";
                     isRichText = attr.getNamedItem("prog_lang").getNodeValue().equals("custom-colors");
                     isBold = attr.getNamedItem("is_bold").getNodeValue().equals("0");
-                    foregroundColor = attr.getNamedItem("foreground").getNodeValue();
-                    iconId = Integer.parseInt(attr.getNamedItem("custom_icon_id").getNodeValue());
+                    foregroundColor = attr.getNamedItem("foreground_color").getNodeValue();
+                    iconId = Integer.parseInt(attr.getNamedItem("icon_id").getNodeValue());
                     isReadOnly = attr.getNamedItem("readonly").getNodeValue().equals("0");
                 }
                 if (resultCount < 3 ) {
@@ -946,20 +1009,31 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
     }
 
     /**
-     * Search through DrawerMenu item and returns one with specific node unique ID
+     * Finds file in the node's folder using cached folder listing
+     * @param nodeUniqueID unique ID of the node
+     * @param name filename or, if byStem is true, filename without extension (sha256sum for images and attached files)
+     * @param byStem true - name is filename without extension
+     * @return found file or null if node or file were not found
+     */
+    private SafFolderListingCache.Entry findNodeFile(String nodeUniqueID, String name, boolean byStem) {
+        SafFolderListingCache.Listing listing = getNodeListing(nodeUniqueID);
+        if (listing == null) {
+            return null;
+        }
+        SafFolderListingCache.Entry entry = byStem ? listing.getByStem(name) : listing.getByName(name);
+        if (entry == null || entry.isDirectory()) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns DrawerMenu item with specific node unique ID
      * @param nodeUniqueID unique ID of the node to search for
      * @return found Node or null
      */
     private Node findSingleNode(String nodeUniqueID) {
-        Node node = null;
-        NodeList nodeList = drawerMenu.getElementsByTagName("node");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            if (nodeList.item(i).getAttributes().getNamedItem("unique_id").getNodeValue().equals(nodeUniqueID)) {
-                node = nodeList.item(i);
-                break;
-            }
-        }
-        return node;
+        return drawerMenuIndex.get(nodeUniqueID);
     }
 
     /**
@@ -995,15 +1069,11 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         if (noControl) {
             control = filename;
         }
-        try (Cursor nodeContentCursor = getNodeChildrenCursor(nodeUniqueID)) {
-            while (nodeContentCursor.moveToNext()) {
-                if (!nodeContentCursor.getString(1).equals(DocumentsContract.Document.MIME_TYPE_DIR)
-                        && ((noControl ? nodeContentCursor.getString(2) : Files.getFileName(nodeContentCursor.getString(2))).equals(control))) {
-                    return DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, nodeContentCursor.getString(0));
-                }
-            }
+        SafFolderListingCache.Entry file = findNodeFile(nodeUniqueID, control, !noControl);
+        if (file == null) {
+            return null;
         }
-        return null;
+        return DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, file.getDocumentId());
     }
 
     @Override
@@ -1033,15 +1103,32 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                 nodes = new ArrayList<>();
             }
         }
-        NodeList nodeList = drawerMenu.getElementsByTagName("node");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node item = nodeList.item(i);
-            if (bookmarksIds.contains(item.getAttributes().getNamedItem("unique_id").getNodeValue())) {
-                nodes.add(createSingleMenuItem(item, false, false));
+        // Bookmarks are displayed in the same order as nodes are in the drawer menu
+        List<Node> bookmarkedNodes = new ArrayList<>();
+        final Map<Node, List<Integer>> positions = new HashMap<>();
+        for (String bookmarkId : bookmarksIds) {
+            Node item = findSingleNode(bookmarkId);
+            if (item != null && !positions.containsKey(item)) {
+                bookmarkedNodes.add(item);
+                positions.put(item, getDocumentPosition(item));
             }
-            if (nodes.size() >= bookmarksIds.size()) {
-                break;
+        }
+        Collections.sort(bookmarkedNodes, new Comparator<Node>() {
+            @Override
+            public int compare(Node o1, Node o2) {
+                List<Integer> position1 = positions.get(o1);
+                List<Integer> position2 = positions.get(o2);
+                for (int i = 0; i < Math.min(position1.size(), position2.size()); i++) {
+                    int result = Integer.compare(position1.get(i), position2.get(i));
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return Integer.compare(position1.size(), position2.size());
             }
+        });
+        for (Node item : bookmarkedNodes) {
+            nodes.add(createSingleMenuItem(item, false, false));
         }
         return nodes;
     }
@@ -1063,13 +1150,9 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
     public int getChildrenNodeCount(String nodeUniqueID) {
         int count = 0;
         String lstFileDocumentId = null;
-        try (Cursor cursor = getNodeChildrenCursor(nodeUniqueID)) {
-            while (cursor.moveToNext()) {
-                if (cursor.getString(2).equals("subnodes.lst")) {
-                    lstFileDocumentId = cursor.getString(0);
-                    break;
-                }
-            }
+        SafFolderListingCache.Entry lstFile = findNodeFile(nodeUniqueID, "subnodes.lst", false);
+        if (lstFile != null) {
+            lstFileDocumentId = lstFile.getDocumentId();
         }
         // Check if *.lst file was found
         if (lstFileDocumentId == null) {
@@ -1119,34 +1202,38 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         if (noControl) {
             control = filename;
         }
-        try (Cursor nodeContentCursor = getNodeChildrenCursor(nodeUniqueID)) {
-            while (nodeContentCursor.moveToNext()) {
-                if (!nodeContentCursor.getString(1).equals(DocumentsContract.Document.MIME_TYPE_DIR)
-                        && ((noControl ? nodeContentCursor.getString(2) : Files.getFileName(nodeContentCursor.getString(2))).equals(control))) {
-                    try {
-                        return context.getContentResolver().openInputStream(
-                                DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, nodeContentCursor.getString(0)));
-                    } catch (FileNotFoundException e) {
-                        displayToast(context.getString(R.string.toast_error_failed_to_open_multi_database_file, filename));
-                    }
-                }
+        SafFolderListingCache.Entry file = findNodeFile(nodeUniqueID, control, !noControl);
+        if (file != null) {
+            try {
+                return context.getContentResolver().openInputStream(
+                        DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, file.getDocumentId()));
+            } catch (FileNotFoundException e) {
+                displayToast(context.getString(R.string.toast_error_failed_to_open_multi_database_file, filename));
             }
         }
         return null;
     }
 
+    /**
+     * Finds document in the folder using cached folder listing
+     * @param documentId SAF documentId of the folder. Has to be a children of mainFolderUri.
+     * @param name display name of the document
+     * @return found document or null if folder could not be listed or it does not have the document
+     */
+    private SafFolderListingCache.Entry getFolderEntryByName(String documentId, String name) {
+        SafFolderListingCache.Listing listing = folderListings.get(documentId);
+        return listing != null ? listing.getByName(name) : null;
+    }
+
     @Override
     public InputStream getImageInputStream(String nodeUniqueID, String control) {
-        try (Cursor nodeContentCursor = getNodeChildrenCursor(nodeUniqueID)) {
-            while (nodeContentCursor.moveToNext()) {
-                if (!nodeContentCursor.getString(1).equals(DocumentsContract.Document.MIME_TYPE_DIR) && nodeContentCursor.getString(2).substring(0, nodeContentCursor.getString(2).lastIndexOf(".")).equals(control)) {
-                    try {
-                        return context.getContentResolver().openInputStream(
-                                DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, nodeContentCursor.getString(0)));
-                    } catch (FileNotFoundException e) {
-                        displayToast(context.getString(R.string.toast_error_failed_to_load_image));
-                    }
-                }
+        SafFolderListingCache.Entry image = findNodeFile(nodeUniqueID, control, true);
+        if (image != null) {
+            try {
+                return context.getContentResolver().openInputStream(
+                        DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, image.getDocumentId()));
+            } catch (FileNotFoundException e) {
+                displayToast(context.getString(R.string.toast_error_failed_to_load_image));
             }
         }
         return null;
@@ -1158,6 +1245,25 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         return returnSubnodeArrayList(nodelist, false);
     }
 
+    /**
+     * Returns position of the node in the document as a list of indexes of the node and all its
+     * ancestors among their siblings, starting from the root of the document
+     * @param node Node object to get the position of
+     * @return list of sibling indexes
+     */
+    private List<Integer> getDocumentPosition(Node node) {
+        List<Integer> position = new ArrayList<>();
+        for (Node current = node; current != null; current = current.getParentNode()) {
+            int index = 0;
+            for (Node sibling = current.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+                index++;
+            }
+            position.add(index);
+        }
+        Collections.reverse(position);
+        return position;
+    }
+
     /**
      * Returns cursor with children of the root folder of the Multifile database
      * @return SAF cursor. Cursor should be closed after use manually. Cursor has 3 fields: 0 - document_id, 1 - mime_type, 2 - _display_name
@@ -1176,47 +1282,18 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
     @Override
     public ArrayList<ScNode> getMenu(String nodeUniqueID) {
         ArrayList<ScNode> nodes = new ArrayList<>();
-        NodeList nodeList = drawerMenu.getElementsByTagName("node");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node item = nodeList.item(i);
-            if (item.getAttributes().getNamedItem("unique_id").getNodeValue().equals(nodeUniqueID)) {
-                nodes.add(createSingleMenuItem(item, true, false));
-                nodes.addAll(returnSubnodeArrayList(item.getChildNodes(), true));
-            }
+        Node item = findSingleNode(nodeUniqueID);
+        if (item != null) {
+            nodes.add(createSingleMenuItem(item, true, false));
+            nodes.addAll(returnSubnodeArrayList(item.getChildNodes(), true));
         }
         return nodes;
     }
 
-    /**
-     * Creates node's children cursor
-     * @param nodeUniqueID unique ID of the node to get the children cursor for
-     * @return SAF cursor object with all the children of the folder. Cursor has three columns: document_id, mime_type and _display_name. Cursor has to be closed after user.
-     */
-    private Cursor getNodeChildrenCursor(String nodeUniqueID) {
-        Cursor cursor = null;
-        NodeList nodeList = drawerMenu.getElementsByTagName("node");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node item = nodeList.item(i);
-            if (item.getAttributes().getNamedItem("unique_id").getNodeValue().equals(nodeUniqueID)) {
-                Uri uri = DocumentsContract.buildChildDocumentsUriUsingTree(
-                        mainFolderUri,
-                        item.getAttributes().getNamedItem("saf_id").getNodeValue());
-                cursor = context.getContentResolver().query(
-                        uri,
-                        new String[]{DocumentsContract.Document.COLUMN_DOCUMENT_ID, DocumentsContract.Document.COLUMN_MIME_TYPE, DocumentsContract.Document.COLUMN_DISPLAY_NAME},
-                        null,
-                        null,
-                        null
-                );
-            }
-        }
-        return cursor;
-    }
-
     /**
      * Creates node's children cursor
      * @param node node object to get the children cursor for
-     * @return SAF cursor object with all the children of the folder. Cursor has three columns: document_id, mime_type and _display_name. Cursor has to be closed after user.
+     * @return SAF cursor object with all the children of the folder. Cursor has four columns: document_id, mime_type, _display_name and last_modified. Cursor has to be closed after user.
      */
     private Cursor getNodeChildrenCursor(Node node) {
         Uri uri = DocumentsContract.buildChildDocumentsUriUsingTree(
@@ -1225,7 +1302,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         );
         return context.getContentResolver().query(
                         uri,
-                        new String[]{DocumentsContract.Document.COLUMN_DOCUMENT_ID, DocumentsContract.Document.COLUMN_MIME_TYPE, DocumentsContract.Document.COLUMN_DISPLAY_NAME},
+                        new String[]{DocumentsContract.Document.COLUMN_DOCUMENT_ID, DocumentsContract.Document.COLUMN_MIME_TYPE, DocumentsContract.Document.COLUMN_DISPLAY_NAME, DocumentsContract.Document.COLUMN_LAST_MODIFIED},
                         null,
                         null,
                         null
@@ -1233,34 +1310,21 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
     }
 
     /**
-     * Creates cursor with children of the document using SAF documentId. DocumentId has to be of a
-     * children of mainFolderUri.
-     * @param documentId documentId of the document to create children of
-     * @return cursor with children documents. Has to be closed after use.
+     * Returns cached listing of the node's folder. Folder is listed only if it's not in the cache.
+     * @param nodeUniqueID unique ID of the node
+     * @return listing of the node's folder or null if node was not found or folder could not be listed
      */
-    private Cursor getNodeChildrenCursorSaf(String documentId) {
-        Uri uri = DocumentsContract.buildChildDocumentsUriUsingTree(mainFolderUri, documentId);
-        return context.getContentResolver().query(
-                uri,
-                new String[]{DocumentsContract.Document.COLUMN_DOCUMENT_ID, DocumentsContract.Document.COLUMN_MIME_TYPE, DocumentsContract.Document.COLUMN_DISPLAY_NAME},
-                null,
-                null,
-                null
-        );
+    private SafFolderListingCache.Listing getNodeListing(String nodeUniqueID) {
+        Node node = findSingleNode(nodeUniqueID);
+        if (node == null) {
+            return null;
+        }
+        return folderListings.get(node.getAttributes().getNamedItem("saf_id").getNodeValue());
     }
 
     @Override
     public int getNodeMaxID() {
-        int maxID = -1;
-        NodeList nodeList = drawerMenu.getElementsByTagName("node");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node node = nodeList.item(i);
-            int foundNodeUniqueID = Integer.parseInt(node.getAttributes().getNamedItem("unique_id").getNodeValue());
-            if (foundNodeUniqueID > maxID) {
-                maxID = foundNodeUniqueID;
-            }
-        }
-        return maxID;
+        return nodeMaxID;
     }
 
     @Override
@@ -1293,16 +1357,12 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
      */
     private Node getNodeXmlByNodeSafId(String safId) {
         Node node = null;
-        try (Cursor nodeCursor = getNodeChildrenCursorSaf(safId)) {
-            while (nodeCursor.moveToNext()) {
-                if (nodeCursor.getString(2).equals("node.xml")) {
-                    try (InputStream is = context.getContentResolver().openInputStream(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, nodeCursor.getString(0)))) {
-                        node = documentBuilder.parse(is).getElementsByTagName("node").item(0);
-                    } catch (IOException | SAXException e) {
-                        // Silently catch exception
-                    }
-                    break;
-                }
+        SafFolderListingCache.Entry nodeXml = getFolderEntryByName(safId, "node.xml");
+        if (nodeXml != null) {
+            try (InputStream is = context.getContentResolver().openInputStream(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, nodeXml.getDocumentId()))) {
+                node = documentBuilder.parse(is).getElementsByTagName("node").item(0);
+            } catch (IOException | SAXException e) {
+                // Silently catch exception
             }
         }
         return node;
@@ -1314,16 +1374,8 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
      * @return String with SAF ID of the node.xml inside node's directory or null if not found
      */
     private String getNodeXmlSafIdByNodeUniqueId(String nodeUniqueId) {
-        String NodeXmlSafId = null;
-        try (Cursor nodeCursor = getNodeChildrenCursor(nodeUniqueId)) {
-            while (nodeCursor.moveToNext()) {
-                if (nodeCursor.getString(2).equals("node.xml")) {
-                    NodeXmlSafId = nodeCursor.getString(0);
-                    break;
-                }
-            }
-        }
-        return NodeXmlSafId;
+        SafFolderListingCache.Entry nodeXml = findNodeFile(nodeUniqueId, "node.xml", false);
+        return nodeXml != null ? nodeXml.getDocumentId() : null;
     }
 
     @Override
@@ -1343,24 +1395,34 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
     @Override
     public ArrayList<ScNode> getParentWithSubnodes(String nodeUniqueID) {
         ArrayList<ScNode> nodes = null;
-        NodeList nodeList = drawerMenu.getElementsByTagName("node");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node node = nodeList.item(i);
-            if (node.getAttributes().getNamedItem("unique_id").getNodeValue().equals(nodeUniqueID)) {
-                Node parentNode = node.getParentNode();
-                if (parentNode == null) {
-                    return nodes;
-                } else if (parentNode.getNodeName().equals("sourcherry")) {
-                    nodes = getMainNodes();
-                } else {
-                    nodes = returnSubnodeArrayList(parentNode.getChildNodes(), true);
-                    nodes.add(0, createParentNode(parentNode));
-                }
-            }
+        Node node = findSingleNode(nodeUniqueID);
+        if (node == null) {
+            return nodes;
+        }
+        Node parentNode = node.getParentNode();
+        if (parentNode == null) {
+            return nodes;
+        } else if (parentNode.getNodeName().equals("sourcherry")) {
+            nodes = getMainNodes();
+        } else {
+            nodes = returnSubnodeArrayList(parentNode.getChildNodes(), true);
+            nodes.add(0, createParentNode(parentNode));
         }
         return nodes;
     }
 
+    /**
+     * Collects all the nodes that have to be searched through in the order they are displayed in
+     * the drawer menu
+     * @param noSearch true - skip nodes marked excluded
+     * @return list of drawer menu nodes to search through
+     */
+    private ArrayList<SearchTarget<Node>> getSearchTargets(boolean noSearch) {
+        ArrayList<SearchTarget<Node>> targets = new ArrayList<>();
+        collectSearchTargets(drawerMenu.getElementsByTagName("sourcherry").item(0).getChildNodes(), noSearch, targets);
+        return targets;
+    }
+
     @Override
     public String getSharedNodesGroup(String nodeUniqueID) {
         List<String> sharedNodesGroup;
@@ -1387,15 +1449,8 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
 
     @Override
     public List<String> getSharedNodesIds(String nodeUniqueID) {
-        List<String> sharedNodes = new ArrayList<>();
-        NodeList nodeList = drawerMenu.getElementsByTagName("node");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node nodeMasterIdAttr = nodeList.item(i).getAttributes().getNamedItem("master_id");
-            if (nodeMasterIdAttr != null && nodeMasterIdAttr.getNodeValue().equals(nodeUniqueID)) {
-                sharedNodes.add(nodeList.item(i).getAttributes().getNamedItem("unique_id").getNodeValue());
-            }
-        }
-        return sharedNodes;
+        List<String> sharedNodes = sharedNodesIndex.get(nodeUniqueID);
+        return sharedNodes == null ? new ArrayList<String>() : new ArrayList<>(sharedNodes);
     }
 
     @Override
@@ -1403,15 +1458,11 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         if (nodeUniqueID == null) {
             return null;
         }
-        ScNode node = null;
-        NodeList nodeList = drawerMenu.getElementsByTagName("node");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node item = nodeList.item(i);
-            if (item.getAttributes().getNamedItem("unique_id").getNodeValue().equals(nodeUniqueID)) {
-                node = createSingleMenuItem(item);
-            }
+        Node item = findSingleNode(nodeUniqueID);
+        if (item == null) {
+            return null;
         }
-        return node;
+        return createSingleMenuItem(item);
     }
 
     /**
@@ -1443,6 +1494,74 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         return false;
     }
 
+    /**
+     * Copies file to the currently opened node's folder in the MultiFile database and calculates
+     * its sha256sum at the same time. File is copied to a temporary document first and renamed to
+     * sha256sum with the extension when the copy is finished. If the node already has a file with
+     * the same name the copy is deleted. Source file is read only once and memory use does not
+     * depend on its size.
+     * @param uri Uri of the file that has to be copied
+     * @param extension extension of the file inside MultiFile database or null if it does not have one
+     * @return sha256sum of the file or null if file could not be copied
+     */
+    private String ingestFileToNodeFolder(Uri uri, String extension) {
+        String nodeUniqueID = mainViewModel.getCurrentNode().getUniqueId();
+        Uri tempFileUri = null;
+        String sha256sum = null;
+        try (InputStream inputStream = context.getContentResolver().openInputStream(uri)) {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            tempFileUri = DocumentsContract.createDocument(
+                    context.getContentResolver(),
+                    getNodeUri(findSingleNode(nodeUniqueID)),
+                    "*/*",
+                    TEMP_FILE_PREFIX + System.currentTimeMillis() + TEMP_FILE_EXTENSION
+            );
+            invalidateNodeListing(nodeUniqueID);
+            try (OutputStream outputStream = context.getContentResolver().openOutputStream(tempFileUri)) {
+                int length;
+                byte[] buf = new byte[64 * 1024];
+                while ((length = inputStream.read(buf, 0, buf.length)) != -1) {
+                    messageDigest.update(buf, 0, length);
+                    outputStream.write(buf, 0, length);
+                }
+            }
+            sha256sum = new BigInteger(1, messageDigest.digest()).toString(16);
+            String filename = extension != null ? sha256sum + "." + extension : sha256sum;
+            if (isFileInNode(nodeUniqueID, filename)) {
+                // If file already exists with the same filename (hash256sum) there is no need to keep the copy
+                DocumentsContract.deleteDocument(context.getContentResolver(), tempFileUri);
+            } else {
+                DocumentsContract.renameDocument(context.getContentResolver(), tempFileUri, filename);
+            }
+            tempFileUri = null;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            sha256sum = null;
+            displayToast(context.getString(R.string.toast_error_failed_to_save_database_changes));
+        } finally {
+            if (tempFileUri != null) {
+                try {
+                    DocumentsContract.deleteDocument(context.getContentResolver(), tempFileUri);
+                } catch (FileNotFoundException e) {
+                    // Temporary file was not created
+                }
+            }
+            invalidateNodeListing(nodeUniqueID);
+        }
+        return sha256sum;
+    }
+
+    /**
+     * Removes listing of the node's folder from the cache. Has to be called after files are
+     * created, renamed or deleted in the node's folder.
+     * @param nodeUniqueID unique ID of the node
+     */
+    private void invalidateNodeListing(String nodeUniqueID) {
+        Node node = findSingleNode(nodeUniqueID);
+        if (node != null) {
+            folderListings.invalidate(node.getAttributes().getNamedItem("saf_id").getNodeValue());
+        }
+    }
+
     /**
      * Checks if file already saved in node's folder.
      * @param nodeUniqueID unique ID of the node to check the children for the same file
@@ -1450,14 +1569,8 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
      * @return true - file exists, false - opposite of that
      */
     private boolean isFileInNode(String nodeUniqueID, String filename) {
-        try (Cursor cursor = getNodeChildrenCursor(nodeUniqueID)) {
-            while (cursor.moveToNext()) {
-                if (cursor.getString(2).equals(filename)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        SafFolderListingCache.Listing listing = getNodeListing(nodeUniqueID);
+        return listing != null && listing.getByName(filename) != null;
     }
 
     @Override
@@ -1488,8 +1601,20 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         SpannableStringBuilder nodeContentStringBuilder = new SpannableStringBuilder(); // Temporary storage for text, codebox, image formatting
         ArrayList<ScNodeContentTable> nodeTables = new ArrayList<>(); // Temporary storage for tables
         ArrayList<Integer> nodeTableCharOffsets = new ArrayList<>();
-        Cursor nodeContentCursor = getNodeChildrenCursor(nodeUniqueID);
-        if (nodeContentCursor == null) {
+        SafFolderListingCache.Listing listing = null;
+        Node drawerMenuItem = findSingleNode(nodeUniqueID);
+        if (drawerMenuItem != null) {
+            // Node's folder is listed again every time node is opened to pick up files that were
+            // changed outside of the app. Images and files of the node are found in the same listing.
+            String safId = drawerMenuItem.getAttributes().getNamedItem("saf_id").getNodeValue();
+            folderListings.invalidate(safId);
+            listing = folderListings.get(safId);
+            if (listing != null && deleteLeftoverTempFiles(listing)) {
+                folderListings.invalidate(safId);
+                listing = folderListings.get(safId);
+            }
+        }
+        if (listing == null) {
             displayToast(context.getString(R.string.toast_error_failed_to_find_node_content));
         }
         //// This needed to calculate where to place span in to builder
@@ -1497,92 +1622,87 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         // by the length of the inserted span.
         // During the loop lengths of the string elements (not images or tables) are added to this
         int totalCharOffset = 0;
-        while (nodeContentCursor != null && nodeContentCursor.moveToNext()) {
-            if (nodeContentCursor.getString(2).equals("node.xml")) {
-                try (InputStream is = context.getContentResolver().openInputStream(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, nodeContentCursor.getString(0)))) {
-                    Node node = documentBuilder.parse(is).getElementsByTagName("node").item(0);
-                    String nodeProgLang = node.getAttributes().getNamedItem("prog_lang").getNodeValue();
-                    if (nodeProgLang.equals("custom-colors") || nodeProgLang.equals("plain-text")) {
-                        // This is formatting for Rich Text and Plain Text nodes
-                        NodeList nodeContentNodeList = node.getChildNodes(); // Gets all the subnodes/childnodes of selected node
-                        for (int x = 0; x < nodeContentNodeList.getLength(); x++) {
-                            // Loops through nodes of selected node
-                            Node currentNode = nodeContentNodeList.item(x);
-                            switch (currentNode.getNodeName()) {
-                                case "rich_text":
-                                    if (currentNode.hasAttributes()) {
-                                        nodeContentStringBuilder.append(makeFormattedRichText(currentNode));
-                                    } else {
-                                        nodeContentStringBuilder.append(currentNode.getTextContent());
-                                    }
-                                    break;
-                                case "codebox": {
-                                    int charOffset = getCharOffset(currentNode);
-                                    SpannableStringBuilder codeboxText = makeFormattedCodeboxSpan(currentNode);
-                                    nodeContentStringBuilder.insert(charOffset + totalCharOffset, codeboxText);
-                                    totalCharOffset += codeboxText.length() - 1;
-                                    break;
+        SafFolderListingCache.Entry nodeXml = listing != null ? listing.getByName("node.xml") : null;
+        if (nodeXml != null) {
+            try (InputStream is = context.getContentResolver().openInputStream(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, nodeXml.getDocumentId()))) {
+                Node node = documentBuilder.parse(is).getElementsByTagName("node").item(0);
+                String nodeProgLang = node.getAttributes().getNamedItem("prog_lang").getNodeValue();
+                if (nodeProgLang.equals("custom-colors") || nodeProgLang.equals("plain-text")) {
+                    // This is formatting for Rich Text and Plain Text nodes
+                    NodeList nodeContentNodeList = node.getChildNodes(); // Gets all the subnodes/childnodes of selected node
+                    for (int x = 0; x < nodeContentNodeList.getLength(); x++) {
+                        // Loops through nodes of selected node
+                        Node currentNode = nodeContentNodeList.item(x);
+                        switch (currentNode.getNodeName()) {
+                            case "rich_text":
+                                if (currentNode.hasAttributes()) {
+                                    nodeContentStringBuilder.append(makeFormattedRichText(currentNode));
+                                } else {
+                                    nodeContentStringBuilder.append(currentNode.getTextContent());
                                 }
-                                case "encoded_png": {
-                                    // "encoded_png" might actually be image, attached files or anchors (just images that mark the position)
-                                    int charOffset = getCharOffset(currentNode);
-                                    if (currentNode.getAttributes().getNamedItem("filename") != null) {
-                                        if (currentNode.getAttributes().getNamedItem("filename").getNodeValue().equals("__ct_special.tex")) {
-                                            // For latex boxes
-                                            SpannableStringBuilder latexImageSpan = makeLatexImageSpan(currentNode);
-                                            nodeContentStringBuilder.insert(charOffset + totalCharOffset, latexImageSpan);
-                                        } else {
-                                            // For actual attached files
-                                            SpannableStringBuilder attachedFileSpan = makeAttachedFileSpan(currentNode, nodeUniqueID);
-                                            nodeContentStringBuilder.insert(charOffset + totalCharOffset, attachedFileSpan);
-                                            totalCharOffset += attachedFileSpan.length() - 1;
-                                        }
-                                    } else if (currentNode.getAttributes().getNamedItem("anchor") != null) {
-                                        SpannableStringBuilder anchorImageSpan = makeAnchorImageSpan(currentNode.getAttributes().getNamedItem("anchor").getNodeValue());
-                                        nodeContentStringBuilder.insert(charOffset + totalCharOffset, anchorImageSpan);
+                                break;
+                            case "codebox": {
+                                int charOffset = getCharOffset(currentNode);
+                                SpannableStringBuilder codeboxText = makeFormattedCodeboxSpan(currentNode);
+                                nodeContentStringBuilder.insert(charOffset + totalCharOffset, codeboxText);
+                                totalCharOffset += codeboxText.length() - 1;
+                                break;
+                            }
+                            case "encoded_png": {
+                                // "encoded_png" might actually be image, attached files or anchors (just images that mark the position)
+                                int charOffset = getCharOffset(currentNode);
+                                if (currentNode.getAttributes().getNamedItem("filename") != null) {
+                                    if (currentNode.getAttributes().getNamedItem("filename").getNodeValue().equals("__ct_special.tex")) {
+                                        // For latex boxes
+                                        SpannableStringBuilder latexImageSpan = makeLatexImageSpan(currentNode);
+                                        nodeContentStringBuilder.insert(charOffset + totalCharOffset, latexImageSpan);
                                     } else {
-                                        // Images
-                                        int pos = nodeContentCursor.getPosition(); // Save position of the cursor before resetting
-                                        nodeContentCursor.moveToPosition(-1);
-                                        SpannableStringBuilder imageSpan = makeImageSpan(nodeContentCursor, currentNode.getAttributes().getNamedItem("sha256sum").getNodeValue(), nodeUniqueID);
-                                        nodeContentStringBuilder.insert(charOffset + totalCharOffset, imageSpan);
-                                        nodeContentCursor.moveToPosition(pos); // Restore cursor position, otherwise - infinite loop
+                                        // For actual attached files
+                                        SpannableStringBuilder attachedFileSpan = makeAttachedFileSpan(currentNode, nodeUniqueID);
+                                        nodeContentStringBuilder.insert(charOffset + totalCharOffset, attachedFileSpan);
+                                        totalCharOffset += attachedFileSpan.length() - 1;
                                     }
-                                    break;
+                                } else if (currentNode.getAttributes().getNamedItem("anchor") != null) {
+                                    SpannableStringBuilder anchorImageSpan = makeAnchorImageSpan(currentNode.getAttributes().getNamedItem("anchor").getNodeValue());
+                                    nodeContentStringBuilder.insert(charOffset + totalCharOffset, anchorImageSpan);
+                                } else {
+                                    // Images
+                                    SpannableStringBuilder imageSpan = makeImageSpan(listing, currentNode.getAttributes().getNamedItem("sha256sum").getNodeValue(), nodeUniqueID);
+                                    nodeContentStringBuilder.insert(charOffset + totalCharOffset, imageSpan);
                                 }
-                                case "table": {
-                                    int charOffset = getCharOffset(currentNode) + totalCharOffset; // Place where SpannableStringBuilder will be split
-                                    nodeTableCharOffsets.add(charOffset);
-                                    int[] cellMinMax = getTableMinMax(currentNode);
-                                    ArrayList<CharSequence[]> currentTableContent = new ArrayList<>(); // ArrayList with all the content of the table
-                                    byte lightInterface = 0;
-                                    if (!((Element) currentNode).getAttribute("is_light").isEmpty()) {
-                                        lightInterface = Byte.parseByte(((Element) currentNode).getAttribute("is_light"));
-                                    }
-                                    NodeList tableRowsNodes = ((Element) currentNode).getElementsByTagName("row"); // All the rows of the table. There are empty text nodes that has to be filtered out (or only row nodes selected this way)
-                                    currentTableContent.add(getTableRow(tableRowsNodes.item(tableRowsNodes.getLength() - 1)));
-                                    for (int row = 0; row < tableRowsNodes.getLength() - 1; row++) {
-                                        currentTableContent.add(getTableRow(tableRowsNodes.item(row)));
-                                    }
-                                    ScNodeContentTable scNodeContentTable = new ScNodeContentTable((byte) 1, currentTableContent, cellMinMax[0], cellMinMax[1], lightInterface, ((Element) currentNode).getAttribute("justification"), ((Element) currentNode).getAttribute("col_widths"));
-                                    nodeTables.add(scNodeContentTable);
-                                    // Instead of adding space for formatting reason
-                                    // it might be better to take one of totalCharOffset
-                                    totalCharOffset -= 1;
-                                    break;
+                                break;
+                            }
+                            case "table": {
+                                int charOffset = getCharOffset(currentNode) + totalCharOffset; // Place where SpannableStringBuilder will be split
+                                nodeTableCharOffsets.add(charOffset);
+                                int[] cellMinMax = getTableMinMax(currentNode);
+                                ArrayList<CharSequence[]> currentTableContent = new ArrayList<>(); // ArrayList with all the content of the table
+                                byte lightInterface = 0;
+                                if (!((Element) currentNode).getAttribute("is_light").isEmpty()) {
+                                    lightInterface = Byte.parseByte(((Element) currentNode).getAttribute("is_light"));
+                                }
+                                NodeList tableRowsNodes = ((Element) currentNode).getElementsByTagName("row"); // All the rows of the table. There are empty text nodes that has to be filtered out (or only row nodes selected this way)
+                                currentTableContent.add(getTableRow(tableRowsNodes.item(tableRowsNodes.getLength() - 1)));
+                                for (int row = 0; row < tableRowsNodes.getLength() - 1; row++) {
+                                    currentTableContent.add(getTableRow(tableRowsNodes.item(row)));
                                 }
+                                ScNodeContentTable scNodeContentTable = new ScNodeContentTable((byte) 1, currentTableContent, cellMinMax[0], cellMinMax[1], lightInterface, ((Element) currentNode).getAttribute("justification"), ((Element) currentNode).getAttribute("col_widths"));
+                                nodeTables.add(scNodeContentTable);
+                                // Instead of adding space for formatting reason
+                                // it might be better to take one of totalCharOffset
+                                totalCharOffset -= 1;
+                                break;
                             }
                         }
-                    } else {
-                        // Node is Code Node. It's just a big CodeBox with no dimensions
-                        nodeContentStringBuilder.append(makeFormattedCodeNodeSpan(node));
                     }
-                } catch (IOException | SAXException e) {
-                    displayToast(context.getString(R.string.toast_error_failed_to_load_node_content));
+                } else {
+                    // Node is Code Node. It's just a big CodeBox with no dimensions
+                    nodeContentStringBuilder.append(makeFormattedCodeNodeSpan(node));
                 }
+            } catch (IOException | SAXException e) {
+                displayToast(context.getString(R.string.toast_error_failed_to_load_node_content));
             }
         }
-        nodeContentCursor.close();
         int subStringStart = 0; // Holds start from where SpannableStringBuilder has to be split from
         if (!nodeTables.isEmpty()) {
             // If there are at least one table in the node
@@ -1607,7 +1727,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
             ScNodeContentText nodeContentText = new ScNodeContentText((byte) 0, nodeContentStringBuilder);
             nodeContent.add(nodeContentText);
         }
-        mainViewModel.getNodeContent().postValue(nodeContent);
+        mainViewModel.postNodeContent(nodeUniqueID, nodeContent);
     }
 
     @Override
@@ -1828,51 +1948,38 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
      * Image is created from Base64 string embedded in the tag
      * This function should not be called directly from any other class
      * It is used in getNodeContent function
-     * @param cursor SAF cursor that holds all node data
+     * @param listing listing of the node's folder
      * @param sha256sum image file sha256sum that doubles as the filename for the image
      * @param nodeUniqueID unique ID of the node that has image embedded in it
      * @return SpannableStringBuilder that has spans with image in them
      */
-    private SpannableStringBuilder makeImageSpan(Cursor cursor, String sha256sum, String nodeUniqueID) {
+    private SpannableStringBuilder makeImageSpan(SafFolderListingCache.Listing listing, String sha256sum, String nodeUniqueID) {
         SpannableStringBuilder formattedImage = new SpannableStringBuilder();
         ImageSpanImage imageSpanImage;
-        while (cursor.moveToNext()) {
-            if (cursor.getString(1).equals("image/png") && cursor.getString(2).substring(0, cursor.getString(2).lastIndexOf(".")).equals(sha256sum)) {
-                try {
-                    formattedImage.append(" ");
-                    InputStream inputStream = context.getContentResolver().openInputStream(
-                            DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, cursor.getString(0)));
-                    Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                    Drawable image = new BitmapDrawable(context.getResources(), bitmap);
-                    image.setBounds(0,0, image.getIntrinsicWidth(), image.getIntrinsicHeight());
-                    int width = Resources.getSystem().getDisplayMetrics().widthPixels;
-                    if (image.getIntrinsicWidth() > width - 10) {
-                        // If image is wider than screen it is scaled down to fit the screen
-                        // otherwise it will not load/be display
-                        float scale = ((float) width / image.getIntrinsicWidth()) - (float) 0.1;
-                        int newWidth = (int) (image.getIntrinsicWidth() * scale);
-                        int newHeight = (int) (image.getIntrinsicHeight() * scale);
-                        image.setBounds(0, 0, newWidth, newHeight);
+        SafFolderListingCache.Entry image = listing.getByStem(sha256sum);
+        if (image != null && "image/png".equals(image.getMimeType())) {
+            try {
+                formattedImage.append(" ");
+                // Only dimensions of the image are decoded here, image itself is decoded when displayed
+                Drawable drawable = new LazyImageDrawable(context, sha256sum, DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, image.getDocumentId()));
+                imageSpanImage = new ImageSpanImage(drawable);
+                formattedImage.setSpan(imageSpanImage, 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                //** Detects image touches/clicks
+                ClickableSpan imageClickableSpan = new ClickableSpan() {
+                    @Override
+                    public void onClick(@NonNull View widget) {
+                        // Starting fragment to view enlarged zoomable image
+                        ((MainView) context).openImageView(nodeUniqueID, sha256sum);
                     }
-                    imageSpanImage = new ImageSpanImage(image);
-                    formattedImage.setSpan(imageSpanImage, 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    //** Detects image touches/clicks
-                    ClickableSpan imageClickableSpan = new ClickableSpan() {
-                        @Override
-                        public void onClick(@NonNull View widget) {
-                            // Starting fragment to view enlarged zoomable image
-                            ((MainView) context).openImageView(nodeUniqueID, sha256sum);
-                        }
-                    };
-                    formattedImage.setSpan(imageClickableSpan, 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); // Setting clickableSpan on image
-                    //**
-                    imageSpanImage.setSha256sum(sha256sum);
-                } catch (FileNotFoundException e) {
-                    // Displays a toast message and appends broken image span to display in node content
-                    imageSpanImage = (ImageSpanImage) makeBrokenImageSpan(0);
-                    formattedImage.setSpan(imageSpanImage, 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    displayToast(context.getString(R.string.toast_error_failed_to_load_image));
-                }
+                };
+                formattedImage.setSpan(imageClickableSpan, 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); // Setting clickableSpan on image
+                //**
+                imageSpanImage.setSha256sum(sha256sum);
+            } catch (IOException e) {
+                // Displays a toast message and appends broken image span to display in node content
+                imageSpanImage = (ImageSpanImage) makeBrokenImageSpan(0);
+                formattedImage.setSpan(imageSpanImage, 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                displayToast(context.getString(R.string.toast_error_failed_to_load_image));
             }
         }
         return formattedImage;
@@ -1952,27 +2059,13 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
 
     @Override
     public boolean moveNode(String targetNodeUniqueID, String destinationNodeUniqueID) {
-        Node targetNode = null;
-        Node destinationNode = null;
-        // User chose to move the node to main menu
+        Node targetNode = findSingleNode(targetNodeUniqueID);
+        Node destinationNode;
         if (destinationNodeUniqueID.equals("0")) {
-            NodeList nodeList = drawerMenu.getElementsByTagName("sourcherry");
-            destinationNode = nodeList.item(0);
-        }
-        NodeList nodeList = drawerMenu.getElementsByTagName("node");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            // Goes through the nodes until target and destination nodes are found
-            if (targetNode == null || destinationNode == null) {
-                Node node = nodeList.item(i);
-                if (node.getAttributes().getNamedItem("unique_id").getNodeValue().equals(targetNodeUniqueID)) {
-                    targetNode = nodeList.item(i);
-                }
-                if (node.getAttributes().getNamedItem("unique_id").getNodeValue().equals(destinationNodeUniqueID)) {
-                    destinationNode = nodeList.item(i);
-                }
-            } else {
-                break;
-            }
+            // User chose to move the node to main menu
+            destinationNode = drawerMenu.getElementsByTagName("sourcherry").item(0);
+        } else {
+            destinationNode = findSingleNode(destinationNodeUniqueID);
         }
         // Checks for when user wants to move node to the same parent node
         // In XML file it causes a crash
@@ -2005,6 +2098,8 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
             displayToast(context.getString(R.string.toast_error_new_parent_cant_be_one_of_its_children));
             return false;
         }
+        // Moved folders and everything in them get new documentIds
+        folderListings.invalidateAll();
         // Removing unique node ID from subnodes.lst in source folder
         removeNodeFromLst(DocumentsContract.getDocumentId(sourchParentDocumentUri), targetNodeUniqueID, "subnodes.lst");
         // Adding unique node ID to subnodes.lst in destination folder
@@ -2015,10 +2110,30 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         ((Element) targetNode).setAttribute("saf_id", safIdBuilder.toString());
         fixSafAfterMove(targetNode, safIdBuilder.toString());
         destinationNode.appendChild(targetNode);
-        saveDrawerMenuToStorage();
+        treeStore.move(targetNode);
         return true;
     }
 
+    /**
+     * Reads and parses node.xml file of the node and creates text of the node that can be searched
+     * through. Text is saved into the search cache.
+     * @param nodeUniqueID unique ID of the node
+     * @param nodeXml node.xml file of the node from the folder listing
+     * @param documentBuilder DocumentBuilder to parse node.xml file with
+     * @return node content prepared for search or null if node.xml file could not be read
+     */
+    private String readSearchContent(String nodeUniqueID, SafFolderListingCache.Entry nodeXml, DocumentBuilder documentBuilder) {
+        try (InputStream is = context.getContentResolver().openInputStream(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, nodeXml.getDocumentId()))) {
+            Node node = documentBuilder.parse(is).getElementsByTagName("node").item(0);
+            String preparedNodeContent = MultiSearchCache.prepareSearchContent(node);
+            searchCache.put(nodeUniqueID, nodeXml.getDocumentId(), nodeXml.getLastModified(), preparedNodeContent);
+            return preparedNodeContent;
+        } catch (IOException | SAXException e) {
+            displayToast(context.getString(R.string.toast_error_while_searching));
+        }
+        return null;
+    }
+
     @Override
     public void removeNodeFromBookmarks(String nodeUniqueID) {
         removeNodeFromLst(DocumentsContract.getTreeDocumentId(mainFolderUri), nodeUniqueID, "bookmarks.lst");
@@ -2035,13 +2150,9 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
     private void removeNodeFromLst(String documentId, String nodeUniqueID, String filename) {
         try {
             String lstFileDocumentId = null;
-            try (Cursor cursor = getNodeChildrenCursorSaf(documentId)) {
-                while (cursor.moveToNext()) {
-                    if (cursor.getString(2).equals(filename)) {
-                        lstFileDocumentId = cursor.getString(0);
-                        break;
-                    }
-                }
+            SafFolderListingCache.Entry lstFile = getFolderEntryByName(documentId, filename);
+            if (lstFile != null) {
+                lstFileDocumentId = lstFile.getDocumentId();
             }
             // Check if *.lst file was found. Displays message only for subnodes.lst file because
             // bookmarks.lst can be missing if there were no bookmarks
@@ -2067,6 +2178,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                         context.getContentResolver(),
                         DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, lstFileDocumentId)
                 );
+                folderListings.invalidate(documentId);
             } else {
                 try (
                         OutputStream os = context.getContentResolver().openOutputStream(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, lstFileDocumentId), "wt");
@@ -2086,13 +2198,9 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
     private void removeNodesFromBookmarks(List<String> nodeUniqueIDs) {
         try {
             String lstFileDocumentId = null;
-            try (Cursor cursor = getNodeChildrenCursorSaf(DocumentsContract.getTreeDocumentId(mainFolderUri))) {
-                while (cursor.moveToNext()) {
-                    if (cursor.getString(2).equals("bookmarks.lst")) {
-                        lstFileDocumentId = cursor.getString(0);
-                        break;
-                    }
-                }
+            SafFolderListingCache.Entry lstFile = getFolderEntryByName(DocumentsContract.getTreeDocumentId(mainFolderUri), "bookmarks.lst");
+            if (lstFile != null) {
+                lstFileDocumentId = lstFile.getDocumentId();
             }
             // Check if *.lst file was found. The bookmarks.lst file might be missing if there were no bookmarks
             if (lstFileDocumentId == null) {
@@ -2118,6 +2226,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                         context.getContentResolver(),
                         DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, lstFileDocumentId)
                 );
+                folderListings.invalidate(DocumentsContract.getTreeDocumentId(mainFolderUri));
             } else {
                 try (
                         OutputStream os = context.getContentResolver().openOutputStream(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, lstFileDocumentId), "wt");
@@ -2182,24 +2291,6 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         }
     }
 
-    /**
-     * Writes drawerMenu global variable to drawer_menu.xml file
-     */
-    private void saveDrawerMenuToStorage() {
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer;
-        try {
-            transformer = transformerFactory.newTransformer();
-            DOMSource dSource = new DOMSource(drawerMenu);
-            OutputStream fileOutputStream = new FileOutputStream(new File(context.getFilesDir(), "drawer_menu.xml"));
-            StreamResult result = new StreamResult(fileOutputStream);  // To save it in the Internal Storage
-            transformer.transform(dSource, result);
-            fileOutputStream.close();
-        } catch (TransformerException | IOException e) {
-            displayToast(context.getString(R.string.toast_error_failed_to_save_database_changes));
-        }
-    }
-
     /**
      * Converts ImageSpanAnchor found in nodeContent to an Element object ready to be written to the database
      * @param doc document object instance to create Element objects
@@ -2247,6 +2338,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                     if (!savedFiles.containsKey(imageSpanFile.getFilename())) {
                         try {
                             DocumentsContract.renameDocument(context.getContentResolver(), uri, imageSpanFile.getFilename());
+                            invalidateNodeListing(mainViewModel.getCurrentNode().getUniqueId());
                         } catch (FileNotFoundException e) {
                             displayToast(context.getString(R.string.toast_error_failed_to_save_an_attached_file));
                         }
@@ -2270,6 +2362,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
                             filename = filename.append(sha256sum).append('.').append(Files.getFileExtension(imageSpanFile.getFilename()));
                             try {
                                 DocumentsContract.renameDocument(context.getContentResolver(), uri, filename.toString());
+                                invalidateNodeListing(mainViewModel.getCurrentNode().getUniqueId());
                             } catch (FileNotFoundException e) {
                                 displayToast(context.getString(R.string.toast_error_failed_to_save_an_attached_file));
                             }
@@ -2290,14 +2383,14 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
             if (useFilenameOnDisk) {
                 filename = imageSpanFile.getFilename();
                 fileImageSha256Sums.add(filename);
+                copyFileToNodeFolder(userAttachedFileUri, filename);
             } else {
-                String sha256sum = calculateFileSha256Sum(userAttachedFileUri);
                 String extension = Files.getFileExtension(imageSpanFile.getFilename());
+                String sha256sum = ingestFileToNodeFolder(userAttachedFileUri, extension);
                 filename = extension != null ? sha256sum + "." + extension : sha256sum;
                 element.setAttribute("sha256sum", sha256sum);
                 fileImageSha256Sums.add(imageSpanFile.getSha256sum() + "."  + Files.getFileExtension(imageSpanFile.getFilename()));
             }
-            copyFileToNodeFolder(userAttachedFileUri, filename);
             fileImageSha256Sums.add(filename);
         }
         return element;
@@ -2320,8 +2413,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         if (imageSpanImage.getSha256sum().startsWith("content://")) {
             // Means it's not sha256sum, but an URI in string form
             Uri userAttachedFileUri = Uri.parse(imageSpanImage.getSha256sum());
-            String sha256sum = calculateFileSha256Sum(userAttachedFileUri);
-            copyFileToNodeFolder(userAttachedFileUri, sha256sum + ".png");
+            String sha256sum = ingestFileToNodeFolder(userAttachedFileUri, "png");
             element.setAttribute("time", String.valueOf(System.currentTimeMillis() / 1000));
             element.setAttribute("sha256sum", sha256sum);
             fileImageSha256Sums.add(sha256sum + ".png");
@@ -2625,6 +2717,9 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         } catch (IOException e) {
             displayToast(context.getString(R.string.toast_error_error_while_saving_node_content_aborting));
         }
+        // Files of the node might have been added, renamed or deleted
+        invalidateNodeListing(nodeUniqueID);
+        searchCache.delete(Collections.singletonList(nodeUniqueID));
     }
 
     /**
@@ -2688,107 +2783,63 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
 
     @Override
     public ArrayList<ScSearchNode> search(Boolean noSearch, String query) {
-        ArrayList<ScSearchNode> searchResult;
-        if (noSearch) {
-            searchResult = searchNodesSkippingExcluded(drawerMenu.getElementsByTagName("sourcherry").item(0).getChildNodes(), query);
-        } else {
-            searchResult = searchAllNodes(query);
+        ArrayList<ScSearchNode> searchResult = new ArrayList<>();
+        SearchWorker<Node> worker = createSearchWorker(documentBuilder, query);
+        for (SearchTarget<Node> target : getSearchTargets(noSearch)) {
+            ScSearchNode result = worker.findInNode(target);
+            if (result != null) {
+                searchResult.add(result);
+            }
         }
         return searchResult;
     }
 
-    /**
-     * Searches through content of all the node that are currently in drawer_menu.xml
-     * @param query string to search for
-     * @return all the matches to the search in ScSearchNode objects
-     */
-    private ArrayList<ScSearchNode> searchAllNodes(String query) {
-        ArrayList<ScSearchNode> searchResult = new ArrayList<>();
-        NodeList nodeList = drawerMenu.getElementsByTagName("node");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node currentNode = nodeList.item(i);
-            if (currentNode.getAttributes().getNamedItem("master_id") != null && !"0".equals(currentNode.getAttributes().getNamedItem("master_id").getNodeValue())) {
-                continue;
-            }
-            try (Cursor cursor = getNodeChildrenCursor(currentNode)) {
-                while (cursor.moveToNext()) {
-                    if (!cursor.getString(1).equals(DocumentsContract.Document.MIME_TYPE_DIR) && cursor.getString(2).equals("node.xml")) {
-                        try (InputStream is = context.getContentResolver().openInputStream(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, cursor.getString(0)))) {
-                            Node node = documentBuilder.parse(is).getElementsByTagName("node").item(0);
-                            boolean hasSubnodes = hasSubnodes(node);
-                            ScSearchNode scSearchNode = findInNode(node, query, hasSubnodes, hasSubnodes, !hasSubnodes);
-                            if (scSearchNode != null) {
-                                searchResult.add(scSearchNode);
-                            }
-                        } catch (IOException | SAXException e) {
-                            displayToast(context.getString(R.string.toast_error_while_searching));
-                        }
-                        break;
-                    }
-                }
+    @Override
+    public void search(Boolean noSearch, String query, ExecutorService workers, SearchResultCallback callback) throws InterruptedException {
+        // Most of the time is spent waiting for SAF to read node.xml files, so node.xml files of
+        // several nodes are read at the same time
+        searchInParallel(getSearchTargets(noSearch), workers, new Callable<SearchWorker<Node>>() {
+            @Override
+            public SearchWorker<Node> call() throws Exception {
+                return createSearchWorker(DocumentBuilderFactory.newInstance().newDocumentBuilder(), query);
             }
-        }
-        return searchResult;
+        }, callback);
     }
 
     /**
-     * Searches through content of all the node that are currently in drawer_menu.xml and not
-     * marked to be skipped in searches
-     * @param nodeList node list to filter the nodes that needs to be searched and search them
-     * @param query string to search for
-     * @return all the matches to the search in ScSearchNode objects
+     * Loads the tree from MultiTreeStore into drawerMenu global variable and indexes all its nodes
+     * by unique ID
+     * @throws IOException store does not hold a tree of the database
      */
-    private ArrayList<ScSearchNode> searchNodesSkippingExcluded(NodeList nodeList, String query) {
-        ArrayList<ScSearchNode> searchResult = new ArrayList<>();
+    public void setDrawerMenu() throws IOException {
+        Document document = treeStore.load(documentBuilder);
+        if (document == null) {
+            throw new FileNotFoundException("Drawer menu tree is missing");
+        }
+        Map<String, Element> index = new HashMap<>();
+        Map<String, List<String>> sharedIndex = new HashMap<>();
+        int maxID = -1;
+        NodeList nodeList = document.getElementsByTagName("node");
         for (int i = 0; i < nodeList.getLength(); i++) {
-            Node drawerMenuItem = nodeList.item(i);
-            boolean hasSubnodes = hasSubnodes(drawerMenuItem);
-            Node masterIdAttr = drawerMenuItem.getAttributes().getNamedItem("master_id");
-            String masterNodeId = masterIdAttr != null ? masterIdAttr.getNodeValue() : "0";
-            boolean noSearchMe;
-            boolean noSearchCh;
-            if (!"0".equals(masterNodeId)) {
-                Node masterNode = findSingleNode(masterNodeId);
-                noSearchMe = masterNode.getAttributes().getNamedItem("nosearch_me").getNodeValue().equals("1");
-                noSearchCh = masterNode.getAttributes().getNamedItem("nosearch_ch").getNodeValue().equals("1");
-            } else {
-                noSearchMe = drawerMenuItem.getAttributes().getNamedItem("nosearch_me").getNodeValue().equals("1");
-                noSearchCh = drawerMenuItem.getAttributes().getNamedItem("nosearch_ch").getNodeValue().equals("1");
-            }
-            if (!noSearchMe || !"0".equals(masterNodeId)) {
-                try (Cursor cursor = getNodeChildrenCursor(nodeList.item(i))) {
-                    while (cursor.moveToNext()) {
-                        if (!cursor.getString(1).equals(DocumentsContract.Document.MIME_TYPE_DIR) && cursor.getString(2).equals("node.xml")) {
-                            try (InputStream is = context.getContentResolver().openInputStream(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, cursor.getString(0)))) {
-                                Node node = documentBuilder.parse(is).getElementsByTagName("node").item(0);
-                                ScSearchNode scSearchNode = findInNode(node, query, hasSubnodes, hasSubnodes, !hasSubnodes);
-                                if (scSearchNode != null) {
-                                    searchResult.add(scSearchNode);
-                                }
-                            } catch (IOException | SAXException e) {
-                                displayToast(context.getString(R.string.toast_error_while_searching));
-                            }
-                            break;
-                        }
-                    }
+            Element element = (Element) nodeList.item(i);
+            String nodeUniqueID = element.getAttribute("unique_id");
+            index.put(nodeUniqueID, element);
+            String masterId = element.getAttribute("master_id");
+            if (!masterId.isEmpty() && !"0".equals(masterId)) {
+                List<String> sharedNodes = sharedIndex.get(masterId);
+                if (sharedNodes == null) {
+                    sharedNodes = new ArrayList<>();
+                    sharedIndex.put(masterId, sharedNodes);
                 }
+                sharedNodes.add(nodeUniqueID);
             }
-            if (!noSearchCh) {
-                searchResult.addAll(searchNodesSkippingExcluded(drawerMenuItem.getChildNodes(), query));
-            }
-        }
-        return searchResult;
-    }
-
-    /**
-     * Loads data from drawer_menu.xml file into drawerMenu global variable
-     * @throws IOException Signals that an I/O exception of some sort has occurred
-     * @throws SAXException Encapsulate a general SAX error or warning
-     */
-    public void setDrawerMenu() throws IOException, SAXException {
-        try (InputStream is = new FileInputStream(new File(context.getFilesDir(), "drawer_menu.xml"))) {
-            drawerMenu = documentBuilder.parse(is);
+            maxID = Math.max(maxID, Integer.parseInt(nodeUniqueID));
         }
+        drawerMenu = document;
+        drawerMenuIndex = index;
+        sharedNodesIndex = sharedIndex;
+        nodeMaxID = maxID;
+        folderListings.invalidateAll();
     }
 
     @Override
@@ -2827,6 +2878,7 @@ public class MultiReader extends DatabaseReader implements MultiDbFileShare {
         element.setAttribute("prog_lang", progLang);
         element.setAttribute("nosearch_me", noSearchMe);
         element.setAttribute("nosearch_ch", noSearchCh);
-        saveDrawerMenuToStorage();
+        treeStore.update(element);
+        searchCache.delete(Collections.singletonList(nodeUniqueID));
     }
 }
\ No newline at end of file
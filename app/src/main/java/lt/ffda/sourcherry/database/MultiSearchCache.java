@@ -0,0 +1,245 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cache of the searchable text of Multifile database nodes. Cache is kept in a separate SQLite file
+ * in app's storage. Every node is stored as already flattened and lowercased plain text together
+ * with SAF document ID and last modified time of its node.xml file, so search does not have to
+ * open and parse node.xml files that did not change. Text of the node is refreshed when its
+ * node.xml file is parsed while collecting nodes into MultiTreeStore and when search finds that
+ * last modified time of the node.xml file differs from the cached one. Last modified time used by
+ * the search comes from the folder listings of MultiReader that are dropped every time the drawer
+ * menu is reloaded after a scan. Cache holds nodes of a single database at a time.
+ */
+public class MultiSearchCache {
+    private static final String CACHE_FILENAME = "multi_search_cache.db";
+    private static MultiSearchCache instance;
+    private final SQLiteDatabase cache;
+
+    /**
+     * Opens (or creates) search cache file
+     * @param context application context to get app's file directory
+     */
+    private MultiSearchCache(Context context) {
+        cache = SQLiteDatabase.openOrCreateDatabase(new File(context.getFilesDir(), CACHE_FILENAME), null);
+        cache.execSQL("CREATE TABLE IF NOT EXISTS node_text (node_id TEXT PRIMARY KEY, saf_id TEXT, last_modified INTEGER, content TEXT)");
+        cache.execSQL("CREATE TABLE IF NOT EXISTS meta (key TEXT PRIMARY KEY, value TEXT)");
+    }
+
+    /**
+     * Returns search cache for the Multifile database. If cache holds nodes of another database
+     * they are removed.
+     * @param context application context to get app's file directory
+     * @param mainFolderUri Uri of the root folder of the database converted to String
+     * @return search cache
+     */
+    public static synchronized MultiSearchCache getInstance(Context context, String mainFolderUri) {
+        if (instance == null) {
+            instance = new MultiSearchCache(context.getApplicationContext());
+        }
+        instance.setDatabase(mainFolderUri);
+        return instance;
+    }
+
+    /**
+     * Creates text of the node that can be searched through. All text of the node including
+     * codeboxes, tables and filenames of the attached files is put in to the order user sees it,
+     * lowercased and all new line characters and repeating spaces are removed, so it can be
+     * searched with lowercase query.
+     * @param node node element from node.xml file
+     * @return node content prepared for search
+     */
+    public static String prepareSearchContent(Node node) {
+        // This string builder will hold oll text content of the node
+        StringBuilder nodeContent = new StringBuilder();
+        // As in reader that all the text would be in order user sees it
+        // filenames, table and codebox content hast to be inserted in correct location of the string
+        // To help calculate that location totalCharOffset is used
+        int totalCharOffset = 0;
+        // Gets all child nodes
+        NodeList nodeContentNodeList = node.getChildNodes();
+        for (int i = 0; i < nodeContentNodeList.getLength(); i++) {
+            // Going through all the tags of the node
+            // Skipping other "node" tags (subnodes).
+            // To decide if these nodes have to be search are for a job for
+            // MultiReader.collectSearchTargets()
+            switch (nodeContentNodeList.item(i).getNodeName()) {
+                case "rich_text":
+                    // All the text of the node
+                    nodeContent.append(nodeContentNodeList.item(i).getTextContent());
+                    break;
+                case "table":
+                    // Table of the node
+                    // offset where table's content has to be inserted
+                    int tableContentCharOffset = Integer.parseInt(nodeContentNodeList.item(i).getAttributes().getNamedItem("char_offset").getNodeValue());
+                    StringBuilder tableContent = new StringBuilder();
+                    // Getting all the rows of the table
+                    // It would be possible to add all the table content directly from the nodeContentNodeList.item(i)
+                    // However, "header" of the table is places in the last row, so it would be showed at the end of tables content
+                    NodeList tableRows = nodeContentNodeList.item(i).getChildNodes();
+
+                    // Adding all rows to arraylist
+                    ArrayList<String> tableRowArray = new ArrayList<>();
+                    for (int row = 0; row < tableRows.getLength(); row++) {
+                        if (tableRows.item(row).getNodeName().equals("row")) {
+                            tableRowArray.add(tableRows.item(row).getTextContent());
+                        }
+                    }
+                    // Adding the last row of the table to string builder as first because that's where header of the table is located
+                    tableContent.append(tableRowArray.get(tableRowArray.size() - 1));
+                    // Rest of the rows can be added in order
+                    for (int x = 0; x < tableRowArray.size() - 1; x++) {
+                        tableContent.append(tableRowArray.get(x));
+                    }
+                    // Adding table's content to nodes content string builder
+                    nodeContent.insert(tableContentCharOffset + totalCharOffset, tableContent);
+                    // Changing total offset value with a value of the table content, because CherryTree uses different GUI toolkit
+                    // And without doing this the first element with offset would mess node content order (or maybe that's by design)
+                    totalCharOffset += tableContent.length() - 1;
+                    break;
+                case "codebox":
+                    int codeboxContentCharOffset = Integer.parseInt(nodeContentNodeList.item(i).getAttributes().getNamedItem("char_offset").getNodeValue());
+                    StringBuilder codeboxContent = new StringBuilder();
+                    codeboxContent.append(nodeContentNodeList.item(i).getTextContent());
+                    if (nodeContent.length() < codeboxContentCharOffset + totalCharOffset) {
+                        // This check most likely needed in Searcher, but not in Reader
+                        // Because in search some objects (like images) are being skipped, however their offset is still being counted
+                        nodeContent.append(codeboxContent);
+                    } else {
+                        nodeContent.insert(codeboxContentCharOffset + totalCharOffset, codeboxContent);
+                    }
+                    totalCharOffset += codeboxContent.length() - 1;
+                    break;
+                case "encoded_png":
+                    // Getting just image's filename and inserting it in the nodeContent string that it would be possible to search for them
+                    Node filename = nodeContentNodeList.item(i).getAttributes().getNamedItem("filename");
+                    if (filename != null) {
+                        if (!filename.getNodeValue().equals("__ct_special.tex")) {
+                            // Ignoring LaTeX formulas
+                            int encodedPngContentCharOffset = Integer.parseInt(nodeContentNodeList.item(i).getAttributes().getNamedItem("char_offset").getNodeValue());
+                            StringBuilder encodedPngContent = new StringBuilder();
+                            encodedPngContent.append(filename.getNodeValue());
+                            encodedPngContent.append(" ");
+                            nodeContent.insert(encodedPngContentCharOffset + totalCharOffset, encodedPngContent);
+                            totalCharOffset += encodedPngContent.length() - 1;
+                        }
+                    }
+                    break;
+            }
+        }
+        // Removing all spaces and new line character from the node content string
+        return nodeContent.toString().toLowerCase().replaceAll("\n", " ").replaceAll(" +", " ");
+    }
+
+    /**
+     * Removes nodes from the cache
+     * @param nodeUniqueIDs collection of unique IDs of the nodes to remove
+     */
+    public void delete(Collection<String> nodeUniqueIDs) {
+        for (String nodeUniqueID : nodeUniqueIDs) {
+            cache.delete("node_text", "node_id = ?", new String[]{nodeUniqueID});
+        }
+    }
+
+    /**
+     * Returns cached text of the node
+     * @param nodeUniqueID unique ID of the node
+     * @return node content prepared for search or null if node is not in the cache
+     */
+    public String get(String nodeUniqueID) {
+        try (Cursor cursor = cache.query("node_text", new String[]{"content"}, "node_id = ?", new String[]{nodeUniqueID}, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if cached text of the node was created from the same version of node.xml file
+     * @param nodeUniqueID unique ID of the node
+     * @param safId SAF document ID of the node.xml file
+     * @param lastModified last modified time of the node.xml file
+     * @return true - cached text can be used, false - node.xml has to be parsed again
+     */
+    public boolean isUpToDate(String nodeUniqueID, String safId, long lastModified) {
+        try (Cursor cursor = cache.query("node_text", new String[]{"saf_id", "last_modified"}, "node_id = ?", new String[]{nodeUniqueID}, null, null, null)) {
+            return cursor.moveToFirst() && safId.equals(cursor.getString(0)) && cursor.getLong(1) == lastModified;
+        }
+    }
+
+    /**
+     * Inserts or replaces node's text in the cache
+     * @param nodeUniqueID unique ID of the node
+     * @param safId SAF document ID of the node.xml file
+     * @param lastModified last modified time of the node.xml file
+     * @param preparedContent node content prepared with prepareSearchContent()
+     */
+    public void put(String nodeUniqueID, String safId, long lastModified, String preparedContent) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put("node_id", nodeUniqueID);
+        contentValues.put("saf_id", safId);
+        contentValues.put("last_modified", lastModified);
+        contentValues.put("content", preparedContent);
+        cache.insertWithOnConflict("node_text", null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Removes all the nodes from the cache that are not in the collection. Used to remove nodes
+     * that were deleted from the database.
+     * @param nodeUniqueIDs unique IDs of all the nodes of the database
+     */
+    public void retain(Collection<String> nodeUniqueIDs) {
+        Set<String> existingNodeUniqueIDs = new HashSet<>(nodeUniqueIDs);
+        List<String> deletedNodeUniqueIDs = new ArrayList<>();
+        try (Cursor cursor = cache.query("node_text", new String[]{"node_id"}, null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                if (!existingNodeUniqueIDs.contains(cursor.getString(0))) {
+                    deletedNodeUniqueIDs.add(cursor.getString(0));
+                }
+            }
+        }
+        delete(deletedNodeUniqueIDs);
+    }
+
+    /**
+     * Removes all the nodes from the cache if it was created for another database
+     * @param mainFolderUri Uri of the root folder of the database converted to String
+     */
+    private void setDatabase(String mainFolderUri) {
+        try (Cursor cursor = cache.query("meta", new String[]{"value"}, "key = ?", new String[]{"database_uri"}, null, null, null)) {
+            if (cursor.moveToFirst() && mainFolderUri.equals(cursor.getString(0))) {
+                return;
+            }
+        }
+        cache.delete("node_text", null, null);
+        ContentValues contentValues = new ContentValues();
+        contentValues.put("key", "database_uri");
+        contentValues.put("value", mainFolderUri);
+        cache.insertWithOnConflict("meta", null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Drawer menu tree of the Multifile database. Tree is kept in a separate SQLite file in app's
+ * storage where every node is a single row keyed by its unique ID with ID of the parent node and
+ * position among its siblings, so every change to the tree updates only the rows of the nodes
+ * that changed. Parent ID of the main nodes is "0". Holds the tree of a single database at a time
+ * and replaces drawer_menu.xml file that was used before. Existing drawer_menu.xml file is imported
+ * the first time store is opened.
+ */
+public class MultiTreeStore {
+    private static final String[] ATTRIBUTES = new String[]{"master_id", "name", "prog_lang", "nosearch_me", "nosearch_ch", "is_bold", "foreground_color", "icon_id", "readonly", "saf_id"};
+    private static final String LEGACY_FILENAME = "drawer_menu.xml";
+    private static final String STORE_FILENAME = "multi_tree.db";
+    private static MultiTreeStore instance;
+    private final SQLiteDatabase store;
+
+    /**
+     * Opens (or creates) tree store file and imports drawer_menu.xml file if it exists
+     * @param context application context to get app's file directory
+     */
+    private MultiTreeStore(Context context) {
+        store = SQLiteDatabase.openOrCreateDatabase(new File(context.getFilesDir(), STORE_FILENAME), null);
+        store.execSQL("CREATE TABLE IF NOT EXISTS node (unique_id TEXT PRIMARY KEY, parent_id TEXT, sequence INTEGER, master_id TEXT, name TEXT, prog_lang TEXT, nosearch_me TEXT, nosearch_ch TEXT, is_bold TEXT, foreground_color TEXT, icon_id TEXT, readonly TEXT, saf_id TEXT)");
+        store.execSQL("CREATE INDEX IF NOT EXISTS node_parent ON node (parent_id, sequence)");
+        store.execSQL("CREATE TABLE IF NOT EXISTS meta (key TEXT PRIMARY KEY, value TEXT)");
+        store.execSQL("CREATE TABLE IF NOT EXISTS folder_signature (saf_id TEXT PRIMARY KEY, unique_id TEXT, node_xml_modified INTEGER, node_xml_size INTEGER, subnodes_modified INTEGER, subnodes_size INTEGER, subnodes TEXT)");
+        migrateDrawerMenuFile(new File(context.getFilesDir(), LEGACY_FILENAME));
+    }
+
+    /**
+     * Returns tree store of the Multifile database
+     * @param context application context to get app's file directory
+     * @return tree store
+     */
+    public static synchronized MultiTreeStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new MultiTreeStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Removes the tree from the store
+     */
+    public void clear() {
+        store.beginTransaction();
+        try {
+            store.delete("node", null, null);
+            store.delete("meta", null, null);
+            store.delete("folder_signature", null, null);
+            store.setTransactionSuccessful();
+        } finally {
+            store.endTransaction();
+        }
+    }
+
+    /**
+     * Removes nodes from the store. Subnodes of the nodes are not removed automatically.
+     * @param nodeUniqueIDs collection of unique IDs of the nodes to remove
+     */
+    public void delete(Collection<String> nodeUniqueIDs) {
+        store.beginTransaction();
+        try {
+            for (String nodeUniqueID : nodeUniqueIDs) {
+                store.delete("node", "unique_id = ?", new String[]{nodeUniqueID});
+            }
+            store.setTransactionSuccessful();
+        } finally {
+            store.endTransaction();
+        }
+    }
+
+    /**
+     * Creates values of the node's row from drawer menu item. Attributes that item does not have
+     * are stored as null.
+     * @param node drawer menu item
+     * @return values with unique ID and all attributes of the node
+     */
+    private ContentValues getAttributes(Node node) {
+        Element element = (Element) node;
+        ContentValues contentValues = new ContentValues();
+        contentValues.put("unique_id", element.getAttribute("unique_id"));
+        for (String attribute : ATTRIBUTES) {
+            contentValues.put(attribute, element.hasAttribute(attribute) ? element.getAttribute(attribute) : null);
+        }
+        return contentValues;
+    }
+
+    /**
+     * Returns signatures of all the node folders saved with the tree during the last scan
+     * @return map where key is SAF document ID of the node folder and value is its signature
+     */
+    public Map<String, FolderSignature> getFolderSignatures() {
+        Map<String, FolderSignature> signatures = new HashMap<>();
+        try (Cursor cursor = store.query("folder_signature", new String[]{"saf_id", "unique_id", "node_xml_modified", "node_xml_size", "subnodes_modified", "subnodes_size", "subnodes"}, null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                List<String> subnodes = cursor.isNull(6) || cursor.getString(6).isEmpty() ? new ArrayList<String>() : Arrays.asList(cursor.getString(6).split(","));
+                signatures.put(cursor.getString(0), new FolderSignature(cursor.getString(0), cursor.getString(1), cursor.getLong(2), cursor.getLong(3), cursor.getLong(4), cursor.getLong(5), subnodes));
+            }
+        }
+        return signatures;
+    }
+
+    /**
+     * Returns value from meta table
+     * @param key key of the value
+     * @return value or null if there is no value with the key
+     */
+    private String getMeta(String key) {
+        try (Cursor cursor = store.query("meta", new String[]{"value"}, "key = ?", new String[]{key}, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns attributes of the node as they were saved in the store. Attributes that node does
+     * not have are left out.
+     * @param nodeUniqueID unique ID of the node
+     * @return map where key is attribute name or null if node is not in the store
+     */
+    public Map<String, String> getNodeAttributes(String nodeUniqueID) {
+        try (Cursor cursor = store.query("node", ATTRIBUTES, "unique_id = ?", new String[]{nodeUniqueID}, null, null, null)) {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("unique_id", nodeUniqueID);
+            for (int i = 0; i < ATTRIBUTES.length; i++) {
+                if (!cursor.isNull(i)) {
+                    attributes.put(ATTRIBUTES[i], cursor.getString(i));
+                }
+            }
+            return attributes;
+        }
+    }
+
+    /**
+     * Returns unique ID of the drawer menu item's parent
+     * @param node drawer menu item
+     * @return unique ID of the parent node or "0" if node is a main node
+     */
+    private String getParentUniqueID(Node node) {
+        Node parentNode = node.getParentNode();
+        if (parentNode.getNodeName().equals("sourcherry")) {
+            return "0";
+        }
+        return ((Element) parentNode).getAttribute("unique_id");
+    }
+
+    /**
+     * Checks if store holds a tree
+     * @return true - tree was saved to the store and can be loaded
+     */
+    public boolean hasTree() {
+        return getMeta("root_saf_id") != null;
+    }
+
+    /**
+     * Inserts a new node as the last child of its parent. Node has to be already added to the
+     * drawer menu document.
+     * @param node drawer menu item of the new node
+     */
+    public void insert(Node node) {
+        String parentUniqueID = getParentUniqueID(node);
+        ContentValues contentValues = getAttributes(node);
+        contentValues.put("parent_id", parentUniqueID);
+        contentValues.put("sequence", nextSequence(parentUniqueID));
+        store.insertWithOnConflict("node", null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Inserts a new node right after its sibling. Node has to be already added to the drawer menu
+     * document.
+     * @param node drawer menu item of the new node
+     * @param siblingUniqueID unique ID of the node after which new node has to be placed
+     */
+    public void insertAfter(Node node, String siblingUniqueID) {
+        String parentUniqueID = getParentUniqueID(node);
+        store.beginTransaction();
+        try {
+            long sequence;
+            try (Cursor cursor = store.query("node", new String[]{"sequence"}, "unique_id = ?", new String[]{siblingUniqueID}, null, null, null)) {
+                sequence = cursor.moveToFirst() ? cursor.getLong(0) + 1 : nextSequence(parentUniqueID);
+            }
+            store.execSQL("UPDATE node SET sequence = sequence + 1 WHERE parent_id = ? AND sequence >= ?", new Object[]{parentUniqueID, sequence});
+            ContentValues contentValues = getAttributes(node);
+            contentValues.put("parent_id", parentUniqueID);
+            contentValues.put("sequence", sequence);
+            store.insertWithOnConflict("node", null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+            store.setTransactionSuccessful();
+        } finally {
+            store.endTransaction();
+        }
+    }
+
+    /**
+     * Creates drawer menu document from the tree in the store. Document has a root element
+     * "sourcherry" and all the nodes as "node" elements in the order they have to be displayed.
+     * @param documentBuilder builder to create the document with
+     * @return drawer menu document or null if store does not hold a tree
+     */
+    public Document load(DocumentBuilder documentBuilder) {
+        String rootSafId = getMeta("root_saf_id");
+        if (rootSafId == null) {
+            return null;
+        }
+        Document doc = documentBuilder.newDocument();
+        Element sourCherry = doc.createElement("sourcherry");
+        sourCherry.setAttribute("saf_id", rootSafId);
+        doc.appendChild(sourCherry);
+        Map<String, Element> elements = new HashMap<>();
+        List<Element> orderedElements = new ArrayList<>();
+        List<String> parentUniqueIDs = new ArrayList<>();
+        String[] columns = new String[ATTRIBUTES.length + 2];
+        columns[0] = "unique_id";
+        columns[1] = "parent_id";
+        System.arraycopy(ATTRIBUTES, 0, columns, 2, ATTRIBUTES.length);
+        try (Cursor cursor = store.query("node", columns, null, null, null, null, "parent_id, sequence")) {
+            while (cursor.moveToNext()) {
+                Element element = doc.createElement("node");
+                element.setAttribute("unique_id", cursor.getString(0));
+                for (int i = 0; i < ATTRIBUTES.length; i++) {
+                    if (!cursor.isNull(i + 2)) {
+                        element.setAttribute(ATTRIBUTES[i], cursor.getString(i + 2));
+                    }
+                }
+                elements.put(cursor.getString(0), element);
+                orderedElements.add(element);
+                parentUniqueIDs.add(cursor.getString(1));
+            }
+        }
+        // Rows are sorted by position among siblings, so appending them one by one keeps the order
+        for (int i = 0; i < orderedElements.size(); i++) {
+            Element parent = "0".equals(parentUniqueIDs.get(i)) ? sourCherry : elements.get(parentUniqueIDs.get(i));
+            if (parent != null) {
+                parent.appendChild(orderedElements.get(i));
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * Imports drawer_menu.xml file in to the store and deletes it
+     * @param file drawer_menu.xml file
+     */
+    private void migrateDrawerMenuFile(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        if (file.length() > 0) {
+            try {
+                DocumentBuilder documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+                save(documentBuilder.parse(file));
+            } catch (IOException | ParserConfigurationException | SAXException e) {
+                // Store will be left empty and tree will be collected again from the database
+                clear();
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Moves node to the end of its new parent's subnodes. Because SAF document ID of the node's
+     * folder changes with the move, saf_id of all the subnodes of the node is updated too. Node
+     * has to be already moved in the drawer menu document.
+     * @param node drawer menu item of the moved node
+     */
+    public void move(Node node) {
+        String parentUniqueID = getParentUniqueID(node);
+        store.beginTransaction();
+        try {
+            ContentValues contentValues = getAttributes(node);
+            contentValues.put("parent_id", parentUniqueID);
+            contentValues.put("sequence", nextSequence(parentUniqueID));
+            store.update("node", contentValues, "unique_id = ?", new String[]{((Element) node).getAttribute("unique_id")});
+            NodeList nodeList = ((Element) node).getElementsByTagName("node");
+            for (int i = 0; i < nodeList.getLength(); i++) {
+                update(nodeList.item(i));
+            }
+            store.setTransactionSuccessful();
+        } finally {
+            store.endTransaction();
+        }
+    }
+
+    /**
+     * Returns position for a new last subnode of the parent node
+     * @param parentUniqueID unique ID of the parent node
+     * @return position among siblings
+     */
+    private long nextSequence(String parentUniqueID) {
+        try (Cursor cursor = store.rawQuery("SELECT MAX(sequence) FROM node WHERE parent_id = ?", new String[]{parentUniqueID})) {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0) + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Replaces the tree in the store with the tree from drawer menu document. Signatures of the
+     * node folders are removed.
+     * @param doc drawer menu document with root element "sourcherry"
+     */
+    public void save(Document doc) {
+        save(doc, Collections.<FolderSignature>emptyList());
+    }
+
+    /**
+     * Replaces the tree and signatures of the node folders in the store with the ones collected
+     * during the scan of the database
+     * @param doc drawer menu document with root element "sourcherry"
+     * @param signatures signatures of all the scanned node folders
+     */
+    public void save(Document doc, Collection<FolderSignature> signatures) {
+        Element sourCherry = (Element) doc.getElementsByTagName("sourcherry").item(0);
+        store.beginTransaction();
+        try {
+            store.delete("node", null, null);
+            store.delete("folder_signature", null, null);
+            saveSubnodes(sourCherry, "0");
+            for (FolderSignature signature : signatures) {
+                ContentValues contentValues = new ContentValues();
+                contentValues.put("saf_id", signature.getSafId());
+                contentValues.put("unique_id", signature.getUniqueID());
+                contentValues.put("node_xml_modified", signature.getNodeXmlModified());
+                contentValues.put("node_xml_size", signature.getNodeXmlSize());
+                contentValues.put("subnodes_modified", signature.getSubnodesModified());
+                contentValues.put("subnodes_size", signature.getSubnodesSize());
+                contentValues.put("subnodes", String.join(",", signature.getSubnodes()));
+                store.insertWithOnConflict("folder_signature", null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            ContentValues contentValues = new ContentValues();
+            contentValues.put("key", "root_saf_id");
+            contentValues.put("value", sourCherry.getAttribute("saf_id"));
+            store.insertWithOnConflict("meta", null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+            store.setTransactionSuccessful();
+        } finally {
+            store.endTransaction();
+        }
+    }
+
+    /**
+     * Recursively inserts all subnodes of the drawer menu item
+     * @param parentNode drawer menu item which subnodes have to be inserted
+     * @param parentUniqueID unique ID of the parent node or "0" for root element
+     */
+    private void saveSubnodes(Node parentNode, String parentUniqueID) {
+        NodeList nodeList = parentNode.getChildNodes();
+        long sequence = 0;
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Node node = nodeList.item(i);
+            if (!node.getNodeName().equals("node")) {
+                continue;
+            }
+            ContentValues contentValues = getAttributes(node);
+            contentValues.put("parent_id", parentUniqueID);
+            contentValues.put("sequence", sequence++);
+            store.insertWithOnConflict("node", null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+            saveSubnodes(node, contentValues.getAsString("unique_id"));
+        }
+    }
+
+    /**
+     * Updates attributes of the node. Position of the node in the tree is not changed.
+     * @param node drawer menu item of the node
+     */
+    public void update(Node node) {
+        store.update("node", getAttributes(node), "unique_id = ?", new String[]{((Element) node).getAttribute("unique_id")});
+    }
+
+    /**
+     * Last modified times and sizes of node.xml and subnodes.lst files of the node folder as they
+     * were during the scan of the database. If they did not change since the last scan, node
+     * attributes and order of the subnodes can be taken from the store instead of reading the
+     * files again. Modified time of 0 means that provider did not report it and file has to be
+     * read.
+     */
+    public static class FolderSignature {
+        private final long nodeXmlModified;
+        private final long nodeXmlSize;
+        private final String safId;
+        private final List<String> subnodes;
+        private final long subnodesModified;
+        private final long subnodesSize;
+        private final String uniqueID;
+
+        /**
+         * Creates signature of the node folder
+         * @param safId SAF document ID of the node folder
+         * @param uniqueID unique ID of the node
+         * @param nodeXmlModified last modified time of node.xml file
+         * @param nodeXmlSize size of node.xml file
+         * @param subnodesModified last modified time of subnodes.lst file or 0 if folder does not have it
+         * @param subnodesSize size of subnodes.lst file or 0 if folder does not have it
+         * @param subnodes unique IDs of the subnodes in the order they are listed in subnodes.lst file
+         */
+        public FolderSignature(String safId, String uniqueID, long nodeXmlModified, long nodeXmlSize, long subnodesModified, long subnodesSize, List<String> subnodes) {
+            this.safId = safId;
+            this.uniqueID = uniqueID;
+            this.nodeXmlModified = nodeXmlModified;
+            this.nodeXmlSize = nodeXmlSize;
+            this.subnodesModified = subnodesModified;
+            this.subnodesSize = subnodesSize;
+            this.subnodes = subnodes;
+        }
+
+        /**
+         * Returns last modified time of node.xml file
+         * @return last modified time in milliseconds
+         */
+        public long getNodeXmlModified() {
+            return nodeXmlModified;
+        }
+
+        /**
+         * Returns size of node.xml file
+         * @return size in bytes
+         */
+        public long getNodeXmlSize() {
+            return nodeXmlSize;
+        }
+
+        /**
+         * Returns SAF document ID of the node folder
+         * @return SAF document ID
+         */
+        public String getSafId() {
+            return safId;
+        }
+
+        /**
+         * Returns unique IDs of the subnodes in the order they are listed in subnodes.lst file
+         * @return list of unique IDs
+         */
+        public List<String> getSubnodes() {
+            return subnodes;
+        }
+
+        /**
+         * Returns last modified time of subnodes.lst file
+         * @return last modified time in milliseconds or 0 if folder does not have subnodes.lst file
+         */
+        public long getSubnodesModified() {
+            return subnodesModified;
+        }
+
+        /**
+         * Returns size of subnodes.lst file
+         * @return size in bytes
+         */
+        public long getSubnodesSize() {
+            return subnodesSize;
+        }
+
+        /**
+         * Returns unique ID of the node
+         * @return unique ID
+         */
+        public String getUniqueID() {
+            return uniqueID;
+        }
+
+        /**
+         * Checks if node.xml file is the same as during the scan this signature was created in
+         * @param modified current last modified time of node.xml file
+         * @param size current size of node.xml file
+         * @return true - node.xml did not change
+         */
+        public boolean isNodeXmlUnchanged(long modified, long size) {
+            return modified > 0 && modified == nodeXmlModified && size == nodeXmlSize;
+        }
+
+        /**
+         * Checks if subnodes.lst file is the same as during the scan this signature was created in
+         * @param modified current last modified time of subnodes.lst file
+         * @param size current size of subnodes.lst file
+         * @return true - subnodes.lst did not change
+         */
+        public boolean isSubnodesUnchanged(long modified, long size) {
+            return modified > 0 && modified == subnodesModified && size == subnodesSize;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads attributes of the node from Multifile database's node.xml file without parsing the
+ * content of the node. Pull parser stops right after the start tag of the node element, so only
+ * the first few KB of the file are read no matter how big the content of the node is.
+ */
+public class NodeXmlHeaderReader {
+    private NodeXmlHeaderReader() {
+    }
+
+    /**
+     * Reads attributes of the first node element of node.xml file
+     * @param is InputStream of the node.xml file. It's not closed by the reader.
+     * @return map where key is attribute name in node.xml file and value is its value
+     * @throws IOException failed to read the file or file does not have a node element
+     */
+    public static Map<String, String> readAttributes(InputStream is) throws IOException {
+        try {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+            parser.setInput(is, null);
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG && parser.getName().equals("node")) {
+                    Map<String, String> attributes = new HashMap<>();
+                    for (int i = 0; i < parser.getAttributeCount(); i++) {
+                        attributes.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+                    }
+                    return attributes;
+                }
+                eventType = parser.next();
+            }
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+        throw new IOException("node.xml file does not have a node element");
+    }
+}
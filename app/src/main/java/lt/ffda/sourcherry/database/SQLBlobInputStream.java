@@ -0,0 +1,144 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream that reads BLOB of the SQL database row in fixed size slices. Every slice is
+ * fetched with the same substr() query, so the whole BLOB never has to fit in to CursorWindow and
+ * only one slice is held in memory at a time.
+ */
+public class SQLBlobInputStream extends InputStream {
+    // Has to be smaller than default CursorWindow size (2MB)
+    private static final int SLICE_SIZE = 512 * 1024;
+    private final String column;
+    private final long length;
+    private final long rowId;
+    private final SQLiteDatabase sqlite;
+    private final String table;
+    private long position;
+    private byte[] slice;
+    private int slicePosition;
+
+    /**
+     * Finds the row with BLOB to read. Only ROWID and length of the BLOB are queried.
+     * @param sqlite database to read BLOB from
+     * @param table table with BLOB column
+     * @param column BLOB column
+     * @param selection where clause that selects the row with BLOB
+     * @param selectionArgs arguments of the where clause
+     * @throws FileNotFoundException row was not found
+     */
+    public SQLBlobInputStream(SQLiteDatabase sqlite, String table, String column, String selection, String[] selectionArgs) throws FileNotFoundException {
+        this.sqlite = sqlite;
+        this.table = table;
+        this.column = column;
+        try (Cursor cursor = sqlite.rawQuery("SELECT rowid, length(" + column + ") FROM " + table + " WHERE " + selection + " LIMIT 1", selectionArgs)) {
+            if (!cursor.moveToFirst()) {
+                throw new FileNotFoundException("BLOB not found in " + table);
+            }
+            rowId = cursor.getLong(0);
+            length = cursor.getLong(1);
+        }
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, length - position);
+    }
+
+    /**
+     * Returns the size of the BLOB
+     * @return size in bytes
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Fetches next slice of the BLOB if current one was read
+     * @return false - end of the BLOB was reached
+     * @throws IOException failed to read the slice
+     */
+    private boolean nextSlice() throws IOException {
+        if (slice != null && slicePosition < slice.length) {
+            return true;
+        }
+        if (position >= length) {
+            return false;
+        }
+        // substr() of the BLOB counts bytes starting from 1
+        try (Cursor cursor = sqlite.rawQuery("SELECT substr(" + column + ", ?, ?) FROM " + table + " WHERE rowid=?", new String[]{String.valueOf(position + 1), String.valueOf(SLICE_SIZE), String.valueOf(rowId)})) {
+            if (!cursor.moveToFirst()) {
+                throw new IOException("BLOB row was deleted while reading");
+            }
+            slice = cursor.getBlob(0);
+        } catch (RuntimeException e) {
+            throw new IOException(e);
+        }
+        slicePosition = 0;
+        if (slice == null || slice.length == 0) {
+            throw new IOException("BLOB ended before expected length");
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextSlice()) {
+            return -1;
+        }
+        position++;
+        return slice[slicePosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextSlice()) {
+            return -1;
+        }
+        int count = Math.min(len, slice.length - slicePosition);
+        System.arraycopy(slice, slicePosition, b, off, count);
+        slicePosition += count;
+        position += count;
+        return count;
+    }
+
+    /**
+     * Reads the rest of the BLOB in to byte array
+     * @return rest of the BLOB
+     * @throws IOException BLOB is too big to fit in to array or failed to read it
+     */
+    public byte[] readFully() throws IOException {
+        if (length - position > Integer.MAX_VALUE - 8) {
+            throw new IOException("BLOB is too big");
+        }
+        byte[] bytes = new byte[(int) (length - position)];
+        int offset = 0;
+        while (offset < bytes.length) {
+            int count = read(bytes, offset, bytes.length - offset);
+            if (count == -1) {
+                throw new IOException("BLOB ended before expected length");
+            }
+            offset += count;
+        }
+        return bytes;
+    }
+}
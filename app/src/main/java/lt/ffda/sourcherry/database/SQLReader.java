@@ -12,19 +12,14 @@ package lt.ffda.sourcherry.database;
 
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.database.Cursor;
-import android.database.CursorWindow;
-import android.database.sqlite.SQLiteCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Handler;
 import android.text.Layout;
 import android.text.SpannableStringBuilder;
@@ -65,9 +60,14 @@ import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -97,6 +97,7 @@ import lt.ffda.sourcherry.spans.ImageSpanAnchor;
 import lt.ffda.sourcherry.spans.ImageSpanFile;
 import lt.ffda.sourcherry.spans.ImageSpanImage;
 import lt.ffda.sourcherry.spans.ImageSpanLatex;
+import lt.ffda.sourcherry.spans.LazyImageDrawable;
 import lt.ffda.sourcherry.spans.StyleSpanBold;
 import lt.ffda.sourcherry.spans.StyleSpanItalic;
 import lt.ffda.sourcherry.spans.TypefaceSpanCodebox;
@@ -106,12 +107,31 @@ import lt.ffda.sourcherry.utils.DatabaseType;
 import ru.noties.jlatexmath.JLatexMathDrawable;
 
 public class SQLReader extends DatabaseReader implements DatabaseVacuum {
+    // Indexes of the columns selected by MENU_QUERY
+    private static final int MENU_COLUMN_NODE_ID = 0;
+    private static final int MENU_COLUMN_MASTER_ID = 1;
+    private static final int MENU_COLUMN_NAME = 2;
+    private static final int MENU_COLUMN_IS_RICHTXT = 3;
+    private static final int MENU_COLUMN_SYNTAX = 4;
+    private static final int MENU_COLUMN_IS_RO = 5;
+    private static final int MENU_COLUMN_HAS_SUBNODES = 6;
+    // Selects everything needed to create drawer menu items in one pass. Shared nodes get name,
+    // formatting and icon of their master node. Has subnodes flag is computed in the same query.
+    private static final String MENU_QUERY = "SELECT children.node_id, IFNULL(children.master_id, 0), IFNULL(master.name, node.name), IFNULL(master.is_richtxt, node.is_richtxt), IFNULL(master.syntax, node.syntax), IFNULL(master.is_ro, node.is_ro), EXISTS(SELECT 1 FROM children AS subnode WHERE subnode.father_id=children.node_id) FROM children LEFT JOIN node ON children.node_id=node.node_id LEFT JOIN node AS master ON children.master_id=master.node_id ";
+    // Has to be increased every time text written in to search index changes, so indexes created
+    // by the older versions would be rebuilt
+    private static final int SEARCH_INDEX_CONTENT_VERSION = 2;
+    // Selects node which unique ID is bound to the query together with all its subnodes. Columns:
+    // node_id, master_id, depth. Depth of the bound node is 0.
+    private static final String SUBTREE_QUERY = "WITH RECURSIVE subtree(node_id, master_id, depth) AS (SELECT node_id, master_id, 0 FROM children WHERE node_id=? UNION ALL SELECT children.node_id, children.master_id, subtree.depth + 1 FROM children INNER JOIN subtree ON children.father_id=subtree.node_id) ";
     private final Context context;
     private final DocumentBuilder documentBuilder;
     private final Handler handler;
     private final MainViewModel mainViewModel;
     private final SQLiteDatabase sqlite;
     private final Transformer transformer;
+    private SQLSearchIndex searchIndex;
+    private boolean searchIndexUpToDate = false;
 
     /**
      * Class that opens databases based on SQL file. Provides all functions necessary to read and edit
@@ -147,47 +167,91 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
     }
 
     /**
-     * Checks if node is a subnode if another node
-     * Not really sure if it does not return false positives
-     * However all my tests worked
+     * Checks if node is a subnode if another node. All ancestors of the destination node are
+     * found with one recursive query.
      * @param targetNodeUniqueID unique ID of the node that needs to be check if it's a parent node
      * @param destinationNodeUniqueID unique ID of the node that has to be check if it's a child
-     * @return true - if target node is a parent of destination node
+     * @return true - if target node is a parent of destination node or it is the same node
      */
     private boolean areNodesRelated(String targetNodeUniqueID, String destinationNodeUniqueID) {
-        ArrayList<String> heredity = new ArrayList<>();
-        heredity.add(destinationNodeUniqueID);
-        while (true) {
-            try (Cursor cursor = sqlite.query("children", new String[]{"father_id"}, "node_id = ?", new String[]{destinationNodeUniqueID}, null, null, null, null)) {
-                if (cursor.moveToFirst()) {
-                    destinationNodeUniqueID = cursor.getString(0);
-                    heredity.add(destinationNodeUniqueID);
-                    if (destinationNodeUniqueID.equals("0")) {
-                        cursor.close();
-                        break;
-                    }
-                } else {
-                    break;
+        if (targetNodeUniqueID.equals(destinationNodeUniqueID)) {
+            return true;
+        }
+        try (Cursor cursor = sqlite.rawQuery("WITH RECURSIVE ancestor(node_id) AS (SELECT father_id FROM children WHERE node_id=? UNION SELECT children.father_id FROM children INNER JOIN ancestor ON children.node_id=ancestor.node_id) SELECT 1 FROM ancestor WHERE node_id=CAST(? AS INTEGER) LIMIT 1", new String[]{destinationNodeUniqueID, targetNodeUniqueID})) {
+            return cursor.getCount() > 0;
+        }
+    }
+
+    /**
+     * Walks the node tree depth-first and creates search results for nodes that were found in the
+     * search index. Tree is not queried again. It has to be preloaded into the cursor with
+     * positions of every parent's children collected into childrenPositions.
+     * @param cursor cursor with all rows of children table joined with node table
+     * @param childrenPositions cursor positions of the children of every parent node
+     * @param parentUniqueID unique ID of the node which children have to be processed
+     * @param noSearch true - skip nodes marked excluded
+     * @param query string to search for
+     * @param matches nodes found in the search index with their prepared content
+     * @param searchResult list to collect search results into
+     */
+    private void collectIndexedSearchResults(Cursor cursor, Map<String, List<Integer>> childrenPositions, String parentUniqueID, boolean noSearch, String query, Map<String, String> matches, ArrayList<ScSearchNode> searchResult) {
+        List<Integer> positions = childrenPositions.get(parentUniqueID);
+        if (positions == null) {
+            return;
+        }
+        for (int position : positions) {
+            cursor.moveToPosition(position);
+            String nodeUniqueID = cursor.getString(0);
+            String nodeMasterID = cursor.getString(2) == null ? "0" : cursor.getString(2);
+            // 0 - search node and subnodes, 1 - skip node, 2 - skip subnodes, 3 - skip both
+            int level = noSearch ? cursor.getInt(3) : 0;
+            boolean hasSubnodes = childrenPositions.containsKey(nodeUniqueID);
+            String preparedNodeContent = matches.get(nodeUniqueID);
+            // Skipping all sharedNodes
+            if ((level == 0 || level == 2) && "0".equals(nodeMasterID) && preparedNodeContent != null) {
+                // Main menu item will always be displayed as a parent
+                boolean isMainMenuNode = "0".equals(parentUniqueID);
+                ScSearchNode result = createSearchResult(preparedNodeContent, query, nodeUniqueID, nodeMasterID, cursor.getString(4), cursor.getString(5), cursor.getInt(7), cursor.getInt(6), hasSubnodes, isMainMenuNode || hasSubnodes, !isMainMenuNode && !hasSubnodes);
+                if (result != null) {
+                    searchResult.add(result);
                 }
             }
+            if (hasSubnodes && (level == 0 || level == 1)) {
+                collectIndexedSearchResults(cursor, childrenPositions, nodeUniqueID, noSearch, query, matches, searchResult);
+            }
         }
-        return heredity.contains(targetNodeUniqueID);
     }
 
     /**
-     * Collects all node unique IDs and master IDs to provided lists
-     * @param nodeUniqueID node unique ID to collect children data for
-     * @param uniqueIds list to collect node unique IDs
-     * @param masterIds set to collect node master IDs
+     * Walks the node tree depth-first and collects nodes that have to be searched through. Tree is
+     * not queried again. It has to be preloaded into the cursor with positions of every parent's
+     * children collected into childrenPositions.
+     * @param cursor cursor with node_id, father_id, master_id and level of every row of children table
+     * @param childrenPositions cursor positions of the children of every parent node
+     * @param parentUniqueID unique ID of the node which children have to be processed
+     * @param noSearch true - skip nodes marked excluded
+     * @param targets list to collect nodes into
      */
-    private void collectChildrenNodeUniqueAndMasterIds(String nodeUniqueID, List<String> uniqueIds, Set<String> masterIds) {
-        try (Cursor children = sqlite.query("children", new String[]{"node_id", "master_id"}, "father_id=?", new String[]{nodeUniqueID}, null, null, null, null)) {
-            while (children.moveToNext()) {
-                uniqueIds.add(children.getString(0));
-                if (!children.getString(1).equals("0")) {
-                    masterIds.add(children.getString(1));
-                }
-                collectChildrenNodeUniqueAndMasterIds(children.getString(0), uniqueIds, masterIds);
+    private void collectSearchTargets(Cursor cursor, Map<String, List<Integer>> childrenPositions, String parentUniqueID, boolean noSearch, ArrayList<SearchTarget<String>> targets) {
+        List<Integer> positions = childrenPositions.get(parentUniqueID);
+        if (positions == null) {
+            return;
+        }
+        for (int position : positions) {
+            cursor.moveToPosition(position);
+            String nodeUniqueID = cursor.getString(0);
+            String nodeMasterID = cursor.getString(2) == null ? "0" : cursor.getString(2);
+            // 0 - search node and subnodes, 1 - skip node, 2 - skip subnodes, 3 - skip both
+            int level = noSearch ? cursor.getInt(3) : 0;
+            boolean hasSubnodes = childrenPositions.containsKey(nodeUniqueID);
+            // Skipping all sharedNodes
+            if ((level == 0 || level == 2) && "0".equals(nodeMasterID)) {
+                // Main menu item will always be displayed as a parent
+                boolean isMainMenuNode = "0".equals(parentUniqueID);
+                targets.add(new SearchTarget<>(nodeUniqueID, hasSubnodes, isMainMenuNode || hasSubnodes, !isMainMenuNode && !hasSubnodes));
+            }
+            if (hasSubnodes && (level == 0 || level == 1)) {
+                collectSearchTargets(cursor, childrenPositions, nodeUniqueID, noSearch, targets);
             }
         }
     }
@@ -211,46 +275,30 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
     }
 
     /**
-     * Converts data of the cursor to the ScNode. Cursor has to have selected fields: node.name,
-     * node.node_id, node.is_richtxt, node.syntax, node.is_ro. (Order of selected fields is
-     * important!) Defaults isParent and isSubnode to false. Cursor has to be moved. It will not
-     * call next on the cursor.
+     * Converts data of the cursor to the ScNode. Cursor has to be created with MENU_QUERY or
+     * select the same columns in the same order. Defaults isParent and isSubnode to false. Cursor
+     * has to be moved. It will not call next on the cursor.
      * @param cursor cursor with selected data
-     * @return ScNode with tada from the cursor
+     * @return ScNode with data from the cursor or null if node (or master node of the shared node) does not exist
      */
     private ScNode convertCursorToScNode(Cursor cursor) {
-        String nodeUniqueID = cursor.getString(1);
-        String nodeMasterID = cursor.getString(5) == null ? "0" : cursor.getString(5);
-        boolean hasSubnodes = hasSubnodes(nodeUniqueID);
-        if ("0".equals(nodeMasterID)) {
-            String nameValue = cursor.getString(0);
-            boolean isRichText = cursor.getString(3).equals("custom-colors");
-            boolean isBold = ((cursor.getInt(2) >> 1) & 0x01) == 1;
-            String foregroundColor = "";
-            if (((cursor.getInt(2) >> 2) & 0x01) == 1) {
-                foregroundColor = String.format("#%06x", ((cursor.getInt(2) >> 3) & 0xffffff));
-            }
-            int iconId = cursor.getInt(4) >> 1;
-            boolean isReadOnly = (cursor.getInt(4) & 0x01) == 1;
-            return new ScNode(nodeUniqueID, nodeMasterID, nameValue, false, hasSubnodes, false, isRichText, isBold, foregroundColor, iconId, isReadOnly);
-        } else {
-            ScNode scNode = null;
-            try (Cursor masterNode = sqlite.rawQuery("SELECT name, is_richtxt, syntax, is_ro FROM node WHERE node_id=?", new String[]{nodeMasterID})) {
-                if (masterNode.moveToNext()) {
-                    String nameValue = masterNode.getString(0);
-                    boolean isBold = ((masterNode.getInt(1) >> 1) & 0x01) == 1;
-                    String foregroundColor = "";
-                    if (((masterNode.getInt(1) >> 2) & 0x01) == 1) {
-                        foregroundColor = String.format("#%06x", ((masterNode.getInt(2) >> 3) & 0xffffff));
-                    }
-                    int iconId = masterNode.getInt(3) >> 1;
-                    boolean isRichText = masterNode.getString(2).equals("custom-colors");
-                    boolean isReadOnly = (masterNode.getInt(3) & 0x01) == 1;
-                    scNode = new ScNode(nodeUniqueID, nodeMasterID, nameValue, false, hasSubnodes, false, isRichText, isBold, foregroundColor, iconId, isReadOnly);
-                }
-            }
-            return scNode;
+        String nameValue = cursor.getString(MENU_COLUMN_NAME);
+        if (nameValue == null) {
+            return null;
         }
+        String nodeUniqueID = cursor.getString(MENU_COLUMN_NODE_ID);
+        String nodeMasterID = cursor.getString(MENU_COLUMN_MASTER_ID);
+        boolean hasSubnodes = cursor.getInt(MENU_COLUMN_HAS_SUBNODES) == 1;
+        int isRichTxt = cursor.getInt(MENU_COLUMN_IS_RICHTXT);
+        boolean isRichText = "custom-colors".equals(cursor.getString(MENU_COLUMN_SYNTAX));
+        boolean isBold = ((isRichTxt >> 1) & 0x01) == 1;
+        String foregroundColor = "";
+        if (((isRichTxt >> 2) & 0x01) == 1) {
+            foregroundColor = String.format("#%06x", ((isRichTxt >> 3) & 0xffffff));
+        }
+        int iconId = cursor.getInt(MENU_COLUMN_IS_RO) >> 1;
+        boolean isReadOnly = (cursor.getInt(MENU_COLUMN_IS_RO) & 0x01) == 1;
+        return new ScNode(nodeUniqueID, nodeMasterID, nameValue, false, hasSubnodes, false, isRichText, isBold, foregroundColor, iconId, isReadOnly);
     }
 
     /**
@@ -479,6 +527,7 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
             displayToast(context.getString(R.string.toast_error_failed_to_create_entry_into_children_table));
             return null;
         }
+        updateSearchIndex(Collections.singletonList(String.valueOf(newNodeUniqueID)), Collections.<String>emptyList());
         return new ScNode(String.valueOf(newNodeUniqueID), "0", name, false, false, isSubnode, progLang.equals("custom-colors"), false, "", 0, false);
     }
 
@@ -490,101 +539,33 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
      */
     private ScNode createParentNode(String nodeUniqueID) {
         ScNode scNode;
-        try (Cursor cursor = sqlite.rawQuery("SELECT node.name, children.node_id, node.is_richtxt, node.syntax, node.is_ro, children.master_id FROM children LEFT JOIN node ON children.node_id=node.node_id WHERE children.node_id=? ORDER BY sequence ASC", new String[]{nodeUniqueID})) {
+        try (Cursor cursor = sqlite.rawQuery(MENU_QUERY + "WHERE children.node_id=?", new String[]{nodeUniqueID})) {
             if (!cursor.move(1)) { // Cursor items start at 1 not 0!!!
                 return null;
             }
             scNode = convertCursorToScNode(cursor);
-            scNode.setParent(true);
-        }
-        return scNode;
-    }
-
-    @Override
-    public void deleteNode(String nodeUniqueID) {
-        String parentNodeUniqueID; // Used later to fix bookmarks and node sequences
-        sqlite.beginTransaction();
-        try {
-            // Collectin all node unique IDs that will be deleted
-            List<String> uniqueIds = new ArrayList<>();
-            uniqueIds.add(nodeUniqueID);
-            // Collecting all master_ids in nodes that will be deleted
-            Set<String> masterIds = new HashSet<>();
-            try (Cursor cursor = sqlite.query("children", new String[]{"father_id", "master_id"}, "node_id=?", new String[]{nodeUniqueID}, null, null, null, null)) {
-                cursor.moveToFirst();
-                parentNodeUniqueID = cursor.getString(0);
-                if (!cursor.getString(1).equals("0")) {
-                    masterIds.add(cursor.getString(1));
-                }
-            }
-            collectChildrenNodeUniqueAndMasterIds(nodeUniqueID, uniqueIds, masterIds);
-            // Checking if master node of sharedNodes will be deleted
-            // Moving data to next sharedNode if so
-            for (String nodeId: uniqueIds) {
-                List<String> sharedNodes = getSharedNodesIds(nodeId);
-                if (!sharedNodes.isEmpty()) {
-                    for (String node: sharedNodes) {
-                        if (!uniqueIds.contains(node)) {
-                            ContentValues contentValues = new ContentValues();
-                            contentValues.put("node_id", node);
-                            sqlite.update("node", contentValues, "node_id=?", new String[]{nodeId});
-                            contentValues.clear();
-                            contentValues.put("master_id", "0");
-                            sqlite.update("children", contentValues, "master_id=?", new String[]{node});
-                            contentValues.clear();
-                            contentValues.put("master_id", node);
-                            sqlite.update("children", contentValues, "master_id=?", new String[]{nodeId});
-                            contentValues.clear();
-                            contentValues.put("node_id", node);
-                            sqlite.update("image", contentValues, "node_id=?", new String[]{nodeId});
-                            sqlite.update("grid", contentValues, "node_id=?", new String[]{nodeId});
-                            sqlite.update("codebox", contentValues, "node_id=?", new String[]{nodeId});
-                            break;
-                        }
-                    }
-                }
-            }
-            for (String nodeId: uniqueIds) {
-                sqlite.delete("bookmark", "node_id = ?", new String[]{nodeId});
-                sqlite.delete("children", "node_id = ?", new String[]{nodeId});
-                sqlite.delete("codebox", "node_id = ?", new String[]{nodeId});
-                sqlite.delete("grid", "node_id = ?", new String[]{nodeId});
-                sqlite.delete("image", "node_id = ?", new String[]{nodeId});
-                sqlite.delete("node", "node_id = ?", new String[]{nodeId});
+            if (scNode != null) {
+                scNode.setParent(true);
             }
-            sqlite.setTransactionSuccessful();
-        } finally {
-            sqlite.endTransaction();
         }
-        fixChildrenNodeSequence(parentNodeUniqueID);
-        fixBookmarkNodeSequence();
-    }
-
-    @Override
-    public void displayToast(String message) {
-        // Displays a toast on main thread
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
-            }
-        });
+        return scNode;
     }
 
     /**
-     * Searches through node's content
-     * @param cursor cursor that holds all the data of the of the node to search through
-     * @param query string to search for
-     * @param hasSubnodes true if node has subnodes, else - false
-     * @param isParent true if node is a parent node, else - false
-     * @param isSubnode isSubnode true if node is a subnode, else - false
-     * @return search result object or null if nothing was found
+     * Creates text of the node that can be searched through. All text of the node including
+     * codeboxes, tables and filenames of the attached files is put in to the order user sees it.
+     * Used by search and search index, so both would find the same nodes.
+     * @param database database connection to read codeboxes, tables and images of the node with
+     * @param documentBuilder DocumentBuilder to parse node content with
+     * @param nodeUniqueID unique ID of the node
+     * @param txt txt column value of the node
+     * @param syntax syntax column value of the node
+     * @param hasCodebox true - node has codeboxes
+     * @param hasTable true - node has tables
+     * @param hasImage true - node has images, anchors or attached files
+     * @return node content prepared for search
      */
-    private ScSearchNode findInNode(Cursor cursor, String query, boolean hasSubnodes, boolean isParent, boolean isSubnode) {
-        // Skip all sharedNodes
-        if (cursor.getString(3) != null && !cursor.getString(3).equals("0")) {
-            return null;
-        }
+    private String createSearchContent(SQLiteDatabase database, DocumentBuilder documentBuilder, String nodeUniqueID, String txt, String syntax, boolean hasCodebox, boolean hasTable, boolean hasImage) {
         // This string builder will hold all text content of the node
         StringBuilder nodeContent = new StringBuilder();
         // As in reader that all the text would be in order user sees it
@@ -592,23 +573,16 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
         // To help calculate that location totalCharOffset is used
         int totalCharOffset = 0;
 
-        // ***Creating node content string
-        String nodeSyntax = cursor.getString(7);
-
-        if (nodeSyntax.equals("custom-colors")) {
+        if (syntax.equals("custom-colors")) {
             // This is formatting for Rich Text and Plain Text nodes
             // Gets all the subnodes/childnodes of selected node
-            NodeList nodeContentNodeList = getDocumentFromString(cursor.getString(6)).getElementsByTagName("node").item(0).getChildNodes();
+            NodeList nodeContentNodeList = getDocumentFromString(documentBuilder, txt).getElementsByTagName("node").item(0).getChildNodes();
             for (int x = 0; x < nodeContentNodeList.getLength(); x++) {
                 // Loops through nodes/tags of selected node
                 nodeContent.append(nodeContentNodeList.item(x).getTextContent());
             }
-            int hasCodebox = cursor.getInt(11);
-            int hasTable = cursor.getInt(12);
-            int hasImage = cursor.getInt(13);
-
             // If it is marked that node has codebox, table or image
-            if (hasCodebox == 1 || hasTable == 1 || hasImage == 1) {
+            if (hasCodebox || hasTable || hasImage) {
                 //// Building string for SQLQuery
                 // Because every type of element (image, table, codeboxes) are in it's own table
                 // Only the ones that actually are in the node will be searched
@@ -618,22 +592,22 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
                 // Depending on how many tables will be searched
                 // instances of how many time nodeUniqueID will have to be inserted will differ
                 int queryCounter = 0; // This is the counter for that
-                if (hasCodebox == 1) {
+                if (hasCodebox) {
                     // Means that node has has codeboxes in it
                     codeboxTableImageQueryString.append("SELECT offset, txt, 7 FROM codebox WHERE node_id=? ");
                     queryCounter++;
                 }
-                if (hasTable == 1) {
+                if (hasTable) {
                     // Means that node has tables in it
-                    if (hasCodebox == 1) {
+                    if (hasCodebox) {
                         codeboxTableImageQueryString.append("UNION ");
                     }
                     codeboxTableImageQueryString.append("SELECT offset, txt, 8 FROM grid WHERE node_id=? ");
                     queryCounter++;
                 }
-                if (hasImage == 1) {
+                if (hasImage) {
                     // Means that node has images (images, anchors or files) in it
-                    if (hasCodebox == 1 || hasTable == 1) {
+                    if (hasCodebox || hasTable) {
                         codeboxTableImageQueryString.append("UNION ");
                     }
                     codeboxTableImageQueryString.append("SELECT offset, filename, 9 FROM image WHERE node_id=? ");
@@ -643,11 +617,11 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
 
                 /// Creating the array that will be used to insert nodeUniqueIDs
                 String[] queryArguments = new String[queryCounter];
-                Arrays.fill(queryArguments, cursor.getString(0));
+                Arrays.fill(queryArguments, nodeUniqueID);
                 ///
                 ////
 
-                try (Cursor codeboxTableImageCursor = sqlite.rawQuery(codeboxTableImageQueryString.toString(), queryArguments)) {
+                try (Cursor codeboxTableImageCursor = database.rawQuery(codeboxTableImageQueryString.toString(), queryArguments)) {
                     while (codeboxTableImageCursor.moveToNext()) {
                         int charOffset = codeboxTableImageCursor.getInt(0);
                         if (codeboxTableImageCursor.getInt(2) == 9) {
@@ -681,7 +655,7 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
                         } else if (codeboxTableImageCursor.getInt(2) == 8) {
                             StringBuilder tableContent = new StringBuilder();
                             // table row
-                            NodeList tableRows = getDocumentFromString(codeboxTableImageCursor.getString(1)).getElementsByTagName("table").item(0).getChildNodes();
+                            NodeList tableRows = getDocumentFromString(documentBuilder, codeboxTableImageCursor.getString(1)).getElementsByTagName("table").item(0).getChildNodes();
                             // Adding all rows to arraylist
                             ArrayList<String> tableRowArray = new ArrayList<>();
                             for (int row = 0; row < tableRows.getLength(); row++) {
@@ -721,23 +695,39 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
                     }
                 }
             }
-        } else if (nodeSyntax.equals("plain-text")) {
+        } else if (syntax.equals("plain-text")) {
             // Plain text node does not have any formatting and has no node embedded in to it
-            nodeContent.append(cursor.getString(6));
+            nodeContent.append(txt);
         } else {
             // Node is Code Node. It's just a big CodeBox with no dimensions
-            nodeContent.append(cursor.getString(6));
+            nodeContent.append(txt);
         }
+        return prepareSearchContent(nodeContent.toString());
+
+    }
 
-        // ***Search
+    /**
+     * Counts how many times query was found in the node content and collects first three samples
+     * of the found query to display in search results
+     * @param preparedNodeContent node content prepared with prepareSearchContent()
+     * @param query string to search for
+     * @param nodeUniqueID unique ID of the node
+     * @param nodeMasterID master ID of the node
+     * @param name name of the node
+     * @param syntax syntax (type) of the node
+     * @param isRichText is_richtxt value of the node that holds name formatting
+     * @param isReadOnly is_ro value of the node that holds icon and read only flag
+     * @param hasSubnodes true if node has subnodes, else - false
+     * @param isParent true if node is a parent node, else - false
+     * @param isSubnode true if node is a subnode, else - false
+     * @return search result object or null if nothing was found
+     */
+    private ScSearchNode createSearchResult(String preparedNodeContent, String query, String nodeUniqueID, String nodeMasterID, String name, String syntax, int isRichText, int isReadOnly, boolean hasSubnodes, boolean isParent, boolean isSubnode) {
         int queryLength = query.length();
         int resultCount = 0;
         int index = 0;
         StringBuilder samples = new StringBuilder(); // This will hold 3 samples to show to user
 
-        // Removing all spaces and new line character from the node content string
-        String preparedNodeContent = nodeContent.toString().toLowerCase().replaceAll("\n", " ").replaceAll(" +", " ");
-
         while (index != -1) {
             index = preparedNodeContent.indexOf(query, index);
             if (index != -1) {
@@ -779,19 +769,145 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
 
         if (resultCount > 0) {
             // if node count of matches is more than 0 that a match of q query was found
-            boolean isBold = ((cursor.getInt(10) >> 1) & 0x01) == 1;
+            boolean isBold = ((isRichText >> 1) & 0x01) == 1;
             String foregroundColor = "";
-            if (((cursor.getInt(10) >> 2) & 0x01) == 1) {
-                foregroundColor = String.format("#%06x", ((cursor.getInt(10) >> 3) & 0xffffff));
+            if (((isRichText >> 2) & 0x01) == 1) {
+                foregroundColor = String.format("#%06x", ((isRichText >> 3) & 0xffffff));
             }
-            int iconId = cursor.getInt(9) >> 1;
-            boolean isReadOnly = (cursor.getInt(9) & 0x01) == 1;
-            return new ScSearchNode(cursor.getString(0), cursor.getString(3) == null ? "0" : cursor.getString(3), cursor.getString(5), isParent, hasSubnodes, isSubnode, cursor.getString(7).equals("custom-colors"), isBold, foregroundColor, iconId, isReadOnly, query, resultCount, samples.toString());
+            int iconId = isReadOnly >> 1;
+            boolean readOnly = (isReadOnly & 0x01) == 1;
+            return new ScSearchNode(nodeUniqueID, nodeMasterID, name, isParent, hasSubnodes, isSubnode, syntax.equals("custom-colors"), isBold, foregroundColor, iconId, readOnly, query, resultCount, samples.toString());
         } else {
             return null;
         }
     }
 
+    /**
+     * Creates worker that searches through the nodes using provided database connection
+     * @param database database connection to read node content with
+     * @param documentBuilder DocumentBuilder to parse node content with
+     * @param query string to search for
+     * @param closeDatabase true - close database connection when worker is closed
+     * @return search worker
+     */
+    private SearchWorker<String> createSearchWorker(SQLiteDatabase database, DocumentBuilder documentBuilder, String query, boolean closeDatabase) {
+        return new SearchWorker<String>() {
+            @Override
+            public void close() {
+                if (closeDatabase) {
+                    database.close();
+                }
+            }
+
+            @Override
+            public ScSearchNode findInNode(SearchTarget<String> target) {
+                try (Cursor cursor = database.rawQuery("SELECT * FROM children LEFT JOIN node ON children.node_id=node.node_id WHERE children.node_id=?", new String[]{target.getNode()})) {
+                    if (!cursor.moveToFirst()) {
+                        return null;
+                    }
+                    return SQLReader.this.findInNode(database, documentBuilder, cursor, query, target.hasSubnodes(), target.isParent(), target.isSubnode());
+                }
+            }
+        };
+    }
+
+    @Override
+    public void deleteNode(String nodeUniqueID) {
+        String parentNodeUniqueID; // Used later to fix bookmarks and node sequences
+        List<String> uniqueIds = new ArrayList<>();
+        // Shared nodes that took over the content of deleted master nodes
+        List<String> newMasterIds = new ArrayList<>();
+        sqlite.beginTransaction();
+        try {
+            try (Cursor cursor = sqlite.query("children", new String[]{"father_id"}, "node_id=?", new String[]{nodeUniqueID}, null, null, null, null)) {
+                cursor.moveToFirst();
+                parentNodeUniqueID = cursor.getString(0);
+            }
+            // Collecting unique IDs of all the nodes that will be deleted in to temporary table
+            // that is used in all following queries
+            sqlite.execSQL("CREATE TEMP TABLE IF NOT EXISTS deleted_node (node_id INTEGER PRIMARY KEY)");
+            sqlite.execSQL("DELETE FROM temp.deleted_node");
+            sqlite.execSQL("INSERT INTO temp.deleted_node " + SUBTREE_QUERY + "SELECT node_id FROM subtree", new Object[]{nodeUniqueID});
+            try (Cursor cursor = sqlite.rawQuery("SELECT node_id FROM temp.deleted_node", null)) {
+                while (cursor.moveToNext()) {
+                    uniqueIds.add(cursor.getString(0));
+                }
+            }
+            // Checking if master node of sharedNodes will be deleted
+            // Moving data to first sharedNode that will not be deleted if so
+            // Key - deleted master node, value - shared node that will become new master node
+            Map<String, String> masterReplacements = new LinkedHashMap<>();
+            try (Cursor cursor = sqlite.rawQuery("SELECT master_id, node_id FROM children WHERE master_id IN (SELECT node_id FROM temp.deleted_node) AND node_id NOT IN (SELECT node_id FROM temp.deleted_node)", null)) {
+                while (cursor.moveToNext()) {
+                    if (!masterReplacements.containsKey(cursor.getString(0))) {
+                        masterReplacements.put(cursor.getString(0), cursor.getString(1));
+                    }
+                }
+            }
+            for (Map.Entry<String, String> masterReplacement: masterReplacements.entrySet()) {
+                String nodeId = masterReplacement.getKey();
+                String node = masterReplacement.getValue();
+                ContentValues contentValues = new ContentValues();
+                contentValues.put("node_id", node);
+                sqlite.update("node", contentValues, "node_id=?", new String[]{nodeId});
+                contentValues.clear();
+                contentValues.put("master_id", "0");
+                sqlite.update("children", contentValues, "master_id=?", new String[]{node});
+                contentValues.clear();
+                contentValues.put("master_id", node);
+                sqlite.update("children", contentValues, "master_id=?", new String[]{nodeId});
+                contentValues.clear();
+                contentValues.put("node_id", node);
+                sqlite.update("image", contentValues, "node_id=?", new String[]{nodeId});
+                sqlite.update("grid", contentValues, "node_id=?", new String[]{nodeId});
+                sqlite.update("codebox", contentValues, "node_id=?", new String[]{nodeId});
+                newMasterIds.add(node);
+            }
+            for (String table: new String[]{"bookmark", "children", "codebox", "grid", "image", "node"}) {
+                sqlite.delete(table, "node_id IN (SELECT node_id FROM temp.deleted_node)", null);
+            }
+            sqlite.execSQL("DROP TABLE temp.deleted_node");
+            sqlite.setTransactionSuccessful();
+        } finally {
+            sqlite.endTransaction();
+        }
+        fixChildrenNodeSequence(parentNodeUniqueID);
+        fixBookmarkNodeSequence();
+        updateSearchIndex(newMasterIds, uniqueIds);
+    }
+
+    @Override
+    public void displayToast(String message) {
+        // Displays a toast on main thread
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Searches through node's content
+     * @param database database connection to read codeboxes, tables and images of the node with
+     * @param documentBuilder DocumentBuilder to parse node content with
+     * @param cursor cursor that holds all the data of the of the node to search through
+     * @param query string to search for
+     * @param hasSubnodes true if node has subnodes, else - false
+     * @param isParent true if node is a parent node, else - false
+     * @param isSubnode isSubnode true if node is a subnode, else - false
+     * @return search result object or null if nothing was found
+     */
+    private ScSearchNode findInNode(SQLiteDatabase database, DocumentBuilder documentBuilder, Cursor cursor, String query, boolean hasSubnodes, boolean isParent, boolean isSubnode) {
+        // Skip all sharedNodes
+        if (cursor.getString(3) != null && !cursor.getString(3).equals("0")) {
+            return null;
+        }
+        String preparedNodeContent = createSearchContent(database, documentBuilder, cursor.getString(0), cursor.getString(6), cursor.getString(7), cursor.getInt(11) == 1, cursor.getInt(12) == 1, cursor.getInt(13) == 1);
+        String nodeMasterID = cursor.getString(3) == null ? "0" : cursor.getString(3);
+        return createSearchResult(preparedNodeContent, query, cursor.getString(0), nodeMasterID, cursor.getString(5), cursor.getString(7), cursor.getInt(10), cursor.getInt(9), hasSubnodes, isParent, isSubnode);
+    }
+
     /**
      * Reorders bookmark table's node sequence
      * Removes any gaps that might have been left after deleting node
@@ -843,11 +959,15 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
     public ArrayList<ScNode> getAllNodes(boolean noSearch) {
         if (noSearch) {
             // If user marked that filter should omit nodes and/or node children from filter results
-            try (Cursor cursor = sqlite.rawQuery("SELECT node.name, children.node_id, node.is_richtxt, node.syntax, node.is_ro, children.master_id, node.level FROM children LEFT JOIN node ON children.node_id=node.node_id WHERE children.father_id=0", null)) {
-                return returnSubnodeSearchArrayList(cursor);
+            // Whole tree is walked with one recursive query. Subnodes of the nodes that have their
+            // subnodes excluded (level 2 and 3) are not walked. Path of sequence numbers keeps
+            // nodes in the same order as in the drawer menu. Columns are the same as in MENU_QUERY.
+            try (Cursor cursor = sqlite.rawQuery("WITH RECURSIVE tree(node_id, master_id, level, path) AS (SELECT children.node_id, IFNULL(children.master_id, 0), IFNULL(node.level, 0), printf('%010d', children.sequence) FROM children LEFT JOIN node ON children.node_id=node.node_id WHERE children.father_id=0 UNION ALL SELECT children.node_id, IFNULL(children.master_id, 0), IFNULL(node.level, 0), tree.path || printf('%010d', children.sequence) FROM children INNER JOIN tree ON children.father_id=tree.node_id LEFT JOIN node ON children.node_id=node.node_id WHERE tree.level IN (0, 1)) SELECT tree.node_id, tree.master_id, node.name, node.is_richtxt, node.syntax, node.is_ro, EXISTS(SELECT 1 FROM children WHERE children.father_id=tree.node_id) FROM tree LEFT JOIN node ON tree.node_id=node.node_id WHERE tree.level IN (0, 2) AND tree.master_id=0 ORDER BY tree.path", null)) {
+                return returnSubnodeArrayList(cursor, false);
             }
         } else {
-            try (Cursor cursor = sqlite.query("node", new String[]{"name", "node_id", "is_richtxt", "syntax", "is_ro", "0"}, null, null, null, null, null)) {
+            // Shared nodes are not included, because all of them have the same name as their master node
+            try (Cursor cursor = sqlite.rawQuery(MENU_QUERY + "WHERE IFNULL(children.master_id, 0)=0", null)) {
                 return returnSubnodeArrayList(cursor, false);
             }
         }
@@ -855,7 +975,7 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
 
     @Override
     public ArrayList<ScNode> getBookmarkedNodes() {
-        try (Cursor cursor = sqlite.rawQuery("SELECT node.name, children.node_id, node.is_richtxt, node.syntax, node.is_ro, children.master_id FROM children LEFT JOIN node on children.node_id=node.node_id INNER JOIN bookmark ON children.node_id=bookmark.node_id ORDER BY bookmark.sequence ASC", null)) {
+        try (Cursor cursor = sqlite.rawQuery(MENU_QUERY + "INNER JOIN bookmark ON children.node_id=bookmark.node_id ORDER BY bookmark.sequence ASC", null)) {
             if (cursor.getCount() == 0) {
                 return null;
             }
@@ -886,6 +1006,17 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
      * @return NodeList object with content of the node
      */
     private Document getDocumentFromString(String nodeString) {
+        return getDocumentFromString(documentBuilder, nodeString);
+    }
+
+    /**
+     * Parses XML document inserted into SQL database in a form of the String with provided
+     * DocumentBuilder. DocumentBuilder can't be used by multiple threads at the same time.
+     * @param documentBuilder DocumentBuilder to parse the string with
+     * @param nodeString String object with all the information of the node or it's table
+     * @return NodeList object with content of the node
+     */
+    private Document getDocumentFromString(DocumentBuilder documentBuilder, String nodeString) {
         try {
             return documentBuilder.parse(new ByteArrayInputStream(nodeString.getBytes(StandardCharsets.UTF_8)));
         } catch (Exception e) {
@@ -897,50 +1028,20 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
 
     @Override
     public InputStream getFileInputStream(String nodeUniqueID, String filename, String time, String control) {
-        // Getting user choice how big the cursor window should be
-        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
-        long cursorWindow = sharedPreferences.getInt("preferences_cursor_window_size", 15);
-        try (Cursor cursor = sqlite.query("image", new String[]{"png"}, "node_id=? AND filename=? AND time=? AND offset=?", new String[]{nodeUniqueID, filename, time, control}, null, null, null)) {
-            // Try needed to close the cursor. Otherwise ofter return statement it won't be closed;
-            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                // Expands cursor window for API 28 (Android 9) and greater
-                // This allows to save/open bigger files
-                ((SQLiteCursor) cursor).setWindow(new CursorWindow(null, 1024 * 1024 * cursorWindow));
-            } else {
-                // Setting cursorWindow as to 2 (default android value)
-                // Android 8 and lower versions do not have this function
-                // It's only that error toast would show a correct size
-                cursorWindow = 2;
-            }
-            cursor.move(1);
-            return new ByteArrayInputStream(cursor.getBlob(0));
-        } catch (Exception SQLiteBlobTooBigException) {
-            displayToast(context.getString(R.string.toast_error_failed_to_open_file_large, cursorWindow));
+        try {
+            return new SQLBlobInputStream(sqlite, "image", "png", "node_id=? AND filename=? AND time=? AND offset=?", new String[]{nodeUniqueID, filename, time, control});
+        } catch (Exception e) {
+            displayToast(context.getString(R.string.toast_error_failed_to_open_file));
             return null;
         }
     }
 
     @Override
     public InputStream getImageInputStream(String nodeUniqueID, String control) {
-        // Getting user choice how big the cursor window should be
-        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
-        long cursorWindow = sharedPreferences.getInt("preferences_cursor_window_size", 15);
-        try (Cursor cursor = sqlite.query("image", new String[]{"png"}, "node_id=? AND offset=?", new String[]{nodeUniqueID, control}, null, null, null)) {
-            // Try is needed to close the cursor. Otherwise after return statement it won't be closed;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                // Expands cursor window for API 28 (Android 9) and greater
-                // This allows to display bigger images
-                ((SQLiteCursor) cursor).setWindow(new CursorWindow(null, 1024 * 1024 * cursorWindow));
-            } else {
-                // Setting cursorWindow as to 2 (default android value)
-                // Android 8 and lower versions do not have this function
-                // It's only that error toast would show a correct size
-                cursorWindow = 2;
-            }
-            cursor.move(1);
-            return new ByteArrayInputStream(cursor.getBlob(0));
-        } catch (Exception SQLiteBlobTooBigException) {
-            displayToast(context.getString(R.string.toast_error_failed_to_load_image_large, cursorWindow));
+        try {
+            return new SQLBlobInputStream(sqlite, "image", "png", "node_id=? AND offset=?", new String[]{nodeUniqueID, control});
+        } catch (Exception e) {
+            displayToast(context.getString(R.string.toast_error_failed_to_load_image));
             return null;
         }
     }
@@ -948,7 +1049,7 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
     @Override
     public ArrayList<ScNode> getMainNodes() {
         ArrayList<ScNode> nodes = null;
-        try (Cursor cursor = sqlite.rawQuery("SELECT node.name, children.node_id, node.is_richtxt, node.syntax, node.is_ro, children.master_id FROM children LEFT JOIN node ON children.node_id=node.node_id WHERE children.father_id=0 ORDER BY sequence ASC", null)) {
+        try (Cursor cursor = sqlite.rawQuery(MENU_QUERY + "WHERE children.father_id=0 ORDER BY children.sequence ASC", null)) {
             nodes = returnSubnodeArrayList(cursor, false);
         } catch (Exception SQLiteException) {
             ((MainView) context).exitWithError();
@@ -976,9 +1077,12 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
     @Override
     public ArrayList<ScNode> getMenu(String nodeUniqueID) {
         // Returns Subnodes of the node which nodeUniqueID is provided
-        try (Cursor cursor = sqlite.rawQuery("SELECT node.name, children.node_id, node.is_richtxt, node.syntax, node.is_ro, children.master_id FROM children LEFT JOIN node ON children.node_id=node.node_id WHERE children.father_id=? ORDER BY sequence ASC", new String[]{nodeUniqueID})) {
+        try (Cursor cursor = sqlite.rawQuery(MENU_QUERY + "WHERE children.father_id=? ORDER BY children.sequence ASC", new String[]{nodeUniqueID})) {
             ArrayList<ScNode> nodes = returnSubnodeArrayList(cursor, true);
-            nodes.add(0, createParentNode(String.valueOf(nodeUniqueID)));
+            ScNode parentNode = createParentNode(String.valueOf(nodeUniqueID));
+            if (parentNode != null) {
+                nodes.add(0, parentNode);
+            }
             return nodes;
         }
     }
@@ -1050,15 +1154,54 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
             if (nodeParentID.equals("0")) {
                 nodes = getMainNodes();
             } else {
-                cursor = sqlite.rawQuery("SELECT node.name, children.node_id, node.is_richtxt, node.syntax, node.is_ro, children.master_id FROM children LEFT JOIN node ON children.node_id=node.node_id WHERE children.father_id=? ORDER BY sequence ASC", new String[]{nodeParentID});
+                cursor = sqlite.rawQuery(MENU_QUERY + "WHERE children.father_id=? ORDER BY children.sequence ASC", new String[]{nodeParentID});
                 nodes = returnSubnodeArrayList(cursor, true);
-                nodes.add(0, createParentNode(nodeParentID));
+                ScNode parentNode = createParentNode(nodeParentID);
+                if (parentNode != null) {
+                    nodes.add(0, parentNode);
+                }
             }
         }
         cursor.close();
         return nodes;
     }
 
+    /**
+     * Returns fingerprint of the node table. Every time node is created, deleted or saved by
+     * SourCherry or CherryTree ts_lastsave column is updated, so fingerprint changes too. Version
+     * of the search index content is part of the fingerprint.
+     * @return fingerprint of the node table
+     */
+    private String getSearchIndexFingerprint() {
+        try (Cursor cursor = sqlite.rawQuery("SELECT COUNT(node_id), MAX(node_id), MAX(ts_lastsave), TOTAL(ts_lastsave) FROM node", null)) {
+            cursor.moveToFirst();
+            return String.format("%1$d:%2$s:%3$s:%4$s:%5$s", SEARCH_INDEX_CONTENT_VERSION, cursor.getString(0), cursor.getString(1), cursor.getString(2), cursor.getString(3));
+        }
+    }
+
+    /**
+     * Collects all the nodes that have to be searched through in the order they are displayed in
+     * the drawer menu. Whole node tree is loaded with a single query.
+     * @param noSearch true - skip nodes marked excluded
+     * @return list of nodes to search through
+     */
+    private ArrayList<SearchTarget<String>> getSearchTargets(boolean noSearch) {
+        ArrayList<SearchTarget<String>> targets = new ArrayList<>();
+        try (Cursor cursor = sqlite.rawQuery("SELECT children.node_id, children.father_id, children.master_id, node.level FROM children LEFT JOIN node ON children.node_id=node.node_id ORDER BY children.father_id, children.sequence", null)) {
+            Map<String, List<Integer>> childrenPositions = new HashMap<>();
+            while (cursor.moveToNext()) {
+                List<Integer> positions = childrenPositions.get(cursor.getString(1));
+                if (positions == null) {
+                    positions = new ArrayList<>();
+                    childrenPositions.put(cursor.getString(1), positions);
+                }
+                positions.add(cursor.getPosition());
+            }
+            collectSearchTargets(cursor, childrenPositions, "0", noSearch, targets);
+        }
+        return targets;
+    }
+
     @Override
     public String getSharedNodesGroup(String nodeUniqueID) {
         List<String> sharedNodesGroup;
@@ -1098,38 +1241,18 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
             return null;
         }
         ScNode scNode = null;
-        try (Cursor cursor = sqlite.rawQuery("SELECT node.name, children.node_id, node.is_richtxt, node.syntax, node.is_ro, children.master_id FROM children LEFT JOIN node ON children.node_id=node.node_id WHERE children.node_id=?", new String[]{nodeUniqueID})) {
+        try (Cursor cursor = sqlite.rawQuery(MENU_QUERY + "WHERE children.node_id=?", new String[]{nodeUniqueID})) {
             if (cursor.move(1)) { // Cursor items starts at 1 not 0!!!
                 scNode = convertCursorToScNode(cursor);
-                if (hasSubnodes(nodeUniqueID)) {
-                    scNode.setParent(true);
-                    scNode.setHasSubnodes(true);
-                    scNode.setSubnode(false);
-                } else {
-                    scNode.setParent(false);
-                    scNode.setHasSubnodes(false);
-                    scNode.setSubnode(true);
+                if (scNode != null) {
+                    scNode.setParent(scNode.hasSubnodes());
+                    scNode.setSubnode(!scNode.hasSubnodes());
                 }
             }
         }
         return scNode;
     }
 
-    /**
-     * Checks if provided Node object has a subnode(s)
-     * @param nodeUniqueID unique ID of the node that is being checked for subnodes
-     * @return true if node has a subnode, false - if not
-     */
-    private boolean hasSubnodes(String nodeUniqueID) {
-        try (Cursor cursor = sqlite.query("children", new String[]{"node_id"}, "father_id=?", new String[]{nodeUniqueID},null,null,null)) {
-            if (cursor.getCount() > 0) {
-                return true;
-            } else {
-                return false;
-            }
-        }
-    }
-
     @Override
     public boolean isNodeBookmarked(String nodeUniqueID) {
         try (Cursor cursor = sqlite.query("bookmark", new String[]{"node_id"}, "node_id = ?", new String[]{nodeUniqueID}, null, null, null, null)) {
@@ -1178,148 +1301,84 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
 
                     // If it is marked that node has codebox, table or image
                     if (hasCodebox == 1 || hasTable == 1 || hasImage == 1) {
-                        //// Building string for SQLQuery
-                        // Because every element is in it own table
-                        // Only the tables that are marked that node have assets will be search
-                        // Only offsets will be selected and second column will be created
-                        // That will have 7 (codebox), 8 (table) or 9 (image) written in it
-                        StringBuilder codeboxTableImageQueryString = new StringBuilder();
-
-                        // Depending on how many tables will be searched
-                        // instances of how many times nodeUniqueID will have to be inserted will differ
-                        int queryCounter = 0; // This is the counter for that
-                        if (hasCodebox == 1) {
-                            // Means that node has has codeboxes in it
-                            codeboxTableImageQueryString.append("SELECT offset, 7 FROM codebox WHERE node_id=? ");
-                            queryCounter++;
-                        }
-                        if (hasTable == 1) {
-                            // Means that node has tables in it
-                            if (hasCodebox == 1) {
-                                codeboxTableImageQueryString.append("UNION ");
-                            }
-                            codeboxTableImageQueryString.append("SELECT offset, 8 FROM grid WHERE node_id=? ");
-                            queryCounter++;
-                        }
-                        if (hasImage == 1) {
-                            // Means that node has has images (images, anchors or files) in it
-                            if (hasCodebox == 1 || hasTable == 1) {
-                                codeboxTableImageQueryString.append("UNION ");
-                            }
-                            codeboxTableImageQueryString.append("SELECT offset, 9 FROM image WHERE node_id=? ");
-                            queryCounter++;
-                        }
-                        codeboxTableImageQueryString.append("ORDER BY offset ASC");
-
-                        /// Creating the array that will be used to insert nodeUniqueIDs
-                        String[] queryArguments = new String[queryCounter];
-                        Arrays.fill(queryArguments, nodeUniqueID);
-                        ///
-                        ////
-                        // Getting user choice how big the cursor window should be
-                        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
-                        long cursorWindow = sharedPreferences.getInt("preferences_cursor_window_size", 15);
-                        try (Cursor codeboxTableImageCursor = sqlite.rawQuery(codeboxTableImageQueryString.toString(), queryArguments)) {
-                            while (codeboxTableImageCursor.moveToNext()) {
-                                int charOffset = codeboxTableImageCursor.getInt(0);
-                                if (codeboxTableImageCursor.getInt(1) == 9) {
-                                    // Get image entry for current node_id and charOffset
-                                    try (Cursor imageCursor = sqlite.query("image", new String[]{"anchor", "filename", "time", "justification"}, "node_id=? AND offset=?", new String[]{nodeUniqueID, String.valueOf(charOffset)}, null, null, null)) {
-                                        if (imageCursor.moveToFirst()) {
-                                            if (!imageCursor.getString(0).isEmpty()) {
-                                                // Text in column "anchor" (0) means that this line is for anchor
-                                                SpannableStringBuilder anchorImageSpan = makeAnchorImageSpan(imageCursor.getString(0));
-                                                nodeContentStringBuilder.insert(charOffset + totalCharOffset, anchorImageSpan);
-                                                continue; // Needed. Otherwise error toast will be displayed. Maybe switch statement would solve this issue.
-                                            }
-                                            if (!imageCursor.getString(1).isEmpty()) {
-                                                // Text in column "filename" (1) means that this line is for file OR LaTeX formula box
-                                                if (imageCursor.getString(1).equals("__ct_special.tex")) {
-                                                    // For latex boxes
-                                                    try (Cursor latexBlobCursor = sqlite.query("image", new String[]{"png"}, "node_id=? AND offset=?", new String[]{nodeUniqueID, String.valueOf(charOffset)}, null, null, null)) {
-                                                        latexBlobCursor.moveToFirst();
-                                                        SpannableStringBuilder latexImageSpan = makeLatexImageSpan(latexBlobCursor.getBlob(0), imageCursor.getString(3));
-                                                        nodeContentStringBuilder.insert(charOffset + totalCharOffset, latexImageSpan);
-                                                    }
-                                                    continue; // Needed. Otherwise error toast will be displayed. Maybe switch statement would solve this issue.
-                                                } else {
-                                                    // If it is not LaTex file (normal file)
-                                                    SpannableStringBuilder attachedFileSpan = makeAttachedFileSpan(nodeUniqueID, imageCursor.getString(1), String.valueOf(imageCursor.getDouble(2)), String.valueOf(charOffset), imageCursor.getString(3));
-                                                    nodeContentStringBuilder.insert(charOffset + totalCharOffset, attachedFileSpan);
-                                                    totalCharOffset += attachedFileSpan.length() - 1;
-                                                    continue; // Needed. Otherwise error toast will be displayed. Maybe switch statement would solve this issue.
-                                                }
-                                            } else {
-                                                // Any other line should be an image
-                                                imageCursor.close();
-                                                try (Cursor imageBlobCursor = sqlite.query("image", new String[]{"png"}, "node_id=? AND offset=?", new String[]{nodeUniqueID, String.valueOf(charOffset)}, null, null, null)) {
-                                                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                                                        // Expands cursor window for API 28 (Android 9) and greater
-                                                        // This allows to display bigger images and open/save bigger files
-                                                        // Right now limit is 15mb
-                                                        ((SQLiteCursor) imageBlobCursor).setWindow(new CursorWindow(null, 1024 * 1024 * cursorWindow));
-                                                    } else {
-                                                        // Setting cursorWindow as to 2 (default android value)
-                                                        // Android 8 and lower versions do not have this function
-                                                        // It's only that error toast would show a correct size
-                                                        cursorWindow = 2;
-                                                    }
-                                                    // Tries to move to get image blob from DB. Might me too big.
-                                                    imageBlobCursor.moveToFirst();
-                                                    SpannableStringBuilder imageSpan = makeImageSpan(imageBlobCursor.getBlob(0), nodeUniqueID, String.valueOf(charOffset), cursor.getString(3)); // Blob is the image in byte[] form
-                                                    nodeContentStringBuilder.insert(charOffset + totalCharOffset, imageSpan);
-                                                } catch (Exception SQLiteBlobTooBigException) {
-                                                    // If image blob was to big for SQL Toast error message will be displayed
-                                                    // And placeholder image is placed
-                                                    SpannableStringBuilder brokenImageSpan = new SpannableStringBuilder();
-                                                    brokenImageSpan.append(" ");
-                                                    brokenImageSpan.setSpan(makeBrokenImageSpan(0), 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                                                    nodeContentStringBuilder.insert(charOffset + totalCharOffset, brokenImageSpan);
-                                                    displayToast(context.getString(R.string.toast_error_failed_to_load_image_large, cursorWindow));
-                                                }
-                                                continue; // Needed. Otherwise error toast will be displayed. Maybe switch statement would solve this issue.
-                                            }
-                                        }
-                                    }
-                                } else if (codeboxTableImageCursor.getInt(1) == 7) {
+                        // Every type of embedded element is fetched with a single query ordered by
+                        // offset and rows of all the queries are merged in offset order. Only image
+                        // blobs are fetched separately right before image span is created.
+                        try (Cursor codeboxCursor = hasCodebox == 1 ? sqlite.query("codebox", new String[]{"offset", "justification", "txt", "syntax", "width", "height", "is_width_pix", "do_highl_bra", "do_show_linenum"}, "node_id=?", new String[]{nodeUniqueID}, null, null, "offset ASC") : null;
+                             Cursor tableCursor = hasTable == 1 ? sqlite.query("grid", new String[]{"offset", "txt", "col_min", "col_max", "justification"}, "node_id=?", new String[]{nodeUniqueID}, null, null, "offset ASC") : null;
+                             Cursor imageCursor = hasImage == 1 ? sqlite.rawQuery("SELECT offset, anchor, filename, time, justification, CASE WHEN filename = '__ct_special.tex' THEN png END FROM image WHERE node_id = ? ORDER BY offset ASC", new String[]{nodeUniqueID}) : null) {
+                            boolean hasCodeboxRow = codeboxCursor != null && codeboxCursor.moveToFirst();
+                            boolean hasTableRow = tableCursor != null && tableCursor.moveToFirst();
+                            boolean hasImageRow = imageCursor != null && imageCursor.moveToFirst();
+                            while (hasCodeboxRow || hasTableRow || hasImageRow) {
+                                // Elements with the same offset are inserted in this order: codebox, table, image
+                                int codeboxOffset = hasCodeboxRow ? codeboxCursor.getInt(0) : Integer.MAX_VALUE;
+                                int tableOffset = hasTableRow ? tableCursor.getInt(0) : Integer.MAX_VALUE;
+                                int imageOffset = hasImageRow ? imageCursor.getInt(0) : Integer.MAX_VALUE;
+                                if (hasCodeboxRow && codeboxOffset <= tableOffset && codeboxOffset <= imageOffset) {
                                     // codebox row
-                                    // Get codebox entry for current node_id and charOffset
-                                    try (Cursor codeboxCursor = sqlite.rawQuery(new String("SELECT * FROM codebox WHERE node_id = ? AND offset = ?"), new String[]{nodeUniqueID, String.valueOf(charOffset)})) {
-                                        if (codeboxCursor.moveToFirst()) {
-                                            SpannableStringBuilder codeboxText = makeFormattedCodeboxSpan(codeboxCursor.getString(2), codeboxCursor.getString(3), codeboxCursor.getString(4), codeboxCursor.getInt(5), codeboxCursor.getInt(6), codeboxCursor.getInt(7) == 1, codeboxCursor.getInt(8) == 1, codeboxCursor.getInt(9) == 1);
-                                            nodeContentStringBuilder.insert(charOffset + totalCharOffset, codeboxText);
-                                            totalCharOffset += codeboxText.length() - 1;
-                                        }
-                                    }
-                                } else if (codeboxTableImageCursor.getInt(1) == 8) {
+                                    SpannableStringBuilder codeboxText = makeFormattedCodeboxSpan(codeboxCursor.getString(1), codeboxCursor.getString(2), codeboxCursor.getString(3), codeboxCursor.getInt(4), codeboxCursor.getInt(5), codeboxCursor.getInt(6) == 1, codeboxCursor.getInt(7) == 1, codeboxCursor.getInt(8) == 1);
+                                    nodeContentStringBuilder.insert(codeboxOffset + totalCharOffset, codeboxText);
+                                    totalCharOffset += codeboxText.length() - 1;
+                                    hasCodeboxRow = codeboxCursor.moveToNext();
+                                } else if (hasTableRow && tableOffset <= imageOffset) {
                                     // table row
-                                    // Get table row entry for current node_id and charOffset
-                                    try (Cursor tableCursor = sqlite.query("grid", new String[]{"txt", "col_min", "col_max", "justification"}, "node_id=? AND offset=?", new String[]{nodeUniqueID, String.valueOf(charOffset)}, null, null, null)) {
-                                        if (tableCursor.moveToFirst()) {
-                                            int tableCharOffset = charOffset + totalCharOffset; // Place where SpannableStringBuilder will be split
-                                            nodeTableCharOffsets.add(tableCharOffset);
-                                            int cellMin = tableCursor.getInt(1);
-                                            int cellMax = tableCursor.getInt(2);
-                                            ArrayList<CharSequence[]> currentTableContent = new ArrayList<>();
-                                            Document document = getDocumentFromString(tableCursor.getString(0));
-                                            // All the rows of the table. Not like in XML database, there aren't any empty text nodes to be filtered out
-                                            NodeList tableRowsNodes = document.getElementsByTagName("table").item(0).getChildNodes();
-                                            byte lightInterface = 0;
-                                            if (!((Element) document.getElementsByTagName("table").item(0)).getAttribute("is_light").equals("")) {
-                                                lightInterface = Byte.parseByte(((Element) document.getElementsByTagName("table").item(0)).getAttribute("is_light"));
-                                            }
-                                            // Tables in database are saved content first and the last row is the header of the table
-                                            currentTableContent.add(getTableRow(tableRowsNodes.item(tableRowsNodes.getLength() - 1)));
-                                            for (int row = 0; row < tableRowsNodes.getLength() - 1; row++) {
-                                                currentTableContent.add(getTableRow(tableRowsNodes.item(row)));
-                                            }
-                                            ScNodeContentTable scNodeContentTable = new ScNodeContentTable((byte) 1, currentTableContent, cellMin, cellMax, lightInterface, tableCursor.getString(3), ((Element) document.getElementsByTagName("table").item(0)).getAttribute("col_widths"));
-                                            nodeTables.add(scNodeContentTable);
-                                            // Instead of adding space for formatting reason
-                                            // it might be better to take one of totalCharOffset
-                                            totalCharOffset -= 1;
+                                    int tableCharOffset = tableOffset + totalCharOffset; // Place where SpannableStringBuilder will be split
+                                    nodeTableCharOffsets.add(tableCharOffset);
+                                    int cellMin = tableCursor.getInt(2);
+                                    int cellMax = tableCursor.getInt(3);
+                                    ArrayList<CharSequence[]> currentTableContent = new ArrayList<>();
+                                    Document document = getDocumentFromString(tableCursor.getString(1));
+                                    // All the rows of the table. Not like in XML database, there aren't any empty text nodes to be filtered out
+                                    NodeList tableRowsNodes = document.getElementsByTagName("table").item(0).getChildNodes();
+                                    byte lightInterface = 0;
+                                    if (!((Element) document.getElementsByTagName("table").item(0)).getAttribute("is_light").equals("")) {
+                                        lightInterface = Byte.parseByte(((Element) document.getElementsByTagName("table").item(0)).getAttribute("is_light"));
+                                    }
+                                    // Tables in database are saved content first and the last row is the header of the table
+                                    currentTableContent.add(getTableRow(tableRowsNodes.item(tableRowsNodes.getLength() - 1)));
+                                    for (int row = 0; row < tableRowsNodes.getLength() - 1; row++) {
+                                        currentTableContent.add(getTableRow(tableRowsNodes.item(row)));
+                                    }
+                                    ScNodeContentTable scNodeContentTable = new ScNodeContentTable((byte) 1, currentTableContent, cellMin, cellMax, lightInterface, tableCursor.getString(4), ((Element) document.getElementsByTagName("table").item(0)).getAttribute("col_widths"));
+                                    nodeTables.add(scNodeContentTable);
+                                    // Instead of adding space for formatting reason
+                                    // it might be better to take one of totalCharOffset
+                                    totalCharOffset -= 1;
+                                    hasTableRow = tableCursor.moveToNext();
+                                } else {
+                                    // image row
+                                    if (!imageCursor.getString(1).isEmpty()) {
+                                        // Text in column "anchor" (1) means that this line is for anchor
+                                        SpannableStringBuilder anchorImageSpan = makeAnchorImageSpan(imageCursor.getString(1));
+                                        nodeContentStringBuilder.insert(imageOffset + totalCharOffset, anchorImageSpan);
+                                    } else if (imageCursor.getString(2).equals("__ct_special.tex")) {
+                                        // For latex boxes. Latex code is small, so it's fetched together with the rest of the columns
+                                        SpannableStringBuilder latexImageSpan = makeLatexImageSpan(imageCursor.getBlob(5), imageCursor.getString(4));
+                                        nodeContentStringBuilder.insert(imageOffset + totalCharOffset, latexImageSpan);
+                                    } else if (!imageCursor.getString(2).isEmpty()) {
+                                        // Text in column "filename" (2) means that this line is for file
+                                        SpannableStringBuilder attachedFileSpan = makeAttachedFileSpan(nodeUniqueID, imageCursor.getString(2), String.valueOf(imageCursor.getDouble(3)), String.valueOf(imageOffset), imageCursor.getString(4));
+                                        nodeContentStringBuilder.insert(imageOffset + totalCharOffset, attachedFileSpan);
+                                        totalCharOffset += attachedFileSpan.length() - 1;
+                                    } else {
+                                        // Any other line should be an image
+                                        try {
+                                            // Image blob is read in slices, so it's size is not limited by CursorWindow
+                                            byte[] imageBlob = new SQLBlobInputStream(sqlite, "image", "png", "node_id=? AND offset=?", new String[]{nodeUniqueID, String.valueOf(imageOffset)}).readFully();
+                                            SpannableStringBuilder imageSpan = makeImageSpan(imageBlob, nodeUniqueID, String.valueOf(imageOffset), imageCursor.getString(4)); // Blob is the image in byte[] form
+                                            nodeContentStringBuilder.insert(imageOffset + totalCharOffset, imageSpan);
+                                        } catch (IOException | OutOfMemoryError e) {
+                                            // If image could not be read Toast error message will be displayed
+                                            // And placeholder image is placed
+                                            SpannableStringBuilder brokenImageSpan = new SpannableStringBuilder();
+                                            brokenImageSpan.append(" ");
+                                            brokenImageSpan.setSpan(makeBrokenImageSpan(0), 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                                            nodeContentStringBuilder.insert(imageOffset + totalCharOffset, brokenImageSpan);
+                                            displayToast(context.getString(R.string.toast_error_failed_to_load_image));
                                         }
                                     }
+                                    hasImageRow = imageCursor.moveToNext();
                                 }
                             }
                         }
@@ -1358,7 +1417,7 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
             ScNodeContentText nodeContentText = new ScNodeContentText((byte) 0, nodeContentStringBuilder);
             nodeContent.add(nodeContentText);
         }
-        mainViewModel.getNodeContent().postValue(nodeContent);
+        mainViewModel.postNodeContent(nodeUniqueID, nodeContent);
     }
 
     @Override
@@ -1584,28 +1643,17 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
      */
     private SpannableStringBuilder makeImageSpan(byte[] imageBlob, String nodeUniqueID, String imageOffset, String justification) {
         // Returns SpannableStringBuilder that has spans with images in them
-        // Images are decoded from byte array that was passed to the function
+        // Only dimensions of the image are decoded here, image itself is decoded when displayed
         SpannableStringBuilder formattedImage = new SpannableStringBuilder();
         ImageSpanImage imageSpanImage;
         //* Adds image to the span
         try {
             formattedImage.append(" ");
-            Bitmap decodedByte = BitmapFactory.decodeByteArray(imageBlob, 0, imageBlob.length);
-            Drawable image = new BitmapDrawable(context.getResources(), decodedByte);
-            image.setBounds(0,0, image.getIntrinsicWidth(), image.getIntrinsicHeight());
+            // Length of the image is a part of the key, because offset of the image changes after node is edited
+            Drawable image = new LazyImageDrawable(context, nodeUniqueID + "/" + imageOffset + "/" + imageBlob.length, imageBlob);
             imageSpanImage = new ImageSpanImage(image);
             formattedImage.setSpan(imageSpanImage, 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
 
-            int width = Resources.getSystem().getDisplayMetrics().widthPixels;
-            if (image.getIntrinsicWidth() > width - 10) {
-                // If image is wider than screen it is scaled down to fit the screen
-                // otherwise it will not load/be displayed
-                float scale = ((float) width / image.getIntrinsicWidth()) - (float) 0.1;
-                int newWidth = (int) (image.getIntrinsicWidth() * scale);
-                int newHeight = (int) (image.getIntrinsicHeight() * scale);
-                image.setBounds(0, 0, newWidth, newHeight);
-            }
-
             //** Detects image touches/clicks
             ClickableSpan imageClickableSpan = new ClickableSpan() {
                 @Override
@@ -1734,6 +1782,66 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
         }
     }
 
+    /**
+     * Removes all new line characters, duplicate spaces from the node content and makes it lowercase
+     * to be searched with lowercase query
+     * @param nodeContent node content in plain text
+     * @return node content prepared for search
+     */
+    private String prepareSearchContent(String nodeContent) {
+        return nodeContent.toLowerCase().replaceAll("\n", " ").replaceAll(" +", " ");
+    }
+
+    /**
+     * Opens search index if user enabled it in the settings. Rebuilds it if it was built for another
+     * database or database was changed outside of SourCherry.
+     * @return true - search index can be used, false - search index is disabled
+     */
+    private boolean prepareSearchIndex() {
+        if (!PreferenceManager.getDefaultSharedPreferences(context).getBoolean("preferences_sql_search_index", false)) {
+            return false;
+        }
+        if (searchIndex == null) {
+            searchIndex = new SQLSearchIndex(context);
+        }
+        if (!searchIndexUpToDate) {
+            if (!searchIndex.isUpToDate(sqlite.getPath(), getSearchIndexFingerprint())) {
+                rebuildSearchIndex();
+            }
+            searchIndexUpToDate = true;
+        }
+        return true;
+    }
+
+    /**
+     * Deletes all data from search index and writes content of all nodes in the database to it
+     */
+    private void rebuildSearchIndex() {
+        boolean successful = false;
+        searchIndex.beginTransaction();
+        try {
+            searchIndex.deleteAll();
+            try (Cursor cursor = sqlite.query("node", new String[]{"node_id", "txt", "syntax", "has_codebox", "has_table", "has_image"}, null, null, null, null, null)) {
+                while (cursor.moveToNext()) {
+                    searchIndex.put(cursor.getString(0), createSearchContent(sqlite, documentBuilder, cursor.getString(0), cursor.getString(1), cursor.getString(2), cursor.getInt(3) == 1, cursor.getInt(4) == 1, cursor.getInt(5) == 1));
+                }
+            }
+            searchIndex.setDatabaseState(sqlite.getPath(), getSearchIndexFingerprint());
+            successful = true;
+        } finally {
+            searchIndex.endTransaction(successful);
+        }
+    }
+
+    @Override
+    public void release() {
+        if (searchIndex != null) {
+            searchIndex.close();
+            searchIndex = null;
+            searchIndexUpToDate = false;
+        }
+    }
+
     @Override
     public void removeNodeFromBookmarks(String nodeUniqueID) {
         sqlite.delete("bookmark", "node_id = ?", new String[]{nodeUniqueID});
@@ -1751,74 +1859,12 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
      * @return ArrayList of node's subnodes.
      */
     private ArrayList<ScNode> returnSubnodeArrayList(Cursor cursor, boolean isSubnode) {
-        ArrayList<ScNode> nodes = new ArrayList<>();
+        ArrayList<ScNode> nodes = new ArrayList<>(cursor.getCount());
         while (cursor.moveToNext()) {
             ScNode scNode = convertCursorToScNode(cursor);
-            scNode.setSubnode(isSubnode);
-            nodes.add(scNode);
-        }
-        return nodes;
-    }
-
-    /**
-     * Creates an ArrayList of ScNode objects that can be used to display nodes during drawer menu search/filter function
-     * ArrayList is created based on node.level value (to exclude node/subnodes from search)
-     * @param cursor SQL Cursor object that contains nodes from which to make a node list
-     * @return ArrayList that contains all the nodes of the provided cursor object
-     */
-    private ArrayList<ScNode> returnSubnodeSearchArrayList(Cursor cursor) {
-        ArrayList<ScNode> nodes = new ArrayList<>();
-        while (cursor.moveToNext()) {
-            if (cursor.getInt(6) == 0) {
-                // If node and subnodes are not selected to be excluded from search
-                String nodeUniqueID = cursor.getString(1);
-                String nodeMasterID = cursor.getString(5) == null ? "0" : cursor.getString(5);
-                boolean hasSubnodes = hasSubnodes(nodeUniqueID);
-                if ("0".equals(nodeMasterID)) {
-                    String nameValue = cursor.getString(0);
-                    boolean isRichText = cursor.getString(2).equals("custom-colors");
-                    boolean isBold = ((cursor.getInt(2) >> 1) & 0x01) == 1;
-                    String foregroundColor = "";
-                    if (((cursor.getInt(2) >> 2) & 0x01) == 1) {
-                        foregroundColor = String.format("#%06x", ((cursor.getInt(2) >> 3) & 0xffffff));
-                    }
-                    int iconId = cursor.getInt(4) >> 1;
-                    boolean isReadOnly = (cursor.getInt(4) & 0x01) == 1;
-                    // There are no "parent" nodes in search. All nodes displayed without indentation
-                    nodes.add(new ScNode(nodeUniqueID, "0", nameValue, false, hasSubnodes, false, isRichText, isBold, foregroundColor, iconId, isReadOnly));
-                }
-                if (hasSubnodes) {
-                    try (Cursor subCursor = sqlite.rawQuery("SELECT node.name, children.node_id, node.is_richtxt, node.syntax, node.is_ro, children.master_id, node.level FROM children LEFT JOIN node ON children.node_id=node.node_id WHERE children.father_id=?", new String[]{String.valueOf(nodeUniqueID)})) {
-                        nodes.addAll(returnSubnodeSearchArrayList(subCursor));
-                    }
-                }
-            } else if (cursor.getInt(6) == 1) {
-                // If only node is selected to be excluded from search
-                String nodeUniqueID = cursor.getString(1);
-                boolean hasSubnodes = hasSubnodes(nodeUniqueID);
-                if (hasSubnodes) {
-                    try (Cursor subCursor = sqlite.rawQuery("SELECT node.name, children.node_id, node.is_richtxt, node.syntax, node.is_ro, children.master_id, node.level FROM children LEFT JOIN node ON children.node_id=node.node_id WHERE children.father_id=? ORDER BY sequence ASC", new String[]{String.valueOf(nodeUniqueID)})) {
-                        nodes.addAll(returnSubnodeSearchArrayList(subCursor));
-                    }
-                }
-            } else if (cursor.getInt(6) == 2) {
-                // if only subnodes are selected to be excluded from search
-                String nodeMasterID = cursor.getString(5) == null ? "0" : cursor.getString(5);
-                if ("0".equals(nodeMasterID)) {
-                    String nodeUniqueID = cursor.getString(1);
-                    String nameValue = cursor.getString(0);
-                    boolean hasSubnodes = hasSubnodes(nodeUniqueID);
-                    boolean isRichText = cursor.getString(2).equals("custom-colors");
-                    boolean isBold = ((cursor.getInt(2) >> 1) & 0x01) == 1;
-                    String foregroundColor = "";
-                    if (((cursor.getInt(2) >> 2) & 0x01) == 1) {
-                        foregroundColor = String.format("#%06x", ((cursor.getInt(2) >> 3) & 0xffffff));
-                    }
-                    int iconId = cursor.getInt(4) >> 1;
-                    boolean isReadOnly = (cursor.getInt(4) & 0x01) == 1;
-                    // There is only one parent Node and its added manually in getSubNodes()
-                    nodes.add(new ScNode(nodeUniqueID, "0", nameValue, false, hasSubnodes, false, isRichText, isBold, foregroundColor, iconId, isReadOnly));
-                }
+            if (scNode != null) {
+                scNode.setSubnode(isSubnode);
+                nodes.add(scNode);
             }
         }
         return nodes;
@@ -1908,10 +1954,17 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
      */
     private void saveImageSpanImage(ImageSpanImage imageSpanImage, String nodeUniqueID, int offset) {
         Drawable drawable = imageSpanImage.getDrawable();
-        // Hopefully it's always a Bitmap drawable, because I get it from the same source
-        Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteArrayOutputStream);
+        byte[] imageBytes;
+        if (drawable instanceof LazyImageDrawable) {
+            // Images loaded from the database are saved as they are, because displayed image is downsampled
+            imageBytes = ((LazyImageDrawable) drawable).getImageBytes();
+        } else {
+            // Hopefully it's always a Bitmap drawable, because I get it from the same source
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteArrayOutputStream);
+            imageBytes = byteArrayOutputStream.toByteArray();
+        }
         sqlite.beginTransaction();
         try {
             ContentValues contentValues = new ContentValues();
@@ -1919,7 +1972,7 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
             contentValues.put("offset", offset);
             contentValues.put("justification", imageSpanImage.getJustification());
             contentValues.put("anchor", "");
-            contentValues.put("png", byteArrayOutputStream.toByteArray());
+            contentValues.put("png", imageBytes);
             contentValues.put("filename", "");
             contentValues.put("link", "");
             contentValues.put("time", 0);
@@ -2276,6 +2329,7 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
             contentValues.put("ts_lastsave", System.currentTimeMillis() / 1000);
             sqlite.update("node", contentValues, "node_id=?", new String[]{nodeUniqueID});
         }
+        updateSearchIndex(Collections.singletonList(nodeUniqueID), Collections.<String>emptyList());
     }
 
     /**
@@ -2361,147 +2415,65 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
 
     @Override
     public ArrayList<ScSearchNode> search(Boolean noSearch, String query) {
-        if (noSearch) {
-            // If user marked that filter should omit nodes and/or node children from filter results
-            ArrayList<ScSearchNode> searchResult = new ArrayList<>();
-            try (Cursor cursor = sqlite.rawQuery("SELECT * FROM children LEFT JOIN node ON children.node_id=node.node_id WHERE children.father_id=0", null)) {
-                while (cursor.moveToNext()) {
-                    if (cursor.getInt(10) == 0) {
-                        // If node and subnodes are not selected to be excluded from search
-                        String nodeUniqueID = String.valueOf(cursor.getInt(0));
-                        boolean hasSubnode = hasSubnodes(nodeUniqueID);
-                        // Main menu item will always be displayed as a parent
-                        ScSearchNode result = findInNode(cursor, query, hasSubnode, true, false);
-                        if (result != null) {
-                            searchResult.add(result);
-                        }
-                        if (hasSubnode) {
-                            searchResult.addAll(searchNodesSkippingExcluded(nodeUniqueID, query));
-                        }
-                    } else if (cursor.getInt(10) == 1) {
-                        // If only the node is selected to be excluded from search
-                        String nodeUniqueID = String.valueOf(cursor.getInt(0));
-                        boolean hasSubnode = hasSubnodes(nodeUniqueID);
-                        if (hasSubnode) {
-                            searchResult.addAll(searchNodesSkippingExcluded(nodeUniqueID, query));
-                        }
-                    } else if (cursor.getInt(10) == 2) {
-                        // if only subnodes are selected to be excluded from search
-                        String nodeUniqueID = String.valueOf(cursor.getInt(0));
-                        boolean hasSubnodes = hasSubnodes(nodeUniqueID);
-                        // Main menu node will always be a parent
-                        // Main menu item will always be displayed as parent
-                        ScSearchNode result = findInNode(cursor, query, hasSubnodes, true, false);
-                        if (result != null) {
-                            searchResult.add(result);
-                        }
-                    }
-                }
-            }
-            return searchResult;
-        } else {
-            ArrayList<ScSearchNode> searchResult = new ArrayList<>();
-            try (Cursor cursor = sqlite.rawQuery("SELECT * FROM children LEFT JOIN node ON children.node_id=node.node_id WHERE children.father_id=0", null)) {
-                while (cursor.moveToNext()) {
-                    String nodeUniqueID = String.valueOf(cursor.getInt(0));
-                    boolean hasSubnode = hasSubnodes(nodeUniqueID);
-                    // Main menu item will displayed as parent
-                    ScSearchNode result = findInNode(cursor, query, hasSubnode, true, false);
-                    if (result != null) {
-                        searchResult.add(result);
-                    }
-                    if (hasSubnode) {
-                        searchResult.addAll(searchAllNodes(nodeUniqueID, query));
-                    }
-                }
-            }
-            return searchResult;
+        if (prepareSearchIndex()) {
+            return searchWithIndex(noSearch, query);
         }
-    }
-
-    /**
-     * Searches through all nodes without skipping marked to exclude nodes
-     * @param parentUniqueID unique ID of the node to search in
-     * @param query string to search for
-     * @return ArrayList of search result objects
-     */
-    private ArrayList<ScSearchNode> searchAllNodes(String parentUniqueID, String query) {
-        // It actually just filters node and it's subnodes
-        // The search of the string is done in findInNode()
         ArrayList<ScSearchNode> searchResult = new ArrayList<>();
-        try (Cursor cursor = sqlite.rawQuery("SELECT * FROM children LEFT JOIN node ON children.node_id=node.node_id WHERE children.father_id=?", new String[]{parentUniqueID})) {
-            while (cursor.moveToNext()) {
-                String nodeUniqueID = String.valueOf(cursor.getInt(0));
-                boolean hasSubnode = hasSubnodes(nodeUniqueID);
-                boolean isParent = false;
-                boolean isSubnode = true;
-                if (hasSubnode) {
-                    isParent = true;
-                    isSubnode = false;
-                }
-                ScSearchNode result = findInNode(cursor, query, hasSubnode, isParent, isSubnode);
+        try (SearchWorker<String> worker = createSearchWorker(sqlite, documentBuilder, query, false)) {
+            for (SearchTarget<String> target : getSearchTargets(noSearch)) {
+                ScSearchNode result = worker.findInNode(target);
                 if (result != null) {
                     searchResult.add(result);
                 }
-                if (hasSubnode) {
-                    searchResult.addAll(searchAllNodes(nodeUniqueID, query));
-                }
             }
         }
         return searchResult;
     }
 
+    @Override
+    public void search(Boolean noSearch, String query, ExecutorService workers, SearchResultCallback callback) throws InterruptedException {
+        if (prepareSearchIndex()) {
+            // Search index finds all the results with a single query
+            super.search(noSearch, query, workers, callback);
+            return;
+        }
+        // Every worker reads the database with its own read-only connection, because queries of
+        // a single connection are executed one after another
+        String databasePath = sqlite.getPath();
+        searchInParallel(getSearchTargets(noSearch), workers, new Callable<SearchWorker<String>>() {
+            @Override
+            public SearchWorker<String> call() throws Exception {
+                SQLiteDatabase database = SQLiteDatabase.openDatabase(databasePath, null, SQLiteDatabase.OPEN_READONLY);
+                return createSearchWorker(database, DocumentBuilderFactory.newInstance().newDocumentBuilder(), query, true);
+            }
+        }, callback);
+    }
+
     /**
-     * Searches through nodes skipping marked to exclude
-     * @param parentUniqueID unique ID of the node to search in
+     * Searches for string using search index. Only nodes that have words starting with the query
+     * words are found. Whole node tree is loaded with a single query to keep results in the same
+     * order as in the drawer menu.
+     * @param noSearch true - skip nodes marked excluded
      * @param query string to search for
      * @return ArrayList of search result objects
      */
-    private ArrayList<ScSearchNode> searchNodesSkippingExcluded(String parentUniqueID, String query) {
-        // If user marked that filter should omit nodes and/or node children from filter results
+    private ArrayList<ScSearchNode> searchWithIndex(boolean noSearch, String query) {
         ArrayList<ScSearchNode> searchResult = new ArrayList<>();
-        try (Cursor cursor = sqlite.rawQuery("SELECT * FROM children INNER JOIN node ON children.node_id=node.node_id WHERE children.father_id=?", new String[]{parentUniqueID})) {
+        Map<String, String> matches = searchIndex.search(query);
+        if (matches.isEmpty()) {
+            return searchResult;
+        }
+        try (Cursor cursor = sqlite.rawQuery("SELECT children.node_id, children.father_id, children.master_id, node.level, node.name, node.syntax, node.is_ro, node.is_richtxt FROM children LEFT JOIN node ON children.node_id=node.node_id ORDER BY children.father_id, children.sequence", null)) {
+            Map<String, List<Integer>> childrenPositions = new HashMap<>();
             while (cursor.moveToNext()) {
-                if (cursor.getInt(10) == 0) {
-                    // If node and subnodes are not selected to be excluded from search
-                    String nodeUniqueID = String.valueOf(cursor.getInt(0));
-                    boolean hasSubnode = hasSubnodes(nodeUniqueID);
-                    boolean isParent = false;
-                    boolean isSubnode = true;
-                    if (hasSubnode) {
-                        isParent = true;
-                        isSubnode = false;
-                    }
-                    ScSearchNode result = findInNode(cursor, query, hasSubnode, isParent, isSubnode);
-                    if (result != null) {
-                        searchResult.add(result);
-                    }
-                    if (hasSubnode) {
-                        searchResult.addAll(searchNodesSkippingExcluded(nodeUniqueID, query));
-                    }
-                } else if (cursor.getInt(10) == 1) {
-                    // If only the node is selected to be excluded from search
-                    String nodeUniqueID = String.valueOf(cursor.getInt(0));
-                    String hasSubnode = String.valueOf(hasSubnodes(nodeUniqueID));
-                    if (hasSubnode.equals("true")) {
-                        searchResult.addAll(searchNodesSkippingExcluded(nodeUniqueID, query));
-                    }
-                } else if (cursor.getInt(10) == 2) {
-                    // if only subnodes are selected to be excluded from search
-                    String nodeUniqueID = String.valueOf(cursor.getInt(0));
-                    boolean hasSubnode = hasSubnodes(nodeUniqueID);
-                    boolean isParent = false;
-                    boolean isSubnode = true;
-                    if (hasSubnode) {
-                        isParent = true;
-                        isSubnode = false;
-                    }
-                    ScSearchNode result = findInNode(cursor, query, hasSubnode, isParent, isSubnode);
-                    if (result != null) {
-                        searchResult.add(result);
-                    }
+                List<Integer> positions = childrenPositions.get(cursor.getString(1));
+                if (positions == null) {
+                    positions = new ArrayList<>();
+                    childrenPositions.put(cursor.getString(1), positions);
                 }
+                positions.add(cursor.getPosition());
             }
+            collectIndexedSearchResults(cursor, childrenPositions, "0", noSearch, query, matches, searchResult);
         }
         return searchResult;
     }
@@ -2549,6 +2521,35 @@ public class SQLReader extends DatabaseReader implements DatabaseVacuum {
         } finally {
             sqlite.endTransaction();
         }
+        updateSearchIndex(Collections.singletonList(nodeUniqueID), Collections.<String>emptyList());
+    }
+
+    /**
+     * Updates search index after nodes were changed, created or deleted. Does nothing if search
+     * index was not opened, because it will be rebuilt before the next search anyway.
+     * @param updatedNodeUniqueIDs unique IDs of the nodes that were created or changed
+     * @param deletedNodeUniqueIDs unique IDs of the nodes that were deleted
+     */
+    private void updateSearchIndex(Collection<String> updatedNodeUniqueIDs, Collection<String> deletedNodeUniqueIDs) {
+        if (searchIndex == null || !searchIndexUpToDate) {
+            return;
+        }
+        boolean successful = false;
+        searchIndex.beginTransaction();
+        try {
+            searchIndex.delete(deletedNodeUniqueIDs);
+            for (String nodeUniqueID : updatedNodeUniqueIDs) {
+                try (Cursor cursor = sqlite.query("node", new String[]{"txt", "syntax", "has_codebox", "has_table", "has_image"}, "node_id=?", new String[]{nodeUniqueID}, null, null, null)) {
+                    if (cursor.moveToFirst()) {
+                        searchIndex.put(nodeUniqueID, createSearchContent(sqlite, documentBuilder, nodeUniqueID, cursor.getString(0), cursor.getString(1), cursor.getInt(2) == 1, cursor.getInt(3) == 1, cursor.getInt(4) == 1));
+                    }
+                }
+            }
+            searchIndex.setDatabaseState(sqlite.getPath(), getSearchIndexFingerprint());
+            successful = true;
+        } finally {
+            searchIndex.endTransaction(successful);
+        }
     }
 
     @Override
@@ -0,0 +1,181 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Full-text search index for SQL databases. Index is kept in a separate (sidecar) SQLite file in
+ * app's storage, so CherryTree database file itself is never modified. Every node is stored as
+ * already flattened and lowercased plain text in FTS4 virtual table where docid is node's unique ID.
+ */
+public class SQLSearchIndex {
+    private static final String INDEX_FILENAME = "sql_search_index.db";
+    private final SQLiteDatabase index;
+
+    /**
+     * Opens (or creates) sidecar search index file
+     * @param context application context to get app's file directory
+     */
+    public SQLSearchIndex(Context context) {
+        index = SQLiteDatabase.openOrCreateDatabase(new File(context.getFilesDir(), INDEX_FILENAME), null);
+        index.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS node_text USING fts4(content)");
+        index.execSQL("CREATE TABLE IF NOT EXISTS meta (key TEXT PRIMARY KEY, value TEXT)");
+    }
+
+    /**
+     * Starts a transaction on the index. Should be used when writing a lot of nodes at once.
+     */
+    public void beginTransaction() {
+        index.beginTransaction();
+    }
+
+    /**
+     * Closes the index file
+     */
+    public void close() {
+        index.close();
+    }
+
+    /**
+     * Creates a query string for FTS MATCH operator from search query that user typed. Every word
+     * of the query is treated as a prefix and all of them have to be found in the same order
+     * @param query search query
+     * @return MATCH expression or null if query does not have any words
+     */
+    private String createMatchExpression(String query) {
+        StringBuilder matchExpression = new StringBuilder();
+        matchExpression.append("\"");
+        for (String token : query.replace("\"", " ").trim().split(" +")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            matchExpression.append(token);
+            matchExpression.append("* ");
+        }
+        if (matchExpression.length() == 1) {
+            return null;
+        }
+        matchExpression.setLength(matchExpression.length() - 1);
+        matchExpression.append("\"");
+        return matchExpression.toString();
+    }
+
+    /**
+     * Removes nodes from the index
+     * @param nodeUniqueIDs collection of unique IDs of the nodes to remove
+     */
+    public void delete(Collection<String> nodeUniqueIDs) {
+        for (String nodeUniqueID : nodeUniqueIDs) {
+            index.delete("node_text", "docid = ?", new String[]{nodeUniqueID});
+        }
+    }
+
+    /**
+     * Removes all nodes and metadata from the index
+     */
+    public void deleteAll() {
+        index.delete("node_text", null, null);
+        index.delete("meta", null, null);
+    }
+
+    /**
+     * Ends transaction started with beginTransaction()
+     * @param successful true - commit changes, false - roll them back
+     */
+    public void endTransaction(boolean successful) {
+        if (successful) {
+            index.setTransactionSuccessful();
+        }
+        index.endTransaction();
+    }
+
+    /**
+     * Returns metadata value saved in to the index
+     * @param key metadata key
+     * @return saved value or null if there is no value saved with the key
+     */
+    private String getMeta(String key) {
+        try (Cursor cursor = index.query("meta", new String[]{"value"}, "key = ?", new String[]{key}, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if index was built for the database with provided path and database did not change
+     * since the last time index was updated
+     * @param databasePath path to the database file
+     * @param fingerprint fingerprint of the database content
+     * @return true - index can be used for search, false - index has to be rebuilt
+     */
+    public boolean isUpToDate(String databasePath, String fingerprint) {
+        return databasePath.equals(getMeta("database_path")) && fingerprint.equals(getMeta("fingerprint"));
+    }
+
+    /**
+     * Inserts or replaces node's text in the index
+     * @param nodeUniqueID unique ID of the node
+     * @param preparedContent flattened, lowercased node's content
+     */
+    public void put(String nodeUniqueID, String preparedContent) {
+        index.delete("node_text", "docid = ?", new String[]{nodeUniqueID});
+        ContentValues contentValues = new ContentValues();
+        contentValues.put("docid", nodeUniqueID);
+        contentValues.put("content", preparedContent);
+        index.insert("node_text", null, contentValues);
+    }
+
+    /**
+     * Finds all nodes in the index that contain words starting with the query words
+     * @param query lowercased search query
+     * @return map of node unique IDs and their indexed content
+     */
+    public Map<String, String> search(String query) {
+        Map<String, String> results = new HashMap<>();
+        String matchExpression = createMatchExpression(query);
+        if (matchExpression == null) {
+            return results;
+        }
+        try (Cursor cursor = index.rawQuery("SELECT docid, content FROM node_text WHERE node_text MATCH ?", new String[]{matchExpression})) {
+            while (cursor.moveToNext()) {
+                results.put(cursor.getString(0), cursor.getString(1));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Saves information about the database that index was built for
+     * @param databasePath path to the database file
+     * @param fingerprint fingerprint of the database content
+     */
+    public void setDatabaseState(String databasePath, String fingerprint) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put("key", "database_path");
+        contentValues.put("value", databasePath);
+        index.insertWithOnConflict("meta", null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+        contentValues.clear();
+        contentValues.put("key", "fingerprint");
+        contentValues.put("value", fingerprint);
+        index.insertWithOnConflict("meta", null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
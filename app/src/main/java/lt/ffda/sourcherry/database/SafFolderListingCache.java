@@ -0,0 +1,229 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the SAF folder listings of MultiFile database. Every folder is listed with
+ * ContentResolver only once and its files can be found by display name or by the part of the
+ * display name before the first dot (sha256sum for images and attached files) without scanning
+ * the listing. Listing of the folder has to be invalidated after files are created, renamed or
+ * deleted in it.
+ */
+public class SafFolderListingCache {
+    private final ContentResolver contentResolver;
+    private final Map<String, Listing> listings = new HashMap<>();
+    private final Uri mainFolderUri;
+
+    /**
+     * Creates cache for the folders of MultiFile database
+     * @param contentResolver content resolver to list folders with
+     * @param mainFolderUri Uri of the root folder of the database
+     */
+    public SafFolderListingCache(ContentResolver contentResolver, Uri mainFolderUri) {
+        this.contentResolver = contentResolver;
+        this.mainFolderUri = mainFolderUri;
+    }
+
+    /**
+     * Returns listing of the folder. Lists folder if it's not in the cache.
+     * @param documentId SAF documentId of the folder. Folder has to be a child of mainFolderUri.
+     * @return listing of the folder or null if folder could not be listed
+     */
+    public Listing get(String documentId) {
+        synchronized (listings) {
+            Listing listing = listings.get(documentId);
+            if (listing != null) {
+                return listing;
+            }
+        }
+        Listing listing = list(documentId);
+        if (listing != null) {
+            synchronized (listings) {
+                listings.put(documentId, listing);
+            }
+        }
+        return listing;
+    }
+
+    /**
+     * Removes listing of the folder from the cache
+     * @param documentId SAF documentId of the folder
+     */
+    public void invalidate(String documentId) {
+        synchronized (listings) {
+            listings.remove(documentId);
+        }
+    }
+
+    /**
+     * Removes all listings from the cache
+     */
+    public void invalidateAll() {
+        synchronized (listings) {
+            listings.clear();
+        }
+    }
+
+    /**
+     * Lists children of the folder
+     * @param documentId SAF documentId of the folder
+     * @return listing of the folder or null if folder could not be listed
+     */
+    private Listing list(String documentId) {
+        Uri uri = DocumentsContract.buildChildDocumentsUriUsingTree(mainFolderUri, documentId);
+        try (Cursor cursor = contentResolver.query(
+                uri,
+                new String[]{DocumentsContract.Document.COLUMN_DOCUMENT_ID, DocumentsContract.Document.COLUMN_MIME_TYPE, DocumentsContract.Document.COLUMN_DISPLAY_NAME, DocumentsContract.Document.COLUMN_LAST_MODIFIED},
+                null,
+                null,
+                null)) {
+            if (cursor == null) {
+                return null;
+            }
+            Listing listing = new Listing(cursor.getCount());
+            while (cursor.moveToNext()) {
+                listing.add(new Entry(cursor.getString(0), cursor.getString(1), cursor.getString(2), cursor.getLong(3)));
+            }
+            return listing;
+        }
+    }
+
+    /**
+     * Child document of the folder
+     */
+    public static class Entry {
+        private final String displayName;
+        private final String documentId;
+        private final long lastModified;
+        private final String mimeType;
+
+        private Entry(String documentId, String mimeType, String displayName, long lastModified) {
+            this.documentId = documentId;
+            this.mimeType = mimeType;
+            this.displayName = displayName;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Returns display name (filename) of the document
+         * @return display name
+         */
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        /**
+         * Returns SAF documentId of the document
+         * @return documentId
+         */
+        public String getDocumentId() {
+            return documentId;
+        }
+
+        /**
+         * Returns last modified time of the document at the moment folder was listed
+         * @return last modified time in milliseconds since epoch or 0 if it's unknown
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Returns MIME type of the document
+         * @return MIME type
+         */
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * Checks if document is a folder
+         * @return true - document is a folder
+         */
+        public boolean isDirectory() {
+            return DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType);
+        }
+    }
+
+    /**
+     * All children documents of the folder indexed by display name and by its part before the
+     * first dot
+     */
+    public static class Listing {
+        private final Map<String, Entry> byName;
+        private final Map<String, Entry> byStem;
+        private final List<Entry> entries;
+
+        private Listing(int size) {
+            byName = new HashMap<>(size * 2);
+            byStem = new HashMap<>(size * 2);
+            entries = new ArrayList<>(size);
+        }
+
+        /**
+         * Adds document to the listing. Folders are not indexed by stem.
+         * @param entry document to add
+         */
+        private void add(Entry entry) {
+            entries.add(entry);
+            if (entry.getDisplayName() == null) {
+                return;
+            }
+            if (!byName.containsKey(entry.getDisplayName())) {
+                byName.put(entry.getDisplayName(), entry);
+            }
+            if (!entry.isDirectory()) {
+                int dot = entry.getDisplayName().indexOf('.');
+                String stem = dot == -1 ? entry.getDisplayName() : entry.getDisplayName().substring(0, dot);
+                if (!byStem.containsKey(stem)) {
+                    byStem.put(stem, entry);
+                }
+            }
+        }
+
+        /**
+         * Finds document by its display name
+         * @param name display name of the document
+         * @return document or null if folder does not have it
+         */
+        public Entry getByName(String name) {
+            return byName.get(name);
+        }
+
+        /**
+         * Finds file by the part of its display name before the first dot
+         * @param stem display name without extension, for images and attached files it's their sha256sum
+         * @return file or null if folder does not have it
+         */
+        public Entry getByStem(String stem) {
+            return byStem.get(stem);
+        }
+
+        /**
+         * Returns all documents of the folder in the order they were listed
+         * @return list of documents
+         */
+        public List<Entry> getEntries() {
+            return Collections.unmodifiableList(entries);
+        }
+    }
+}
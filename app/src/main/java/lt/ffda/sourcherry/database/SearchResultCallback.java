@@ -0,0 +1,27 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import lt.ffda.sourcherry.model.ScSearchNode;
+
+/**
+ * Callback that receives results of the database search as soon as they are found
+ */
+public interface SearchResultCallback {
+    /**
+     * Callback method that will be executed every time a match is found in the node. It is
+     * executed from the search worker threads.
+     * @param position position of the node in the order nodes are displayed in the drawer menu.
+     *                 Results can be found in any order, but can be sorted by this value.
+     * @param result search result object
+     */
+    void onSearchResult(int position, ScSearchNode result);
+}
@@ -0,0 +1,57 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+/**
+ * Node that has to be searched through during the search of the database. Holds all the
+ * information about node's position in the tree that search result needs.
+ * @param <T> type of the object that identifies the node in the database
+ */
+public class SearchTarget<T> {
+    private final boolean hasSubnodes;
+    private final boolean isParent;
+    private final boolean isSubnode;
+    private final T node;
+
+    /**
+     * Creates node that has to be searched through
+     * @param node object that identifies the node in the database
+     * @param hasSubnodes true if node has subnodes, else - false
+     * @param isParent true if node is a parent node, else - false
+     * @param isSubnode true if node is a subnode, else - false
+     */
+    public SearchTarget(T node, boolean hasSubnodes, boolean isParent, boolean isSubnode) {
+        this.node = node;
+        this.hasSubnodes = hasSubnodes;
+        this.isParent = isParent;
+        this.isSubnode = isSubnode;
+    }
+
+    /**
+     * Returns object that identifies the node in the database
+     * @return node, its unique ID or any other object used by the reader
+     */
+    public T getNode() {
+        return node;
+    }
+
+    public boolean hasSubnodes() {
+        return hasSubnodes;
+    }
+
+    public boolean isParent() {
+        return isParent;
+    }
+
+    public boolean isSubnode() {
+        return isSubnode;
+    }
+}
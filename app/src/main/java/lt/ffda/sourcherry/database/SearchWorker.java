@@ -0,0 +1,38 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import java.io.Closeable;
+
+import lt.ffda.sourcherry.model.ScSearchNode;
+
+/**
+ * Searches through the nodes in one of the threads of the parallel search. Every thread gets its
+ * own worker, so it can hold objects that can't be shared between threads, like database
+ * connection or DocumentBuilder.
+ * @param <T> type of the object that identifies the node in the database
+ */
+public abstract class SearchWorker<T> implements Closeable {
+    /**
+     * Releases all the resources held by the worker. Called after worker searched through its last
+     * node.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Searches through node's content
+     * @param target node to search in
+     * @return search result object or null if nothing was found
+     */
+    public abstract ScSearchNode findInNode(SearchTarget<T> target);
+}
@@ -13,12 +13,12 @@ package lt.ffda.sourcherry.database;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.ParcelFileDescriptor;
 import android.text.Layout;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
@@ -38,12 +38,15 @@ import android.text.style.SuperscriptSpan;
 import android.text.style.TypefaceSpan;
 import android.text.style.UnderlineSpan;
 import android.util.Base64;
+import android.util.Base64InputStream;
+import android.util.Log;
 import android.view.View;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.content.res.AppCompatResources;
 
+import org.w3c.dom.CharacterData;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
@@ -52,22 +55,41 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -76,6 +98,7 @@ import javax.xml.transform.stream.StreamResult;
 import lt.ffda.sourcherry.MainView;
 import lt.ffda.sourcherry.MainViewModel;
 import lt.ffda.sourcherry.R;
+import lt.ffda.sourcherry.ScApplication;
 import lt.ffda.sourcherry.model.ScNode;
 import lt.ffda.sourcherry.model.ScNodeContent;
 import lt.ffda.sourcherry.model.ScNodeContentTable;
@@ -90,20 +113,45 @@ import lt.ffda.sourcherry.spans.ImageSpanAnchor;
 import lt.ffda.sourcherry.spans.ImageSpanFile;
 import lt.ffda.sourcherry.spans.ImageSpanImage;
 import lt.ffda.sourcherry.spans.ImageSpanLatex;
+import lt.ffda.sourcherry.spans.LazyImageDrawable;
 import lt.ffda.sourcherry.spans.StyleSpanBold;
 import lt.ffda.sourcherry.spans.StyleSpanItalic;
 import lt.ffda.sourcherry.spans.TypefaceSpanCodebox;
 import lt.ffda.sourcherry.spans.TypefaceSpanFamily;
 import lt.ffda.sourcherry.spans.URLSpanWebs;
+import lt.ffda.sourcherry.utils.AsciiCharSequenceInputStream;
 import lt.ffda.sourcherry.utils.DatabaseType;
 import ru.noties.jlatexmath.JLatexMathDrawable;
 
 public class XMLReader extends DatabaseReader {
+    private static final int LOADED_NODE_BODIES_MAX_SIZE = 32;
+    private static final String TAG = "XMLReader";
+    private static final long WRITE_DELAY_MILLIS = 2000;
     private final Context context;
+    /**
+     * Parallel search reads node content straight from the database file. It holds read lock of
+     * this lock so the file would not be rewritten while workers are reading it.
+     */
+    private final ReentrantReadWriteLock databaseFileLock = new ReentrantReadWriteLock();
     private final String databaseUri;
     private final Document doc;
+    /**
+     * Used to create copies of the document that are written to the database file
+     */
+    private final DocumentBuilder documentBuilder;
+    private final ScheduledThreadPoolExecutor executor;
     private final Handler handler;
+    private final boolean lazyLoading;
+    private final LinkedHashMap<String, Node> loadedNodeBodies;
     private final MainViewModel mainViewModel;
+    private final Map<String, long[]> nodeBodyRanges;
+    private final Map<String, Node> nodeIndex;
+    private final Transformer transformer;
+    private int pendingChanges;
+    private ScheduledFuture<?> pendingWrite;
+    private long totalBytesWritten;
+    private int writeCount;
+    private int writtenChangesCount;
 
     /**
      * Class that opens databases based on XML file. Provides all functions necessary to read and edit
@@ -113,23 +161,62 @@ public class XMLReader extends DatabaseReader {
      * @param context application context to display toast messages, get resources, handle clicks
      * @param handler to run methods on main thread
      * @param mainViewModel ViewModel of MainView activity to store data
+     * @param lazyLoading true - only the tree of the nodes is loaded into memory. Content of the node
+     *                    is read from the file when it's needed and only limited number of them
+     *                    are kept in memory.
      * @throws ParserConfigurationException Indicates a serious configuration error.
      * @throws IOException Signals that an I/O exception of some sort has occurred.
      * @throws SAXException Encapsulate a general SAX error or warning.
+     * @throws TransformerConfigurationException Failed to create Transformer to write the database.
      */
-    public XMLReader(String databaseUri, InputStream is, Context context, Handler handler, MainViewModel mainViewModel) throws ParserConfigurationException, IOException, SAXException {
+    public XMLReader(String databaseUri, InputStream is, Context context, Handler handler, MainViewModel mainViewModel, boolean lazyLoading) throws ParserConfigurationException, IOException, SAXException, TransformerConfigurationException {
         // Creates a document that can be used to read tags with provided InputStream
         this.databaseUri = databaseUri;
         this.context = context;
         this.handler = handler;
         this.mainViewModel = mainViewModel;
+        this.lazyLoading = lazyLoading;
+        this.executor = ((ScApplication) context.getApplicationContext()).appContainer.executor;
         DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
         DocumentBuilder db = dbf.newDocumentBuilder();
-        this.doc = db.parse(is);
+        this.documentBuilder = db;
+        if (lazyLoading) {
+            this.transformer = null;
+            this.doc = db.newDocument();
+            this.nodeBodyRanges = new HashMap<>();
+            new XMLSkeletonParser(is).parse(doc, nodeBodyRanges);
+            this.loadedNodeBodies = new LinkedHashMap<String, Node>(LOADED_NODE_BODIES_MAX_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Node> eldest) {
+                    if (size() > LOADED_NODE_BODIES_MAX_SIZE) {
+                        if (pendingChanges == 0) {
+                            unloadNodeBody(eldest.getKey(), eldest.getValue());
+                            return true;
+                        }
+                        // Content can be removed only when all changes are in the file. Instead of
+                        // writing the database while the node is being loaded, scheduled write is
+                        // started right away and extra content is removed after it finishes.
+                        scheduleWrite(0);
+                    }
+                    return false;
+                }
+            };
+        } else {
+            this.transformer = TransformerFactory.newInstance().newTransformer();
+            this.doc = db.parse(is);
+            this.nodeBodyRanges = null;
+            this.loadedNodeBodies = null;
+        }
+        this.nodeIndex = new HashMap<>();
+        NodeList nodeList = doc.getElementsByTagName("node");
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Node node = nodeList.item(i);
+            nodeIndex.put(node.getAttributes().getNamedItem("unique_id").getNodeValue(), node);
+        }
     }
 
     @Override
-    public void addNodeToBookmarks(String nodeUniqueID) {
+    public synchronized void addNodeToBookmarks(String nodeUniqueID) {
         NodeList bookmarkTag = doc.getElementsByTagName("bookmarks");
         Node bookmarksNode = bookmarkTag.item(0);
         List<Integer> bmkrs;
@@ -157,25 +244,19 @@ public class XMLReader extends DatabaseReader {
      */
     private boolean areNodesRelated(String targetNodeUniqueID, String destinationNodeUniqueID) {
         ArrayList<String> heredity = new ArrayList<>();
-
-        NodeList nodeList = doc.getElementsByTagName("node");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node node = nodeList.item(i);
-            // Finds destination node
-            if (node.getAttributes().getNamedItem("unique_id").getNodeValue().equals(destinationNodeUniqueID)) {
-                heredity.add(node.getAttributes().getNamedItem("unique_id").getNodeValue());
-                // Goes up the document tree and adds every nodes unique ID to heredity list
-                // until reaches cherrytree tag
-                while (true) {
-                    Node parentNode = node.getParentNode();
-                    if (parentNode.getNodeName().equals("cherrytree")) {
-                        break;
-                    } else {
-                        heredity.add(parentNode.getAttributes().getNamedItem("unique_id").getNodeValue());
-                        node = parentNode;
-                    }
+        Node node = findNode(destinationNodeUniqueID);
+        if (node != null) {
+            heredity.add(destinationNodeUniqueID);
+            // Goes up the document tree and adds every nodes unique ID to heredity list
+            // until reaches cherrytree tag
+            while (true) {
+                Node parentNode = node.getParentNode();
+                if (parentNode.getNodeName().equals("cherrytree")) {
+                    break;
+                } else {
+                    heredity.add(parentNode.getAttributes().getNamedItem("unique_id").getNodeValue());
+                    node = parentNode;
                 }
-                break;
             }
         }
         // Returns true if heredity contains unique ID of the target node
@@ -232,6 +313,37 @@ public class XMLReader extends DatabaseReader {
         }
     }
 
+    /**
+     * Collects nodes that have to be searched through from the node list and all its subnodes in
+     * the order they are displayed in the drawer menu. Shared nodes are skipped, because their
+     * content is the same as master node's.
+     * @param nodeList list of nodes to collect the nodes from
+     * @param noSearch true - skip nodes marked excluded
+     * @param targets list to collect nodes into
+     */
+    private void collectSearchTargets(NodeList nodeList, boolean noSearch, ArrayList<SearchTarget<Node>> targets) {
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Node node = nodeList.item(i);
+            if (!node.getNodeName().equals("node")) {
+                continue;
+            }
+            boolean hasSubnodes = hasSubnodes(node);
+            boolean searchSubnodes;
+            Node masterIdAttr = node.getAttributes().getNamedItem("master_id");
+            if (masterIdAttr != null && !"0".equals(masterIdAttr.getNodeValue())) {
+                searchSubnodes = !noSearch || findNode(masterIdAttr.getNodeValue()).getAttributes().getNamedItem("nosearch_ch").getNodeValue().equals("0");
+            } else {
+                if (!noSearch || node.getAttributes().getNamedItem("nosearch_me").getNodeValue().equals("0")) {
+                    targets.add(new SearchTarget<>(node, hasSubnodes, hasSubnodes, !hasSubnodes));
+                }
+                searchSubnodes = !noSearch || node.getAttributes().getNamedItem("nosearch_ch").getNodeValue().equals("0");
+            }
+            if (hasSubnodes && searchSubnodes) {
+                collectSearchTargets(node.getChildNodes(), noSearch, targets);
+            }
+        }
+    }
+
     /**
      * Coverts codebox node content to a StringBuilder
      * used as part of convertRichTextNodeContentToPlainText function
@@ -381,7 +493,7 @@ public class XMLReader extends DatabaseReader {
     }
 
     @Override
-    public ScNode createNewNode(String nodeUniqueID, int relation, String name, String progLang, String noSearchMe, String noSearchCh) {
+    public synchronized ScNode createNewNode(String nodeUniqueID, int relation, String name, String progLang, String noSearchMe, String noSearchCh) {
         Node node;
         if (nodeUniqueID.equals("0")) {
             // User chose to create the node in main menu
@@ -429,12 +541,76 @@ public class XMLReader extends DatabaseReader {
             // As a subnode of selected node
             node.appendChild(newNode);
         }
+        nodeIndex.put(newNodeUniqueID, newNode);
         writeIntoDatabase();
         return new ScNode(newNodeUniqueID, "0", name,false, false, isSubnode, progLang.equals("custom-colors"), false, "", 0, false);
     }
 
+    /**
+     * Creates factory of the search workers for parallel search
+     * @param query search query
+     * @param searchBodyRanges byte ranges of the node content in the database file. Used only with lazy loading.
+     * @return factory that creates a search worker for every thread
+     */
+    private Callable<SearchWorker<Node>> createSearchWorkerFactory(String query, Map<String, long[]> searchBodyRanges) {
+        return new Callable<SearchWorker<Node>>() {
+            @Override
+            public SearchWorker<Node> call() throws Exception {
+                if (!lazyLoading) {
+                    // Document is only read during the search, so all the threads can share it
+                    return new SearchWorker<Node>() {
+                        @Override
+                        public ScSearchNode findInNode(SearchTarget<Node> target) {
+                            Node node = target.getNode();
+                            return XMLReader.this.findInNode(node, node.getChildNodes(), query, target.hasSubnodes(), target.isParent(), target.isSubnode());
+                        }
+                    };
+                }
+                // Every thread parses content of the nodes it searches with its own parser
+                FileInputStream fileInputStream = openDatabaseFileInputStream();
+                DocumentBuilder documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+                return new SearchWorker<Node>() {
+                    @Override
+                    public void close() {
+                        try {
+                            fileInputStream.close();
+                        } catch (IOException e) {
+                            // Nothing to do with it
+                        }
+                    }
+
+                    @Override
+                    public ScSearchNode findInNode(SearchTarget<Node> target) {
+                        Node node = target.getNode();
+                        String nodeUniqueID = node.getAttributes().getNamedItem("unique_id").getNodeValue();
+                        try {
+                            Document bodyDocument = readNodeBody(fileInputStream.getChannel(), searchBodyRanges.get(nodeUniqueID), documentBuilder);
+                            return XMLReader.this.findInNode(node, bodyDocument.getDocumentElement().getChildNodes(), query, target.hasSubnodes(), target.isParent(), target.isSubnode());
+                        } catch (IOException | SAXException e) {
+                            displayToast(context.getString(R.string.toast_error_while_searching));
+                            return null;
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Creates a file object for temporary database file. Temporary file for the database in app's
+     * internal storage is created next to the database, so it could be moved in place of it.
+     * @return temporary database file
+     */
+    private File createTempDatabaseFile() {
+        if (databaseUri.startsWith("content://")) {
+            return new File(context.getCacheDir(), "xml_database.tmp");
+        } else {
+            return new File(databaseUri + ".tmp");
+        }
+    }
+
     @Override
-    public void deleteNode(String nodeUniqueID) {
+    public synchronized void deleteNode(String nodeUniqueID) {
         Node nodeToDelete = findNode(nodeUniqueID);
         // Collecting all nodeUniqueIDs that will be removed
         List<String> uniqueIdList = new ArrayList<>();
@@ -459,8 +635,8 @@ public class XMLReader extends DatabaseReader {
                     // Looking for first sharedNode that will not be deleted with the rest of the nodes
                     if (!uniqueIdList.contains(sharedId)) {
                         // Copying content to the new masterNode
-                        Node oldMasterNode = findNode(uniqueId);
-                        Node newMasterNode = findNode(sharedId);
+                        Node oldMasterNode = findNodeWithBody(uniqueId);
+                        Node newMasterNode = findNodeWithBody(sharedId);
                         cloneNodeAndAttributes(oldMasterNode, newMasterNode);
                         for (int i = 1; i < sharedNodesIds.size(); i++) {
                             if (!uniqueIdList.contains(sharedNodesIds.get(i))) {
@@ -477,6 +653,12 @@ public class XMLReader extends DatabaseReader {
         }
         removeNodesFromBookmarks(uniqueIdList);
         nodeToDelete.getParentNode().removeChild(nodeToDelete);
+        for (String uniqueId: uniqueIdList) {
+            nodeIndex.remove(uniqueId);
+            if (lazyLoading) {
+                loadedNodeBodies.remove(uniqueId);
+            }
+        }
         writeIntoDatabase();
     }
 
@@ -516,6 +698,21 @@ public class XMLReader extends DatabaseReader {
      * @return search result object or null if nothing was found
      */
     private ScSearchNode findInNode(Node node, String query, boolean hasSubnodes, boolean isParent, boolean isSubnode) {
+        loadNodeBody(node);
+        return findInNode(node, node.getChildNodes(), query, hasSubnodes, isParent, isSubnode);
+    }
+
+    /**
+     * Searches through node's content that can be stored separately from the node itself
+     * @param node node to search in. Only attributes of it are used.
+     * @param nodeContentNodeList list of node's content tags
+     * @param query string to search for
+     * @param hasSubnodes true if node has subnodes, else - false
+     * @param isParent true if node is a parent node, else - false
+     * @param isSubnode true if node is a subnode, else - false
+     * @return search result object or null if nothing was found
+     */
+    private ScSearchNode findInNode(Node node, NodeList nodeContentNodeList, String query, boolean hasSubnodes, boolean isParent, boolean isSubnode) {
         // This string builder will hold oll text content of the node
         StringBuilder nodeContent = new StringBuilder();
 
@@ -524,14 +721,11 @@ public class XMLReader extends DatabaseReader {
         // To help calculate that location totalCharOffset is used
         int totalCharOffset = 0;
 
-        // Gets all child nodes
-        NodeList nodeContentNodeList = node.getChildNodes();
-
         for (int i = 0; i < nodeContentNodeList.getLength(); i++) {
             // Going through all the tags of the node
             // Skipping other "node" tags (subnodes).
             // To decide if these nodes have to be search are for a job for
-            // searchNodesSkippingExcluded() or searchInNodeList()
+            // collectSearchTargets()
             switch (nodeContentNodeList.item(i).getNodeName()) {
                 case "rich_text":
                     // All the text of the node
@@ -670,19 +864,26 @@ public class XMLReader extends DatabaseReader {
     }
 
     /**
-     * Searches through database for the node with unique ID
+     * Looks up the node with unique ID in the node index
      * @param nodeUniqueID node unique ID to search for
      * @return found Node object or null
      */
     private Node findNode(String nodeUniqueID) {
-        NodeList nodeList = doc.getElementsByTagName("node");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node node = nodeList.item(i);
-            if (node.getAttributes().getNamedItem("unique_id").getNodeValue().equals(nodeUniqueID)) {
-                return node;
-            }
+        return nodeIndex.get(nodeUniqueID);
+    }
+
+    /**
+     * Looks up the node with unique ID in the node index and makes sure that its content is
+     * loaded into the document
+     * @param nodeUniqueID node unique ID to search for
+     * @return found Node object or null
+     */
+    private Node findNodeWithBody(String nodeUniqueID) {
+        Node node = findNode(nodeUniqueID);
+        if (node != null) {
+            loadNodeBody(node);
         }
-        return null;
+        return node;
     }
 
     @Override
@@ -716,12 +917,12 @@ public class XMLReader extends DatabaseReader {
     public ArrayList<ScNode> getBookmarkedNodes() {
         ArrayList<ScNode> nodes = new ArrayList<>();
         NodeList nodeBookmarkNode = doc.getElementsByTagName("bookmarks");
-        List<String> nodeUniqueIDArray = Arrays.asList(nodeBookmarkNode.item(0).getAttributes().getNamedItem("list").getNodeValue().split(","));
+        Set<String> bookmarkedNodeUniqueIDs = new HashSet<>(Arrays.asList(nodeBookmarkNode.item(0).getAttributes().getNamedItem("list").getNodeValue().split(",")));
+        // Iterating the document keeps bookmarks in document order and every node only once
         NodeList nodeList = doc.getElementsByTagName("node");
-
-        for (int i=0; i < nodeList.getLength(); i++) {
+        for (int i = 0; i < nodeList.getLength(); i++) {
             Node node = nodeList.item(i);
-            if (nodeUniqueIDArray.contains(node.getAttributes().getNamedItem("unique_id").getNodeValue())) {
+            if (bookmarkedNodeUniqueIDs.contains(node.getAttributes().getNamedItem("unique_id").getNodeValue())) {
                 ScNode scNode = convertNodeToScNode(node);
                 // None of them have to be indented
                 scNode.setSubnode(false);
@@ -736,6 +937,67 @@ public class XMLReader extends DatabaseReader {
         }
     }
 
+    /**
+     * Writes all the pending changes to the database file. Caller has to hold write lock of the
+     * databaseFileLock. Copy of the document is made while holding the monitor of the reader and
+     * only the copy is written, so the document can be read and changed during the write.
+     */
+    private void flushPendingChanges() {
+        Document snapshot;
+        Map<String, long[]> snapshotBodyRanges = null;
+        Set<String> snapshotLoadedNodeBodies = null;
+        int snapshotChanges;
+        synchronized (this) {
+            if (pendingChanges == 0) {
+                return;
+            }
+            if (pendingWrite != null) {
+                pendingWrite.cancel(false);
+                pendingWrite = null;
+            }
+            // Text of the nodes is shared by both documents, only the tree is copied
+            snapshot = documentBuilder.newDocument();
+            snapshot.appendChild(snapshot.importNode(doc.getDocumentElement(), true));
+            if (lazyLoading) {
+                snapshotBodyRanges = new HashMap<>(nodeBodyRanges);
+                snapshotLoadedNodeBodies = new HashSet<>(loadedNodeBodies.keySet());
+            }
+            snapshotChanges = pendingChanges;
+        }
+        File tempFile = createTempDatabaseFile();
+        try {
+            Map<String, long[]> newBodyRanges = null;
+            if (lazyLoading) {
+                newBodyRanges = writeSkeletonIntoFile(snapshot, snapshotBodyRanges, snapshotLoadedNodeBodies, tempFile);
+            } else {
+                writeDocumentIntoFile(snapshot, tempFile);
+            }
+            long bytesWritten = tempFile.length();
+            synchronized (this) {
+                // Content of the nodes is read from the database file while holding the monitor
+                replaceDatabaseFile(tempFile);
+                if (lazyLoading) {
+                    nodeBodyRanges.clear();
+                    nodeBodyRanges.putAll(newBodyRanges);
+                }
+                pendingChanges -= snapshotChanges;
+                totalBytesWritten += bytesWritten;
+                writeCount++;
+                writtenChangesCount += snapshotChanges;
+                Log.i(TAG, "Wrote " + bytesWritten + " bytes with " + snapshotChanges + " changes");
+                if (lazyLoading) {
+                    trimLoadedNodeBodies();
+                }
+            }
+        } catch (FileNotFoundException e) {
+            displayToast(context.getString(R.string.toast_error_database_does_not_exists));
+        } catch (IOException | TransformerException e) {
+            displayToast(context.getString(R.string.toast_error_failed_to_save_database_changes));
+        } finally {
+            tempFile.delete();
+        }
+    }
+
     /**
      * Returns character offset value that is used in codebox and encoded_png tags
      * It is needed to add text in the correct location
@@ -790,7 +1052,7 @@ public class XMLReader extends DatabaseReader {
     @Override
     public InputStream getFileInputStream(String nodeUniqueID, String filename, String time, String control) {
         // Returns byte array (stream) to be written to file or opened
-        Node node = findNode(nodeUniqueID);
+        Node node = findNodeWithBody(nodeUniqueID);
         if (node == null) {
             return null;
         }
@@ -800,8 +1062,7 @@ public class XMLReader extends DatabaseReader {
             if (currentNode.getAttributes().getNamedItem("filename") != null) { // Checks if node has the attribute, otherwise it's an image
                 if (currentNode.getAttributes().getNamedItem("filename").getNodeValue().equals(filename)) { // If filename matches the one provided
                     if (currentNode.getAttributes().getNamedItem("time").getNodeValue().equals(time) && currentNode.getAttributes().getNamedItem("char_offset").getNodeValue().equals(control)) { // Checks if timestamp and offset matches the file
-                        // Will crash the app if file is big enough (11MB on my phone). No way to catch it as exception.
-                        return new ByteArrayInputStream(Base64.decode(currentNode.getTextContent(), Base64.DEFAULT));
+                        return openEncodedPngInputStream(currentNode);
                     }
                 }
             }
@@ -812,7 +1073,7 @@ public class XMLReader extends DatabaseReader {
     @Override
     public InputStream getImageInputStream(String nodeUniqueID, String control) {
         // Returns image byte array to be displayed in ImageViewFragment because some of the images are too big to pass in a bundle
-        Node node = findNode(nodeUniqueID);
+        Node node = findNodeWithBody(nodeUniqueID);
         if (node == null) {
             return null;
         }
@@ -821,7 +1082,7 @@ public class XMLReader extends DatabaseReader {
             Node currentNode = encodedpngNodeList.item(x);
             if (currentNode.getAttributes().getNamedItem("filename") == null) { // Checks if node has the attribute "filename". If it does - it's a file
                 if (currentNode.getAttributes().getNamedItem("char_offset").getNodeValue().equals(control)) { // If control matches the one provided
-                    return new ByteArrayInputStream(Base64.decode(currentNode.getTextContent(), Base64.DEFAULT));
+                    return openEncodedPngInputStream(currentNode);
                 }
             }
         }
@@ -851,10 +1112,8 @@ public class XMLReader extends DatabaseReader {
     @Override
     public int getNodeMaxID() {
         int maxID = -1;
-        NodeList nodeList = doc.getElementsByTagName("node");
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node node = nodeList.item(i);
-            int foundNodeUniqueID = Integer.parseInt(node.getAttributes().getNamedItem("unique_id").getNodeValue());
+        for (String nodeUniqueID : nodeIndex.keySet()) {
+            int foundNodeUniqueID = Integer.parseInt(nodeUniqueID);
             if (foundNodeUniqueID > maxID) {
                 maxID = foundNodeUniqueID;
             }
@@ -910,6 +1169,18 @@ public class XMLReader extends DatabaseReader {
         return nodes;
     }
 
+    /**
+     * Collects all the nodes that have to be searched through in the order they are displayed in
+     * the drawer menu
+     * @param noSearch true - skip nodes marked excluded
+     * @return list of nodes to search through
+     */
+    private synchronized ArrayList<SearchTarget<Node>> getSearchTargets(boolean noSearch) {
+        ArrayList<SearchTarget<Node>> targets = new ArrayList<>();
+        collectSearchTargets(doc.getFirstChild().getChildNodes(), noSearch, targets);
+        return targets;
+    }
+
     @Override
     public String getSharedNodesGroup(String nodeUniqueID) {
         Node node = findNode(nodeUniqueID);
@@ -998,6 +1269,45 @@ public class XMLReader extends DatabaseReader {
         return bookmarks.contains(nodeUniqueID);
     }
 
+    /**
+     * Reads content of the node from the database file and adds it to the node in the document.
+     * Does nothing if database was not opened with lazy loading or content is already loaded.
+     * @param node node which content to load
+     */
+    private synchronized void loadNodeBody(Node node) {
+        if (!lazyLoading) {
+            return;
+        }
+        String nodeUniqueID = node.getAttributes().getNamedItem("unique_id").getNodeValue();
+        if (loadedNodeBodies.get(nodeUniqueID) != null) {
+            return;
+        }
+        long[] ranges = nodeBodyRanges.get(nodeUniqueID);
+        if (ranges != null) {
+            try (FileInputStream fileInputStream = openDatabaseFileInputStream()) {
+                DocumentBuilder db = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+                Document bodyDocument = readNodeBody(fileInputStream.getChannel(), ranges, db);
+                // Content is inserted before the subnodes of the node
+                Node firstSubnode = null;
+                NodeList nodeList = node.getChildNodes();
+                for (int i = 0; i < nodeList.getLength(); i++) {
+                    if (nodeList.item(i).getNodeName().equals("node")) {
+                        firstSubnode = nodeList.item(i);
+                        break;
+                    }
+                }
+                NodeList bodyNodeList = bodyDocument.getDocumentElement().getChildNodes();
+                for (int i = 0; i < bodyNodeList.getLength(); i++) {
+                    node.insertBefore(doc.importNode(bodyNodeList.item(i), true), firstSubnode);
+                }
+            } catch (IOException | ParserConfigurationException | SAXException e) {
+                displayToast(context.getString(R.string.toast_error_failed_to_load_node_content));
+                return;
+            }
+        }
+        loadedNodeBodies.put(nodeUniqueID, node);
+    }
+
     @Override
     public void loadNodeContent(String nodeUniqueID) {
         ArrayList<ScNodeContent> nodeContent = new ArrayList<>();
@@ -1013,7 +1323,7 @@ public class XMLReader extends DatabaseReader {
         // prog_lang attribute is the same as syntax in SQL database
         // it is used to set formatting for the node and separate between node types
         // The same attribute is used for codeboxes
-        Node node = findNode(nodeUniqueID);
+        Node node = findNodeWithBody(nodeUniqueID);
         String nodeProgLang = node.getAttributes().getNamedItem("prog_lang").getNodeValue();
         if (nodeProgLang.equals("custom-colors") || nodeProgLang.equals("plain-text")) {
             // This is formatting for Rich Text and Plain Text nodes
@@ -1113,7 +1423,7 @@ public class XMLReader extends DatabaseReader {
             ScNodeContentText nodeContentText = new ScNodeContentText((byte) 0, nodeContentStringBuilder);
             nodeContent.add(nodeContentText);
         }
-        mainViewModel.getNodeContent().postValue(nodeContent);
+        mainViewModel.postNodeContent(nodeUniqueID, nodeContent);
     }
 
     @Override
@@ -1344,19 +1654,9 @@ public class XMLReader extends DatabaseReader {
         try {
             formattedImage.append(" ");
             byte[] decodedString = Base64.decode(node.getTextContent(), Base64.DEFAULT);
-            Bitmap decodedByte = BitmapFactory.decodeByteArray(decodedString, 0, decodedString.length);
-            Drawable image = new BitmapDrawable(context.getResources(), decodedByte);
-            image.setBounds(0,0, image.getIntrinsicWidth(), image.getIntrinsicHeight());
-
-            int width = Resources.getSystem().getDisplayMetrics().widthPixels;
-            if (image.getIntrinsicWidth() > width - 10) {
-                // If image is wider than screen it is scaled down to fit the screen
-                // otherwise it will not load/be display
-                float scale = ((float) width / image.getIntrinsicWidth()) - (float) 0.1;
-                int newWidth = (int) (image.getIntrinsicWidth() * scale);
-                int newHeight = (int) (image.getIntrinsicHeight() * scale);
-                image.setBounds(0, 0, newWidth, newHeight);
-            }
+            // Only dimensions of the image are decoded here, image itself is decoded when displayed
+            // Length of the image is a part of the key, because offset of the image changes after node is edited
+            Drawable image = new LazyImageDrawable(context, nodeUniqueID + "/" + imageOffset + "/" + decodedString.length, decodedString);
             imageSpanImage = new ImageSpanImage(image);
             formattedImage.setSpan(imageSpanImage, 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
             //** Detects image touches/clicks
@@ -1459,32 +1759,19 @@ public class XMLReader extends DatabaseReader {
     }
 
     @Override
-    public boolean moveNode(String targetNodeUniqueID, String destinationNodeUniqueID) {
+    public synchronized boolean moveNode(String targetNodeUniqueID, String destinationNodeUniqueID) {
         if (areNodesRelated(targetNodeUniqueID, destinationNodeUniqueID)) {
             displayToast(context.getString(R.string.toast_error_new_parent_cant_be_one_of_its_children));
             return false;
         } else {
-            Node targetNode = null;
-            Node destinationNode = null;
-            // User chose to move the node to main menu
+            // Moving node only changes its parent, so node index stays valid
+            Node targetNode = findNode(targetNodeUniqueID);
+            Node destinationNode;
             if (destinationNodeUniqueID.equals("0")) {
-                NodeList nodeList = doc.getElementsByTagName("cherrytree");
-                destinationNode = nodeList.item(0);
-            }
-            NodeList nodeList = doc.getElementsByTagName("node");
-            for (int i = 0; i < nodeList.getLength(); i++) {
-                // Goes through the nodes until target and destination nodes are found
-                if (targetNode == null || destinationNode == null) {
-                    Node node = nodeList.item(i);
-                    if (node.getAttributes().getNamedItem("unique_id").getNodeValue().equals(targetNodeUniqueID)) {
-                        targetNode = nodeList.item(i);
-                    }
-                    if (node.getAttributes().getNamedItem("unique_id").getNodeValue().equals(destinationNodeUniqueID)) {
-                        destinationNode = nodeList.item(i);
-                    }
-                } else {
-                    break;
-                }
+                // User chose to move the node to main menu
+                destinationNode = doc.getElementsByTagName("cherrytree").item(0);
+            } else {
+                destinationNode = findNode(destinationNodeUniqueID);
             }
             // Checks for when user wants to move node to the same parent node
             // In XML databases that causes crash and it is not necessary write operation
@@ -1503,8 +1790,70 @@ public class XMLReader extends DatabaseReader {
         }
     }
 
+    /**
+     * Opens InputStream that decodes Base64 text content of the encoded_png element while it is
+     * being read. Text is read straight from the document without copying, so memory use does not
+     * depend on the size of the embedded file.
+     * @param encodedPng encoded_png element of the embedded file or image
+     * @return InputStream of the decoded file
+     */
+    private InputStream openEncodedPngInputStream(Node encodedPng) {
+        List<InputStream> textParts = new ArrayList<>();
+        NodeList nodeList = encodedPng.getChildNodes();
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Node node = nodeList.item(i);
+            if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+                textParts.add(new AsciiCharSequenceInputStream(((CharacterData) node).getData()));
+            }
+        }
+        return new Base64InputStream(new SequenceInputStream(Collections.enumeration(textParts)), Base64.DEFAULT);
+    }
+
+    /**
+     * Opens database file for reading. Any part of the file can be read through FileChannel of
+     * the returned stream.
+     * @return FileInputStream of the database file
+     * @throws IOException failed to open the database file
+     */
+    private FileInputStream openDatabaseFileInputStream() throws IOException {
+        if (databaseUri.startsWith("content://")) {
+            ParcelFileDescriptor parcelFileDescriptor = context.getContentResolver().openFileDescriptor(Uri.parse(databaseUri), "r");
+            if (parcelFileDescriptor == null) {
+                throw new FileNotFoundException(databaseUri);
+            }
+            return new ParcelFileDescriptor.AutoCloseInputStream(parcelFileDescriptor);
+        } else {
+            return new FileInputStream(databaseUri);
+        }
+    }
+
+    /**
+     * Reads content of the node from the database file into a separate document. All the content
+     * tags of the node are wrapped in to body element.
+     * @param channel FileChannel of the database file
+     * @param ranges byte ranges of the node content in the database file or null if node has no content
+     * @param documentBuilder DocumentBuilder to parse the content with
+     * @return document with the content of the node
+     * @throws IOException failed to read the database file
+     * @throws SAXException node content in the database file is not valid XML
+     */
+    private Document readNodeBody(FileChannel channel, long[] ranges, DocumentBuilder documentBuilder) throws IOException, SAXException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><body>".getBytes(StandardCharsets.UTF_8));
+        if (ranges != null) {
+            XMLSkeletonParser.copyRanges(channel, ranges, body);
+        }
+        body.write("</body>".getBytes(StandardCharsets.UTF_8));
+        return documentBuilder.parse(new ByteArrayInputStream(body.toByteArray()));
+    }
+
+    @Override
+    public void release() {
+        Log.i(TAG, "Wrote " + totalBytesWritten + " bytes in " + writeCount + " writes with " + writtenChangesCount + " changes");
+    }
+
     @Override
-    public void removeNodeFromBookmarks(String nodeUniqueID) {
+    public synchronized void removeNodeFromBookmarks(String nodeUniqueID) {
         NodeList bookmarkTag = doc.getElementsByTagName("bookmarks");
         Node bookmarksNode = bookmarkTag.item(0);
         ArrayList<String> bookmarks = new ArrayList<>(Arrays.asList(bookmarksNode.getAttributes().getNamedItem("list").getNodeValue().split(",")));
@@ -1527,6 +1876,30 @@ public class XMLReader extends DatabaseReader {
         bookmarksNode.getAttributes().getNamedItem("list").setTextContent(String.join(",", bookmarks));
     }
 
+    /**
+     * Replaces database file with provided file. Database file in app's internal storage is
+     * replaced by renaming the file, files in shared storage are overwritten with the content of it.
+     * @param file new database file
+     * @throws IOException failed to replace the database file
+     */
+    private void replaceDatabaseFile(File file) throws IOException {
+        if (databaseUri.startsWith("content://")) {
+            try (InputStream inputStream = new FileInputStream(file);
+                 OutputStream outputStream = context.getContentResolver().openOutputStream(Uri.parse(databaseUri), "wt")) {
+                if (outputStream == null) {
+                    throw new FileNotFoundException(databaseUri);
+                }
+                byte[] buf = new byte[64 * 1024];
+                int length;
+                while ((length = inputStream.read(buf)) != -1) {
+                    outputStream.write(buf, 0, length);
+                }
+            }
+        } else if (!file.renameTo(new File(databaseUri))) {
+            throw new IOException("Failed to replace the database file");
+        }
+    }
+
     /**
      * Used during creation of the all the node in the document for drawer menu search/filter function
      * For that reason created node is never a parent node or a subnode
@@ -1651,11 +2024,18 @@ public class XMLReader extends DatabaseReader {
     private Element saveImageSpanImage(ImageSpanImage imageSpanImage, String offset, String lastFoundJustification) {
         Element element = doc.createElement("encoded_png");
         Drawable drawable = imageSpanImage.getDrawable();
-        // Hopefully it's always a Bitmap drawable, because I get it from the same source
-        Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteArrayOutputStream);
-        String baseString = Base64.encodeToString(byteArrayOutputStream.toByteArray(), Base64.DEFAULT);
+        byte[] imageBytes;
+        if (drawable instanceof LazyImageDrawable) {
+            // Images loaded from the database are saved as they are, because displayed image is downsampled
+            imageBytes = ((LazyImageDrawable) drawable).getImageBytes();
+        } else {
+            // Hopefully it's always a Bitmap drawable, because I get it from the same source
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteArrayOutputStream);
+            imageBytes = byteArrayOutputStream.toByteArray();
+        }
+        String baseString = Base64.encodeToString(imageBytes, Base64.DEFAULT);
         element.setAttribute("char_offset", offset);
         element.setAttribute("justification", lastFoundJustification);
         element.setAttribute("link", "");
@@ -1680,8 +2060,8 @@ public class XMLReader extends DatabaseReader {
     }
 
     @Override
-    public void saveNodeContent(String nodeUniqueID) {
-        Node node = findNode(nodeUniqueID);
+    public synchronized void saveNodeContent(String nodeUniqueID) {
+        Node node = findNodeWithBody(nodeUniqueID);
         if (node == null) {
             displayToast(context.getString(R.string.toast_error_while_saving_node_content_not_found));
             return;
@@ -1953,169 +2333,105 @@ public class XMLReader extends DatabaseReader {
         return element;
     }
 
+    /**
+     * Schedules writing of the pending changes to the database file. Previously scheduled write
+     * that did not start yet is replaced.
+     * @param delay delay in milliseconds after which write will start
+     */
+    private synchronized void scheduleWrite(long delay) {
+        if (pendingWrite != null) {
+            pendingWrite.cancel(false);
+        }
+        pendingWrite = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                writePendingChanges();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     public ArrayList<ScSearchNode> search(Boolean noSearch, String query) {
-        NodeList nodeList = doc.getFirstChild().getChildNodes();
         ArrayList<ScSearchNode> searchResult = new ArrayList<>();
-        if (noSearch) {
-            // If user marked that search should skip search "excluded" nodes
-            for (int i = 0; i < nodeList.getLength(); i++) {
-                if (nodeList.item(i).getNodeName().equals("node")) {
-                    // If node is a "node" and not some other tag
-                    boolean hasSubnodes = hasSubnodes(nodeList.item(i));
-                    Node masterIdAttr = nodeList.item(i).getAttributes().getNamedItem("master_id");
-                    if (masterIdAttr != null && !"0".equals(masterIdAttr.getNodeValue()) && hasSubnodes) {
-                        Node masterNode = findNode(masterIdAttr.getNodeValue());
-                        if (masterNode.getAttributes().getNamedItem("nosearch_ch").getNodeValue().equals("0")) {
-                            searchResult.addAll(searchNodesSkippingExcluded(query, nodeList.item(i).getChildNodes()));
-                        }
-                        continue;
-                    }
-                    if (nodeList.item(i).getAttributes().getNamedItem("nosearch_me").getNodeValue().equals("0")) {
-                        // if user haven't marked to skip current node - searches through its content
-                        boolean isParent = false;
-                        boolean isSubnode = true;
-                        if (hasSubnodes) {
-                            isParent = true;
-                            isSubnode = false;
-                        }
-                        ScSearchNode result = findInNode(nodeList.item(i), query, hasSubnodes, isParent, isSubnode);
-                        if (result != null) {
-                            searchResult.add(result);
-                        }
-                    }
-                    if (hasSubnodes && nodeList.item(i).getAttributes().getNamedItem("nosearch_ch").getNodeValue().equals("0")) {
-                        // if user haven't selected not to search subnodes of current node
-                        searchResult.addAll(searchNodesSkippingExcluded(query, nodeList.item(i).getChildNodes()));
-                    }
-                }
-            }
-            return searchResult;
-        } else {
-            for (int i = 0; i < nodeList.getLength(); i++) {
-                boolean hasSubnodes = hasSubnodes(nodeList.item(i));
-                if (nodeList.item(i).getNodeName().equals("node")) {
-                    Node masterIdAttr = nodeList.item(i).getAttributes().getNamedItem("master_id");
-                    if (masterIdAttr != null && !"0".equals(masterIdAttr.getNodeValue())) {
-                        searchResult.addAll(searchAllNodes(query, nodeList.item(i).getChildNodes()));
-                        continue;
-                    }
-                    boolean isParent  = false;
-                    boolean isSubnode  = true;
-                    if (hasSubnodes) {
-                        isParent = true;
-                        isSubnode = false;
-                    }
-                    ScSearchNode result = findInNode(nodeList.item(i), query, hasSubnodes, isParent, isSubnode);
-                    if (result != null) {
-                        searchResult.add(result);
-                    }
-                }
-                if (hasSubnodes) {
-                    // If node has subnodes
-                    searchResult.addAll(searchAllNodes(query, nodeList.item(i).getChildNodes()));
-                }
+        for (SearchTarget<Node> target : getSearchTargets(noSearch)) {
+            ScSearchNode result = findInNode(target.getNode(), query, target.hasSubnodes(), target.isParent(), target.isSubnode());
+            if (result != null) {
+                searchResult.add(result);
             }
         }
         return searchResult;
     }
 
-    /**
-     * Searches through all nodes without skipping marked to exclude nodes
-     * @param query string to search for
-     * @param nodeList list of nodes to search through
-     * @return ArrayList of search result objects
-     */
-    private ArrayList<ScSearchNode> searchAllNodes(String query, NodeList nodeList) {
-        // It actually just filters node and it's subnodes
-        // The search of the string is done in findInNode()
-        ArrayList<ScSearchNode> searchResult = new ArrayList<>();
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            boolean hasSubnodes = hasSubnodes(nodeList.item(i));
-            if (nodeList.item(i).getNodeName().equals("node")) {
-                // If node is a "node" and not some other tag
-                Node masterIdAttr = nodeList.item(i).getAttributes().getNamedItem("master_id");
-                if (masterIdAttr != null && !"0".equals(masterIdAttr.getNodeValue())) {
-                    searchResult.addAll(searchAllNodes(query, nodeList.item(i).getChildNodes()));
-                    continue;
-                }
-                boolean isParent;
-                boolean isSubnode;
-                if (hasSubnodes) {
-                    isParent = true;
-                    isSubnode = false;
-                } else {
-                    isParent = false;
-                    isSubnode = true;
-                }
-                ScSearchNode result = findInNode(nodeList.item(i), query, hasSubnodes, isParent, isSubnode);
-                if (result != null) {
-                    searchResult.add(result);
+    @Override
+    public void search(Boolean noSearch, String query, ExecutorService workers, SearchResultCallback callback) throws InterruptedException {
+        ArrayList<SearchTarget<Node>> targets;
+        Map<String, long[]> bodyRanges = null;
+        if (lazyLoading) {
+            // Content of the nodes is read straight from the file, so it has to have all the changes
+            writePendingChanges();
+        }
+        // File can't be rewritten until all the workers finish reading it
+        databaseFileLock.readLock().lock();
+        try {
+            synchronized (this) {
+                targets = getSearchTargets(noSearch);
+                if (lazyLoading && pendingChanges == 0) {
+                    bodyRanges = new HashMap<>(nodeBodyRanges);
                 }
             }
-            if (hasSubnodes) {
-                // If node has subnodes
-                searchResult.addAll(searchAllNodes(query, nodeList.item(i).getChildNodes()));
+            if (!lazyLoading || bodyRanges != null) {
+                searchInParallel(targets, workers, createSearchWorkerFactory(query, bodyRanges), callback);
+                return;
             }
+        } finally {
+            databaseFileLock.readLock().unlock();
         }
-        return searchResult;
+        // Loading content into the document while other threads are reading it is not safe
+        super.search(noSearch, query, workers, callback);
     }
 
     /**
-     * Searches through nodes skipping marked to exclude
-     * @param query string to search for
-     * @param nodeList list of nodes to search through
-     * @return ArrayList of search result objects
+     * Removes content of the least recently used nodes that were kept over the limit while there
+     * were changes that were not written to the database file yet
      */
-    private ArrayList<ScSearchNode> searchNodesSkippingExcluded(String query, NodeList nodeList) {
-        // It actually just filters node and it's subnodes
-        // The search of the string is done in findInNode()
-        ArrayList<ScSearchNode> searchResult = new ArrayList<>();
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            if (nodeList.item(i).getNodeName().equals("node")) {
-                // If node is a "node" and not some other tag
-                boolean hasSubnodes = hasSubnodes(nodeList.item(i));
-                String noSearchCh = nodeList.item(i).getAttributes().getNamedItem("nosearch_ch").getNodeValue();
-                Node masterIdAttr = nodeList.item(i).getAttributes().getNamedItem("master_id");
-                if (masterIdAttr != null && !"0".equals(masterIdAttr.getNodeValue()) && hasSubnodes && noSearchCh.equals("0")) {
-                    Node masterNode = findNode(masterIdAttr.getNodeValue());
-                    if (masterNode.getAttributes().getNamedItem("nosearch_ch").getNodeValue().equals("0")) {
-                        searchResult.addAll(searchNodesSkippingExcluded(query, nodeList.item(i).getChildNodes()));
-                    }
-                    continue;
-                }
-                if (nodeList.item(i).getAttributes().getNamedItem("nosearch_me").getNodeValue().equals("0")) {
-                    // If user haven't marked to skip current node - searches through its content
-                    boolean isParent;
-                    boolean isSubnode;
-                    if (hasSubnodes) {
-                        isParent = true;
-                        isSubnode = false;
-                    } else {
-                        isParent = false;
-                        isSubnode = true;
-                    }
-                    ScSearchNode result = findInNode(nodeList.item(i), query, hasSubnodes, isParent, isSubnode);
-                    if (result != null) {
-                        searchResult.add(result);
-                    }
-                }
-                if (hasSubnodes && noSearchCh.equals("0")) {
-                    // If node has subnodes and user haven't selected not to search subnodes of current node
-                    searchResult.addAll(searchNodesSkippingExcluded(query, nodeList.item(i).getChildNodes()));
-                }
+    private synchronized void trimLoadedNodeBodies() {
+        if (pendingChanges != 0) {
+            return;
+        }
+        Iterator<Map.Entry<String, Node>> iterator = loadedNodeBodies.entrySet().iterator();
+        while (loadedNodeBodies.size() > LOADED_NODE_BODIES_MAX_SIZE && iterator.hasNext()) {
+            Map.Entry<String, Node> entry = iterator.next();
+            unloadNodeBody(entry.getKey(), entry.getValue());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes content of the node from the document to free the memory. Content is removed only
+     * if it can be read from the database file again.
+     * @param nodeUniqueID unique ID of the node
+     * @param node node which content to remove
+     */
+    private void unloadNodeBody(String nodeUniqueID, Node node) {
+        if (!nodeBodyRanges.containsKey(nodeUniqueID)) {
+            return;
+        }
+        NodeList nodeList = node.getChildNodes();
+        for (int i = nodeList.getLength() - 1; i >= 0; i--) {
+            if (!nodeList.item(i).getNodeName().equals("node")) {
+                node.removeChild(nodeList.item(i));
             }
         }
-        return searchResult;
     }
 
     @Override
-    public void updateNodeProperties(String nodeUniqueID, String name, String progLang, String noSearchMe, String noSearchCh) {
+    public synchronized void updateNodeProperties(String nodeUniqueID, String name, String progLang, String noSearchMe, String noSearchCh) {
         Node node = findNode(nodeUniqueID);
         String masterId = node.getAttributes().getNamedItem("master_id").getNodeValue();
         if (masterId != null && !"0".equals(masterId)) {
             node = findNode(masterId);
         }
+        loadNodeBody(node);
         NamedNodeMap properties = node.getAttributes();
         properties.getNamedItem("name").setNodeValue(name);
         if (properties.getNamedItem("prog_lang").getNodeValue().equals("custom-colors") && !progLang.equals("custom-colors")) {
@@ -2133,27 +2449,54 @@ public class XMLReader extends DatabaseReader {
     }
 
     /**
-     * Write opened database to the file
+     * Schedules writing of the opened database to the file. All the changes made before the
+     * scheduled write starts are written with a single write.
      * App has to have the the permissions to write to said file
      */
-    private void writeIntoDatabase(){
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer;
+    private synchronized void writeIntoDatabase() {
+        pendingChanges++;
+        scheduleWrite(WRITE_DELAY_MILLIS);
+    }
+
+    /**
+     * Writes the document to the temporary database file
+     * @param snapshot copy of the document to write
+     * @param tempFile temporary database file
+     * @throws IOException failed to write the file
+     * @throws TransformerException failed to serialise the document
+     */
+    private void writeDocumentIntoFile(Document snapshot, File tempFile) throws IOException, TransformerException {
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+            transformer.transform(new DOMSource(snapshot), new StreamResult(outputStream));
+        }
+    }
+
+    @Override
+    public void writePendingChanges() {
+        databaseFileLock.writeLock().lock();
         try {
-            transformer = transformerFactory.newTransformer();
-            DOMSource dSource = new DOMSource(doc);
-            OutputStream fileOutputStream;
-            if (databaseUri.startsWith("content://")) {
-                fileOutputStream = context.getContentResolver().openOutputStream(Uri.parse(databaseUri), "wt");
-            } else {
-                fileOutputStream = new FileOutputStream(databaseUri);
-            }
-            StreamResult result = new StreamResult(fileOutputStream);  // To save it in the Internal Storage
-            transformer.transform(dSource, result);
-        } catch (TransformerException e) {
-            displayToast(context.getString(R.string.toast_error_failed_to_save_database_changes));
-        } catch (FileNotFoundException e) {
-            displayToast(context.getString(R.string.toast_error_database_does_not_exists));
+            flushPendingChanges();
+        } finally {
+            databaseFileLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the document to the temporary database file when database was opened with lazy
+     * loading. Content of the nodes that are not loaded is copied from the current database file.
+     * @param snapshot copy of the document to write
+     * @param snapshotBodyRanges byte ranges of the node content in the current database file
+     * @param snapshotLoadedNodeBodies unique IDs of the nodes which content is in the document
+     * @param tempFile temporary database file
+     * @return byte ranges of the node content in the written file
+     * @throws IOException failed to read the database file or write the temporary file
+     */
+    private Map<String, long[]> writeSkeletonIntoFile(Document snapshot, Map<String, long[]> snapshotBodyRanges, Set<String> snapshotLoadedNodeBodies, File tempFile) throws IOException {
+        try (FileInputStream fileInputStream = openDatabaseFileInputStream();
+             OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+            XMLSkeletonWriter writer = new XMLSkeletonWriter(fileInputStream.getChannel(), snapshotBodyRanges, snapshotLoadedNodeBodies, outputStream);
+            writer.write(snapshot);
+            return writer.getBodyRanges();
         }
     }
 }
@@ -0,0 +1,438 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads CherryTree XML database in one streaming pass and builds only a skeleton of it: all
+ * elements with their attributes except the content (body) of the nodes. Instead of the content
+ * byte offsets of it in the file are saved, so it could be read later only when it's needed.
+ * Parser works with UTF-8 bytes directly, because all XML markup characters are single byte.
+ */
+public class XMLSkeletonParser {
+    private static final int TOKEN_END_OF_FILE = 0;
+    private static final int TOKEN_START_TAG = 1;
+    private static final int TOKEN_END_TAG = 2;
+    private static final int TOKEN_EMPTY_TAG = 3;
+    private static final int TOKEN_TEXT = 4;
+    private static final int TOKEN_OTHER = 5;
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+    private final byte[] buffer = new byte[64 * 1024];
+    private final InputStream is;
+    private int bufferLength;
+    private int bufferPosition;
+    private boolean collectText;
+    private long position;
+    private String tagName;
+    private byte[] text = new byte[1024];
+    private boolean textIsWhitespace;
+    private int textLength;
+    private long tokenStart;
+
+    /**
+     * Creates a parser for CherryTree XML database
+     * @param is InputStream of the database. It will be read till the end, but not closed.
+     */
+    public XMLSkeletonParser(InputStream is) {
+        this.is = is;
+    }
+
+    /**
+     * Copies byte ranges of the file to OutputStream
+     * @param channel FileChannel of the database file
+     * @param ranges array of start (inclusive) and end (exclusive) offsets pairs
+     * @param os OutputStream to write bytes to
+     * @throws IOException failed to read the file or write to OutputStream
+     */
+    public static void copyRanges(FileChannel channel, long[] ranges, OutputStream os) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(64 * 1024);
+        for (int i = 0; i < ranges.length; i += 2) {
+            long position = ranges[i];
+            while (position < ranges[i + 1]) {
+                byteBuffer.clear();
+                byteBuffer.limit((int) Math.min(byteBuffer.capacity(), ranges[i + 1] - position));
+                int read = channel.read(byteBuffer, position);
+                if (read == -1) {
+                    throw new IOException("Unexpected end of the database file");
+                }
+                os.write(byteBuffer.array(), 0, read);
+                position += read;
+            }
+        }
+    }
+
+    /**
+     * Adds byte range to the body ranges of the node. If there were nothing but whitespace between
+     * the end of the last range and start of the new one - ranges are merged.
+     * @param bodyRanges map to add the range to
+     * @param nodeUniqueID unique ID of the node that range belongs to
+     * @param start start offset of the range (inclusive)
+     * @param end end offset of the range (exclusive)
+     * @param merge true - range can be merged with the last one
+     */
+    private void addBodyRange(Map<String, long[]> bodyRanges, String nodeUniqueID, long start, long end, boolean merge) {
+        long[] ranges = bodyRanges.get(nodeUniqueID);
+        if (ranges == null) {
+            bodyRanges.put(nodeUniqueID, new long[]{start, end});
+        } else if (merge) {
+            ranges[ranges.length - 1] = end;
+        } else {
+            ranges = Arrays.copyOf(ranges, ranges.length + 2);
+            ranges[ranges.length - 2] = start;
+            ranges[ranges.length - 1] = end;
+            bodyRanges.put(nodeUniqueID, ranges);
+        }
+    }
+
+    /**
+     * Appends byte to the text buffer
+     * @param b byte to append
+     */
+    private void appendText(int b) {
+        if (textLength == text.length) {
+            text = Arrays.copyOf(text, text.length * 2);
+        }
+        text[textLength++] = (byte) b;
+    }
+
+    /**
+     * Replaces predefined XML entities and character references with characters they represent
+     * @param value string to decode
+     * @return decoded string
+     */
+    private String decodeEntities(String value) {
+        int ampersand = value.indexOf('&');
+        if (ampersand == -1) {
+            return value;
+        }
+        StringBuilder decoded = new StringBuilder(value.length());
+        int last = 0;
+        while (ampersand != -1) {
+            int semicolon = value.indexOf(';', ampersand);
+            if (semicolon == -1) {
+                break;
+            }
+            decoded.append(value, last, ampersand);
+            String entity = value.substring(ampersand + 1, semicolon);
+            switch (entity) {
+                case "lt":
+                    decoded.append('<');
+                    break;
+                case "gt":
+                    decoded.append('>');
+                    break;
+                case "amp":
+                    decoded.append('&');
+                    break;
+                case "quot":
+                    decoded.append('"');
+                    break;
+                case "apos":
+                    decoded.append('\'');
+                    break;
+                default:
+                    if (entity.startsWith("#x")) {
+                        decoded.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+                    } else if (entity.startsWith("#")) {
+                        decoded.appendCodePoint(Integer.parseInt(entity.substring(1)));
+                    } else {
+                        decoded.append(value, ampersand, semicolon + 1);
+                    }
+            }
+            last = semicolon + 1;
+            ampersand = value.indexOf('&', last);
+        }
+        decoded.append(value, last, value.length());
+        return decoded.toString();
+    }
+
+    /**
+     * Checks if byte is an XML whitespace character
+     * @param b byte to check
+     * @return true - byte is whitespace
+     */
+    private boolean isWhitespace(int b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    /**
+     * Reads next XML token from the stream. Start and end of the token in the file are saved
+     * in tokenStart and position. Tag name and attributes are saved in tagName and attributes,
+     * text content is saved in to text buffer if collectText is true.
+     * @return type of the token
+     * @throws IOException failed to read the stream or XML is malformed
+     */
+    private int nextToken() throws IOException {
+        tokenStart = position;
+        int b = peek();
+        if (b == -1) {
+            return TOKEN_END_OF_FILE;
+        }
+        if (b != '<') {
+            textLength = 0;
+            textIsWhitespace = true;
+            while ((b = peek()) != -1 && b != '<') {
+                read();
+                if (!isWhitespace(b)) {
+                    textIsWhitespace = false;
+                }
+                if (collectText) {
+                    appendText(b);
+                }
+            }
+            return TOKEN_TEXT;
+        }
+        read();
+        b = readRequired();
+        if (b == '/') {
+            tagName = readName(readRequired());
+            skipUntil(new byte[]{'>'}, false);
+            return TOKEN_END_TAG;
+        } else if (b == '?') {
+            skipUntil(new byte[]{'?', '>'}, false);
+            return TOKEN_OTHER;
+        } else if (b == '!') {
+            if (peek() == '-') {
+                skipUntil(new byte[]{'-', '-', '>'}, false);
+                return TOKEN_OTHER;
+            } else if (peek() == '[') {
+                // CDATA section. It's content is text without any entities
+                for (int i = 0; i < 7; i++) {
+                    readRequired();
+                }
+                textLength = 0;
+                skipUntil(new byte[]{']', ']', '>'}, collectText);
+                textIsWhitespace = false;
+                return TOKEN_TEXT;
+            } else {
+                // DOCTYPE declaration
+                int depth = 1;
+                while (depth > 0) {
+                    b = readRequired();
+                    if (b == '<') {
+                        depth++;
+                    } else if (b == '>') {
+                        depth--;
+                    }
+                }
+                return TOKEN_OTHER;
+            }
+        }
+        tagName = readName(b);
+        attributes.clear();
+        while (true) {
+            b = readRequired();
+            if (isWhitespace(b)) {
+                continue;
+            }
+            if (b == '>') {
+                return TOKEN_START_TAG;
+            } else if (b == '/') {
+                skipUntil(new byte[]{'>'}, false);
+                return TOKEN_EMPTY_TAG;
+            }
+            String attributeName = readName(b);
+            do {
+                b = readRequired();
+            } while (b != '=');
+            do {
+                b = readRequired();
+            } while (isWhitespace(b));
+            int quote = b;
+            textLength = 0;
+            while ((b = readRequired()) != quote) {
+                // Attribute value normalization
+                appendText(isWhitespace(b) ? ' ' : b);
+            }
+            attributes.put(attributeName, decodeEntities(new String(text, 0, textLength, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Reads the whole database and adds all the elements (except node content) with their
+     * attributes to the provided document. Byte ranges of every node's content are added to
+     * bodyRanges map where key is node's unique ID.
+     * @param doc empty document to add elements to
+     * @param bodyRanges map to add node's content byte ranges to
+     * @throws IOException failed to read the stream or XML is malformed
+     */
+    public void parse(Document doc, Map<String, long[]> bodyRanges) throws IOException {
+        Node parent = doc;
+        boolean merge = false;
+        int token;
+        do {
+            boolean insideNode = parent.getNodeName().equals("node");
+            collectText = parent.getNodeType() == Node.ELEMENT_NODE && !insideNode;
+            token = nextToken();
+            switch (token) {
+                case TOKEN_START_TAG:
+                case TOKEN_EMPTY_TAG:
+                    if (insideNode && !tagName.equals("node")) {
+                        long start = tokenStart;
+                        if (token == TOKEN_START_TAG) {
+                            skipElement();
+                        }
+                        addBodyRange(bodyRanges, ((Element) parent).getAttribute("unique_id"), start, position, merge);
+                        merge = true;
+                        break;
+                    }
+                    Element element = doc.createElement(tagName);
+                    for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                        element.setAttribute(attribute.getKey(), attribute.getValue());
+                    }
+                    parent.appendChild(element);
+                    if (token == TOKEN_START_TAG) {
+                        parent = element;
+                    }
+                    merge = false;
+                    break;
+                case TOKEN_END_TAG:
+                    if (parent.getParentNode() == null) {
+                        throw new IOException("Unexpected end tag: " + tagName);
+                    }
+                    parent = parent.getParentNode();
+                    merge = false;
+                    break;
+                case TOKEN_TEXT:
+                    if (textIsWhitespace) {
+                        break;
+                    }
+                    if (insideNode) {
+                        addBodyRange(bodyRanges, ((Element) parent).getAttribute("unique_id"), tokenStart, position, merge);
+                        merge = true;
+                    } else if (collectText) {
+                        parent.appendChild(doc.createTextNode(decodeEntities(new String(text, 0, textLength, StandardCharsets.UTF_8))));
+                    }
+                    break;
+            }
+        } while (token != TOKEN_END_OF_FILE);
+    }
+
+    /**
+     * Returns next byte of the stream without consuming it
+     * @return next byte or -1 if end of the stream was reached
+     * @throws IOException failed to read the stream
+     */
+    private int peek() throws IOException {
+        if (bufferPosition == bufferLength) {
+            bufferLength = is.read(buffer);
+            bufferPosition = 0;
+            if (bufferLength <= 0) {
+                bufferLength = 0;
+                return -1;
+            }
+        }
+        return buffer[bufferPosition] & 0xff;
+    }
+
+    /**
+     * Consumes next byte of the stream
+     * @return next byte or -1 if end of the stream was reached
+     * @throws IOException failed to read the stream
+     */
+    private int read() throws IOException {
+        int b = peek();
+        if (b != -1) {
+            bufferPosition++;
+            position++;
+        }
+        return b;
+    }
+
+    /**
+     * Reads tag or attribute name
+     * @param first first byte of the name that was already consumed
+     * @return name
+     * @throws IOException failed to read the stream or XML is malformed
+     */
+    private String readName(int first) throws IOException {
+        textLength = 0;
+        appendText(first);
+        int b;
+        while ((b = peek()) != -1 && !isWhitespace(b) && b != '>' && b != '/' && b != '=') {
+            appendText(read());
+        }
+        return new String(text, 0, textLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Consumes next byte of the stream. Throws an exception if end of the stream was reached.
+     * @return next byte
+     * @throws IOException failed to read the stream or end of the stream was reached
+     */
+    private int readRequired() throws IOException {
+        int b = read();
+        if (b == -1) {
+            throw new IOException("Unexpected end of the database file");
+        }
+        return b;
+    }
+
+    /**
+     * Consumes the rest of the element which start tag was just read including all it's children
+     * @throws IOException failed to read the stream or XML is malformed
+     */
+    private void skipElement() throws IOException {
+        boolean collectTextBefore = collectText;
+        collectText = false;
+        int depth = 1;
+        while (depth > 0) {
+            switch (nextToken()) {
+                case TOKEN_START_TAG:
+                    depth++;
+                    break;
+                case TOKEN_END_TAG:
+                    depth--;
+                    break;
+                case TOKEN_END_OF_FILE:
+                    throw new IOException("Unexpected end of the database file");
+            }
+        }
+        collectText = collectTextBefore;
+    }
+
+    /**
+     * Consumes bytes of the stream until provided sequence of bytes is found
+     * @param sequence sequence of the bytes to find
+     * @param collect true - consumed bytes (without sequence) will be saved to text buffer
+     * @throws IOException failed to read the stream or end of the stream was reached
+     */
+    private void skipUntil(byte[] sequence, boolean collect) throws IOException {
+        byte[] last = new byte[sequence.length];
+        while (true) {
+            int b = readRequired();
+            System.arraycopy(last, 1, last, 0, last.length - 1);
+            last[last.length - 1] = (byte) b;
+            if (collect) {
+                appendText(b);
+            }
+            if (Arrays.equals(last, sequence)) {
+                if (collect) {
+                    textLength -= sequence.length;
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes skeleton document created by XMLSkeletonParser back to CherryTree XML database. Content
+ * of the nodes that are loaded in to the document is serialized from it, content of all other
+ * nodes is copied byte by byte from the old database file. While writing new byte ranges of
+ * every node's content are collected, because they change with every write.
+ */
+public class XMLSkeletonWriter {
+    private final Map<String, long[]> bodyRanges;
+    private final Set<String> loadedNodes;
+    private final Map<String, long[]> newBodyRanges = new HashMap<>();
+    private final OutputStream os;
+    private final FileChannel source;
+    private long position;
+
+    /**
+     * Creates a writer for skeleton document
+     * @param source FileChannel of the old database file to copy node content from
+     * @param bodyRanges byte ranges of the node content in the old database file
+     * @param loadedNodes unique IDs of the nodes which content is loaded in to the document
+     * @param os OutputStream to write new database to. It's not closed by the writer.
+     */
+    public XMLSkeletonWriter(FileChannel source, Map<String, long[]> bodyRanges, Set<String> loadedNodes, OutputStream os) {
+        this.source = source;
+        this.bodyRanges = bodyRanges;
+        this.loadedNodes = loadedNodes;
+        this.os = os;
+    }
+
+    /**
+     * Replaces characters that can't be used in XML text or attribute value with entities
+     * @param value text to escape
+     * @param attribute true - text is attribute value
+     * @return escaped text
+     */
+    private String escape(String value, boolean attribute) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String entity;
+            switch (c) {
+                case '&':
+                    entity = "&amp;";
+                    break;
+                case '<':
+                    entity = "&lt;";
+                    break;
+                case '>':
+                    entity = "&gt;";
+                    break;
+                case '\r':
+                    entity = "&#13;";
+                    break;
+                case '"':
+                    entity = attribute ? "&quot;" : null;
+                    break;
+                case '\n':
+                    entity = attribute ? "&#10;" : null;
+                    break;
+                case '\t':
+                    entity = attribute ? "&#9;" : null;
+                    break;
+                default:
+                    entity = null;
+            }
+            if (entity != null) {
+                if (escaped == null) {
+                    escaped = new StringBuilder(value.length() + 16);
+                    escaped.append(value, 0, i);
+                }
+                escaped.append(entity);
+            } else if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+    /**
+     * Returns byte ranges of the node content in the newly written database file
+     * @return map where key is node's unique ID and value is start and end offsets of its content
+     */
+    public Map<String, long[]> getBodyRanges() {
+        return newBodyRanges;
+    }
+
+    /**
+     * Writes the whole document as CherryTree XML database
+     * @param doc skeleton document
+     * @throws IOException failed to read the old database file or write to OutputStream
+     */
+    public void write(Document doc) throws IOException {
+        write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writeNode(doc.getDocumentElement());
+    }
+
+    /**
+     * Writes string as UTF-8 bytes
+     * @param string string to write
+     * @throws IOException failed to write to OutputStream
+     */
+    private void write(String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        os.write(bytes);
+        position += bytes.length;
+    }
+
+    /**
+     * Writes content of the CherryTree node element and records its new byte range. Content
+     * is serialized from the document if it's loaded, otherwise copied from the old database file.
+     * @param node node element
+     * @throws IOException failed to read the old database file or write to OutputStream
+     */
+    private void writeBody(Node node) throws IOException {
+        String nodeUniqueID = node.getAttributes().getNamedItem("unique_id").getNodeValue();
+        long[] ranges = bodyRanges.get(nodeUniqueID);
+        long start = position;
+        if (ranges == null || loadedNodes.contains(nodeUniqueID)) {
+            NodeList nodeList = node.getChildNodes();
+            for (int i = 0; i < nodeList.getLength(); i++) {
+                if (!nodeList.item(i).getNodeName().equals("node")) {
+                    writeNode(nodeList.item(i));
+                }
+            }
+        } else {
+            XMLSkeletonParser.copyRanges(source, ranges, os);
+            for (int i = 0; i < ranges.length; i += 2) {
+                position += ranges[i + 1] - ranges[i];
+            }
+        }
+        if (position > start) {
+            newBodyRanges.put(nodeUniqueID, new long[]{start, position});
+        }
+    }
+
+    /**
+     * Writes DOM node and all its children
+     * @param node node to write
+     * @throws IOException failed to read the old database file or write to OutputStream
+     */
+    private void writeNode(Node node) throws IOException {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                write("<" + node.getNodeName());
+                NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    Node attribute = attributes.item(i);
+                    write(" " + attribute.getNodeName() + "=\"" + escape(attribute.getNodeValue(), true) + "\"");
+                }
+                // Line breaks are added only between structural elements, because any whitespace
+                // added in to node content would become part of it
+                boolean structural = node.getNodeName().equals("node") || node.getNodeName().equals("cherrytree") || node.getParentNode().getNodeName().equals("cherrytree");
+                if (node.getNodeName().equals("node")) {
+                    write(">\n");
+                    long bodyStart = position;
+                    writeBody(node);
+                    if (position > bodyStart) {
+                        write("\n");
+                    }
+                    NodeList nodeList = node.getChildNodes();
+                    for (int i = 0; i < nodeList.getLength(); i++) {
+                        if (nodeList.item(i).getNodeName().equals("node")) {
+                            writeNode(nodeList.item(i));
+                        }
+                    }
+                    write("</node>");
+                } else if (node.hasChildNodes()) {
+                    write(node.getNodeName().equals("cherrytree") ? ">\n" : ">");
+                    NodeList nodeList = node.getChildNodes();
+                    for (int i = 0; i < nodeList.getLength(); i++) {
+                        writeNode(nodeList.item(i));
+                    }
+                    write("</" + node.getNodeName() + ">");
+                } else {
+                    write("/>");
+                }
+                if (structural) {
+                    write("\n");
+                }
+                break;
+            case Node.TEXT_NODE:
+                write(escape(node.getNodeValue(), false));
+                break;
+            case Node.CDATA_SECTION_NODE:
+                write("<![CDATA[" + node.getNodeValue() + "]]>");
+                break;
+            case Node.COMMENT_NODE:
+                write("<!--" + node.getNodeValue() + "-->");
+                break;
+        }
+    }
+}
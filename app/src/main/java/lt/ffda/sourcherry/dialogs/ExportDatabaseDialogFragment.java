@@ -59,6 +59,8 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
 import lt.ffda.sourcherry.AppContainer;
 import lt.ffda.sourcherry.R;
 import lt.ffda.sourcherry.ScApplication;
+import lt.ffda.sourcherry.database.DatabaseReader;
+import lt.ffda.sourcherry.database.DatabaseReaderFactory;
 
 public class ExportDatabaseDialogFragment extends DialogFragment {
     private Button buttonCancel;
@@ -129,6 +131,10 @@ public class ExportDatabaseDialogFragment extends DialogFragment {
      * new file (adds timestamp before the file extension).
      */
     private void exportDatabase() {
+        DatabaseReader reader = DatabaseReaderFactory.getReader();
+        if (reader != null) {
+            reader.writePendingChanges();
+        }
         Uri outputFileUri = Uri.parse(getArguments().getString("exportFileUri"));
         DocumentFile outputDocumentFile = DocumentFile.fromSingleUri(getContext(), outputFileUri);
         String fullFilename = sharedPreferences.getString("databaseFilename", null);
@@ -44,7 +44,6 @@ import net.sf.sevenzipjbinding.ISequentialOutStream;
 import net.sf.sevenzipjbinding.PropID;
 import net.sf.sevenzipjbinding.SevenZip;
 import net.sf.sevenzipjbinding.SevenZipException;
-import net.sf.sevenzipjbinding.impl.RandomAccessFileInStream;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -52,13 +51,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import lt.ffda.sourcherry.AppContainer;
 import lt.ffda.sourcherry.MainActivity;
 import lt.ffda.sourcherry.R;
 import lt.ffda.sourcherry.ScApplication;
+import lt.ffda.sourcherry.utils.ContentUriInStream;
 
 public class MirrorDatabaseProgressDialogFragment extends DialogFragment {
     private Button buttonCancel;
@@ -66,6 +65,7 @@ public class MirrorDatabaseProgressDialogFragment extends DialogFragment {
     private Button buttonOK;
     private ScheduledThreadPoolExecutor executor;
     private long fileSize; // File size of the file (not the archive itself) that is being extracted
+    private int lastPercent; // Progress bar is updated only when percentage changes
     private Handler handler;
     private TextView message;
     private EditText passwordTextedit;
@@ -123,61 +123,34 @@ public class MirrorDatabaseProgressDialogFragment extends DialogFragment {
         totalLen = 0;
 
         try {
-            //// Copying file to temporary internal apps storage (cache)
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    message.setText(R.string.open_database_fragment_copying_database_message);
-                }
-            });
-
-            File tmpCompressedDatabase = File.createTempFile("tmpDatabaseFile", null);
-            OutputStream os = new FileOutputStream(tmpCompressedDatabase, false);
-            InputStream is = getContext().getContentResolver().openInputStream(Uri.parse(databaseString));
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    progressBar.setIndeterminate(false);
-                }
-            });
-            // Copying files
-            fileSize = is.available();
-            byte[] buf = new byte[4 * 1024];
-            int len;
-            while ((len = is.read(buf)) > 0) {
-                os.write(buf, 0, len);
-                updateProgressBar(len);
-            }
-            ////
-            is.close();
-            os.close();
-
-            //// Extracting file to permanent internal apps storage
+            //// Extracting file straight from the archive to permanent internal apps storage
             handler.post(new Runnable() {
                 @Override
                 public void run() {
                     message.setText(R.string.open_database_fragment_extracting_database_message);
+                    progressBar.setIndeterminate(false);
                     progressBar.setProgress(0);
                 }
             });
 
             // Opening archive
-            RandomAccessFile randomAccessFile = new RandomAccessFile(tmpCompressedDatabase, "r");
-            RandomAccessFileInStream inStream = new RandomAccessFileInStream(randomAccessFile);
-            IInArchive inArchive = SevenZip.openInArchive(ArchiveFormat.SEVEN_ZIP, inStream);
-
-            totalLen = 0; // Resetting totalLen value
-            fileSize = Long.parseLong(inArchive.getStringProperty(0, PropID.SIZE));
-
-            // Writing data
-            SequentialOutStream sequentialOutStream = new SequentialOutStream();
-            sequentialOutStream.openOutputStream(new File(sharedPreferences.getString("databaseUri", null)));
-            inArchive.extractSlow(0, sequentialOutStream, password); // Extracting file
-
-            // Cleaning up
-            sequentialOutStream.closeOutputStream();
-            inArchive.close();
-            inStream.close();
+            // Archive and its input stream are closed even if extraction fails
+            try (ContentUriInStream inStream = new ContentUriInStream(getContext().getContentResolver(), Uri.parse(databaseString));
+                 IInArchive inArchive = SevenZip.openInArchive(ArchiveFormat.SEVEN_ZIP, inStream)) {
+                totalLen = 0; // Resetting totalLen value
+                lastPercent = 0;
+                fileSize = Long.parseLong(inArchive.getStringProperty(0, PropID.SIZE));
+
+                // Writing data
+                SequentialOutStream sequentialOutStream = new SequentialOutStream();
+                sequentialOutStream.openOutputStream(new File(sharedPreferences.getString("databaseUri", null)));
+                try {
+                    inArchive.extractSlow(0, sequentialOutStream, password); // Extracting file
+                } finally {
+                    // Cleaning up
+                    sequentialOutStream.closeOutputStream();
+                }
+            }
 
             // Saving new LastModified datetime string to preferences
             saveDatabaseToPrefs(getArguments().getLong("mirrorDatabaseLastModified"));
@@ -349,7 +322,11 @@ public class MirrorDatabaseProgressDialogFragment extends DialogFragment {
      */
     private void updateProgressBar(int len) {
         totalLen += len;
-        int percent = (int) (totalLen * 100 / fileSize);
+        int percent = fileSize > 0 ? (int) (totalLen * 100 / fileSize) : 0;
+        if (percent == lastPercent) {
+            return;
+        }
+        lastPercent = percent;
         handler.post(new Runnable() {
             @Override
             public void run() {
@@ -33,7 +33,6 @@ import net.sf.sevenzipjbinding.ISequentialOutStream;
 import net.sf.sevenzipjbinding.PropID;
 import net.sf.sevenzipjbinding.SevenZip;
 import net.sf.sevenzipjbinding.SevenZipException;
-import net.sf.sevenzipjbinding.impl.RandomAccessFileInStream;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -41,18 +40,20 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import lt.ffda.sourcherry.AppContainer;
 import lt.ffda.sourcherry.MainActivity;
 import lt.ffda.sourcherry.R;
 import lt.ffda.sourcherry.ScApplication;
+import lt.ffda.sourcherry.utils.ContentUriInStream;
+import lt.ffda.sourcherry.utils.DatabaseFingerprint;
 import lt.ffda.sourcherry.utils.Files;
 
 public class OpenDatabaseProgressDialogFragment extends DialogFragment {
     private ScheduledThreadPoolExecutor executor;
     private long fileSize; // File size of the file (not the archive itself) that is being extracted
+    private int lastPercent; // Progress bar is updated only when percentage changes
     private Handler handler;
     private TextView message;
     private ProgressBar progressBar;
@@ -72,6 +73,15 @@ public class OpenDatabaseProgressDialogFragment extends DialogFragment {
         Uri databaseUri = Uri.parse(sharedPreferences.getString("databaseUri", null));
         totalLen = 0;
 
+        // Internal copy from the last time is opened if database did not change since then
+        DatabaseFingerprint savedFingerprint = DatabaseFingerprint.find(databaseDir, databaseUri);
+        if (savedFingerprint != null && savedFingerprint.getInternalFile().getPath().equals(databaseOutputFile)
+                && savedFingerprint.matches(getContext().getContentResolver(), null)) {
+            saveDatabaseToPrefs("internal", sharedPreferences.getString("databaseFilename", null), sharedPreferences.getString("databaseFileExtension", null), databaseOutputFile);
+            return;
+        }
+        DatabaseFingerprint fingerprint = DatabaseFingerprint.create(getContext().getContentResolver(), databaseUri, null, savedFingerprint);
+
         try (
                 InputStream databaseInputStream = getContext().getContentResolver().openInputStream(databaseUri);
                 OutputStream databaseOutputStream = new FileOutputStream(databaseOutputFile, false);
@@ -91,6 +101,10 @@ public class OpenDatabaseProgressDialogFragment extends DialogFragment {
                 databaseOutputStream.write(buf, 0, len);
                 updateProgressBar(len);
             }
+            databaseOutputStream.close();
+            if (fingerprint != null) {
+                fingerprint.save(new File(databaseOutputFile));
+            }
         } catch (FileNotFoundException e) {
             handler.post(new Runnable() {
                 @Override
@@ -131,64 +145,53 @@ public class OpenDatabaseProgressDialogFragment extends DialogFragment {
         String tmpDatabaseFilename;
         totalLen = 0;
 
-        try {
-            //// Copying file to temporary internal apps storage (cache)
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    message.setText(R.string.open_database_fragment_copying_database_message);
-                }
-            });
-
-            File tmpCompressedDatabase = File.createTempFile("tmpDatabaseFile", null);
-            OutputStream os = new FileOutputStream(tmpCompressedDatabase, false);
-            InputStream is = getContext().getContentResolver().openInputStream(Uri.parse(databaseString));
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    progressBar.setIndeterminate(false);
-                }
-            });
-            // Copying files
-            fileSize = is.available();
-            byte[] buf = new byte[4 * 1024];
-            int len;
-            while ((len = is.read(buf)) > 0) {
-                os.write(buf, 0, len);
-                updateProgressBar(len);
-            }
-            ////
-            is.close();
-            os.close();
+        // Extracted database from the last time is opened if archive did not change since then
+        // and the same password was entered
+        Uri databaseUri = Uri.parse(databaseString);
+        DatabaseFingerprint savedFingerprint = DatabaseFingerprint.find(databaseDir, databaseUri);
+        if (savedFingerprint != null && savedFingerprint.matches(getContext().getContentResolver(), password)) {
+            File internalFile = savedFingerprint.getInternalFile();
+            saveDatabaseToPrefs("internal", internalFile.getName(), Files.getFileExtension(internalFile.getName()), internalFile.getPath());
+            return;
+        }
+        DatabaseFingerprint fingerprint = DatabaseFingerprint.create(getContext().getContentResolver(), databaseUri, password, savedFingerprint);
 
-            //// Extracting file to permanent internal apps storage
+        try {
+            //// Extracting file straight from the archive to permanent internal apps storage
             handler.post(new Runnable() {
                 @Override
                 public void run() {
                     message.setText(R.string.open_database_fragment_extracting_database_message);
+                    progressBar.setIndeterminate(false);
                     progressBar.setProgress(0);
                 }
             });
 
             // Opening archive
-            RandomAccessFile randomAccessFile = new RandomAccessFile(tmpCompressedDatabase, "r");
-            RandomAccessFileInStream inStream = new RandomAccessFileInStream(randomAccessFile);
-            IInArchive inArchive = SevenZip.openInArchive(ArchiveFormat.SEVEN_ZIP, inStream);
-            // Creating/opening output file
-            tmpDatabaseFilename = inArchive.getStringProperty(0, PropID.PATH);
-            // At some point filenames inside CherryTree password protected archives were changed to include a random(?) integer
-            // in the middle of the filename. To make it look normal again I had to remove it
-            tmpDatabaseFilename = Files.getFileName(tmpDatabaseFilename) + "." + Files.getFileExtension(tmpDatabaseFilename); // Joining first and last part of the filename array
-            totalLen = 0; // Resetting totalLen value
-            fileSize = Long.parseLong(inArchive.getStringProperty(0, PropID.SIZE));
-            // Writing data
-            SequentialOutStream sequentialOutStream = new SequentialOutStream();
-            sequentialOutStream.openOutputStream(new File(databaseDir, tmpDatabaseFilename));
-            inArchive.extractSlow(0, sequentialOutStream, password); // Extracting file
-            // Cleaning up
-            sequentialOutStream.closeOutputStream();
-            inArchive.close();
-            inStream.close();
+            // Archive and its input stream are closed even if extraction fails
+            try (ContentUriInStream inStream = new ContentUriInStream(getContext().getContentResolver(), databaseUri);
+                 IInArchive inArchive = SevenZip.openInArchive(ArchiveFormat.SEVEN_ZIP, inStream)) {
+                // Creating/opening output file
+                tmpDatabaseFilename = inArchive.getStringProperty(0, PropID.PATH);
+                // At some point filenames inside CherryTree password protected archives were changed to include a random(?) integer
+                // in the middle of the filename. To make it look normal again I had to remove it
+                tmpDatabaseFilename = Files.getFileName(tmpDatabaseFilename) + "." + Files.getFileExtension(tmpDatabaseFilename); // Joining first and last part of the filename array
+                totalLen = 0; // Resetting totalLen value
+                lastPercent = 0;
+                fileSize = Long.parseLong(inArchive.getStringProperty(0, PropID.SIZE));
+                // Writing data
+                SequentialOutStream sequentialOutStream = new SequentialOutStream();
+                sequentialOutStream.openOutputStream(new File(databaseDir, tmpDatabaseFilename));
+                try {
+                    inArchive.extractSlow(0, sequentialOutStream, password); // Extracting file
+                } finally {
+                    // Cleaning up
+                    sequentialOutStream.closeOutputStream();
+                }
+            }
+            if (fingerprint != null) {
+                fingerprint.save(new File(databaseDir, tmpDatabaseFilename));
+            }
 
             //// Creating new settings
             // Saved Uri is not a real Uri, so don't try to use it.
@@ -300,7 +303,11 @@ public class OpenDatabaseProgressDialogFragment extends DialogFragment {
      */
     private void updateProgressBar(int len) {
         totalLen += len;
-        int percent = (int) (totalLen * 100 / fileSize);
+        int percent = fileSize > 0 ? (int) (totalLen * 100 / fileSize) : 0;
+        if (percent == lastPercent) {
+            return;
+        }
+        lastPercent = percent;
         handler.post(new Runnable() {
             @Override
             public void run() {
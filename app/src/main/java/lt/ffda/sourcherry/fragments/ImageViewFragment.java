@@ -10,8 +10,11 @@
 
 package lt.ffda.sourcherry.fragments;
 
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
@@ -31,10 +34,13 @@ import androidx.core.view.MenuProvider;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.Lifecycle;
 
+import java.io.IOException;
 import java.io.InputStream;
 
+import lt.ffda.sourcherry.AppContainer;
 import lt.ffda.sourcherry.MainView;
 import lt.ffda.sourcherry.R;
+import lt.ffda.sourcherry.ScApplication;
 import lt.ffda.sourcherry.customUiElements.ZoomableImageView;
 import lt.ffda.sourcherry.database.DatabaseReaderFactory;
 import ru.noties.jlatexmath.JLatexMathDrawable;
@@ -48,18 +54,82 @@ public class ImageViewFragment extends Fragment {
         }
     };
 
+    /**
+     * Decodes the image in background thread and sets it to ImageView. Images that BitmapRegionDecoder
+     * supports are displayed in tiled mode, so images bigger than the screen can be zoomed in to
+     * full resolution without decoding the whole image. Other images are decoded whole.
+     * @param imageView ImageView to set the image to
+     */
+    private void decodeImage(final ZoomableImageView imageView) {
+        final String nodeUniqueID = getArguments().getString("nodeUniqueID");
+        final String control = getArguments().getString("control");
+        final Resources resources = getResources();
+        final AppContainer appContainer = ((ScApplication) requireContext().getApplicationContext()).appContainer;
+        appContainer.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BitmapRegionDecoder decoder = null;
+                Bitmap bitmap = null;
+                int sampleSize = 1;
+                try (InputStream inputStream = DatabaseReaderFactory.getReader().getImageInputStream(nodeUniqueID, control)) {
+                    if (inputStream != null) {
+                        decoder = BitmapRegionDecoder.newInstance(inputStream, false);
+                        // Base layer has to fit the screen at the zoom level image is opened at
+                        sampleSize = ZoomableImageView.calculateSampleSize(decoder.getWidth(), decoder.getHeight(), Math.max(resources.getDisplayMetrics().widthPixels, resources.getDisplayMetrics().heightPixels));
+                        BitmapFactory.Options options = new BitmapFactory.Options();
+                        options.inSampleSize = sampleSize;
+                        bitmap = decoder.decodeRegion(new Rect(0, 0, decoder.getWidth(), decoder.getHeight()), options);
+                    }
+                } catch (IOException | IllegalArgumentException | OutOfMemoryError e) {
+                    // Image format is not supported by BitmapRegionDecoder
+                    if (decoder != null) {
+                        decoder.recycle();
+                        decoder = null;
+                    }
+                    bitmap = null;
+                }
+                if (decoder == null) {
+                    try (InputStream inputStream = DatabaseReaderFactory.getReader().getImageInputStream(nodeUniqueID, control)) {
+                        if (inputStream != null) {
+                            bitmap = BitmapFactory.decodeStream(inputStream);
+                        }
+                    } catch (IOException | OutOfMemoryError e) {
+                        bitmap = null;
+                    }
+                }
+                final BitmapRegionDecoder regionDecoder = decoder;
+                final Bitmap image = bitmap;
+                final int baseSampleSize = sampleSize;
+                appContainer.handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (getView() == null) {
+                            // Fragment was closed before image was decoded
+                            if (regionDecoder != null) {
+                                regionDecoder.recycle();
+                            }
+                        } else if (image == null) {
+                            if (regionDecoder != null) {
+                                regionDecoder.recycle();
+                            }
+                            Toast.makeText(getContext(), R.string.toast_error_failed_to_load_image, Toast.LENGTH_SHORT).show();
+                        } else if (regionDecoder != null) {
+                            imageView.setImageRegionDecoder(regionDecoder, image, baseSampleSize);
+                        } else {
+                            Drawable drawable = new BitmapDrawable(resources, image);
+                            imageView.setImageDrawable(drawable);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
     private void loadImage() {
         ZoomableImageView imageView = getView().findViewById(R.id.image_fragment_imageview);
         if (getArguments().getString("type").equals("image")) {
             // Sets image to ImageView
-            InputStream inputStream = DatabaseReaderFactory.getReader().getImageInputStream(getArguments().getString("nodeUniqueID"), getArguments().getString("control"));
-            if (inputStream != null) {
-                Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                Drawable image = new BitmapDrawable(getResources(),bitmap);
-                imageView.setImageDrawable(image);
-            } else {
-                Toast.makeText(getContext(), R.string.toast_error_failed_to_load_image, Toast.LENGTH_SHORT).show();
-            }
+            decodeImage(imageView);
         } else {
             try {
                 final JLatexMathDrawable latexDrawable = JLatexMathDrawable.builder(getArguments().getString("latexString"))
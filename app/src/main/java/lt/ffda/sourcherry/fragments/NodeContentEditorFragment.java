@@ -103,6 +103,7 @@ import lt.ffda.sourcherry.spans.ClickableSpanFile;
 import lt.ffda.sourcherry.spans.ClickableSpanLink;
 import lt.ffda.sourcherry.spans.ClickableSpanNode;
 import lt.ffda.sourcherry.spans.ImageSpanFile;
+import lt.ffda.sourcherry.spans.LazyImageDrawable;
 import lt.ffda.sourcherry.spans.MonospaceBackgroundColorSpan;
 import lt.ffda.sourcherry.spans.StyleSpanBold;
 import lt.ffda.sourcherry.spans.StyleSpanItalic;
@@ -365,6 +366,7 @@ public class NodeContentEditorFragment extends Fragment implements NodeContentEd
     private EditText createEditText(Typeface typeface, int textSize, CharSequence content) {
         CustomTextEdit editText = (CustomTextEdit) getLayoutInflater().inflate(R.layout.custom_edittext, nodeEditorFragmentLinearLayout, false);
         editText.setText(content, TextView.BufferType.EDITABLE);
+        LazyImageDrawable.attachToView(editText);
         editText.addTextChangedListener(textWatcher);
         editText.setOnClickListener(clickListener);
         editText.setTextSize(TypedValue.COMPLEX_UNIT_SP, textSize);
@@ -1423,8 +1425,10 @@ public class NodeContentEditorFragment extends Fragment implements NodeContentEd
         mainViewModel.getNodeContent().setValue(nodeContent);
         if (mainViewModel.getCurrentNode().getMasterId().equals("0")) {
             DatabaseReaderFactory.getReader().saveNodeContent(getArguments().getString("nodeUniqueID"));
+            mainViewModel.invalidateNodeContent(getArguments().getString("nodeUniqueID"));
         } else {
             DatabaseReaderFactory.getReader().saveNodeContent(mainViewModel.getCurrentNode().getMasterId());
+            mainViewModel.invalidateNodeContent(mainViewModel.getCurrentNode().getMasterId());
         }
     }
 
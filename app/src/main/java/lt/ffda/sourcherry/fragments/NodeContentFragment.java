@@ -10,6 +10,7 @@
 
 package lt.ffda.sourcherry.fragments;
 
+import static lt.ffda.sourcherry.utils.Constants.PREFERENCE_CHUNKED_RENDERING;
 import static lt.ffda.sourcherry.utils.Constants.PREFERENCE_DISABLE_LINEWRAP;
 
 import android.content.SharedPreferences;
@@ -18,6 +19,7 @@ import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.text.Layout;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 import android.text.method.LinkMovementMethod;
@@ -52,12 +54,15 @@ import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.preference.PreferenceManager;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
 
 import lt.ffda.sourcherry.AppContainer;
 import lt.ffda.sourcherry.MainView;
 import lt.ffda.sourcherry.MainViewModel;
+import lt.ffda.sourcherry.NodeContentChunkAdapter;
 import lt.ffda.sourcherry.R;
 import lt.ffda.sourcherry.ScApplication;
 import lt.ffda.sourcherry.database.DatabaseReaderFactory;
@@ -65,24 +70,30 @@ import lt.ffda.sourcherry.database.MultiReader;
 import lt.ffda.sourcherry.model.ScNodeContent;
 import lt.ffda.sourcherry.model.ScNodeContentTable;
 import lt.ffda.sourcherry.model.ScNodeContentText;
+import lt.ffda.sourcherry.spans.LazyImageDrawable;
 import lt.ffda.sourcherry.utils.Calculations;
 
 public class NodeContentFragment extends Fragment {
 
     public final static int CONTENT_FRAGMENT_LINEARLAYOUT = 10001;
     public final static int CONTENT_HORIZONTAL_SCROLLVIEW = 10002;
+    public final static int CONTENT_FRAGMENT_RECYCLERVIEW = 10003;
     private boolean backToExit;
     OnBackPressedCallback callbackDisplayToastBeforeExit = createCallbackDisplayToastBeforeExit();
+    private NodeContentChunkAdapter chunkAdapter;
+    private boolean chunkedRendering;
     private LinearLayout contentFragmentLinearLayout;
+    private View contentView; // View that holds node content: contentFragmentLinearLayout or recyclerView
     private Handler handler;
     private MainViewModel mainViewModel;
+    private RecyclerView recyclerView;
     private SharedPreferences sharedPreferences;
 
     /**
      * Applies insets to views for edge-to-edge support
      */
     private void applyInsets() {
-        ViewCompat.setOnApplyWindowInsetsListener(contentFragmentLinearLayout, (v, windowInsets) -> {
+        ViewCompat.setOnApplyWindowInsetsListener(contentView, (v, windowInsets) -> {
             Insets insets = windowInsets.getInsets(WindowInsetsCompat.Type.systemBars() | WindowInsetsCompat.Type.displayCutout());
             if (getResources().getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE) {
                 v.setPadding(insets.left, v.getPaddingTop(), insets.right, v.getPaddingBottom());
@@ -157,19 +168,144 @@ public class NodeContentFragment extends Fragment {
         return cell;
     }
 
-    public void loadContent() {
-        if (mainViewModel.getNodeContent().getValue() == null) {
-            return;
+    /**
+     * Creates LinearLayout that holds all node content views and places it in to the ScrollView of
+     * the fragment. If line wrapping is disabled it is wrapped in HorizontalScrollView too.
+     * @param rootView root view of the fragment
+     * @return LinearLayout for node content
+     */
+    private LinearLayout createContentFragmentLinearLayout(View rootView) {
+        ScrollView scrollView = rootView.findViewById(R.id.content_fragment_scrollview);
+        contentFragmentLinearLayout = new LinearLayout(getContext());
+        contentFragmentLinearLayout.setId(CONTENT_FRAGMENT_LINEARLAYOUT);
+        contentFragmentLinearLayout.setOrientation(LinearLayout.VERTICAL);
+        if (sharedPreferences.getBoolean(PREFERENCE_DISABLE_LINEWRAP, false)) {
+            HorizontalScrollView horizontalScrollView = new HorizontalScrollView(getContext());
+            horizontalScrollView.setId(CONTENT_HORIZONTAL_SCROLLVIEW);
+            scrollView.addView(horizontalScrollView);
+            horizontalScrollView.addView(contentFragmentLinearLayout);
+            mainViewModel.setLinewrap(false);
+        } else {
+            scrollView.addView(contentFragmentLinearLayout);
+            mainViewModel.setLinewrap(true);
         }
-        // Clears layout just in case. Most of the time it is needed
-        if (contentFragmentLinearLayout != null) {
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    contentFragmentLinearLayout.removeAllViews();
-                }
-            });
+        return contentFragmentLinearLayout;
+    }
+
+    /**
+     * Creates a layout with the whole node content for PDF export. In chunked rendering mode
+     * only visible part of the node has views, so all of them have to be created separately.
+     * @return measured and laid out LinearLayout with node content
+     */
+    public LinearLayout createPdfExportLayout() {
+        LinearLayout linearLayout = new LinearLayout(getContext());
+        linearLayout.setOrientation(LinearLayout.VERTICAL);
+        linearLayout.setPadding(contentView.getPaddingLeft(), contentView.getPaddingTop(), contentView.getPaddingRight(), contentView.getPaddingBottom());
+        Typeface typeface = getTypeface();
+        int textSize = sharedPreferences.getInt("preferences_text_size", 15);
+        for (ScNodeContent part: mainViewModel.getNodeContent().getValue()) {
+            if (part.getContentType() == 0) {
+                linearLayout.addView(createTextView(((ScNodeContentText) part).getContent(), typeface, textSize));
+            } else {
+                linearLayout.addView(createTable((ScNodeContentTable) part, typeface, textSize));
+            }
+        }
+        linearLayout.measure(View.MeasureSpec.makeMeasureSpec(contentView.getWidth(), View.MeasureSpec.EXACTLY), View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        linearLayout.layout(0, 0, linearLayout.getMeasuredWidth(), linearLayout.getMeasuredHeight());
+        return linearLayout;
+    }
+
+    /**
+     * Creates a table wrapped in HorizontalScrollView, because tables might be wider than screen
+     * @param scNodeContentTable table content
+     * @param typeface font be set on the text in the table. Null will use default android font
+     * @param textSize textSize to be set on the text in the table
+     * @return HorizontalScrollView with the table in it
+     */
+    private HorizontalScrollView createTable(ScNodeContentTable scNodeContentTable, Typeface typeface, int textSize) {
+        HorizontalScrollView tableScrollView = new HorizontalScrollView(getActivity());
+        TableLayout table = new TableLayout(getActivity());
+        // Setting gravity for the table
+        LinearLayout.LayoutParams tableScrollViewParams = new LinearLayout.LayoutParams(LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.MATCH_PARENT);
+        switch (scNodeContentTable.getJustification()) {
+            case "right":
+                tableScrollViewParams.gravity = Gravity.RIGHT;
+                break;
+            case "center":
+                tableScrollViewParams.gravity = Gravity.CENTER;
+                break;
+            case "fill":
+                tableScrollViewParams.gravity = Gravity.FILL;
+                break;
+        }
+        tableScrollView.setLayoutParams(tableScrollViewParams);
+        // Multiplying by arbitrary number to make table cells look better.
+        // For some reason table that looks good in PC version looks worse on android
+        int colMin = (int) (scNodeContentTable.getColMin() * 1.3);
+        // Wraps content in cell correctly
+        TableRow.LayoutParams params = new TableRow.LayoutParams(TableRow.LayoutParams.MATCH_PARENT, TableRow.LayoutParams.MATCH_PARENT);
+        //// Creates and formats header for the table
+        CharSequence[] tableHeaderCells = scNodeContentTable.getContent().get(0);
+        TableRow tableHeaderRow = new TableRow(getActivity());
+        for (CharSequence cell: tableHeaderCells) {
+            tableHeaderRow.addView(createTableCell(true, params, typeface, textSize, colMin, cell));
+        }
+        table.addView(tableHeaderRow);
+        ////
+
+        //// Creates and formats data for the table
+        for (int row = 1; row < scNodeContentTable.getContent().size(); row++) {
+            TableRow tableRow = new TableRow(getActivity());
+            CharSequence[] tableRowCells = scNodeContentTable.getContent().get(row);
+            for (CharSequence cell: tableRowCells) {
+                tableRow.addView(createTableCell(false, params, typeface, textSize, colMin, cell));
+            }
+            table.addView(tableRow);
         }
+        ////
+
+        table.setBackground(getActivity().getDrawable(R.drawable.table_border));
+        tableScrollView.addView(table);
+        return tableScrollView;
+    }
+
+    /**
+     * Creates TextView for text part of the node content
+     * @param nodeContentSSB text to set in to the TextView
+     * @param typeface font be set on the text. Null will use default android font
+     * @param textSize textSize to be set on the text
+     * @return TextView with the text
+     */
+    private TextView createTextView(SpannableStringBuilder nodeContentSSB, Typeface typeface, int textSize) {
+        TextView tv = new TextView(getActivity());
+        tv.setTextIsSelectable(true);
+        tv.setMovementMethod(LinkMovementMethod.getInstance()); // Needed to detect click/open links
+        tv.setText(nodeContentSSB, TextView.BufferType.EDITABLE);
+        LazyImageDrawable.attachToView(tv);
+        tv.setTextSize(textSize);
+        if (typeface != null) {
+            tv.setTypeface(typeface);
+        }
+        return tv;
+    }
+
+    /**
+     * Returns vertical scroll position of the node content
+     * @return scroll position in pixels. In chunked rendering mode it's an estimate.
+     */
+    public int getContentScrollY() {
+        if (chunkedRendering) {
+            return recyclerView.computeVerticalScrollOffset();
+        }
+        ScrollView scrollView = getView().findViewById(R.id.content_fragment_scrollview);
+        return scrollView.getScrollY();
+    }
+
+    /**
+     * Returns font that user chose in the settings
+     * @return font or null if default android font has to be used
+     */
+    private Typeface getTypeface() {
         Typeface typeface = null;
         switch (sharedPreferences.getString("preference_font_type", "Default")) {
             case "Comfortaa":
@@ -185,19 +321,42 @@ public class NodeContentFragment extends Fragment {
                 typeface = ResourcesCompat.getFont(getContext(), R.font.deja_vu_sans_mono);
                 break;
         }
+        return typeface;
+    }
+
+    /**
+     * Checks if node content is displayed in chunks using RecyclerView
+     * @return true - content is displayed in RecyclerView, false - content is in contentFragmentLinearLayout
+     */
+    public boolean isChunkedRendering() {
+        return chunkedRendering;
+    }
+
+    public void loadContent() {
+        if (mainViewModel.getNodeContent().getValue() == null) {
+            return;
+        }
+        Typeface typeface = getTypeface();
         int textSize = sharedPreferences.getInt("preferences_text_size", 15);
+        if (chunkedRendering) {
+            AppContainer appContainer = ((ScApplication) getActivity().getApplication()).appContainer;
+            chunkAdapter = new NodeContentChunkAdapter(getContext(), mainViewModel, appContainer.executor, typeface, textSize);
+            chunkAdapter.setContent(mainViewModel.getNodeContent().getValue());
+            recyclerView.setAdapter(chunkAdapter);
+            return;
+        }
+        // Clears layout just in case. Most of the time it is needed
+        if (contentFragmentLinearLayout != null) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    contentFragmentLinearLayout.removeAllViews();
+                }
+            });
+        }
         for (ScNodeContent part: mainViewModel.getNodeContent().getValue()) {
             if (part.getContentType() == 0) {
-                ScNodeContentText scNodeContentText = (ScNodeContentText) part;
-                SpannableStringBuilder nodeContentSSB = scNodeContentText.getContent();
-                TextView tv = new TextView(getActivity());
-                tv.setTextIsSelectable(true);
-                tv.setMovementMethod(LinkMovementMethod.getInstance()); // Needed to detect click/open links
-                tv.setText(nodeContentSSB, TextView.BufferType.EDITABLE);
-                tv.setTextSize(textSize);
-                if (typeface != null) {
-                    tv.setTypeface(typeface);
-                }
+                TextView tv = createTextView(((ScNodeContentText) part).getContent(), typeface, textSize);
                 handler.post(new Runnable() {
                     @Override
                     public void run() {
@@ -205,50 +364,7 @@ public class NodeContentFragment extends Fragment {
                     }
                 });
             } else {
-                HorizontalScrollView tableScrollView = new HorizontalScrollView(getActivity());
-                TableLayout table = new TableLayout(getActivity());
-                ScNodeContentTable scNodeContentTable = (ScNodeContentTable) part;
-                // Setting gravity for the table
-                LinearLayout.LayoutParams tableScrollViewParams = new LinearLayout.LayoutParams(LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.MATCH_PARENT);
-                switch (scNodeContentTable.getJustification()) {
-                    case "right":
-                        tableScrollViewParams.gravity = Gravity.RIGHT;
-                        break;
-                    case "center":
-                        tableScrollViewParams.gravity = Gravity.CENTER;
-                        break;
-                    case "fill":
-                        tableScrollViewParams.gravity = Gravity.FILL;
-                        break;
-                }
-                tableScrollView.setLayoutParams(tableScrollViewParams);
-                // Multiplying by arbitrary number to make table cells look better.
-                // For some reason table that looks good in PC version looks worse on android
-                int colMin = (int) (scNodeContentTable.getColMin() * 1.3);
-                // Wraps content in cell correctly
-                TableRow.LayoutParams params = new TableRow.LayoutParams(TableRow.LayoutParams.MATCH_PARENT, TableRow.LayoutParams.MATCH_PARENT);
-                //// Creates and formats header for the table
-                CharSequence[] tableHeaderCells = scNodeContentTable.getContent().get(0);
-                TableRow tableHeaderRow = new TableRow(getActivity());
-                for (CharSequence cell: tableHeaderCells) {
-                    tableHeaderRow.addView(createTableCell(true, params, typeface, textSize, colMin, cell));
-                }
-                table.addView(tableHeaderRow);
-                ////
-
-                //// Creates and formats data for the table
-                for (int row = 1; row < scNodeContentTable.getContent().size(); row++) {
-                    TableRow tableRow = new TableRow(getActivity());
-                    CharSequence[] tableRowCells = scNodeContentTable.getContent().get(row);
-                    for (CharSequence cell: tableRowCells) {
-                        tableRow.addView(createTableCell(false, params, typeface, textSize, colMin, cell));
-                    }
-                    table.addView(tableRow);
-                }
-                ////
-
-                table.setBackground(getActivity().getDrawable(R.drawable.table_border));
-                tableScrollView.addView(table);
+                HorizontalScrollView tableScrollView = createTable((ScNodeContentTable) part, typeface, textSize);
                 handler.post(new Runnable() {
                     @Override
                     public void run() {
@@ -264,20 +380,20 @@ public class NodeContentFragment extends Fragment {
         super.onCreateView(inflater, container, savedInstanceState);
         sharedPreferences = PreferenceManager.getDefaultSharedPreferences(getContext());
         mainViewModel = new ViewModelProvider(requireActivity()).get(MainViewModel.class);
-        View rootView = inflater.inflate(R.layout.fragment_node_content, container, false);
-        ScrollView scrollView = rootView.findViewById(R.id.content_fragment_scrollview);
-        contentFragmentLinearLayout = new LinearLayout(getContext());
-        contentFragmentLinearLayout.setId(CONTENT_FRAGMENT_LINEARLAYOUT);
-        contentFragmentLinearLayout.setOrientation(LinearLayout.VERTICAL);
-        if (sharedPreferences.getBoolean(PREFERENCE_DISABLE_LINEWRAP, false)) {
-            HorizontalScrollView horizontalScrollView = new HorizontalScrollView(getContext());
-            horizontalScrollView.setId(CONTENT_HORIZONTAL_SCROLLVIEW);
-            scrollView.addView(horizontalScrollView);
-            horizontalScrollView.addView(contentFragmentLinearLayout);
-            mainViewModel.setLinewrap(false);
-        } else {
-            scrollView.addView(contentFragmentLinearLayout);
+        // Chunked rendering is used only with line wrapping, because chunks are laid out to the width of the screen
+        chunkedRendering = sharedPreferences.getBoolean(PREFERENCE_CHUNKED_RENDERING, false) && !sharedPreferences.getBoolean(PREFERENCE_DISABLE_LINEWRAP, false);
+        View rootView;
+        if (chunkedRendering) {
+            recyclerView = new RecyclerView(getContext());
+            recyclerView.setId(CONTENT_FRAGMENT_RECYCLERVIEW);
+            recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
+            recyclerView.setClipToPadding(false);
+            rootView = recyclerView;
+            contentView = recyclerView;
             mainViewModel.setLinewrap(true);
+        } else {
+            rootView = inflater.inflate(R.layout.fragment_node_content, container, false);
+            contentView = createContentFragmentLinearLayout(rootView);
         }
         applyInsets();
         AppContainer appContainer = ((ScApplication) getActivity().getApplication()).appContainer;
@@ -296,11 +412,12 @@ public class NodeContentFragment extends Fragment {
     @Override
     public void onResume() {
         // Top and bottom paddings are always the same: 14px (5dp)
-        contentFragmentLinearLayout.setPadding(sharedPreferences.getInt("paddingStart", 14), 14, sharedPreferences.getInt("paddingEnd", 14), 14);
+        contentView.setPadding(sharedPreferences.getInt("paddingStart", 14), 14, sharedPreferences.getInt("paddingEnd", 14), 14);
         // Otherwise when content is recreated insets won't be set and some of it will be under navigation bar
-        ViewCompat.requestApplyInsets(contentFragmentLinearLayout);
+        ViewCompat.requestApplyInsets(contentView);
         boolean linewrapOff = sharedPreferences.getBoolean(PREFERENCE_DISABLE_LINEWRAP, false);
-        if (linewrapOff == mainViewModel.isLineWrap()) {
+        boolean chunkedRenderingOn = sharedPreferences.getBoolean(PREFERENCE_CHUNKED_RENDERING, false) && !linewrapOff;
+        if (linewrapOff == mainViewModel.isLineWrap() || chunkedRenderingOn != chunkedRendering) {
             getParentFragmentManager().beginTransaction().detach(this).commit();
             getParentFragmentManager().beginTransaction().attach(this).commit();
             mainViewModel.setLinewrap(!linewrapOff);
@@ -311,8 +428,11 @@ public class NodeContentFragment extends Fragment {
     @Override
     public void onSaveInstanceState(@NonNull Bundle outState) {
         super.onSaveInstanceState(outState);
-        ScrollView scrollView = getView().findViewById(R.id.content_fragment_scrollview);
-        outState.putInt("scrollY", scrollView.getScrollY());
+        if (!chunkedRendering) {
+            // RecyclerView saves its scroll position itself
+            ScrollView scrollView = getView().findViewById(R.id.content_fragment_scrollview);
+            outState.putInt("scrollY", scrollView.getScrollY());
+        }
     }
 
     @Override
@@ -337,7 +457,7 @@ public class NodeContentFragment extends Fragment {
         // Registers listener for back button clicks
         requireActivity().getOnBackPressedDispatcher().addCallback(getViewLifecycleOwner(), callbackDisplayToastBeforeExit);
 
-        if (savedInstanceState != null) {
+        if (savedInstanceState != null && !chunkedRendering) {
             // Tries to scroll screen to the same location where it was when screen orientation happened
             ScrollView scrollView = view.findViewById(R.id.content_fragment_scrollview);
             handler.postDelayed(new Runnable() {
@@ -356,6 +476,17 @@ public class NodeContentFragment extends Fragment {
         }
     }
 
+    /**
+     * Rebinds all the chunks of node content in chunked rendering mode. Used after FindInNode
+     * results were highlighted in FindInNode storage or the highlighting was removed.
+     */
+    public void refreshChunkedContent() {
+        if (chunkAdapter != null) {
+            chunkAdapter.setHighlightedFindInNodeResult(null);
+            chunkAdapter.notifyDataSetChanged();
+        }
+    }
+
     /**
      * Removes highlighting from TextView which findInNodeStorage index is provided with previouslyHighlightedViewIndex
      * And highlights findInNodeResultStorage item that is provided with newResultIndex
@@ -363,6 +494,10 @@ public class NodeContentFragment extends Fragment {
      * @param newResultIndex index of the TextView to add highlight to
      */
     public void switchFindInNodeHighlight(int previouslyHighlightedViewIndex, int newResultIndex) {
+        if (chunkedRendering) {
+            switchFindInNodeHighlightChunked(newResultIndex);
+            return;
+        }
         LinearLayout contentFragmentLinearLayout = getView().findViewById(CONTENT_FRAGMENT_LINEARLAYOUT);
         ScrollView verticalScrollView = getView().findViewById(R.id.content_fragment_scrollview);
         HorizontalScrollView horizontalScrollView = null;
@@ -372,9 +507,9 @@ public class NodeContentFragment extends Fragment {
         int lineCounter = 0; // Needed to calculate position where view will have to be scrolled to
         int counter = 0; // Counts iteration over node layout. Counts every TextView
 
-        int viewCounter = mainViewModel.getFindInNodeResult(newResultIndex)[0]; // Saved findInNodeStorage view index
-        int startIndex = mainViewModel.getFindInNodeResult(newResultIndex)[1]; // Search result substring start index
-        int endIndex = mainViewModel.getFindInNodeResult(newResultIndex)[2]; // Search result substring end index
+        int viewCounter = mainViewModel.getFindInNodeResultStorageIndex(newResultIndex); // Saved findInNodeStorage view index
+        int startIndex = mainViewModel.getFindInNodeResultStart(newResultIndex); // Search result substring start index
+        int endIndex = mainViewModel.getFindInNodeResultEnd(newResultIndex); // Search result substring end index
         boolean foundPrevious = false;
         boolean foundResult = false;
         for (int i = 0; i < contentFragmentLinearLayout.getChildCount(); i++) {
@@ -495,4 +630,34 @@ public class NodeContentFragment extends Fragment {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Highlights findInNodeResultStorage item that is provided with newResultIndex in chunked
+     * rendering mode and scrolls to it. Previous highlight is removed by the adapter.
+     * @param newResultIndex index of the result to highlight
+     */
+    private void switchFindInNodeHighlightChunked(int newResultIndex) {
+        int[] result = mainViewModel.getFindInNodeResult(newResultIndex);
+        chunkAdapter.setHighlightedFindInNodeResult(result);
+        int position = chunkAdapter.getChunkPosition(result[0], result[1]);
+        if (position == -1) {
+            return;
+        }
+        ((LinearLayoutManager) recyclerView.getLayoutManager()).scrollToPositionWithOffset(position, 0);
+        // After chunk is laid out the view is scrolled to the line with the result
+        recyclerView.post(new Runnable() {
+            @Override
+            public void run() {
+                RecyclerView.ViewHolder viewHolder = recyclerView.findViewHolderForAdapterPosition(position);
+                if (viewHolder == null || !(viewHolder.itemView instanceof TextView)) {
+                    return;
+                }
+                Layout layout = ((TextView) viewHolder.itemView).getLayout();
+                if (layout != null) {
+                    int line = layout.getLineForOffset(result[1] - chunkAdapter.getChunkStart(position));
+                    recyclerView.scrollBy(0, layout.getLineTop(line) - 100);
+                }
+            }
+        });
+    }
+}
@@ -40,6 +40,9 @@ import androidx.fragment.app.Fragment;
 import androidx.lifecycle.Lifecycle;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import lt.ffda.sourcherry.AppContainer;
@@ -47,16 +50,67 @@ import lt.ffda.sourcherry.MainView;
 import lt.ffda.sourcherry.R;
 import lt.ffda.sourcherry.ScApplication;
 import lt.ffda.sourcherry.database.DatabaseReaderFactory;
+import lt.ffda.sourcherry.database.SearchResultCallback;
 import lt.ffda.sourcherry.model.ScSearchNode;
 
 public class SearchFragment extends Fragment {
     private final OnBackPressedCallback onBackPressedCallback = createOnBackPressedCallback();
+    private final ArrayList<Integer> resultPositions = new ArrayList<>();
     private ScheduledThreadPoolExecutor executor;
     private Handler handler;
     private TextView resultCount;
+    private ExecutorService searchExecutor;
+    private Future<?> searchFuture;
+    private int searchGeneration;
     private ProgressBar searchProgressBar;
     private LinearLayout searchResultLinearLayout;
 
+    /**
+     * Creates a view for search result and adds it to the result list. Results are kept in the
+     * order nodes are displayed in drawer menu regardless of the order they were found in.
+     * @param position position of the node in the drawer menu order
+     * @param result search result to add
+     */
+    private void addSearchResult(int position, ScSearchNode result) {
+        LinearLayout searchResultItem = (LinearLayout) getLayoutInflater().inflate(R.layout.item_search_activity_result, null);
+
+        // Title of a search result
+        // Because of how strings resources formatting works
+        // String has to be created from resource, then all tags html tags have to be converted to normal string elements (<br/> -> \n, etc)
+        TextView resultTitle = searchResultItem.findViewById(R.id.search_activity_results_item_title);
+        String itemTitle = getString(R.string.options_menu_search_item_title, result.getResultCount(), result.getQuery(), result.getName());
+        Spanned styledItemTitle = Html.fromHtml(itemTitle, Html.FROM_HTML_MODE_LEGACY);
+        resultTitle.setText(styledItemTitle);
+
+        // if there are more than 3 instances of the query in node
+        // adds a string to the bottom of the 3 instances that tells user how many are left
+        TextView resultSearchSamples = searchResultItem.findViewById(R.id.search_activity_results_item_search_samples);
+        int instanceCount = result.getResultCount();
+        if (instanceCount > 3) {
+            String resultText = getString(R.string.options_menu_search_query_instances_node,result.getResultSamples(), instanceCount - 3);
+            Spanned styledResultText = Html.fromHtml(resultText, Html.FROM_HTML_MODE_LEGACY);
+            // Because of how Html.fromHtml (removes spanned formatting) works it is not possible to mark string queries in searcher
+            // it has to be done on this end
+            resultSearchSamples.setText(markSearchQuery(styledResultText.toString(), result.getQuery()));
+        } else {
+            Spanned styledResultText = Html.fromHtml(result.getResultSamples(), Html.FROM_HTML_MODE_LEGACY);
+            resultSearchSamples.setText(markSearchQuery(styledResultText.toString(), result.getQuery()));
+        }
+
+        // Detects click on search result
+        // Returns intent to MainView to load selected node
+        searchResultItem.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                ((MainView) getActivity()).openSearchResult(result);
+            }
+        });
+        int index = -(Collections.binarySearch(resultPositions, position) + 1);
+        resultPositions.add(index, position);
+        searchResultLinearLayout.addView(searchResultItem, index);
+        resultCount.setText(getString(R.string.options_menu_search_result_count, resultPositions.size()));
+    }
+
     /**
      * Creates OnBackPressedCallback used in this fragment.
      * @return OnBackPressedCallback for the fragment
@@ -112,9 +166,20 @@ public class SearchFragment extends Fragment {
         AppContainer appContainer = ((ScApplication) getActivity().getApplication()).appContainer;
         handler = appContainer.handler;
         executor = appContainer.executor;
+        searchExecutor = appContainer.searchExecutor;
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        // Results of the running search must not be added to the destroyed view
+        searchGeneration++;
+        if (searchFuture != null) {
+            searchFuture.cancel(true);
+        }
+    }
+
     @Override
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
@@ -157,10 +222,16 @@ public class SearchFragment extends Fragment {
                 // submits a search request to searcher only when user presses the button
                 // gets current value of checkbox as boolean to pass it to searcher
                 // boolean tells if search should skip "excluded" nodes or not
-                executor.execute(new Runnable() {
+                if (searchFuture != null) {
+                    // Search that is still running is replaced by the new one
+                    searchFuture.cancel(true);
+                }
+                boolean noSearch = checkBoxExclude.isChecked();
+                int generation = ++searchGeneration;
+                searchFuture = executor.submit(new Runnable() {
                     @Override
                     public void run() {
-                        search(checkBoxExclude.isChecked(), query.toLowerCase());
+                        search(noSearch, query.toLowerCase(), generation);
                     }
                 });
                 return true;
@@ -169,85 +240,52 @@ public class SearchFragment extends Fragment {
     }
 
     /**
-     * Executes search and adds results to UI
+     * Executes search and adds results to UI as soon as they are found. Results of the search are
+     * ignored if another search was started in the meantime.
      * @param noSearch true - exclude nodes marked to exclude from search, false - search all nodes
      * @param query string to search for
+     * @param generation number of the search. Used to recognise results of the replaced searches.
      */
-    private void search(Boolean noSearch, String query) {
+    private void search(Boolean noSearch, String query, int generation) {
         handler.post(new Runnable() {
             @Override
             public void run() {
+                if (generation != searchGeneration) {
+                    return;
+                }
                 searchProgressBar.setVisibility(View.VISIBLE);
-            }
-        });
-
-        LayoutInflater layoutInflater = getLayoutInflater();
-
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
                 searchResultLinearLayout.removeAllViews();
-            }
-        });
-
-        ArrayList<ScSearchNode> searchResult = DatabaseReaderFactory.getReader().search(noSearch, query);
-
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                resultCount.setText(getString(R.string.options_menu_search_result_count, searchResult.size()));
+                resultPositions.clear();
+                resultCount.setText(getString(R.string.options_menu_search_result_count, 0));
                 resultCount.setVisibility(View.VISIBLE);
             }
         });
 
-        if (searchResult != null) {
-            for (ScSearchNode result: searchResult) {
-                LinearLayout searchResultItem = (LinearLayout) layoutInflater.inflate(R.layout.item_search_activity_result, null);
-
-                // Title of a search result
-                // Because of how strings resources formatting works
-                // String has to be created from resource, then all tags html tags have to be converted to normal string elements (<br/> -> \n, etc)
-                TextView resultTitle = searchResultItem.findViewById(R.id.search_activity_results_item_title);
-                String itemTitle = getString(R.string.options_menu_search_item_title, result.getResultCount(), result.getQuery(), result.getName());
-                Spanned styledItemTitle = Html.fromHtml(itemTitle, Html.FROM_HTML_MODE_LEGACY);
-                resultTitle.setText(styledItemTitle);
-
-                // if there are more than 3 instances of the query in node
-                // adds a string to the bottom of the 3 instances that tells user how many are left
-                TextView resultSearchSamples = searchResultItem.findViewById(R.id.search_activity_results_item_search_samples);
-                int instanceCount = result.getResultCount();
-                if (instanceCount > 3) {
-                    String resultText = getString(R.string.options_menu_search_query_instances_node,result.getResultSamples(), instanceCount - 3);
-                    Spanned styledResultText = Html.fromHtml(resultText, Html.FROM_HTML_MODE_LEGACY);
-                    // Because of how Html.fromHtml (removes spanned formatting) works it is not possible to mark string queries in searcher
-                    // it has to be done on this end
-                    resultSearchSamples.setText(markSearchQuery(styledResultText.toString(), result.getQuery()));
-                } else {
-                    Spanned styledResultText = Html.fromHtml(result.getResultSamples(), Html.FROM_HTML_MODE_LEGACY);
-                    resultSearchSamples.setText(markSearchQuery(styledResultText.toString(), result.getQuery()));
+        try {
+            DatabaseReaderFactory.getReader().search(noSearch, query, searchExecutor, new SearchResultCallback() {
+                @Override
+                public void onSearchResult(int position, ScSearchNode result) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == searchGeneration) {
+                                addSearchResult(position, result);
+                            }
+                        }
+                    });
                 }
-
-                // Detects click on search result
-                // Returns intent to MainView to load selected node
-                searchResultItem.setOnClickListener(new View.OnClickListener() {
-                    @Override
-                    public void onClick(View v) {
-                        ((MainView) getActivity()).openSearchResult(result);
-                    }
-                });
-                handler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        searchResultLinearLayout.addView(searchResultItem);
+            });
+        } catch (InterruptedException e) {
+            // Search was replaced by a new one or the fragment was closed
+        } finally {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (generation == searchGeneration) {
+                        searchProgressBar.setVisibility(View.INVISIBLE);
                     }
-                });
-            }
+                }
+            });
         }
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                searchProgressBar.setVisibility(View.INVISIBLE);
-            }
-        });
     }
 }
@@ -27,7 +27,6 @@ import androidx.lifecycle.Lifecycle;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.PreferenceManager;
-import androidx.preference.SeekBarPreference;
 import androidx.preference.SwitchPreference;
 
 import lt.ffda.sourcherry.R;
@@ -70,16 +69,16 @@ public class PreferencesDatabaseFragment extends PreferenceFragmentCompat {
      * Makes preferences for SQL database visible. Adds listeners where needed.
      */
     private void initSqlDatabasePreferences() {
-        SeekBarPreference cursorWindowSizePreference = findPreference("preferences_cursor_window_size");
-        if (cursorWindowSizePreference != null) {
-            cursorWindowSizePreference.setVisible(true);
-        }
         Preference preferenceVacuumDatabase = findPreference("preference_vacuum_database");
         if (preferenceVacuumDatabase == null) {
             Toast.makeText(getContext(), R.string.toast_error_failed_to_show_a_preference, Toast.LENGTH_SHORT).show();
             return;
         }
         preferenceVacuumDatabase.setVisible(true);
+        SwitchPreference searchIndexPreference = findPreference("preferences_sql_search_index");
+        if (searchIndexPreference != null) {
+            searchIndexPreference.setVisible(true);
+        }
         preferenceVacuumDatabase.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
             @Override
             public boolean onPreferenceClick(@NonNull Preference preference) {
@@ -90,6 +89,16 @@ public class PreferencesDatabaseFragment extends PreferenceFragmentCompat {
         });
     }
 
+    /**
+     * Makes preferences for XML database visible.
+     */
+    private void initXmlDatabasePreferences() {
+        SwitchPreference lazyLoadingPreference = findPreference("preferences_xml_lazy_loading");
+        if (lazyLoadingPreference != null) {
+            lazyLoadingPreference.setVisible(true);
+        }
+    }
+
     @Override
     public void onCreatePreferences(@Nullable Bundle savedInstanceState, @Nullable String rootKey) {
         setPreferencesFromResource(R.xml.preferences_database, rootKey);
@@ -103,6 +112,9 @@ public class PreferencesDatabaseFragment extends PreferenceFragmentCompat {
         if (databaseExtension.equals("ctb") || databaseExtension.equals("ctx")) {
             initSqlDatabasePreferences();
         }
+        if (databaseExtension.equals("ctd")) {
+            initXmlDatabasePreferences();
+        }
         if (databaseExtension.equals("multi")) {
             initMultifileDatabasePreferences();
         }
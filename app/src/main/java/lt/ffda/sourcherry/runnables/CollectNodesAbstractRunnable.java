@@ -18,27 +18,96 @@ import android.provider.DocumentsContract;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import lt.ffda.sourcherry.database.MultiSearchCache;
+import lt.ffda.sourcherry.database.MultiTreeStore;
+import lt.ffda.sourcherry.database.NodeXmlHeaderReader;
 
 public abstract class CollectNodesAbstractRunnable {
+    /**
+     * Maximum number of node folders that are scanned at the same time
+     */
+    private static final int SCAN_THREAD_COUNT = 4;
+    private final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<>();
+    private final AtomicInteger parsedNodes = new AtomicInteger();
+    private final AtomicInteger scannedNodes = new AtomicInteger();
+    private final List<MultiTreeStore.FolderSignature> signatures = new ArrayList<>();
+
+    /**
+     * Creates drawer menu item from the results of the folder scans
+     * @param doc document object that stores all drawerMenu data
+     * @param scans results of all the folder scans
+     * @param documentId SAF document ID of the node folder
+     * @return drawer menu item with all its subnodes or null if folder does not have a node
+     */
+    private Element createDrawerMenuItem(Document doc, Map<String, FolderScan> scans, String documentId) {
+        FolderScan scan = scans.get(documentId);
+        if (scan == null) {
+            return null;
+        }
+        Element node = doc.createElement("node");
+        Map<String, String> attributes = scan.getAttributes();
+        node.setAttribute("unique_id", attributes.get("unique_id"));
+        node.setAttribute("master_id", attributes.get("master_id"));
+        if ("0".equals(attributes.get("master_id"))) {
+            for (String attribute : new String[]{"name", "prog_lang", "nosearch_me", "nosearch_ch", "is_bold", "foreground_color", "icon_id", "readonly"}) {
+                if (attributes.get(attribute) != null) {
+                    node.setAttribute(attribute, attributes.get(attribute));
+                }
+            }
+        }
+        node.setAttribute("saf_id", documentId);
+        for (String subnodeDocumentId : scan.getSubnodeDocumentIds()) {
+            Element subnode = createDrawerMenuItem(doc, scans, subnodeDocumentId);
+            if (subnode != null) {
+                node.appendChild(subnode);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Returns DocumentBuilder of the current thread. Builders are not thread safe, so every scan
+     * thread has its own.
+     * @return DocumentBuilder to parse node.xml files with
+     * @throws IOException DocumentBuilder could not be created
+     */
+    private DocumentBuilder getDocumentBuilder() throws IOException {
+        DocumentBuilder documentBuilder = documentBuilders.get();
+        if (documentBuilder == null) {
+            try {
+                documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new IOException(e);
+            }
+            documentBuilders.set(documentBuilder);
+        }
+        return documentBuilder;
+    }
 
     /**
      * Initiates the recursive scan of all the folders under the Multifile databases root directory
@@ -71,19 +140,36 @@ public abstract class CollectNodesAbstractRunnable {
      * @param mainFolderUri SAF Uri of the main folder
      * @param context application context to display toast messages, get resources, handle clicks
      * @param documentId documentId of the document to create children of
-     * @return cursor with children documents. Has to be closed after use.
+     * @return cursor with children documents. Cursor has five columns: document_id, mime_type, _display_name, last_modified and _size. Has to be closed after use.
      */
     private Cursor getNodeChildrenCursor(Uri mainFolderUri, Context context, String documentId) {
         Uri uri = DocumentsContract.buildChildDocumentsUriUsingTree(mainFolderUri, documentId);
         return context.getContentResolver().query(
                 uri,
-                new String[]{DocumentsContract.Document.COLUMN_DOCUMENT_ID, DocumentsContract.Document.COLUMN_MIME_TYPE, DocumentsContract.Document.COLUMN_DISPLAY_NAME},
+                new String[]{DocumentsContract.Document.COLUMN_DOCUMENT_ID, DocumentsContract.Document.COLUMN_MIME_TYPE, DocumentsContract.Document.COLUMN_DISPLAY_NAME, DocumentsContract.Document.COLUMN_LAST_MODIFIED, DocumentsContract.Document.COLUMN_SIZE},
                 null,
                 null,
                 null
         );
     }
 
+    /**
+     * Returns number of the node.xml files that were parsed during the scan. Files that did not
+     * change since the last scan are not parsed.
+     * @return number of parsed node.xml files
+     */
+    protected int getParsedNodeCount() {
+        return parsedNodes.get();
+    }
+
+    /**
+     * Returns number of the node folders that were scanned
+     * @return number of scanned nodes
+     */
+    protected int getScannedNodeCount() {
+        return scannedNodes.get();
+    }
+
     /**
      * Returns list of nodeUniqueIDs from subnodes.lst file that uri points to. This file is used to
      * display nodes in the order that user sorted them
@@ -105,117 +191,262 @@ public abstract class CollectNodesAbstractRunnable {
     }
 
     /**
-     * Writes Document object global variable to file.
-     * @param doc Document object to save to file
-     * @param file file that drawerMenu has to base saved in
-     * @throws TransformerException This class specifies an exceptional condition that occurred during the transformation process.
-     * @throws IOException Signals that an I/O exception of some sort has occurred.
+     * Called every time scan of the node folder finishes. Might be called from multiple threads.
+     * @param scannedNodes number of node folders scanned so far
+     */
+    protected abstract void onNodeScanned(int scannedNodes);
+
+    /**
+     * Reads attributes of the node needed for drawer menu from node.xml file. Only the start tag of
+     * the node is read, whole file is parsed only if text of the node in the search cache was
+     * created from another version of the file.
+     * @param context application context to open the file
+     * @param mainFolderUri SAF Uri of the main folder
+     * @param nodeXmlDocumentId SAF document ID of the node.xml file
+     * @param lastModified last modified time of the node.xml file
+     * @param searchCache search cache of the database
+     * @return map where key is attribute name in drawer menu
+     * @throws IOException Signals that an I/O exception of some sort has occurred
+     * @throws SAXException Encapsulate a general SAX error or warning
      */
-    protected void saveDrawerMenuToStorage(Document doc, File file) throws TransformerException, IOException {
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-        DOMSource dSource = new DOMSource(doc);
-        try (OutputStream fileOutputStream = new FileOutputStream(file)) {
-            StreamResult result = new StreamResult(fileOutputStream);  // To save it in the Internal Storage
-            transformer.transform(dSource, result);
+    private Map<String, String> parseNodeXml(Context context, Uri mainFolderUri, String nodeXmlDocumentId, long lastModified, MultiSearchCache searchCache) throws IOException, SAXException {
+        Uri nodeXmlUri = DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, nodeXmlDocumentId);
+        Map<String, String> header;
+        try (InputStream is = context.getContentResolver().openInputStream(nodeXmlUri)) {
+            header = NodeXmlHeaderReader.readAttributes(is);
         }
+        parsedNodes.incrementAndGet();
+        Map<String, String> attributes = new HashMap<>();
+        String nodeUniqueID = header.get("unique_id");
+        String nodeMasterID = header.get("master_id") != null ? header.get("master_id") : "0";
+        attributes.put("unique_id", nodeUniqueID);
+        attributes.put("master_id", nodeMasterID);
+        if ("0".equals(nodeMasterID)) {
+            attributes.put("name", header.get("name"));
+            attributes.put("prog_lang", header.get("prog_lang"));
+            attributes.put("nosearch_me", header.get("nosearch_me"));
+            attributes.put("nosearch_ch", header.get("nosearch_ch"));
+            attributes.put("is_bold", header.get("is_bold"));
+            attributes.put("foreground_color", header.get("foreground"));
+            attributes.put("icon_id", header.get("custom_icon_id"));
+            attributes.put("readonly", header.get("readonly"));
+            if (!searchCache.isUpToDate(nodeUniqueID, nodeXmlDocumentId, lastModified)) {
+                try (InputStream is = context.getContentResolver().openInputStream(nodeXmlUri)) {
+                    Node element = getDocumentBuilder().parse(is).getElementsByTagName("node").item(0);
+                    searchCache.put(nodeUniqueID, nodeXmlDocumentId, lastModified, MultiSearchCache.prepareSearchContent(element));
+                }
+            }
+        }
+        return attributes;
     }
 
     /**
-     * Scan nodes and it's subnodes for drawerMenu items. Return object does not contain all
-     * information necessary to open it as drawerMenu, because sharedNodes do not have all the
-     * data about them. See fixSharedNodes method for more information about it.
-     * @param doc document object that stores all drawerMenu data before it is writen to the file
-     * @param documentId SAF document ID that has to be scanned
-     * @param context application context to display toast messages, get resources, handle clicks
+     * Removes nodes that are not in the drawer menu tree any more from the search cache
+     * @param doc document object with all drawerMenu data
+     * @param searchCache search cache of the database
+     */
+    protected void removeDeletedNodesFromSearchCache(Document doc, MultiSearchCache searchCache) {
+        List<String> nodeUniqueIDs = new ArrayList<>();
+        NodeList nodeList = doc.getElementsByTagName("node");
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            nodeUniqueIDs.add(nodeList.item(i).getAttributes().getNamedItem("unique_id").getNodeValue());
+        }
+        searchCache.retain(nodeUniqueIDs);
+    }
+
+    /**
+     * Saves collected drawer menu tree together with signatures of all the scanned folders, so
+     * the next scan could skip files that did not change
+     * @param doc document object with all drawerMenu data
+     * @param treeStore store to save the tree to
+     */
+    protected void saveDrawerMenuTree(Document doc, MultiTreeStore treeStore) {
+        treeStore.save(doc, signatures);
+    }
+
+    /**
+     * Scans all the node folders of the database and creates drawer menu document. Folders are
+     * scanned level by level, all the folders of the same level at the same time on a bounded
+     * thread pool. Every folder has to be listed, because SAF does not report changes of the
+     * subfolders to their parents, but node.xml and subnodes.lst files are read only if their last
+     * modified time or size changed since the last scan.
+     * @param doc document object that will store all drawerMenu data
+     * @param context application context to access files
      * @param mainFolderUri SAF Uri of the main folder
-     * @param documentBuilder biulder to create new XML nodes for the document
-     * @return Node with all the subnodes for drawerMenu xml file
+     * @param searchCache search cache of the database
+     * @param treeStore store with the tree and folder signatures of the last scan
+     * @return root element "sourcherry" with all the nodes
      * @throws IOException Signals that an I/O exception of some sort has occurred
      * @throws SAXException Encapsulate a general SAX error or warning
+     * @throws InterruptedException scan was canceled
      */
-    protected Node scanNode(Document doc, String documentId, Context context, Uri mainFolderUri, DocumentBuilder documentBuilder) throws IOException, SAXException{
-        Element node = doc.createElement("node");
-        String nodeUniqueID = null;
-        String nodeMasterID = null;
-        String name = null;
-        boolean hasSubnodes = false;
-        String progLang = null;
-        String noSearchMe = null;
-        String noSearchCh = null;
-        String isBold = null;
-        String foregroundColor = null;
-        String iconId = null;
-        String isReadOnly = null;
-        try (Cursor cursor = getNodeChildrenCursor(mainFolderUri, context, documentId)) {
-            List<String> subnodes = null;
+    protected Element scanDrawerMenuTree(Document doc, Context context, Uri mainFolderUri, MultiSearchCache searchCache, MultiTreeStore treeStore) throws IOException, SAXException, InterruptedException {
+        // Results of the previous scan with the same runnable are discarded
+        signatures.clear();
+        parsedNodes.set(0);
+        scannedNodes.set(0);
+        Element sourCherry = doc.createElement("sourcherry");
+        sourCherry.setAttribute("saf_id", DocumentsContract.getTreeDocumentId(mainFolderUri));
+        List<String> subnodes = null;
+        Map<String, String> mainFolders = new HashMap<>();
+        try (Cursor cursor = getMainNodesCursor(mainFolderUri, context)) {
             while (cursor.moveToNext()) {
                 if (cursor.getString(1).equals(DocumentsContract.Document.MIME_TYPE_DIR)) {
-                    hasSubnodes = true;
-                } else if (cursor.getString(2).equals("node.xml")) {
-                    try (InputStream is = context.getContentResolver().openInputStream(
-                            DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, cursor.getString(0))
-                    )) {
-                        Node element = documentBuilder.parse(is).getElementsByTagName("node").item(0);
-                        nodeUniqueID = element.getAttributes().getNamedItem("unique_id").getNodeValue();
-                        Node masterNodeIdAttr = element.getAttributes().getNamedItem("master_id");
-                        nodeMasterID = masterNodeIdAttr != null ? masterNodeIdAttr.getNodeValue() : "0";
-                        if ("0".equals(nodeMasterID)) {
-                            name = element.getAttributes().getNamedItem("name").getNodeValue();
-                            progLang = element.getAttributes().getNamedItem("prog_lang").getNodeValue();
-                            noSearchMe = element.getAttributes().getNamedItem("nosearch_me").getNodeValue();
-                            noSearchCh = element.getAttributes().getNamedItem("nosearch_ch").getNodeValue();
-                            isBold = element.getAttributes().getNamedItem("is_bold").getNodeValue();
-                            foregroundColor = element.getAttributes().getNamedItem("foreground").getNodeValue();
-                            iconId = element.getAttributes().getNamedItem("custom_icon_id").getNodeValue();
-                            isReadOnly = element.getAttributes().getNamedItem("readonly").getNodeValue();
-                        }
-                    }
+                    mainFolders.put(cursor.getString(2), cursor.getString(0));
                 } else if (cursor.getString(2).equals("subnodes.lst")) {
-                    subnodes = getSubnodesList(DocumentsContract.buildChildDocumentsUriUsingTree(mainFolderUri, cursor.getString(0)), context);
+                    subnodes = getSubnodesList(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, cursor.getString(0)), context);
                 }
             }
-            if (hasSubnodes && subnodes != null) {
-                cursor.moveToPosition(-1);
-                while (!subnodes.isEmpty()) {
-                    String nextNodeUniqueID = subnodes.remove(0);
-                    while (cursor.moveToNext()) {
-                        if (cursor.getString(1).equals(DocumentsContract.Document.MIME_TYPE_DIR) && cursor.getString(2).equals(nextNodeUniqueID)) {
-                            node.appendChild(scanNodeSubtree(doc, cursor.getString(0)));
-                            break;
+        }
+        if (subnodes == null) {
+            throw new FileNotFoundException("Could not find subnodes.lst file");
+        }
+        List<String> mainDocumentIds = new ArrayList<>();
+        for (String nodeUniqueID : subnodes) {
+            if (mainFolders.containsKey(nodeUniqueID)) {
+                mainDocumentIds.add(mainFolders.get(nodeUniqueID));
+            }
+        }
+        final Map<String, MultiTreeStore.FolderSignature> previousSignatures = treeStore.getFolderSignatures();
+        Map<String, FolderScan> scans = new HashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(SCAN_THREAD_COUNT);
+        try {
+            List<String> level = mainDocumentIds;
+            while (!level.isEmpty()) {
+                List<Callable<FolderScan>> tasks = new ArrayList<>();
+                for (final String documentId : level) {
+                    tasks.add(new Callable<FolderScan>() {
+                        @Override
+                        public FolderScan call() throws Exception {
+                            return scanFolder(context, mainFolderUri, documentId, previousSignatures.get(documentId), searchCache, treeStore);
+                        }
+                    });
+                }
+                List<String> nextLevel = new ArrayList<>();
+                for (Future<FolderScan> future : executor.invokeAll(tasks)) {
+                    FolderScan scan;
+                    try {
+                        scan = future.get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof IOException) {
+                            throw (IOException) e.getCause();
+                        } else if (e.getCause() instanceof SAXException) {
+                            throw (SAXException) e.getCause();
                         }
+                        throw new RuntimeException(e.getCause());
+                    }
+                    if (scan != null) {
+                        scans.put(scan.getSignature().getSafId(), scan);
+                        signatures.add(scan.getSignature());
+                        nextLevel.addAll(scan.getSubnodeDocumentIds());
                     }
-                    cursor.moveToPosition(-1);
                 }
+                level = nextLevel;
             }
+        } finally {
+            executor.shutdownNow();
         }
-        if (nodeUniqueID == null) {
-            return null;
-        }
-        node.setAttribute("unique_id", nodeUniqueID);
-        node.setAttribute("master_id", nodeMasterID);
-        if ("0".equals(nodeMasterID)) {
-            node.setAttribute("name", name);
-            node.setAttribute("prog_lang", progLang);
-            node.setAttribute("nosearch_me", noSearchMe);
-            node.setAttribute("nosearch_ch", noSearchCh);
-            node.setAttribute("is_bold", isBold);
-            node.setAttribute("foreground_color", foregroundColor);
-            node.setAttribute("icon_id", iconId);
-            node.setAttribute("readonly", isReadOnly);
+        for (String documentId : mainDocumentIds) {
+            Element node = createDrawerMenuItem(doc, scans, documentId);
+            if (node != null) {
+                sourCherry.appendChild(node);
+            }
         }
-        node.setAttribute("saf_id", documentId);
-        return node;
+        return sourCherry;
     }
 
     /**
-     * Abstraction to allow different logic for scans from MainActivity when database is opened for
-     * the first time and when user triggers rescan from MainView
-     * @param doc XML document that will store drawerMenu data
-     * @param documentId SAF document ID that has to be recursivaly scanned for node
-     * @return Node with all subnodes that can be added to XML document to be writen drawer_menu.xml
+     * Scans single node folder. Attributes of the node and order of its subnodes are taken from
+     * the store if node.xml and subnodes.lst did not change since the last scan.
+     * @param context application context to access files
+     * @param mainFolderUri SAF Uri of the main folder
+     * @param documentId SAF document ID of the node folder
+     * @param previousSignature signature of the folder from the last scan or null if folder was not scanned before
+     * @param searchCache search cache of the database
+     * @param treeStore store with the tree of the last scan
+     * @return result of the scan or null if folder does not have node.xml file
      * @throws IOException Signals that an I/O exception of some sort has occurred
      * @throws SAXException Encapsulate a general SAX error or warning
      */
-    protected abstract Node scanNodeSubtree(Document doc, String documentId) throws IOException, SAXException;
+    private FolderScan scanFolder(Context context, Uri mainFolderUri, String documentId, MultiTreeStore.FolderSignature previousSignature, MultiSearchCache searchCache, MultiTreeStore treeStore) throws IOException, SAXException {
+        String nodeXmlDocumentId = null;
+        long nodeXmlModified = 0;
+        long nodeXmlSize = 0;
+        String subnodesDocumentId = null;
+        long subnodesModified = 0;
+        long subnodesSize = 0;
+        Map<String, String> subnodeFolders = new HashMap<>();
+        try (Cursor cursor = getNodeChildrenCursor(mainFolderUri, context, documentId)) {
+            while (cursor.moveToNext()) {
+                if (cursor.getString(1).equals(DocumentsContract.Document.MIME_TYPE_DIR)) {
+                    subnodeFolders.put(cursor.getString(2), cursor.getString(0));
+                } else if (cursor.getString(2).equals("node.xml")) {
+                    nodeXmlDocumentId = cursor.getString(0);
+                    nodeXmlModified = cursor.getLong(3);
+                    nodeXmlSize = cursor.getLong(4);
+                } else if (cursor.getString(2).equals("subnodes.lst")) {
+                    subnodesDocumentId = cursor.getString(0);
+                    subnodesModified = cursor.getLong(3);
+                    subnodesSize = cursor.getLong(4);
+                }
+            }
+        }
+        if (nodeXmlDocumentId == null) {
+            return null;
+        }
+        Map<String, String> attributes = null;
+        if (previousSignature != null && previousSignature.isNodeXmlUnchanged(nodeXmlModified, nodeXmlSize)) {
+            attributes = treeStore.getNodeAttributes(previousSignature.getUniqueID());
+        }
+        if (attributes == null) {
+            attributes = parseNodeXml(context, mainFolderUri, nodeXmlDocumentId, nodeXmlModified, searchCache);
+        }
+        List<String> subnodes = null;
+        if (subnodesDocumentId != null) {
+            if (previousSignature != null && previousSignature.isSubnodesUnchanged(subnodesModified, subnodesSize)) {
+                subnodes = previousSignature.getSubnodes();
+            } else {
+                subnodes = getSubnodesList(DocumentsContract.buildDocumentUriUsingTree(mainFolderUri, subnodesDocumentId), context);
+            }
+        }
+        if (subnodes == null) {
+            subnodes = new ArrayList<>();
+        }
+        List<String> subnodeDocumentIds = new ArrayList<>();
+        for (String nodeUniqueID : subnodes) {
+            if (subnodeFolders.containsKey(nodeUniqueID)) {
+                subnodeDocumentIds.add(subnodeFolders.get(nodeUniqueID));
+            }
+        }
+        MultiTreeStore.FolderSignature signature = new MultiTreeStore.FolderSignature(documentId, attributes.get("unique_id"), nodeXmlModified, nodeXmlSize, subnodesModified, subnodesSize, subnodes);
+        onNodeScanned(scannedNodes.incrementAndGet());
+        return new FolderScan(signature, attributes, subnodeDocumentIds);
+    }
+
+    /**
+     * Result of the single node folder scan
+     */
+    private static class FolderScan {
+        private final Map<String, String> attributes;
+        private final MultiTreeStore.FolderSignature signature;
+        private final List<String> subnodeDocumentIds;
+
+        private FolderScan(MultiTreeStore.FolderSignature signature, Map<String, String> attributes, List<String> subnodeDocumentIds) {
+            this.signature = signature;
+            this.attributes = attributes;
+            this.subnodeDocumentIds = subnodeDocumentIds;
+        }
+
+        private Map<String, String> getAttributes() {
+            return attributes;
+        }
+
+        private MultiTreeStore.FolderSignature getSignature() {
+            return signature;
+        }
+
+        private List<String> getSubnodeDocumentIds() {
+            return subnodeDocumentIds;
+        }
+    }
 }
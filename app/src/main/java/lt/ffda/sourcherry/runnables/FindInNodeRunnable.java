@@ -10,7 +10,10 @@
 
 package lt.ffda.sourcherry.runnables;
 
-import android.text.SpannableStringBuilder;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import lt.ffda.sourcherry.MainViewModel;
 import lt.ffda.sourcherry.model.ScNodeContent;
@@ -21,9 +24,14 @@ public class FindInNodeRunnable implements Runnable {
     private final MainViewModel mainViewModel;
     private final String query;
     private final FindInNodeRunnableCallback callback;
+    private int[] matches = new int[64];
+    private int matchCount;
 
     /**
      * Runnable that searches through content of currently opened node. Saves result in MainViewModel.
+     * Search is case insensitive. Node content is case folded only once when FindInNode is opened.
+     * If the query starts with the previous query only the matches of the previous query are checked.
+     * Search is stopped without saving the results if thread is interrupted.
      * @param mainViewModel mainViewModel to get the node content from and store the results of the search
      * @param query text to search for
      * @param callback implemented interface of FindInNodeRunnableCallback
@@ -34,54 +42,164 @@ public class FindInNodeRunnable implements Runnable {
         this.callback = callback;
     }
 
-    @Override
-    public void run() {
-        callback.searchStarted();
-        // To keep track of which TextView representing SpannableStringBuilder is being search for
-        // currently. It DOES NOT count HorizontalScrollView.
-        int counter = 0;
+    /**
+     * Adds match to the match buffer
+     * @param storageIndex index of the TextView in nodeContent
+     * @param start start index of the matching substring
+     */
+    private void addMatch(int storageIndex, int start) {
+        if (matchCount * 2 == matches.length) {
+            matches = Arrays.copyOf(matches, matches.length * 2);
+        }
+        matches[matchCount * 2] = storageIndex;
+        matches[matchCount * 2 + 1] = start;
+        matchCount++;
+    }
+
+    /**
+     * Filters matches of the previous query leaving only the ones that match the new query
+     * @param foldedStorage case folded text of every TextView in nodeContent
+     * @param previousMatches matches of the query that new query starts with
+     * @param pattern case folded query
+     * @return false - search was interrupted
+     */
+    private boolean filterMatches(ArrayList<char[]> foldedStorage, int[] previousMatches, char[] pattern) {
+        for (int i = 0; i < previousMatches.length; i += 2) {
+            if ((i & 0xFFF) == 0 && Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            char[] text = foldedStorage.get(previousMatches[i]);
+            int start = previousMatches[i + 1];
+            if (start + pattern.length > text.length) {
+                continue;
+            }
+            int j = 0;
+            while (j < pattern.length && text[start + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                addMatch(previousMatches[i], start);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates case folded copy of every text in node content. Every table cell gets its own copy.
+     * Text is folded char by char, so indexes in folded copy are the same as in the original text.
+     * @return list of case folded texts in the same order as in FindInNode storage
+     */
+    private ArrayList<char[]> foldNodeContent() {
+        ArrayList<char[]> foldedStorage = new ArrayList<>();
         for (ScNodeContent nodeContent: mainViewModel.getNodeContent().getValue()) {
             if (nodeContent.getContentType() == 0) {
                 // if textview
-                ScNodeContentText scNodeContentText = (ScNodeContentText) nodeContent;
-                int searchLength = query.length();
-                SpannableStringBuilder spannedSearchQuery = scNodeContentText.getContent();
-                int index = 0;
-                while ((index != -1)) {
-                    index = spannedSearchQuery.toString().toLowerCase().indexOf(query.toLowerCase(), index); // searches in case insensitive mode
-                    if (index != -1) {
-                        // If there was a match
-                        int startIndex = index;
-                        int endIndex = index + searchLength; // End of the substring that has to be marked
-                        mainViewModel.addFindInNodeResult(new int[] {counter, startIndex, endIndex});
-                        index += searchLength; // moves search to the end of the last found string
-                    }
-                }
-                counter++;
+                foldedStorage.add(foldCase(((ScNodeContentText) nodeContent).getContent()));
             } else if (nodeContent.getContentType() == 1) {
                 // if it is a table
-                // Has to go to the cell level to reach text
-                // to be able to mark it at appropriate place
-                int searchLength = query.length();
-                ScNodeContentTable scNodeContentTable = (ScNodeContentTable) nodeContent;
-                for (CharSequence[] row: scNodeContentTable.getContent()) {
+                // Every cell is a separate TextView
+                for (CharSequence[] row: ((ScNodeContentTable) nodeContent).getContent()) {
                     for (CharSequence cell: row) {
-                        SpannableStringBuilder spannedSearchQuery = new SpannableStringBuilder(cell);
-                        int index = 0;
-                        while ((index != -1)) {
-                            index = spannedSearchQuery.toString().toLowerCase().indexOf(query.toLowerCase(), index); // searches in case insensitive mode
-                            if (index != -1) {
-                                int startIndex = index;
-                                int endIndex = index + searchLength; // End of the substring that has to be marked
-                                mainViewModel.addFindInNodeResult(new int[]{counter, startIndex, endIndex});
-                                index += searchLength; // moves search to the end of the last found string
-                            }
-                        }
-                        counter++;
+                        foldedStorage.add(foldCase(cell));
                     }
                 }
             }
         }
+        return foldedStorage;
+    }
+
+    /**
+     * Converts every char of the text to lower case
+     * @param text text to convert
+     * @return case folded chars of the text
+     */
+    private char[] foldCase(CharSequence text) {
+        char[] chars = new char[text.length()];
+        TextUtils.getChars(text, 0, chars.length, chars, 0);
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return chars;
+    }
+
+    @Override
+    public void run() {
+        callback.searchStarted();
+        ArrayList<char[]> foldedStorage = mainViewModel.getFindInNodeFoldedStorage();
+        if (foldedStorage == null) {
+            foldedStorage = foldNodeContent();
+            mainViewModel.setFindInNodeFoldedStorage(foldedStorage);
+        }
+        char[] pattern = foldCase(query);
+        String foldedQuery = new String(pattern);
+        int[] previousMatches = mainViewModel.getFindInNodeMatches(foldedQuery);
+        boolean finished;
+        if (previousMatches != null) {
+            finished = filterMatches(foldedStorage, previousMatches, pattern);
+        } else {
+            finished = searchMatches(foldedStorage, pattern);
+        }
+        if (!finished) {
+            return;
+        }
+        // Results are not overlapping matches. The next result starts only after the end of
+        // the previous one in the same TextView.
+        int[] results = new int[matchCount * 3];
+        int resultCount = 0;
+        int previousStorageIndex = -1;
+        int previousEnd = 0;
+        for (int i = 0; i < matchCount * 2; i += 2) {
+            int storageIndex = matches[i];
+            int start = matches[i + 1];
+            if (storageIndex != previousStorageIndex || start >= previousEnd) {
+                results[resultCount * 3] = storageIndex;
+                results[resultCount * 3 + 1] = start;
+                results[resultCount * 3 + 2] = start + pattern.length;
+                resultCount++;
+                previousStorageIndex = storageIndex;
+                previousEnd = start + pattern.length;
+            }
+        }
+        mainViewModel.setFindInNodeResults(foldedQuery, Arrays.copyOf(matches, matchCount * 2), Arrays.copyOf(results, resultCount * 3));
         callback.searchFinished();
     }
+
+    /**
+     * Searches every case folded text for all, overlapping too, matches of the pattern using
+     * Boyer-Moore-Horspool algorithm
+     * @param foldedStorage case folded text of every TextView in nodeContent
+     * @param pattern case folded query
+     * @return false - search was interrupted
+     */
+    private boolean searchMatches(ArrayList<char[]> foldedStorage, char[] pattern) {
+        int last = pattern.length - 1;
+        // Shift table is indexed by the lowest byte of the char. Chars that share it get the
+        // smallest shift of them, so no match is skipped.
+        int[] shift = new int[256];
+        Arrays.fill(shift, pattern.length);
+        for (int i = 0; i < last; i++) {
+            shift[pattern[i] & 0xFF] = last - i;
+        }
+        for (int storageIndex = 0; storageIndex < foldedStorage.size(); storageIndex++) {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            char[] text = foldedStorage.get(storageIndex);
+            int position = 0;
+            while (position + last < text.length) {
+                char c = text[position + last];
+                if (c == pattern[last]) {
+                    int j = last - 1;
+                    while (j >= 0 && text[position + j] == pattern[j]) {
+                        j--;
+                    }
+                    if (j < 0) {
+                        addMatch(storageIndex, position);
+                    }
+                }
+                position += shift[c & 0xFF];
+            }
+        }
+        return true;
+    }
 }
@@ -12,12 +12,29 @@ package lt.ffda.sourcherry.runnables;
 
 /**
  * Callback to execute commands after collecting all the nodes from Multifile database into
- * drawer_menu.xml file.
+ * MultiTreeStore.
  */
 public interface NodesCollectedCallback {
     /**
-     * Callback method to proceed after collect of failing to collect drawer_menu.xml
+     * Callback method to proceed after collect of failing to collect drawer menu tree
      * @param result 0 - success, 1 - failed, 2 - canceled
      */
     void onNodesCollected(int result);
+
+    /**
+     * Callback method that is called every time a node folder is scanned. Might be called from
+     * multiple background threads.
+     * @param scannedNodes number of node folders scanned so far
+     */
+    default void onNodesScanned(int scannedNodes) {
+    }
+
+    /**
+     * Callback method that is called after successful scan, before onNodesCollected
+     * @param scannedNodes number of node folders that were scanned
+     * @param parsedNodes number of node.xml files that were parsed, because they changed since the last scan
+     * @param duration time it took to collect the nodes in milliseconds
+     */
+    default void onScanFinished(int scannedNodes, int parsedNodes, long duration) {
+    }
 }
@@ -27,9 +27,12 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Message;
+import android.os.ParcelFileDescriptor;
 import android.os.Process;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.DocumentsContract;
+import android.text.format.Formatter;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -39,19 +42,30 @@ import androidx.core.app.NotificationManagerCompat;
 import androidx.core.app.ServiceCompat;
 import androidx.preference.PreferenceManager;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import lt.ffda.sourcherry.MainActivity;
 import lt.ffda.sourcherry.R;
+import lt.ffda.sourcherry.ScApplication;
 import lt.ffda.sourcherry.model.FileInfo;
 import lt.ffda.sourcherry.utils.Constants;
 import lt.ffda.sourcherry.utils.Files;
@@ -65,13 +79,106 @@ import lt.ffda.sourcherry.utils.PreferencesUtils;
  */
 public class DatabaseExportService extends Service {
 
+    private final int BUFFER_SIZE = 1024 * 1024;
     private final String DB_RENAME_FORMATTING = "%1$s_%2$s.ctb";
+    private final String DELTA_EXTENSION = ".ctbdelta";
+    private final String DELTA_FORMATTING = "%1$s_%2$s.ctbdelta";
+    private final int DELTA_VERSION = 1;
     private final int ERROR_NOTIFICATION_ID = 2;
     private final String EXPORT_DB_EXTENSION = ".ctb";
+    private final String MANIFEST_FILENAME = "mirror_database_manifest";
     private final int PROGRESS_NOTIFICATION_ID = 1;
+    private final long PROGRESS_UPDATE_INTERVAL = 500;
     private ServiceHandler serviceHandler;
     private Looper serviceLooper;
 
+    /**
+     * Copies internal database to export file. If digest is provided sha256sum of the internal
+     * database is calculated while copying, so the file is read only once. Progress and throughput
+     * of the copy is displayed in the progress notification.
+     * @param internalDB internal database file
+     * @param exportDBUri uri of the export file
+     * @param digest SHA-256 digest to update with copied data. Can be null.
+     * @param manifest manifest to add hashes of copied blocks to. Can be null.
+     * @throws IOException failed to read internal database or write export file
+     */
+    private void copyDatabase(File internalDB, Uri exportDBUri, MessageDigest digest, MirrorDatabaseManifest manifest) throws IOException {
+        ParcelFileDescriptor exportDBDescriptor = getContentResolver().openFileDescriptor(exportDBUri, "wt");
+        if (exportDBDescriptor == null) {
+            throw new FileNotFoundException("Failed to open export database file");
+        }
+        try (FileChannel source = new FileInputStream(internalDB).getChannel();
+             FileChannel destination = new ParcelFileDescriptor.AutoCloseOutputStream(exportDBDescriptor).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long size = source.size();
+            long copied = 0;
+            long startTime = SystemClock.elapsedRealtime();
+            long lastUpdate = startTime;
+            while (readFully(source, buffer) > 0) {
+                buffer.flip();
+                if (digest != null) {
+                    digest.update(buffer);
+                    buffer.rewind();
+                }
+                if (manifest != null) {
+                    manifest.addBlocks(buffer);
+                }
+                while (buffer.hasRemaining()) {
+                    copied += destination.write(buffer);
+                }
+                buffer.clear();
+                if (SystemClock.elapsedRealtime() - lastUpdate >= PROGRESS_UPDATE_INTERVAL) {
+                    lastUpdate = SystemClock.elapsedRealtime();
+                    updateProgressNotification(R.string.dialog_fragment_export_database_message_exporting_database, copied, size, startTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a copy of mirror database in mirror database folder. Copy is made by document
+     * provider without reading the file through the app.
+     * @param mirrorDbUri uri of mirror database
+     * @param mirrorDbFolderUri uri of the mirror database folder with permissions to create files in it
+     * @param copyFilename file name for the copy
+     * @return uri of the copy or null if document provider can't copy mirror database
+     */
+    private Uri copyMirrorDatabase(Uri mirrorDbUri, Uri mirrorDbFolderUri, String copyFilename) {
+        try (Cursor cursor = getContentResolver().query(mirrorDbUri, new String[]{DocumentsContract.Document.COLUMN_FLAGS}, null, null, null)) {
+            if (cursor == null || !cursor.moveToFirst() || (cursor.getInt(0) & DocumentsContract.Document.FLAG_SUPPORTS_COPY) == 0) {
+                return null;
+            }
+        }
+        Uri copyUri;
+        try {
+            copyUri = DocumentsContract.copyDocument(getContentResolver(), mirrorDbUri, mirrorDbFolderUri);
+        } catch (FileNotFoundException | IllegalArgumentException | UnsupportedOperationException e) {
+            return null;
+        }
+        if (copyUri == null) {
+            return null;
+        }
+        try {
+            Uri renamedUri = DocumentsContract.renameDocument(getContentResolver(), copyUri, copyFilename);
+            return renamedUri != null ? renamedUri : copyUri;
+        } catch (FileNotFoundException | IllegalArgumentException | UnsupportedOperationException e) {
+            deleteDatabase(copyUri);
+            return null;
+        }
+    }
+
+    /**
+     * Creates empty manifest for incremental export
+     * @return manifest or null if it could not be created
+     */
+    private MirrorDatabaseManifest createManifest() {
+        try {
+            return new MirrorDatabaseManifest();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
     /**
      * Creates notification with message with message about result of export task.
      * @param notificationTextId id of the text resource for the title of the notification.
@@ -111,19 +218,20 @@ public class DatabaseExportService extends Service {
     }
 
     /**
-     * Deletes old backups of database leaving only set number. WILL DELETE ALL FILE WITH ".ctb" EXTENSION.
+     * Deletes old backups of database leaving only set number. WILL DELETE ALL FILE WITH PROVIDED EXTENSION.
      * @param mirrorDbRoot Uri of mirrorDatabase root folder
      * @param dbFilename filnemae of the mirrorDatabase
+     * @param extension extension of the backup files
      * @param toLeave count of backups to leave
      * @throws FileNotFoundException if it fails to delete a file
      */
-    private void deleteExtraBackups(@NonNull Uri mirrorDbRoot, @NonNull String dbFilename, int toLeave) throws FileNotFoundException {
+    private void deleteExtraBackups(@NonNull Uri mirrorDbRoot, @NonNull String dbFilename, @NonNull String extension, int toLeave) throws FileNotFoundException {
         Map<Long, String> filesToDelete = new HashMap<>();
         Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(mirrorDbRoot, DocumentsContract.getTreeDocumentId(mirrorDbRoot));
         try (Cursor cursor = getContentResolver().query(childrenUri, new String[]{"document_id", "_display_name", "last_modified"}, null, null, null)) {
             while (cursor != null && cursor.moveToNext()) {
                 String fileName = cursor.getString(1);
-                if (fileName.endsWith(EXPORT_DB_EXTENSION) && !dbFilename.equals(fileName)) {
+                if (fileName.endsWith(extension) && !dbFilename.equals(fileName)) {
                     filesToDelete.put(cursor.getLong(2), cursor.getString(0));
                 }
             }
@@ -135,6 +243,128 @@ public class DatabaseExportService extends Service {
         }
     }
 
+    /**
+     * Writes only blocks of internal database that changed since the last export to a copy of
+     * mirror database. Copy is made by document provider, so unchanged blocks are not sent through
+     * the app. Mirror database itself is not changed. Before the copy is patched old content of the
+     * changed blocks is saved to delta backup file in mirror database folder. Applying delta
+     * backups from the newest to the oldest one to mirror database restores its previous versions.
+     * Delta backup file consists of version, block size, old file length, new file length and
+     * number of blocks (int, int, long, long, int) followed by index, length and old content
+     * (int, int, bytes) of every block that existed in the old file. If anything fails the copy and
+     * delta backup are deleted.
+     * @param internalDB internal database file
+     * @param mirrorDbUri uri of mirror database
+     * @param mirrorDbFolderUri uri of the mirror database folder with permissions to create files in it
+     * @param tmpFilename file name for the copy of mirror database
+     * @param deltaFilename file name for the delta backup
+     * @param previous manifest of mirror database saved during previous export
+     * @param manifest empty manifest to add hashes of internal database blocks to
+     * @param verify true - read back whole patched copy to make sure it matches internal database
+     * @return uri of the patched copy that can replace mirror database or null if database has to be exported whole
+     */
+    private Uri exportIncrementally(File internalDB, Uri mirrorDbUri, Uri mirrorDbFolderUri, String tmpFilename, String deltaFilename, MirrorDatabaseManifest previous, MirrorDatabaseManifest manifest, boolean verify) {
+        Uri tmpDbUri = copyMirrorDatabase(mirrorDbUri, mirrorDbFolderUri, tmpFilename);
+        if (tmpDbUri == null) {
+            return null;
+        }
+        Uri deltaUri = null;
+        boolean patched = false;
+        try (ParcelFileDescriptor mirrorDbDescriptor = getContentResolver().openFileDescriptor(mirrorDbUri, "r");
+             ParcelFileDescriptor tmpDbDescriptor = getContentResolver().openFileDescriptor(tmpDbUri, "rw")) {
+            if (mirrorDbDescriptor == null || tmpDbDescriptor == null) {
+                return null;
+            }
+            // Channel of FileOutputStream is write only, so the copy is read back through a
+            // separate channel of the same descriptor
+            try (FileChannel source = new FileInputStream(internalDB).getChannel();
+                 FileChannel mirror = new FileInputStream(mirrorDbDescriptor.getFileDescriptor()).getChannel();
+                 FileChannel tmp = new FileOutputStream(tmpDbDescriptor.getFileDescriptor()).getChannel();
+                 FileChannel tmpReader = new FileInputStream(tmpDbDescriptor.getFileDescriptor()).getChannel()) {
+                if (mirror.size() != previous.getLength() || tmpReader.size() != previous.getLength()) {
+                    // Mirror database was changed by somebody else or it was not copied whole
+                    return null;
+                }
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                long startTime = SystemClock.elapsedRealtime();
+                long lastUpdate = startTime;
+                while (readFully(source, buffer) > 0) {
+                    buffer.flip();
+                    manifest.addBlocks(buffer);
+                    buffer.clear();
+                    if (SystemClock.elapsedRealtime() - lastUpdate >= PROGRESS_UPDATE_INTERVAL) {
+                        lastUpdate = SystemClock.elapsedRealtime();
+                        updateProgressNotification(R.string.noti_database_export_comparing_databases, manifest.getLength(), source.size(), startTime);
+                    }
+                }
+                List<Integer> changedBlocks = manifest.getChangedBlocks(previous);
+                if (changedBlocks.size() > manifest.getBlockCount() / 2) {
+                    // Whole copy will be faster
+                    return null;
+                }
+                ByteBuffer block = ByteBuffer.allocateDirect(MirrorDatabaseManifest.BLOCK_SIZE);
+                deltaUri = DocumentsContract.createDocument(getContentResolver(), mirrorDbFolderUri, "*/*", deltaFilename);
+                if (deltaUri == null) {
+                    return null;
+                }
+                writeDelta(mirror, deltaUri, changedBlocks, previous, manifest, block);
+                startTime = SystemClock.elapsedRealtime();
+                lastUpdate = startTime;
+                for (int i = 0; i < changedBlocks.size(); i++) {
+                    long position = (long) changedBlocks.get(i) * MirrorDatabaseManifest.BLOCK_SIZE;
+                    block.clear();
+                    source.position(position);
+                    readFully(source, block);
+                    block.flip();
+                    while (block.hasRemaining()) {
+                        position += tmp.write(block, position);
+                    }
+                    if (SystemClock.elapsedRealtime() - lastUpdate >= PROGRESS_UPDATE_INTERVAL) {
+                        lastUpdate = SystemClock.elapsedRealtime();
+                        updateProgressNotification(R.string.dialog_fragment_export_database_message_exporting_database,
+                                (long) i * MirrorDatabaseManifest.BLOCK_SIZE, (long) changedBlocks.size() * MirrorDatabaseManifest.BLOCK_SIZE, startTime);
+                    }
+                }
+                tmp.truncate(manifest.getLength());
+                tmp.force(false);
+                if (verify) {
+                    // Unchanged blocks were copied by document provider, so the whole copy is checked
+                    if (tmpReader.size() != manifest.getLength()) {
+                        return null;
+                    }
+                    tmpReader.position(0);
+                    startTime = SystemClock.elapsedRealtime();
+                    lastUpdate = startTime;
+                    for (int index = 0; index < manifest.getBlockCount(); index++) {
+                        block.clear();
+                        readFully(tmpReader, block);
+                        block.flip();
+                        if (!manifest.isBlockEqual(index, manifest.hashBlock(block))) {
+                            return null;
+                        }
+                        if (SystemClock.elapsedRealtime() - lastUpdate >= PROGRESS_UPDATE_INTERVAL) {
+                            lastUpdate = SystemClock.elapsedRealtime();
+                            updateProgressNotification(R.string.noti_database_export_verifying_database,
+                                    (long) index * MirrorDatabaseManifest.BLOCK_SIZE, manifest.getLength(), startTime);
+                        }
+                    }
+                }
+                patched = true;
+                return tmpDbUri;
+            }
+        } catch (IOException | IllegalArgumentException | UnsupportedOperationException | NonReadableChannelException | NonWritableChannelException e) {
+            return null;
+        } finally {
+            if (!patched) {
+                // Mirror database was not touched, so the copy and delta backup are useless
+                deleteDatabase(tmpDbUri);
+                if (deltaUri != null) {
+                    deleteDatabase(deltaUri);
+                }
+            }
+        }
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
@@ -164,6 +394,162 @@ public class DatabaseExportService extends Service {
         return START_REDELIVER_INTENT;
     }
 
+    /**
+     * Reads from the channel until buffer is full or end of the channel is reached
+     * @param channel channel to read from
+     * @param buffer buffer to read in to
+     * @return number of bytes read
+     * @throws IOException failed to read from the channel
+     */
+    private int readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int read = 0;
+        int length;
+        while (buffer.hasRemaining() && (length = channel.read(buffer)) != -1) {
+            read += length;
+        }
+        return read;
+    }
+
+    /**
+     * Saves modification timestamp of the mirror database after successful export. If manifest
+     * is provided it's saved for the next incremental export, otherwise old manifest is deleted.
+     * @param sharedPreferences app's preferences
+     * @param mirrorDbUri uri of the mirror database
+     * @param mirrorDbFilename file name of the mirror database
+     * @param manifest manifest of the exported database. Can be null.
+     */
+    private void saveExportState(SharedPreferences sharedPreferences, Uri mirrorDbUri, String mirrorDbFilename, MirrorDatabaseManifest manifest) {
+        long newTimestamp;
+        try {
+            newTimestamp = Files.getFileTimestamp(getContentResolver(), mirrorDbUri);
+        } catch (Exception e) {
+            newTimestamp = System.currentTimeMillis();
+        }
+        File manifestFile = new File(getFilesDir(), MANIFEST_FILENAME);
+        if (manifest != null) {
+            try {
+                manifest.write(manifestFile, mirrorDbFilename, newTimestamp);
+            } catch (IOException e) {
+                manifestFile.delete();
+            }
+        } else {
+            manifestFile.delete();
+        }
+
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        editor.putLong("mirrorDatabaseLastModified", newTimestamp);
+        editor.apply();
+    }
+
+    /**
+     * Updates progress notification with processed amount of data and throughput
+     * @param notificationTextId id of the text resource for the title of the notification
+     * @param processed bytes processed so far
+     * @param total total bytes to process
+     * @param startTime time when processing started in SystemClock.elapsedRealtime() milliseconds
+     */
+    private void updateProgressNotification(int notificationTextId, long processed, long total, long startTime) {
+        Context context = getApplicationContext();
+        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+        Notification notification = new NotificationCompat.Builder(context, Constants.DATABASE_EXPORT_NOTI)
+                .setSmallIcon(R.drawable.ic_launcher_foreground)
+                .setContentTitle(context.getString(notificationTextId))
+                .setContentText(context.getString(R.string.noti_database_export_progress,
+                        Formatter.formatShortFileSize(context, processed),
+                        Formatter.formatShortFileSize(context, total),
+                        Formatter.formatShortFileSize(context, processed * 1000 / elapsed)))
+                .setProgress(100, total > 0 ? (int) (processed * 100 / total) : 0, false)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setOnlyAlertOnce(true)
+                .setSilent(true)
+                .build();
+        NotificationManagerCompat.from(context).notify(PROGRESS_NOTIFICATION_ID, notification);
+    }
+
+    /**
+     * Reads back export file and calculates its sha256sum. Progress and throughput of the read
+     * is displayed in the progress notification.
+     * @param exportDBUri uri of the export file
+     * @param size size of the export file
+     * @return sha256sum of the export file
+     * @throws IOException failed to read export file
+     * @throws NoSuchAlgorithmException failed to open MessageDigest instance
+     */
+    private String verifyDatabase(Uri exportDBUri, long size) throws IOException, NoSuchAlgorithmException {
+        ParcelFileDescriptor exportDBDescriptor = getContentResolver().openFileDescriptor(exportDBUri, "r");
+        if (exportDBDescriptor == null) {
+            throw new FileNotFoundException("Failed to open export database file");
+        }
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (FileChannel source = new ParcelFileDescriptor.AutoCloseInputStream(exportDBDescriptor).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long read = 0;
+            long startTime = SystemClock.elapsedRealtime();
+            long lastUpdate = startTime;
+            int length;
+            while ((length = source.read(buffer)) != -1) {
+                read += length;
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+                if (SystemClock.elapsedRealtime() - lastUpdate >= PROGRESS_UPDATE_INTERVAL) {
+                    lastUpdate = SystemClock.elapsedRealtime();
+                    updateProgressNotification(R.string.noti_database_export_verifying_database, read, size, startTime);
+                }
+            }
+        }
+        return Files.bytesToHex(digest.digest());
+    }
+
+    /**
+     * Writes delta backup file with current content of the mirror database blocks that are about
+     * to be changed
+     * @param mirror readable channel of mirror database
+     * @param deltaUri uri of the delta backup file
+     * @param changedBlocks indexes of the blocks that will be changed
+     * @param previous manifest of the current mirror database
+     * @param manifest manifest of the internal database
+     * @param block buffer big enough to hold one block
+     * @throws IOException failed to read mirror database or write delta backup file
+     */
+    private void writeDelta(FileChannel mirror, Uri deltaUri, List<Integer> changedBlocks, MirrorDatabaseManifest previous, MirrorDatabaseManifest manifest, ByteBuffer block) throws IOException {
+        int previousBlockCount = previous.getBlockCount();
+        int deltaBlockCount = 0;
+        for (int index : changedBlocks) {
+            if (index < previousBlockCount) {
+                deltaBlockCount++;
+            }
+        }
+        OutputStream outputStream = getContentResolver().openOutputStream(deltaUri, "wt");
+        if (outputStream == null) {
+            throw new FileNotFoundException("Failed to open delta backup file");
+        }
+        try (DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE))) {
+            dataOutputStream.writeInt(DELTA_VERSION);
+            dataOutputStream.writeInt(MirrorDatabaseManifest.BLOCK_SIZE);
+            dataOutputStream.writeLong(previous.getLength());
+            dataOutputStream.writeLong(manifest.getLength());
+            dataOutputStream.writeInt(deltaBlockCount);
+            byte[] bytes = new byte[MirrorDatabaseManifest.BLOCK_SIZE];
+            for (int index : changedBlocks) {
+                if (index >= previousBlockCount) {
+                    continue;
+                }
+                block.clear();
+                mirror.position((long) index * MirrorDatabaseManifest.BLOCK_SIZE);
+                int length = readFully(mirror, block);
+                block.flip();
+                block.get(bytes, 0, length);
+                dataOutputStream.writeInt(index);
+                dataOutputStream.writeInt(length);
+                dataOutputStream.write(bytes, 0, length);
+            }
+        }
+    }
+
     private final class ServiceHandler extends Handler {
         public ServiceHandler(Looper looper) {
             super(looper);
@@ -172,6 +558,15 @@ public class DatabaseExportService extends Service {
         public void handleMessage(Message msg) {
             Context context = DatabaseExportService.this;
             SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+            // Changes of the database might still be written to the internal database file
+            Future<?> pendingChangesWrite = ((ScApplication) getApplication()).appContainer.pendingChangesWrite;
+            if (pendingChangesWrite != null) {
+                try {
+                    pendingChangesWrite.get();
+                } catch (ExecutionException | InterruptedException e) {
+                    // Exporting database file as it is
+                }
+            }
             String mirrorDbFilename = sharedPreferences.getString("mirrorDatabaseFilename", null);
             FileInfo mirrorDbData = Files.getFileUriAndModDate(getContentResolver(),
                     sharedPreferences.getString("mirrorDatabaseFolderUri", null), mirrorDbFilename);
@@ -210,9 +605,45 @@ public class DatabaseExportService extends Service {
                 exportDBUri = tmpExportDbData.getUri();
             }
 
+            mirrorDbFolderUri = DocumentsContract.buildDocumentUriUsingTree(savedMirrorDbFolderUri,
+                    DocumentsContract.getTreeDocumentId(savedMirrorDbFolderUri));
+            boolean verifyExport = sharedPreferences.getBoolean("mirror_database_verify_export_switch", true);
+            boolean incrementalExport = sharedPreferences.getBoolean("mirror_database_incremental_export_switch", false);
+
+            // Incremental export is possible only if previous export finished and saved manifest
+            // of the mirror database
+            if (incrementalExport && exportDBUri == null) {
+                MirrorDatabaseManifest previousManifest = MirrorDatabaseManifest.read(new File(getFilesDir(), MANIFEST_FILENAME), mirrorDbFilename, mirrorDatabaseLastModified);
+                MirrorDatabaseManifest manifest = createManifest();
+                Uri patchedDbUri = null;
+                if (previousManifest != null && manifest != null) {
+                    patchedDbUri = exportIncrementally(internalDB, mirrorDbData.getUri(), mirrorDbFolderUri, String.format("%1$s_tmp.ctb", Files.getFileName(mirrorDbFilename)),
+                            String.format(DELTA_FORMATTING, Files.getFileName(mirrorDbFilename), mirrorDbData.getModified()), previousManifest, manifest, verifyExport);
+                }
+                if (patchedDbUri != null) {
+                    // Previous version of mirror database can be restored from delta backup
+                    Uri newMirrorDbUri;
+                    try {
+                        DocumentsContract.deleteDocument(getContentResolver(), mirrorDbData.getUri());
+                        newMirrorDbUri = DocumentsContract.renameDocument(getContentResolver(), patchedDbUri, mirrorDbFilename);
+                    } catch (FileNotFoundException e) {
+                        PreferencesUtils.disableMirrorDatabase(sharedPreferences);
+                        createNotification(R.string.toast_error_failed_to_export_database, getString(R.string.noti_database_export_failed_rename_databases));
+                        stopSelf(msg.arg1);
+                        return;
+                    }
+                    try {
+                        deleteExtraBackups(savedMirrorDbFolderUri, mirrorDbFilename, DELTA_EXTENSION, 3);
+                    } catch (FileNotFoundException e) {
+                        createNotification(R.string.toast_error_failed_to_export_database, getString(R.string.noti_database_export_failed_delete_extra_backups));
+                    }
+                    saveExportState(sharedPreferences, newMirrorDbUri != null ? newMirrorDbUri : patchedDbUri, mirrorDbFilename, manifest);
+                    stopSelf(msg.arg1);
+                    return;
+                }
+            }
+
             try {
-                mirrorDbFolderUri = DocumentsContract.buildDocumentUriUsingTree(savedMirrorDbFolderUri,
-                        DocumentsContract.getTreeDocumentId(savedMirrorDbFolderUri));
                 if (exportDBUri == null) {
                     exportDBUri = DocumentsContract.createDocument(getContentResolver(), mirrorDbFolderUri, "*/*",
                             String.format("%1$s_tmp.ctb", Files.getFileName(mirrorDbFilename)));
@@ -223,34 +654,38 @@ public class DatabaseExportService extends Service {
                 return;
             }
 
-            try (InputStream inputStream = new FileInputStream(internalDB);
-                 OutputStream outputStream = getContentResolver().openOutputStream(exportDBUri, "wt");) {
-                byte[] buf = new byte[8 * 1024];
-                int len;
-                while ((len = inputStream.read(buf)) > 0) {
-                    outputStream.write(buf, 0, len);
+            // Internal database is hashed while copying, so only export file has to be read back
+            // to verify it
+            MessageDigest digest = null;
+            MirrorDatabaseManifest manifest = incrementalExport ? createManifest() : null;
+            try {
+                if (verifyExport) {
+                    digest = MessageDigest.getInstance("SHA-256");
                 }
-            } catch (IOException e) {
+                copyDatabase(internalDB, exportDBUri, digest, manifest);
+            } catch (IOException | NoSuchAlgorithmException e) {
                 createNotification(R.string.toast_error_failed_to_export_database, getString(R.string.noti_database_export_failed_to_copy));
                 stopSelf(msg.arg1);
                 return;
             }
 
             // Checking hash'es to make sure that files are the same
-            try (InputStream inputStream = new FileInputStream(internalDB)) {
-                String interanalSHA256Sum = Files.calculateFileSha256Sum(inputStream);
-                String tempSHA256Sum = Files.calculateFileSha256Sum(context, exportDBUri);
-                if (!interanalSHA256Sum.equals(tempSHA256Sum)) {
+            if (verifyExport) {
+                try {
+                    String interanalSHA256Sum = Files.bytesToHex(digest.digest());
+                    String tempSHA256Sum = verifyDatabase(exportDBUri, internalDB.length());
+                    if (!interanalSHA256Sum.equals(tempSHA256Sum)) {
+                        deleteDatabase(exportDBUri);
+                        createNotification(R.string.toast_error_failed_to_export_database, getString(R.string.noti_database_export_fail_integrity_check));
+                        stopSelf(msg.arg1);
+                        return;
+                    }
+                } catch (Exception e) {
                     deleteDatabase(exportDBUri);
                     createNotification(R.string.toast_error_failed_to_export_database, getString(R.string.noti_database_export_fail_integrity_check));
                     stopSelf(msg.arg1);
                     return;
                 }
-            } catch (Exception e) {
-                deleteDatabase(exportDBUri);
-                createNotification(R.string.toast_error_failed_to_export_database, getString(R.string.noti_database_export_fail_integrity_check));
-                stopSelf(msg.arg1);
-                return;
             }
 
             // Renaming old DB to backup file and tmp DB to new export
@@ -265,24 +700,18 @@ public class DatabaseExportService extends Service {
             }
 
             try {
-                deleteExtraBackups(savedMirrorDbFolderUri, mirrorDbFilename, 3);
+                // With incremental export older versions are kept as delta backups, so a single
+                // full backup is enough
+                deleteExtraBackups(savedMirrorDbFolderUri, mirrorDbFilename, EXPORT_DB_EXTENSION, incrementalExport ? 1 : 3);
+                // Full backup made from the previous mirror database replaces delta backups
+                deleteExtraBackups(savedMirrorDbFolderUri, mirrorDbFilename, DELTA_EXTENSION, 0);
             } catch (FileNotFoundException e) {
                 createNotification(R.string.toast_error_failed_to_export_database, getString(R.string.noti_database_export_failed_delete_extra_backups));
                 stopSelf(msg.arg1);
                 return;
             }
 
-            long newTimestamp;
-            try {
-                newTimestamp = Files.getFileTimestamp(getContentResolver(), mirrorDbData.getUri());
-            } catch (Exception e) {
-                newTimestamp = System.currentTimeMillis();
-            }
-
-            SharedPreferences.Editor editor = sharedPreferences.edit();
-            editor.putLong("mirrorDatabaseLastModified", newTimestamp);
-            editor.apply();
-
+            saveExportState(sharedPreferences, mirrorDbData.getUri(), mirrorDbFilename, manifest);
             stopSelf(msg.arg1);
         }
     }
@@ -0,0 +1,183 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SHA-256 hashes of fixed size blocks of the database file. Manifest of the mirror database is
+ * saved after every export, so next export can find blocks of internal database that changed
+ * since then and write only them to mirror database. Saved manifest is valid only for the mirror
+ * database file name and modification timestamp it was saved with.
+ */
+public class MirrorDatabaseManifest {
+    /**
+     * Size of the block. Multiple of every page size SQLite database can have, so change of a
+     * page never touches more than one block.
+     */
+    public static final int BLOCK_SIZE = 64 * 1024;
+    private static final int HASH_SIZE = 32;
+    private static final int VERSION = 1;
+    private final MessageDigest digest;
+    private byte[] hashes = new byte[HASH_SIZE * 64];
+    private long length;
+
+    /**
+     * Creates empty manifest. Blocks are added to it with addBlocks.
+     * @throws NoSuchAlgorithmException failed to open MessageDigest instance
+     */
+    public MirrorDatabaseManifest() throws NoSuchAlgorithmException {
+        digest = MessageDigest.getInstance("SHA-256");
+    }
+
+    /**
+     * Reads manifest from the file
+     * @param file file manifest was saved to
+     * @param filename file name of the mirror database
+     * @param modified modification timestamp of the mirror database
+     * @return manifest or null if file does not exist, can't be read or was saved for another mirror database file
+     */
+    public static MirrorDatabaseManifest read(File file, String filename, long modified) {
+        try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (dataInputStream.readInt() != VERSION || dataInputStream.readInt() != BLOCK_SIZE
+                    || !dataInputStream.readUTF().equals(filename) || dataInputStream.readLong() != modified) {
+                return null;
+            }
+            MirrorDatabaseManifest manifest = new MirrorDatabaseManifest();
+            manifest.length = dataInputStream.readLong();
+            manifest.hashes = new byte[manifest.getBlockCount() * HASH_SIZE];
+            dataInputStream.readFully(manifest.hashes);
+            return manifest;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hashes blocks of data and adds them to the end of the manifest. Every buffer, except the
+     * last one, has to contain only whole blocks.
+     * @param buffer buffer with data between its position and limit. Position of the buffer is not changed.
+     */
+    public void addBlocks(ByteBuffer buffer) {
+        ByteBuffer block = buffer.duplicate();
+        while (block.position() < buffer.limit()) {
+            block.limit(Math.min(buffer.limit(), block.position() + BLOCK_SIZE));
+            int index = getBlockCount();
+            if ((index + 1) * HASH_SIZE > hashes.length) {
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            }
+            length += block.remaining();
+            System.arraycopy(hashBlock(block), 0, hashes, index * HASH_SIZE, HASH_SIZE);
+            block.limit(buffer.limit());
+        }
+    }
+
+    /**
+     * Returns number of blocks in the manifest. Last block can be shorter than BLOCK_SIZE.
+     * @return number of blocks
+     */
+    public int getBlockCount() {
+        return (int) ((length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    }
+
+    /**
+     * Returns indexes of the blocks that are different from the blocks of previous manifest.
+     * Blocks that previous manifest does not have are counted as changed.
+     * @param previous manifest to compare to
+     * @return list of changed block indexes in ascending order
+     */
+    public List<Integer> getChangedBlocks(MirrorDatabaseManifest previous) {
+        List<Integer> changedBlocks = new ArrayList<>();
+        int previousBlockCount = previous.getBlockCount();
+        for (int i = 0; i < getBlockCount(); i++) {
+            if (i >= previousBlockCount || !isBlockEqual(i, previous.hashes, i * HASH_SIZE)) {
+                changedBlocks.add(i);
+            }
+        }
+        return changedBlocks;
+    }
+
+    /**
+     * Returns length of the file manifest was created for
+     * @return length in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Calculates hash of the block. Buffer's position is moved to its limit.
+     * @param block buffer with the data of the block between its position and limit
+     * @return SHA-256 hash of the block
+     */
+    public byte[] hashBlock(ByteBuffer block) {
+        digest.update(block);
+        return digest.digest();
+    }
+
+    /**
+     * Checks if block of the manifest has the hash
+     * @param index index of the block
+     * @param hash hash to compare with
+     * @return true - block has the same hash
+     */
+    public boolean isBlockEqual(int index, byte[] hash) {
+        return isBlockEqual(index, hash, 0);
+    }
+
+    /**
+     * Checks if block of the manifest has the hash found in the array at the offset
+     * @param index index of the block
+     * @param array array with the hash
+     * @param offset offset of the hash in the array
+     * @return true - block has the same hash
+     */
+    private boolean isBlockEqual(int index, byte[] array, int offset) {
+        int start = index * HASH_SIZE;
+        for (int i = 0; i < HASH_SIZE; i++) {
+            if (hashes[start + i] != array[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Saves manifest to the file
+     * @param file file to save manifest to
+     * @param filename file name of the mirror database
+     * @param modified modification timestamp of the mirror database
+     * @throws IOException failed to write the file
+     */
+    public void write(File file, String filename, long modified) throws IOException {
+        try (DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            dataOutputStream.writeInt(VERSION);
+            dataOutputStream.writeInt(BLOCK_SIZE);
+            dataOutputStream.writeUTF(filename);
+            dataOutputStream.writeLong(modified);
+            dataOutputStream.writeLong(length);
+            dataOutputStream.write(hashes, 0, getBlockCount() * HASH_SIZE);
+        }
+    }
+}
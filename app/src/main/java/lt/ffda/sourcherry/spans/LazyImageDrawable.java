@@ -0,0 +1,270 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.spans;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.text.Spanned;
+import android.util.LruCache;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import lt.ffda.sourcherry.AppContainer;
+import lt.ffda.sourcherry.ScApplication;
+
+/**
+ * Drawable for images embedded in to node content. When created only dimensions of the image are
+ * decoded. Image itself is decoded in background thread the first time drawable is drawn. It is
+ * downsampled to the size it will be displayed at and stored in the bitmap cache shared by the
+ * whole app, so it can be reused when node is opened again. Until image is decoded a placeholder
+ * of the same size is drawn.
+ */
+public class LazyImageDrawable extends Drawable {
+    private final LruCache<String, Bitmap> bitmapCache;
+    private final String cacheKey;
+    private final Context context;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Handler handler;
+    private final byte[] imageBytes;
+    private final Uri imageUri;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint placeholderPaint = new Paint();
+    private final int sourceHeight;
+    private final int sourceWidth;
+    private boolean decoding;
+    private volatile boolean failed;
+    private WeakReference<View> view;
+
+    /**
+     * Creates drawable for image that is stored in memory in encoded form
+     * @param context context of the app
+     * @param cacheKey key under witch decoded bitmap will be stored in bitmap cache. Has to be unique for every image of the database
+     * @param imageBytes encoded image
+     * @throws IOException image dimensions could not be decoded
+     */
+    public LazyImageDrawable(Context context, String cacheKey, byte[] imageBytes) throws IOException {
+        this(context, cacheKey, imageBytes, null);
+    }
+
+    /**
+     * Creates drawable for image that is stored in a file
+     * @param context context of the app
+     * @param cacheKey key under witch decoded bitmap will be stored in bitmap cache. Has to be unique for every image of the database
+     * @param imageUri uri of the image file
+     * @throws IOException image file could not be opened or its dimensions could not be decoded
+     */
+    public LazyImageDrawable(Context context, String cacheKey, Uri imageUri) throws IOException {
+        this(context, cacheKey, null, imageUri);
+    }
+
+    private LazyImageDrawable(Context context, String cacheKey, byte[] imageBytes, Uri imageUri) throws IOException {
+        this.context = context.getApplicationContext();
+        this.cacheKey = cacheKey;
+        this.imageBytes = imageBytes;
+        this.imageUri = imageUri;
+        AppContainer appContainer = ((ScApplication) this.context).appContainer;
+        bitmapCache = appContainer.bitmapCache;
+        executor = appContainer.executor;
+        handler = appContainer.handler;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream is = openInputStream()) {
+            BitmapFactory.decodeStream(is, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Failed to decode image dimensions");
+        }
+        sourceWidth = options.outWidth;
+        sourceHeight = options.outHeight;
+        placeholderPaint.setColor(0x33808080);
+        int width = Resources.getSystem().getDisplayMetrics().widthPixels;
+        if (sourceWidth > width - 10) {
+            // If image is wider than screen it is scaled down to fit the screen
+            // otherwise it will not load/be displayed
+            float scale = ((float) width / sourceWidth) - (float) 0.1;
+            setBounds(0, 0, (int) (sourceWidth * scale), (int) (sourceHeight * scale));
+        } else {
+            setBounds(0, 0, sourceWidth, sourceHeight);
+        }
+    }
+
+    /**
+     * Sets the view that displays all the LazyImageDrawables found in TextView's text. This view
+     * will be redrawn when image is decoded.
+     * @param textView TextView with the node content
+     */
+    public static void attachToView(TextView textView) {
+        attachToView(textView, textView.getText());
+    }
+
+    /**
+     * Sets the view that displays all the LazyImageDrawables found in the text. This view will be
+     * redrawn when image is decoded.
+     * @param view view that displays the text
+     * @param text text that will be displayed in the view
+     */
+    public static void attachToView(View view, CharSequence text) {
+        if (!(text instanceof Spanned)) {
+            return;
+        }
+        for (ImageSpanImage imageSpanImage : ((Spanned) text).getSpans(0, text.length(), ImageSpanImage.class)) {
+            if (imageSpanImage.getDrawable() instanceof LazyImageDrawable) {
+                ((LazyImageDrawable) imageSpanImage.getDrawable()).view = new WeakReference<>(view);
+            }
+        }
+    }
+
+    /**
+     * Calculates the biggest power of two that image can be downsampled by and still be not
+     * narrower than the width it will be displayed at
+     * @param targetWidth width at witch image will be displayed
+     * @return sample size to use when decoding the image
+     */
+    private int calculateInSampleSize(int targetWidth) {
+        int inSampleSize = 1;
+        while (targetWidth > 0 && sourceWidth / (inSampleSize * 2) >= targetWidth) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Decodes downsampled image and puts it in to bitmap cache
+     * @return decoded bitmap or null if image could not be decoded
+     */
+    private Bitmap decodeBitmap() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = calculateInSampleSize(getBounds().width());
+        Bitmap bitmap = null;
+        try (InputStream is = openInputStream()) {
+            bitmap = BitmapFactory.decodeStream(is, null, options);
+        } catch (IOException | OutOfMemoryError e) {
+            // Placeholder will be left displayed
+        }
+        if (bitmap == null) {
+            failed = true;
+        } else {
+            bitmapCache.put(cacheKey, bitmap);
+        }
+        return bitmap;
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas) {
+        Bitmap bitmap = bitmapCache.get(cacheKey);
+        if (bitmap == null && !failed && !canvas.isHardwareAccelerated()) {
+            // Software canvases (like the one used for PDF export) are drawn only once, so
+            // image has to be decoded right away
+            bitmap = decodeBitmap();
+        }
+        if (bitmap != null) {
+            canvas.drawBitmap(bitmap, null, getBounds(), paint);
+        } else {
+            canvas.drawRect(getBounds(), placeholderPaint);
+            requestDecode();
+        }
+    }
+
+    /**
+     * Returns encoded image that drawable was created from
+     * @return encoded image or null if drawable was created from the file
+     */
+    public byte[] getImageBytes() {
+        return imageBytes;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return getBounds().height();
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return getBounds().width();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    /**
+     * Opens a stream of the encoded image
+     * @return InputStream of the encoded image
+     * @throws IOException image file could not be opened
+     */
+    private InputStream openInputStream() throws IOException {
+        if (imageBytes != null) {
+            return new ByteArrayInputStream(imageBytes);
+        }
+        InputStream is = context.getContentResolver().openInputStream(imageUri);
+        if (is == null) {
+            throw new IOException("Failed to open image file");
+        }
+        return is;
+    }
+
+    /**
+     * Starts decoding the image in background thread if it is not being decoded already. When
+     * image is decoded the view it is displayed in is redrawn.
+     */
+    private void requestDecode() {
+        if (decoding || failed) {
+            return;
+        }
+        decoding = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                decodeBitmap();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        decoding = false;
+                        View attachedView = view != null ? view.get() : null;
+                        if (attachedView != null) {
+                            attachedView.invalidate();
+                        }
+                        invalidateSelf();
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        paint.setAlpha(alpha);
+    }
+
+    @Override
+    public void setColorFilter(@Nullable ColorFilter colorFilter) {
+        paint.setColorFilter(colorFilter);
+    }
+}
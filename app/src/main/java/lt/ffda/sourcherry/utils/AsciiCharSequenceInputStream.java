@@ -0,0 +1,66 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.utils;
+
+import java.io.InputStream;
+
+/**
+ * InputStream that reads ASCII text straight from the CharSequence. Text is not copied, so it can
+ * be used to stream big Base64 encoded strings (through android.util.Base64InputStream) without
+ * converting the whole string to bytes. Only the lowest byte of every char is returned.
+ */
+public class AsciiCharSequenceInputStream extends InputStream {
+    private final CharSequence text;
+    private int position;
+
+    /**
+     * Creates InputStream that reads provided text
+     * @param text ASCII text to read
+     */
+    public AsciiCharSequenceInputStream(CharSequence text) {
+        this.text = text;
+    }
+
+    @Override
+    public int available() {
+        return text.length() - position;
+    }
+
+    @Override
+    public int read() {
+        if (position >= text.length()) {
+            return -1;
+        }
+        return text.charAt(position++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= text.length()) {
+            return -1;
+        }
+        int count = Math.min(len, text.length() - position);
+        for (int i = 0; i < count; i++) {
+            b[off + i] = (byte) text.charAt(position++);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, text.length() - position));
+        position += (int) skipped;
+        return skipped;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.utils;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import net.sf.sevenzipjbinding.IInStream;
+import net.sf.sevenzipjbinding.SevenZipException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * IInStream that reads 7z archive straight from the file that content uri points to, so archive
+ * does not have to be copied to app's storage before extraction. If document provider returns
+ * file descriptor that can't be seeked (pipe or socket) the file is copied to a temporary file
+ * and archive is read from it instead.
+ */
+public class ContentUriInStream implements IInStream, Closeable {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private final FileChannel channel;
+    private final File tmpFile;
+
+    /**
+     * Opens the file for reading
+     * @param contentResolver content resolver to open the file with
+     * @param uri uri of the archive
+     * @throws IOException failed to open the file or copy it to temporary file
+     */
+    public ContentUriInStream(ContentResolver contentResolver, Uri uri) throws IOException {
+        ParcelFileDescriptor parcelFileDescriptor = contentResolver.openFileDescriptor(uri, "r");
+        if (parcelFileDescriptor == null) {
+            throw new FileNotFoundException("Failed to open " + uri);
+        }
+        FileInputStream fileInputStream = new ParcelFileDescriptor.AutoCloseInputStream(parcelFileDescriptor);
+        if (parcelFileDescriptor.getStatSize() >= 0) {
+            tmpFile = null;
+            channel = fileInputStream.getChannel();
+        } else {
+            tmpFile = File.createTempFile("tmpDatabaseFile", null);
+            try (FileChannel source = fileInputStream.getChannel();
+                 FileChannel destination = new FileOutputStream(tmpFile).getChannel()) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        destination.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                tmpFile.delete();
+                throw e;
+            }
+            channel = new FileInputStream(tmpFile).getChannel();
+        }
+    }
+
+    /**
+     * Closes the file. Deletes temporary file if it was created.
+     * @throws IOException failed to close the file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    @Override
+    public int read(byte[] data) throws SevenZipException {
+        try {
+            int read = channel.read(ByteBuffer.wrap(data));
+            return read == -1 ? 0 : read;
+        } catch (IOException e) {
+            throw new SevenZipException("Error reading archive", e);
+        }
+    }
+
+    @Override
+    public long seek(long offset, int seekOrigin) throws SevenZipException {
+        try {
+            long position;
+            switch (seekOrigin) {
+                case SEEK_SET:
+                    position = offset;
+                    break;
+                case SEEK_CUR:
+                    position = channel.position() + offset;
+                    break;
+                case SEEK_END:
+                    position = channel.size() + offset;
+                    break;
+                default:
+                    throw new SevenZipException("Unknown seek origin: " + seekOrigin);
+            }
+            channel.position(position);
+            return position;
+        } catch (IOException e) {
+            throw new SevenZipException("Error seeking in archive", e);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.utils;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Properties;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Fingerprint of the shared database file that was copied or extracted to app-specific storage.
+ * It's saved next to the internal copy, so when the same shared database is opened again and
+ * neither it nor the internal copy changed, internal copy can be opened right away. Fingerprint
+ * consists of source file's uri, size, modification date and hash of its start, middle and end.
+ * For password protected databases salted hash of the password is saved too, so internal copy is
+ * reused only if the same password is entered.
+ */
+public class DatabaseFingerprint {
+    public static final String SUFFIX = "-fingerprint";
+    private static final int PASSWORD_HASH_ITERATIONS = 310000;
+    private static final int PASSWORD_HASH_LENGTH = 256;
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private final Properties properties;
+    // Password that was checked by matches() and its hash with the salt of this fingerprint
+    private String checkedPassword;
+    private String checkedPasswordHash;
+
+    private DatabaseFingerprint(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Collects fingerprint of the shared database file. Has to be called before file is copied or
+     * extracted, so changes made to the file while it's being copied would be detected.
+     * @param contentResolver content resolver to query the file with
+     * @param uri uri of the shared database file
+     * @param password password of the database. Null if database is not password protected.
+     * @param previous fingerprint of the same file that did not match or null. If matches() hashed
+     * the same password with current hashing parameters, its salt and hash are reused instead of
+     * hashing the password again.
+     * @return fingerprint or null if size of the file could not be found out
+     */
+    public static DatabaseFingerprint create(ContentResolver contentResolver, Uri uri, String password, DatabaseFingerprint previous) {
+        Properties properties = new Properties();
+        try {
+            if (!collectSourceProperties(contentResolver, uri, properties)) {
+                return null;
+            }
+            if (password != null && previous != null && previous.hasCurrentPasswordHash(password)) {
+                for (String key : new String[]{"passwordSalt", "passwordHashAlgorithm", "passwordHashIterations"}) {
+                    properties.setProperty(key, previous.properties.getProperty(key));
+                }
+                properties.setProperty("passwordHash", previous.checkedPasswordHash);
+            } else if (password != null) {
+                byte[] salt = new byte[16];
+                new SecureRandom().nextBytes(salt);
+                String saltHex = Files.bytesToHex(salt);
+                String algorithm = getPasswordHashAlgorithm();
+                properties.setProperty("passwordSalt", saltHex);
+                properties.setProperty("passwordHashAlgorithm", algorithm);
+                properties.setProperty("passwordHashIterations", String.valueOf(PASSWORD_HASH_ITERATIONS));
+                properties.setProperty("passwordHash", hashPassword(algorithm, PASSWORD_HASH_ITERATIONS, saltHex, password));
+            }
+        } catch (IOException | GeneralSecurityException | SecurityException e) {
+            return null;
+        }
+        properties.setProperty("sourceUri", uri.toString());
+        return new DatabaseFingerprint(properties);
+    }
+
+    /**
+     * Finds fingerprint of the shared database among the fingerprints saved in database directory
+     * @param databaseDir directory with internal copies of the databases
+     * @param uri uri of the shared database file
+     * @return fingerprint or null if shared database was never copied to the directory
+     */
+    public static DatabaseFingerprint find(File databaseDir, Uri uri) {
+        String[] filenames = databaseDir.list();
+        if (filenames == null) {
+            return null;
+        }
+        for (String filename : filenames) {
+            if (!filename.endsWith(SUFFIX)) {
+                continue;
+            }
+            Properties properties = new Properties();
+            try (InputStream inputStream = new FileInputStream(new File(databaseDir, filename))) {
+                properties.load(inputStream);
+            } catch (IOException e) {
+                continue;
+            }
+            if (uri.toString().equals(properties.getProperty("sourceUri"))) {
+                properties.setProperty("internalFile", new File(databaseDir, filename.substring(0, filename.length() - SUFFIX.length())).getPath());
+                return new DatabaseFingerprint(properties);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns algorithm that new password hashes are created with
+     * @return name of PBKDF2 algorithm
+     */
+    private static String getPasswordHashAlgorithm() {
+        // PBKDF2WithHmacSHA256 is available only from API 26
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? "PBKDF2WithHmacSHA256" : "PBKDF2WithHmacSHA1";
+    }
+
+    /**
+     * Writes size, modification date and sample hash of the file to properties
+     * @param contentResolver content resolver to query the file with
+     * @param uri uri of the file
+     * @param properties properties to write collected values to
+     * @return true - values were collected
+     * @throws IOException failed to read the file
+     * @throws NoSuchAlgorithmException failed to open MessageDigest instance
+     */
+    private static boolean collectSourceProperties(ContentResolver contentResolver, Uri uri, Properties properties) throws IOException, NoSuchAlgorithmException {
+        long size = -1;
+        long lastModified = 0;
+        try (Cursor cursor = contentResolver.query(uri, new String[]{OpenableColumns.SIZE, DocumentsContract.Document.COLUMN_LAST_MODIFIED}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                if (!cursor.isNull(0)) {
+                    size = cursor.getLong(0);
+                }
+                if (!cursor.isNull(1)) {
+                    lastModified = cursor.getLong(1);
+                }
+            }
+        }
+        if (size < 0) {
+            return false;
+        }
+        properties.setProperty("sourceSize", String.valueOf(size));
+        properties.setProperty("sourceLastModified", String.valueOf(lastModified));
+        properties.setProperty("sourceSampleHash", hashSamples(contentResolver, uri, size));
+        return true;
+    }
+
+    /**
+     * Calculates hash of the start, middle and end of the file. If file can't be seeked only start
+     * of the file is hashed.
+     * @param contentResolver content resolver to open the file with
+     * @param uri uri of the file
+     * @param size size of the file
+     * @return SHA-256 hash of the sampled data
+     * @throws IOException failed to read the file
+     * @throws NoSuchAlgorithmException failed to open MessageDigest instance
+     */
+    private static String hashSamples(ContentResolver contentResolver, Uri uri, long size) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        ParcelFileDescriptor parcelFileDescriptor = contentResolver.openFileDescriptor(uri, "r");
+        if (parcelFileDescriptor == null) {
+            throw new IOException("Failed to open " + uri);
+        }
+        boolean seekable = parcelFileDescriptor.getStatSize() >= 0;
+        try (FileChannel channel = new ParcelFileDescriptor.AutoCloseInputStream(parcelFileDescriptor).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+            long[] positions = seekable ? new long[]{0, Math.max(0, size / 2 - SAMPLE_SIZE / 2), Math.max(0, size - SAMPLE_SIZE)} : new long[]{0};
+            for (long position : positions) {
+                buffer.clear();
+                while (buffer.hasRemaining() && (seekable ? channel.read(buffer, position + buffer.position()) : channel.read(buffer)) != -1) {
+                    // Reading until sample is full or end of the file is reached
+                }
+                buffer.flip();
+                digest.update(buffer);
+            }
+        }
+        return Files.bytesToHex(digest.digest());
+    }
+
+    /**
+     * Derives a key from the password with PBKDF2, so saved hash can't be cheaply brute forced
+     * @param algorithm PBKDF2 algorithm name of SecretKeyFactory
+     * @param iterations iteration count
+     * @param saltHex salt as hexadecimal string
+     * @param password password to hash
+     * @return derived key as hexadecimal string
+     * @throws GeneralSecurityException algorithm is not available or key could not be derived
+     */
+    private static String hashPassword(String algorithm, int iterations, String saltHex, String password) throws GeneralSecurityException {
+        PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray(), saltHex.getBytes(StandardCharsets.UTF_8), iterations, PASSWORD_HASH_LENGTH);
+        try {
+            return Files.bytesToHex(SecretKeyFactory.getInstance(algorithm).generateSecret(keySpec).getEncoded());
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    /**
+     * Returns internal copy of the database fingerprint was saved for
+     * @return internal database file or null if fingerprint was not saved yet
+     */
+    public File getInternalFile() {
+        String internalFile = properties.getProperty("internalFile");
+        return internalFile == null ? null : new File(internalFile);
+    }
+
+    /**
+     * Checks if matches() hashed the password with the parameters that new fingerprints use
+     * @param password password of the database
+     * @return true - salt and hash of this fingerprint can be used for the new one
+     */
+    private boolean hasCurrentPasswordHash(String password) {
+        return checkedPasswordHash != null && password.equals(checkedPassword)
+                && getPasswordHashAlgorithm().equals(properties.getProperty("passwordHashAlgorithm"))
+                && String.valueOf(PASSWORD_HASH_ITERATIONS).equals(properties.getProperty("passwordHashIterations"));
+    }
+
+    /**
+     * Checks if shared database and its internal copy did not change since fingerprint was saved.
+     * Source file is checked before the password, so password is not hashed if file changed.
+     * @param contentResolver content resolver to query shared database file with
+     * @param password password entered by user. Null if database is not password protected.
+     * @return true - internal copy can be opened instead of copying or extracting shared database again
+     */
+    public boolean matches(ContentResolver contentResolver, String password) {
+        File internalFile = getInternalFile();
+        if (internalFile == null || !internalFile.exists()
+                || !String.valueOf(internalFile.length()).equals(properties.getProperty("internalLength"))
+                || !String.valueOf(internalFile.lastModified()).equals(properties.getProperty("internalLastModified"))) {
+            // Internal copy was changed or deleted
+            return false;
+        }
+        try {
+            String passwordSalt = properties.getProperty("passwordSalt");
+            if ((password == null) != (passwordSalt == null)) {
+                return false;
+            }
+            Properties current = new Properties();
+            if (!collectSourceProperties(contentResolver, Uri.parse(properties.getProperty("sourceUri")), current)
+                    || !current.getProperty("sourceSize").equals(properties.getProperty("sourceSize"))
+                    || !current.getProperty("sourceLastModified").equals(properties.getProperty("sourceLastModified"))
+                    || !current.getProperty("sourceSampleHash").equals(properties.getProperty("sourceSampleHash"))) {
+                return false;
+            }
+            if (password != null) {
+                String algorithm = properties.getProperty("passwordHashAlgorithm");
+                String iterations = properties.getProperty("passwordHashIterations");
+                if (algorithm == null || iterations == null) {
+                    // Fingerprints saved with older hashing are not trusted
+                    return false;
+                }
+                checkedPassword = password;
+                checkedPasswordHash = hashPassword(algorithm, Integer.parseInt(iterations), passwordSalt, password);
+                return checkedPasswordHash.equals(properties.getProperty("passwordHash"));
+            }
+            return true;
+        } catch (IOException | GeneralSecurityException | NumberFormatException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Saves fingerprint next to the internal copy of the database. Has to be called after database
+     * was copied or extracted.
+     * @param internalFile internal copy of the database
+     */
+    public void save(File internalFile) {
+        properties.setProperty("internalLength", String.valueOf(internalFile.length()));
+        properties.setProperty("internalLastModified", String.valueOf(internalFile.lastModified()));
+        properties.remove("internalFile");
+        File fingerprintFile = new File(internalFile.getPath() + SUFFIX);
+        try (OutputStream outputStream = new FileOutputStream(fingerprintFile)) {
+            properties.store(outputStream, null);
+        } catch (IOException e) {
+            fingerprintFile.delete();
+        }
+    }
+}
@@ -26,6 +26,19 @@ import lt.ffda.sourcherry.model.FileInfo;
  */
 public class Files {
 
+    /**
+     * Converts bytes to lowercase hexadecimal string
+     * @param bytes bytes to convert
+     * @return hexadecimal string
+     */
+    public static String bytesToHex(byte[] bytes) {
+        StringBuilder hexString = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hexString.append(String.format("%02x", b));
+        }
+        return hexString.toString();
+    }
+
     /**
      * Returns file's sha256sum
      * @param inputStream input stream of the file
@@ -39,12 +52,7 @@ public class Files {
         while ((length = inputStream.read(buf, 0, buf.length)) != -1) {
             digest.update(buf, 0, length);
         }
-        byte[] hash = digest.digest();
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hash) {
-            hexString.append(String.format("%02x", b));
-        }
-        return hexString.toString();
+        return bytesToHex(digest.digest());
     }
 
     /**
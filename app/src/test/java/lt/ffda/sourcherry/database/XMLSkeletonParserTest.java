@@ -0,0 +1,250 @@
+/*
+ * This file is part of SourCherry.
+ *
+ * SourCherry is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * SourCherry is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SourCherry. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package lt.ffda.sourcherry.database;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Reads sample CherryTree XML database with XMLSkeletonParser, writes it back with
+ * XMLSkeletonWriter and checks that the nodes, their attributes and the tree did not change
+ */
+public class XMLSkeletonParserTest {
+    private static final String SAMPLE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<cherrytree>\n"
+            + "  <bookmarks list=\"3,2\"/>\n"
+            + "  <node name=\"Main &amp; &quot;first&quot;\" unique_id=\"1\" prog_lang=\"custom-colors\" tags=\"a b\" readonly=\"0\" nosearch_me=\"0\" nosearch_ch=\"0\" custom_icon_id=\"0\" is_bold=\"1\" foreground=\"#ff0000\" ts_creation=\"1\" ts_lastsave=\"2\">\n"
+            + "    <rich_text>Text with &lt;tag&gt; and ąčę</rich_text><rich_text weight=\"heavy\">bold</rich_text>\n"
+            + "    <node name=\"Child\" unique_id=\"2\" prog_lang=\"custom-colors\" tags=\"\" readonly=\"1\" nosearch_me=\"0\" nosearch_ch=\"1\" custom_icon_id=\"12\" is_bold=\"0\" foreground=\"\" ts_creation=\"3\" ts_lastsave=\"4\">\n"
+            + "      <rich_text>child text</rich_text>\n"
+            + "      <codebox char_offset=\"3\" justification=\"left\" frame_width=\"500\" frame_height=\"100\" width_in_pixels=\"1\" syntax_highlighting=\"sh\" highlight_brackets=\"1\" show_line_numbers=\"0\">echo &amp;</codebox>\n"
+            + "      <node name=\"Grandchild\" unique_id=\"3\" prog_lang=\"python3\" tags=\"\" readonly=\"0\" nosearch_me=\"1\" nosearch_ch=\"0\" custom_icon_id=\"0\" is_bold=\"0\" foreground=\"\" ts_creation=\"5\" ts_lastsave=\"6\">\n"
+            + "        <rich_text>print(1)</rich_text>\n"
+            + "      </node>\n"
+            + "    </node>\n"
+            + "  </node>\n"
+            + "  <node name=\"Empty\" unique_id=\"4\" prog_lang=\"plain-text\" tags=\"\" readonly=\"0\" nosearch_me=\"0\" nosearch_ch=\"0\" custom_icon_id=\"0\" is_bold=\"0\" foreground=\"\" ts_creation=\"7\" ts_lastsave=\"8\"/>\n"
+            + "</cherrytree>\n";
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Checks that both elements have the same name, attributes and the same child elements in
+     * the same order
+     * @param expected expected element
+     * @param actual actual element
+     */
+    private void assertSameTree(Element expected, Element actual) {
+        assertEquals(expected.getNodeName(), actual.getNodeName());
+        assertEquals(getAttributes(expected), getAttributes(actual));
+        List<Element> expectedChildren = getChildElements(expected);
+        List<Element> actualChildren = getChildElements(actual);
+        assertEquals(expectedChildren.size(), actualChildren.size());
+        for (int i = 0; i < expectedChildren.size(); i++) {
+            assertSameTree(expectedChildren.get(i), actualChildren.get(i));
+        }
+    }
+
+    /**
+     * Returns attributes of the element
+     * @param element element to get attributes of
+     * @return map where key is attribute name
+     */
+    private Map<String, String> getAttributes(Element element) {
+        Map<String, String> attributes = new HashMap<>();
+        NamedNodeMap namedNodeMap = element.getAttributes();
+        for (int i = 0; i < namedNodeMap.getLength(); i++) {
+            attributes.put(namedNodeMap.item(i).getNodeName(), namedNodeMap.item(i).getNodeValue());
+        }
+        return attributes;
+    }
+
+    /**
+     * Returns content of the node from the database file using its byte ranges
+     * @param file database file
+     * @param ranges byte ranges of the node content
+     * @return content of the node
+     */
+    private String getBody(File file, long[] ranges) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (FileInputStream fis = new FileInputStream(file)) {
+            XMLSkeletonParser.copyRanges(fis.getChannel(), ranges, os);
+        }
+        return new String(os.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns child elements of the node
+     * @param node node to get child elements of
+     * @return list of child elements
+     */
+    private List<Element> getChildElements(Node node) {
+        List<Element> elements = new ArrayList<>();
+        NodeList nodeList = node.getChildNodes();
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            if (nodeList.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                elements.add((Element) nodeList.item(i));
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Creates empty document
+     * @return empty document
+     */
+    private Document newDocument() throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    }
+
+    /**
+     * Parses the file with XMLSkeletonParser
+     * @param file database file
+     * @param bodyRanges map to add node content byte ranges to
+     * @return skeleton document
+     */
+    private Document parse(File file, Map<String, long[]> bodyRanges) throws Exception {
+        Document doc = newDocument();
+        try (InputStream is = new FileInputStream(file)) {
+            new XMLSkeletonParser(is).parse(doc, bodyRanges);
+        }
+        return doc;
+    }
+
+    /**
+     * Writes skeleton document into a new file with XMLSkeletonWriter
+     * @param doc skeleton document
+     * @param source file the document was parsed from
+     * @param bodyRanges node content byte ranges in the source file
+     * @param loadedNodes unique IDs of the nodes which content is loaded in to the document
+     * @param newBodyRanges map to add node content byte ranges of the new file to
+     * @return new database file
+     */
+    private File write(Document doc, File source, Map<String, long[]> bodyRanges, Set<String> loadedNodes, Map<String, long[]> newBodyRanges) throws IOException {
+        File file = temporaryFolder.newFile();
+        try (FileInputStream fis = new FileInputStream(source);
+             FileChannel channel = fis.getChannel();
+             OutputStream os = new FileOutputStream(file)) {
+            XMLSkeletonWriter writer = new XMLSkeletonWriter(channel, bodyRanges, loadedNodes, os);
+            writer.write(doc);
+            newBodyRanges.putAll(writer.getBodyRanges());
+        }
+        return file;
+    }
+
+    /**
+     * Writes sample database in to a file
+     * @return sample database file
+     */
+    private File writeSample() throws IOException {
+        File file = temporaryFolder.newFile();
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(SAMPLE.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    @Test
+    public void parseKeepsAttributesAndTree() throws Exception {
+        Document skeleton = newDocument();
+        Map<String, long[]> bodyRanges = new HashMap<>();
+        new XMLSkeletonParser(new ByteArrayInputStream(SAMPLE.getBytes(StandardCharsets.UTF_8))).parse(skeleton, bodyRanges);
+        // Same document parsed with DOM parser without node content
+        Document full = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(SAMPLE.getBytes(StandardCharsets.UTF_8)));
+        NodeList nodeList = full.getElementsByTagName("node");
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            for (Element element : getChildElements(nodeList.item(i))) {
+                if (!element.getNodeName().equals("node")) {
+                    nodeList.item(i).removeChild(element);
+                }
+            }
+        }
+        assertSameTree(full.getDocumentElement(), skeleton.getDocumentElement());
+        assertEquals("Main & \"first\"", ((Element) skeleton.getElementsByTagName("node").item(0)).getAttribute("name"));
+        assertEquals(3, bodyRanges.size());
+        assertNull(bodyRanges.get("4"));
+    }
+
+    @Test
+    public void writeKeepsAttributesTreeAndContent() throws Exception {
+        File source = writeSample();
+        Map<String, long[]> bodyRanges = new HashMap<>();
+        Document skeleton = parse(source, bodyRanges);
+        Map<String, long[]> newBodyRanges = new HashMap<>();
+        File written = write(skeleton, source, bodyRanges, Collections.<String>emptySet(), newBodyRanges);
+
+        Map<String, long[]> writtenBodyRanges = new HashMap<>();
+        Document writtenSkeleton = parse(written, writtenBodyRanges);
+        assertSameTree(skeleton.getDocumentElement(), writtenSkeleton.getDocumentElement());
+        assertEquals(bodyRanges.keySet(), writtenBodyRanges.keySet());
+        for (String nodeUniqueID : bodyRanges.keySet()) {
+            assertArrayEquals(writtenBodyRanges.get(nodeUniqueID), newBodyRanges.get(nodeUniqueID));
+            assertEquals(getBody(source, bodyRanges.get(nodeUniqueID)), getBody(written, writtenBodyRanges.get(nodeUniqueID)));
+        }
+        // Written file has to be valid XML too
+        assertNotNull(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(written).getDocumentElement());
+    }
+
+    @Test
+    public void writeSerializesLoadedNodes() throws Exception {
+        File source = writeSample();
+        Map<String, long[]> bodyRanges = new HashMap<>();
+        Document skeleton = parse(source, bodyRanges);
+        Element child = (Element) skeleton.getElementsByTagName("node").item(1);
+        Element richText = skeleton.createElement("rich_text");
+        richText.setAttribute("style", "italic");
+        richText.appendChild(skeleton.createTextNode("new <text> & more"));
+        child.insertBefore(richText, child.getFirstChild());
+        Set<String> loadedNodes = new HashSet<>();
+        loadedNodes.add("2");
+        File written = write(skeleton, source, bodyRanges, loadedNodes, new HashMap<String, long[]>());
+
+        Map<String, long[]> writtenBodyRanges = new HashMap<>();
+        Document writtenSkeleton = parse(written, writtenBodyRanges);
+        child.removeChild(richText);
+        assertSameTree(skeleton.getDocumentElement(), writtenSkeleton.getDocumentElement());
+        assertEquals("<rich_text style=\"italic\">new &lt;text&gt; &amp; more</rich_text>", getBody(written, writtenBodyRanges.get("2")));
+        assertEquals(getBody(source, bodyRanges.get("3")), getBody(written, writtenBodyRanges.get("3")));
+        assertFalse(getBody(written, writtenBodyRanges.get("1")).isEmpty());
+    }
+}